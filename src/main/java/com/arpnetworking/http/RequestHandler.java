@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.http;
+
+import akka.http.javadsl.model.HttpRequest;
+import akka.http.javadsl.model.HttpResponse;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Handles the HTTP requests of an actor on the calling thread rather than
+ * through the mailbox of the actor. An actor which handles
+ * <code>RequestReply</code> messages replies to
+ * <code>GET_REQUEST_HANDLER</code> with its <code>RequestHandler</code> so
+ * the routes can dispatch requests to it directly. Implementations must be
+ * thread safe.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public interface RequestHandler {
+
+    /**
+     * Handle an HTTP request.
+     *
+     * @param request the request
+     * @return the eventual response
+     */
+    CompletionStage<HttpResponse> handle(HttpRequest request);
+
+    /**
+     * Whether the handler no longer accepts requests; for example, because
+     * its actor was stopped. The actor should be asked for its current
+     * handler instead.
+     *
+     * @return true if and only if the handler is closed
+     */
+    boolean isClosed();
+
+    /**
+     * Message to request the <code>RequestHandler</code> of an actor.
+     */
+    String GET_REQUEST_HANDLER = "getRequestHandler";
+}
@@ -57,6 +57,7 @@ import com.arpnetworking.steno.LoggerFactory;
 import com.google.common.base.Charsets;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import com.google.common.io.Resources;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import scala.concurrent.duration.FiniteDuration;
@@ -66,6 +67,7 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
@@ -249,17 +251,35 @@ public final class Routes implements Function<HttpRequest, CompletionStage<HttpR
     }
 
     private CompletionStage<HttpResponse> dispatchHttpRequest(final HttpRequest request, final String actorName) {
-        final CompletionStage<ActorRef> refFuture = _actorSystem.actorSelection(actorName)
-                .resolveOneCS(FiniteDuration.create(1, TimeUnit.SECONDS));
-        return refFuture.thenCompose(
-                ref -> {
-                    final CompletableFuture<HttpResponse> response = new CompletableFuture<>();
-                    ref.tell(new RequestReply(request, response), ActorRef.noSender());
-                    return response;
+        return dispatchHttpRequest(request, actorName, true);
+    }
+
+    private CompletionStage<HttpResponse> dispatchHttpRequest(
+            final HttpRequest request,
+            final String actorName,
+            final boolean retryClosed) {
+        // The request handler of each source's actor is resolved once so
+        // requests do not pass through the actor
+        final CompletionStage<RequestHandler> handlerFuture =
+                _requestHandlers.computeIfAbsent(actorName, this::resolveRequestHandler);
+        return handlerFuture.thenCompose(
+                handler -> {
+                    if (handler.isClosed()) {
+                        // The source was stopped; for example, when its pipeline was reloaded.
+                        // The handler of the source which replaced it is resolved once.
+                        _requestHandlers.remove(actorName, handlerFuture);
+                        if (retryClosed) {
+                            return dispatchHttpRequest(request, actorName, false);
+                        }
+                        return CompletableFuture.completedFuture(
+                                HttpResponse.create().withStatus(StatusCodes.SERVICE_UNAVAILABLE));
+                    }
+                    return handler.handle(request);
                 })
                 // We return 404 here since actor startup is controlled by config and
                 // the actors may not be running.
                 .exceptionally(err -> {
+                    _requestHandlers.remove(actorName, handlerFuture);
                     final Throwable cause = err.getCause();
                     if (cause instanceof ActorNotFound) {
                         return HttpResponse.create().withStatus(StatusCodes.NOT_FOUND);
@@ -273,6 +293,13 @@ public final class Routes implements Function<HttpRequest, CompletionStage<HttpR
                 });
     }
 
+    private CompletionStage<RequestHandler> resolveRequestHandler(final String actorName) {
+        return _actorSystem.actorSelection(actorName)
+                .resolveOneCS(FiniteDuration.create(1, TimeUnit.SECONDS))
+                .thenCompose(ref -> PatternsCS.ask(ref, RequestHandler.GET_REQUEST_HANDLER, Timeout.apply(1, TimeUnit.SECONDS)))
+                .thenApply(RequestHandler.class::cast);
+    }
+
     private CompletionStage<HttpResponse> getHttpResponseForTelemetry(
             final HttpRequest request,
             final MessageProcessorsFactory messageProcessorsFactory) {
@@ -338,6 +365,8 @@ public final class Routes implements Function<HttpRequest, CompletionStage<HttpR
     private final String _statusPath;
     @SuppressFBWarnings("SE_BAD_FIELD")
     private final ImmutableList<SupplementalRoutes> _supplementalRoutes;
+    @SuppressFBWarnings("SE_BAD_FIELD")
+    private final ConcurrentMap<String, CompletionStage<RequestHandler>> _requestHandlers = Maps.newConcurrentMap();
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Routes.class);
 
@@ -16,46 +16,54 @@
 package com.arpnetworking.metrics.common.sources;
 
 import akka.Done;
-import akka.NotUsed;
 import akka.actor.AbstractActor;
+import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.http.javadsl.model.HttpHeader;
 import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.HttpResponse;
-import akka.http.javadsl.model.RequestEntity;
-import akka.japi.Pair;
 import akka.stream.ActorMaterializer;
 import akka.stream.ActorMaterializerSettings;
-import akka.stream.FanInShape2;
-import akka.stream.FlowShape;
-import akka.stream.Graph;
 import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
 import akka.stream.Supervision;
-import akka.stream.UniformFanOutShape;
-import akka.stream.javadsl.Broadcast;
-import akka.stream.javadsl.Flow;
-import akka.stream.javadsl.GraphDSL;
 import akka.stream.javadsl.Keep;
 import akka.stream.javadsl.Sink;
-import akka.stream.javadsl.Zip;
+import akka.stream.javadsl.SourceQueueWithComplete;
 import akka.util.ByteString;
+import com.arpnetworking.http.RequestHandler;
 import com.arpnetworking.http.RequestReply;
+import com.arpnetworking.metrics.Units;
 import com.arpnetworking.metrics.common.parsers.Parser;
 import com.arpnetworking.metrics.common.parsers.exceptions.ParsingException;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.utility.PolledMetricsRegistration;
+import com.fasterxml.jackson.annotation.JacksonInject;
 import com.google.common.collect.ImmutableMultimap;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 
 import java.time.Duration;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
- * Source that uses HTTP POSTs as input.
+ * Source that uses HTTP POSTs as input. The requests are queued for one
+ * stream, materialized when the source's actor starts, which reads and
+ * parses a configurable number of requests in parallel. When the queue is
+ * full requests are rejected with <code>429 Too Many Requests</code> and
+ * once the source is stopping with <code>503 Service Unavailable</code>.
  *
  * @author Brandon Arp (brandon dot arp at inscopemetrics dot io)
  */
@@ -74,12 +82,38 @@ public class HttpSource extends ActorSource {
     protected HttpSource(final Builder<?, ? extends HttpSource> builder) {
         super(builder);
         _parser = builder._parser;
+        _parallelism = builder._parallelism;
+        _queueCapacity = builder._queueCapacity;
+        _periodicMetrics = Optional.ofNullable(builder._periodicMetrics);
+        _metricPrefix = "sources/http/" + getMetricSafeName() + "/";
+        _latencyMetricName = _metricPrefix + "request_latency";
+    }
+
+    private void recordPolledMetrics(final PeriodicMetrics periodicMetrics) {
+        periodicMetrics.recordCounter(_metricPrefix + "requests_rejected", _rejectedCount.getAndSet(0));
+        periodicMetrics.recordCounter(_metricPrefix + "requests_invalid", _invalidCount.getAndSet(0));
+        periodicMetrics.recordGauge(_metricPrefix + "requests_pending", _pendingCount.get());
     }
 
     private final Parser<List<Record>, com.arpnetworking.metrics.mad.model.HttpRequest> _parser;
+    private final int _parallelism;
+    private final int _queueCapacity;
+    private final Optional<PeriodicMetrics> _periodicMetrics;
+    private final String _metricPrefix;
+    private final String _latencyMetricName;
+    private final AtomicLong _rejectedCount = new AtomicLong(0);
+    private final AtomicLong _invalidCount = new AtomicLong(0);
+    private final AtomicInteger _pendingCount = new AtomicInteger(0);
+
+    private static final Duration BODY_TIMEOUT = Duration.ofMinutes(1);
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpSource.class);
+    private static final Logger BAD_REQUEST_LOGGER =
+            LoggerFactory.getRateLimitLogger(HttpSource.class, Duration.ofSeconds(30));
 
     /**
-     * Internal actor to process requests.
+     * Internal actor to process requests. The actor only hands out its
+     * <code>RequestHandler</code> and closes it when stopped; requests
+     * sent to the actor itself are passed to the handler.
      */
     /* package private */ static final class Actor extends AbstractActor {
         /**
@@ -95,87 +129,155 @@ public class HttpSource extends ActorSource {
         @Override
         public Receive createReceive() {
             return receiveBuilder()
-                    .match(RequestReply.class, requestReply -> {
-                        // TODO(barp): Fix the ugly HttpRequest cast here due to java vs scala dsl
-                        akka.stream.javadsl.Source.single(requestReply.getRequest())
-                                .via(_processGraph)
-                                .toMat(_sink, Keep.right())
-                                .run(_materializer)
-                                .whenComplete((done, err) -> {
-                                    final CompletableFuture<HttpResponse> responseFuture = requestReply.getResponse();
-                                    if (err == null) {
-                                        responseFuture.complete(HttpResponse.create().withStatus(200));
-                                    } else {
-                                        BAD_REQUEST_LOGGER.warn()
-                                                .setMessage("Error handling http post")
-                                                .setThrowable(err)
-                                                .log();
-                                        if (err instanceof ParsingException) {
-                                            responseFuture.complete(HttpResponse.create().withStatus(400));
-                                        } else {
-                                            responseFuture.complete(HttpResponse.create().withStatus(500));
-                                        }
-                                    }
-                                });
-                    })
+                    .match(RequestReply.class, _requestHandler::offer)
+                    .matchEquals(RequestHandler.GET_REQUEST_HANDLER, message -> getSender().tell(_requestHandler, getSelf()))
                     .build();
         }
 
+        @Override
+        public void preStart() throws Exception {
+            super.preStart();
+            // NOTE: Registered while the actor lives so a stopped source is
+            // neither sampled nor retained by the metrics
+            _polledMetricsRegistration = _source._periodicMetrics.map(periodicMetrics ->
+                    PolledMetricsRegistration.register(periodicMetrics, _source, HttpSource::recordPolledMetrics));
+        }
+
+        @Override
+        public void postStop() throws Exception {
+            _polledMetricsRegistration.ifPresent(PolledMetricsRegistration::unregister);
+            _polledMetricsRegistration = Optional.empty();
+            _requestHandler.close();
+            super.postStop();
+        }
+
         /**
          * Constructor.
          *
          * @param source The {@link HttpSource} to send notifications through.
          */
         /* package private */ Actor(final HttpSource source) {
-            _parser = source._parser;
-            _sink = Sink.foreach(source::notify);
+            _source = source;
+            _requestHandler = new QueueRequestHandler(source, context().system());
+        }
+
+        private Optional<PolledMetricsRegistration<HttpSource>> _polledMetricsRegistration = Optional.empty();
+
+        private final HttpSource _source;
+        private final QueueRequestHandler _requestHandler;
+    }
+
+    // Queues the requests for a stream which reads and parses them in
+    // parallel. The stream outlives the actor so the queued requests are
+    // completed after the handler is closed.
+    private static final class QueueRequestHandler implements RequestHandler {
+
+        /* package private */ QueueRequestHandler(final HttpSource source, final ActorSystem actorSystem) {
+            _source = source;
+            _executor = actorSystem.dispatcher();
             _materializer = ActorMaterializer.create(
-                    ActorMaterializerSettings.create(context().system())
-                            .withSupervisionStrategy(Supervision.stoppingDecider()),
-                    context());
-
-            _processGraph = GraphDSL.create(builder -> {
-
-                // Flows
-                final Flow<HttpRequest, ByteString, NotUsed> getBodyFlow = Flow.<HttpRequest>create()
-                        .map(HttpRequest::entity)
-                        .flatMapConcat(RequestEntity::getDataBytes)
-                        .reduce(ByteString::concat)
-                        .named("getBody");
-
-                final Flow<HttpRequest, ImmutableMultimap<String, String>, NotUsed> getHeadersFlow = Flow.<HttpRequest>create()
-                        .map(HttpRequest::getHeaders)
-                        .map(Actor::createHeaderMultimap) // Transform to array form
-                        .named("getHeaders");
-
-                final Flow<Pair<ByteString, ImmutableMultimap<String, String>>, Record, NotUsed> createAndParseFlow =
-                        Flow.<Pair<ByteString, ImmutableMultimap<String, String>>>create()
-                                .map(Actor::mapModel)
-                                .mapConcat(this::parseRecords) // Parse the json string into a record builder
-                                // NOTE: this should be _parser::parse, but aspectj NPEs with that currently
-                                .named("createAndParseRequest");
-
-                // Shapes
-                final UniformFanOutShape<HttpRequest, HttpRequest> split = builder.add(Broadcast.create(2));
-
-                final FlowShape<HttpRequest, ByteString> getBody = builder.add(getBodyFlow);
-                final FlowShape<HttpRequest, ImmutableMultimap<String, String>> getHeaders = builder.add(getHeadersFlow);
-                final FanInShape2<
-                        ByteString,
-                        ImmutableMultimap<String, String>,
-                        Pair<ByteString, ImmutableMultimap<String, String>>> join = builder.add(Zip.create());
-                final FlowShape<Pair<ByteString, ImmutableMultimap<String, String>>, Record> createRequest =
-                        builder.add(createAndParseFlow);
-
-                // Wire the shapes
-                builder.from(split.out(0)).via(getBody).toInlet(join.in0()); // Split to get the body bytes
-                builder.from(split.out(1)).via(getHeaders).toInlet(join.in1()); // Split to get the headers
-                builder.from(join.out()).toInlet(createRequest.in()); // Join to create the Request and parse it
-
-                return new FlowShape<>(split.in(), createRequest.out());
+                    ActorMaterializerSettings.create(actorSystem)
+                            .withSupervisionStrategy(Supervision.resumingDecider()),
+                    actorSystem);
+            _queue = akka.stream.javadsl.Source.<PendingRequest>queue(source._queueCapacity, OverflowStrategy.dropNew())
+                    .mapAsyncUnordered(source._parallelism, this::process)
+                    .toMat(Sink.ignore(), Keep.left())
+                    .run(_materializer);
+            _queue.watchCompletion().whenComplete((done, failure) -> _materializer.shutdown());
+        }
+
+        @Override
+        public CompletionStage<HttpResponse> handle(final HttpRequest request) {
+            final CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+            offer(new RequestReply(request, response));
+            return response;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return _isClosed;
+        }
+
+        /* package private */ void offer(final RequestReply requestReply) {
+            final PendingRequest pendingRequest = new PendingRequest(requestReply, System.nanoTime());
+            _source._pendingCount.incrementAndGet();
+            _queue.offer(pendingRequest).whenComplete((result, failure) -> {
+                if (failure == null && QueueOfferResult.Enqueued$.MODULE$.equals(result)) {
+                    return;
+                }
+                _source._pendingCount.decrementAndGet();
+                if (failure == null && QueueOfferResult.Dropped$.MODULE$.equals(result)) {
+                    _source._rejectedCount.incrementAndGet();
+                    respond(pendingRequest, TOO_MANY_REQUESTS);
+                } else {
+                    // The queue is closed since the source is stopping
+                    respond(pendingRequest, SERVICE_UNAVAILABLE);
+                }
             });
         }
 
+        /* package private */ void close() {
+            _isClosed = true;
+            _queue.complete();
+        }
+
+        private CompletionStage<Done> process(final PendingRequest pendingRequest) {
+            final HttpRequest request = pendingRequest.getRequestReply().getRequest();
+            CompletionStage<List<Record>> records;
+            try {
+                // Reading a strict entity, as most posts are, completes immediately
+                records = request.entity()
+                        .toStrict(BODY_TIMEOUT.toMillis(), _materializer)
+                        .thenApplyAsync(entity -> parse(request, entity.getData()), _executor);
+            // CHECKSTYLE.OFF: IllegalCatch - The stream must not fail on any one request
+            } catch (final RuntimeException e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                final CompletableFuture<List<Record>> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                records = failed;
+            }
+            return records.handle((parsedRecords, failure) -> {
+                _source._pendingCount.decrementAndGet();
+                if (failure == null) {
+                    respond(pendingRequest, OK);
+                } else {
+                    final Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause()
+                            : failure;
+                    BAD_REQUEST_LOGGER.warn()
+                            .setMessage("Error handling http post")
+                            .addData("source", _source)
+                            .setThrowable(cause)
+                            .log();
+                    if (cause instanceof ParsingException) {
+                        _source._invalidCount.incrementAndGet();
+                        respond(pendingRequest, BAD_REQUEST);
+                    } else {
+                        respond(pendingRequest, INTERNAL_SERVER_ERROR);
+                    }
+                }
+                _source._periodicMetrics.ifPresent(metrics -> metrics.recordTimer(
+                        _source._latencyMetricName,
+                        System.nanoTime() - pendingRequest.getStartNanos(),
+                        Optional.of(Units.NANOSECOND)));
+                return Done.getInstance();
+            });
+        }
+
+        private List<Record> parse(final HttpRequest request, final ByteString body) {
+            final List<Record> records;
+            try {
+                records = _source._parser.parse(
+                        new com.arpnetworking.metrics.mad.model.HttpRequest(createHeaderMultimap(request.getHeaders()), body));
+            } catch (final ParsingException e) {
+                throw new CompletionException(e);
+            }
+            for (final Record record : records) {
+                _source.notify(record);
+            }
+            return records;
+        }
+
         private static ImmutableMultimap<String, String> createHeaderMultimap(final Iterable<HttpHeader> headers) {
             final ImmutableMultimap.Builder<String, String> headersBuilder = ImmutableMultimap.builder();
 
@@ -186,23 +288,46 @@ public class HttpSource extends ActorSource {
             return headersBuilder.build();
         }
 
-        private static com.arpnetworking.metrics.mad.model.HttpRequest mapModel(
-                final Pair<ByteString, ImmutableMultimap<String, String>> pair) {
-            return new com.arpnetworking.metrics.mad.model.HttpRequest(pair.second(), pair.first());
+        private static void respond(final PendingRequest pendingRequest, final int status) {
+            if (!pendingRequest.getRequestReply().getResponse().complete(HttpResponse.create().withStatus(status))) {
+                LOGGER.debug()
+                        .setMessage("Http post already completed")
+                        .addData("status", status)
+                        .log();
+            }
         }
 
-        private List<Record> parseRecords(final com.arpnetworking.metrics.mad.model.HttpRequest request)
-                throws ParsingException {
-            return _parser.parse(request);
-        }
+        private volatile boolean _isClosed = false;
 
-        private final Sink<Record, CompletionStage<Done>> _sink;
-        private final Parser<List<Record>, com.arpnetworking.metrics.mad.model.HttpRequest> _parser;
+        private final HttpSource _source;
+        private final Executor _executor;
         private final Materializer _materializer;
-        private final Graph<FlowShape<HttpRequest, Record>, NotUsed> _processGraph;
+        private final SourceQueueWithComplete<PendingRequest> _queue;
 
-        private static final Logger BAD_REQUEST_LOGGER =
-                LoggerFactory.getRateLimitLogger(HttpSource.class, Duration.ofSeconds(30));
+        private static final int OK = 200;
+        private static final int BAD_REQUEST = 400;
+        private static final int TOO_MANY_REQUESTS = 429;
+        private static final int INTERNAL_SERVER_ERROR = 500;
+        private static final int SERVICE_UNAVAILABLE = 503;
+    }
+
+    private static final class PendingRequest {
+
+        /* package private */ PendingRequest(final RequestReply requestReply, final long startNanos) {
+            _requestReply = requestReply;
+            _startNanos = startNanos;
+        }
+
+        public RequestReply getRequestReply() {
+            return _requestReply;
+        }
+
+        public long getStartNanos() {
+            return _startNanos;
+        }
+
+        private final RequestReply _requestReply;
+        private final long _startNanos;
     }
 
     /**
@@ -235,7 +360,53 @@ public class HttpSource extends ActorSource {
             return self();
         }
 
+        /**
+         * Sets the number of requests read and parsed in parallel. Optional.
+         * Cannot be null. Must be at least 1. Default is the number of
+         * processors.
+         *
+         * @param value the number of requests processed in parallel
+         * @return This builder
+         */
+        public B setParallelism(final Integer value) {
+            _parallelism = value;
+            return self();
+        }
+
+        /**
+         * Sets the capacity of the queue of requests awaiting processing;
+         * requests beyond it are rejected. Optional. Cannot be null. Must be
+         * at least 1. Default is 1,000.
+         *
+         * @param value the queue capacity
+         * @return This builder
+         */
+        public B setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return self();
+        }
+
+        /**
+         * Sets the <code>PeriodicMetrics</code> instance to record request
+         * latency and rejections with. Optional. Default is no metrics.
+         *
+         * @param value the <code>PeriodicMetrics</code> instance
+         * @return This builder
+         */
+        public B setPeriodicMetrics(final PeriodicMetrics value) {
+            _periodicMetrics = value;
+            return self();
+        }
+
         @NotNull
         private Parser<List<Record>, com.arpnetworking.metrics.mad.model.HttpRequest> _parser;
+        @NotNull
+        @Min(1)
+        private Integer _parallelism = Runtime.getRuntime().availableProcessors();
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = 1000;
+        @JacksonInject
+        private PeriodicMetrics _periodicMetrics;
     }
 }
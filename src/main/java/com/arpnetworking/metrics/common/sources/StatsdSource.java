@@ -18,35 +18,206 @@ package com.arpnetworking.metrics.common.sources;
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.io.Inet;
 import akka.io.Udp;
 import akka.io.UdpMessage;
+import akka.io.UdpSO;
+import akka.util.ByteString;
 import com.arpnetworking.metrics.common.parsers.Parser;
 import com.arpnetworking.metrics.common.parsers.exceptions.ParsingException;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.metrics.mad.parsers.StatsdToRecordParser;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.utility.OverloadPolicy;
+import com.arpnetworking.utility.PolledMetricsRegistration;
+import com.fasterxml.jackson.annotation.JacksonInject;
+import com.google.common.collect.Lists;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
 import net.sf.oval.constraint.Range;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.time.Duration;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
 
 /**
  * Source that uses Statsd as input.
  *
+ * Datagrams may be received on several sockets bound to the same port with
+ * <code>SO_REUSEPORT</code>, in which case the kernel distributes the
+ * datagrams of different senders across the sockets. Datagrams are parsed by
+ * the receiving actor unless parser threads are configured, in which case
+ * they are queued for the parser threads and the receiving actors only
+ * enqueue them. The queue is bounded; when it is full the overload policy
+ * either blocks the receiving actors or drops datagrams. When periodic
+ * metrics are provided the datagrams received, parsed, dropped and found
+ * invalid are counted.
+ *
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot io)
  */
 public final class StatsdSource extends ActorSource {
 
+    @Override
+    public void start() {
+        // NOTE: Registered while started so a source discarded or removed on
+        // reconfiguration is neither sampled nor retained by the metrics
+        if (_periodicMetrics.isPresent() && _polledMetricsRegistration == null) {
+            _polledMetricsRegistration = PolledMetricsRegistration.register(
+                    _periodicMetrics.get(),
+                    this,
+                    StatsdSource::recordPolledMetrics);
+        }
+        if (_parserThreads > 0 && _parserExecutor == null) {
+            _isStopped = false;
+            final AtomicInteger threadIndex = new AtomicInteger(0);
+            final String threadPrefix = "StatsdParser-" + getMetricSafeName() + "-";
+            _parserExecutor = Executors.newFixedThreadPool(
+                    _parserThreads,
+                    r -> new Thread(r, threadPrefix + threadIndex.getAndIncrement()));
+            for (int i = 0; i < _parserThreads; ++i) {
+                _parserExecutor.execute(this::parseQueued);
+            }
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (_polledMetricsRegistration != null) {
+            _polledMetricsRegistration.unregister();
+            _polledMetricsRegistration = null;
+        }
+        if (_parserExecutor != null) {
+            // The parser threads exit once stopped and the queue is drained
+            _isStopped = true;
+            _parserExecutor.shutdown();
+            try {
+                if (!_parserExecutor.awaitTermination(SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                    LOGGER.warn()
+                            .setMessage("Timed out parsing queued datagrams")
+                            .addData("source", getName())
+                            .addData("queueSize", _queue.size())
+                            .log();
+                    _parserExecutor.shutdownNow();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                _parserExecutor.shutdownNow();
+            }
+            _parserExecutor = null;
+        }
+    }
+
     @Override
     protected Props createProps() {
         return Actor.props(this);
     }
 
+    /**
+     * Parse a received datagram or queue it for the parser threads.
+     *
+     * @param data The datagram.
+     */
+    /* package private */ void receive(final ByteString data) {
+        _receivedCount.incrementAndGet();
+        if (_parserThreads == 0) {
+            parse(data.toByteBuffer());
+            return;
+        }
+        final int dropped = _overloadPolicy.enqueue(_queue, data.toByteBuffer());
+        if (dropped > 0) {
+            _droppedCount.addAndGet(dropped);
+            DROPPED_LOGGER.warn()
+                    .setMessage("Discarding datagram")
+                    .addData("reason", "queue full")
+                    .addData("source", getName())
+                    .addData("overloadPolicy", _overloadPolicy)
+                    .log();
+        }
+    }
+
+    private void parseQueued() {
+        while (!_isStopped || !_queue.isEmpty()) {
+            try {
+                final ByteBuffer datagram = _queue.poll(POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+                if (datagram != null) {
+                    parse(datagram);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+                // CHECKSTYLE.OFF: IllegalCatch - Top level catch to prevent thread death
+            } catch (final Exception e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                LOGGER.error()
+                        .setMessage("Error handling statsd datagram")
+                        .addData("source", getName())
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+    }
+
+    private void parse(final ByteBuffer datagram) {
+        final List<Record> records;
+        try {
+            records = PARSER.parse(datagram);
+        } catch (final ParsingException e) {
+            _invalidCount.incrementAndGet();
+            BAD_REQUEST_LOGGER.warn()
+                    .setMessage("Error handling statsd datagram")
+                    .addData("source", getName())
+                    .setThrowable(e)
+                    .log();
+            return;
+        }
+        _parsedCount.incrementAndGet();
+        records.forEach(this::notify);
+    }
+
+    private List<Inet.SocketOption> getSocketOptions(final boolean reusePort) {
+        final List<Inet.SocketOption> options = Lists.newArrayList();
+        _receiveBufferSize.ifPresent(size -> options.add(UdpSO.receiveBufferSize(size)));
+        if (reusePort) {
+            options.add(new ReusePortOption());
+        }
+        return options;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Optional<SocketOption<Boolean>> getReusePortOption() {
+        // NOTE: SO_REUSEPORT is only defined by Java 9 and later and is only
+        // supported by some platforms
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            final SocketOption<Boolean> option =
+                    (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            return channel.supportedOptions().contains(option) ? Optional.of(option) : Optional.empty();
+        } catch (final NoSuchFieldException | IllegalAccessException | IOException e) {
+            return Optional.empty();
+        }
+    }
+
     /**
      * Protected constructor.
      *
@@ -56,13 +227,51 @@ public final class StatsdSource extends ActorSource {
         super(builder);
         _host = builder._host;
         _port = builder._port;
+        _receivers = builder._receivers;
+        _receiveBufferSize = Optional.ofNullable(builder._receiveBufferSize);
+        _parserThreads = builder._parserThreads;
+        _queue = new ArrayBlockingQueue<>(builder._queueCapacity);
+        _overloadPolicy = builder._overloadPolicy;
+        _periodicMetrics = Optional.ofNullable(builder._periodicMetrics);
+        _metricPrefix = "sources/statsd/" + getMetricSafeName() + "/";
+    }
+
+    private void recordPolledMetrics(final PeriodicMetrics periodicMetrics) {
+        periodicMetrics.recordCounter(_metricPrefix + "datagrams_received", _receivedCount.getAndSet(0));
+        periodicMetrics.recordCounter(_metricPrefix + "datagrams_parsed", _parsedCount.getAndSet(0));
+        periodicMetrics.recordCounter(_metricPrefix + "datagrams_dropped", _droppedCount.getAndSet(0));
+        periodicMetrics.recordCounter(_metricPrefix + "datagrams_invalid", _invalidCount.getAndSet(0));
+        periodicMetrics.recordGauge(_metricPrefix + "queue_depth", _queue.size());
     }
 
+    private volatile boolean _isStopped = false;
+    private volatile ExecutorService _parserExecutor;
+    @Nullable
+    private volatile PolledMetricsRegistration<StatsdSource> _polledMetricsRegistration;
+
     private final String _host;
     private final int _port;
+    private final int _receivers;
+    private final Optional<Integer> _receiveBufferSize;
+    private final int _parserThreads;
+    private final BlockingQueue<ByteBuffer> _queue;
+    private final OverloadPolicy _overloadPolicy;
+    private final Optional<PeriodicMetrics> _periodicMetrics;
+    private final String _metricPrefix;
+    private final AtomicLong _receivedCount = new AtomicLong(0);
+    private final AtomicLong _parsedCount = new AtomicLong(0);
+    private final AtomicLong _droppedCount = new AtomicLong(0);
+    private final AtomicLong _invalidCount = new AtomicLong(0);
 
     private static final Logger LOGGER = LoggerFactory.getLogger(StatsdSource.class);
+    private static final Logger BAD_REQUEST_LOGGER =
+            LoggerFactory.getRateLimitLogger(StatsdSource.class, Duration.ofSeconds(30));
+    private static final Logger DROPPED_LOGGER =
+            LoggerFactory.getRateLimitLogger(StatsdSource.class, Duration.ofSeconds(30));
     private static final Parser<List<Record>, ByteBuffer> PARSER = new StatsdToRecordParser();
+    private static final Optional<SocketOption<Boolean>> REUSE_PORT_OPTION = getReusePortOption();
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(100);
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(10);
 
     /**
      * Name of the actor created to receive the Statsd datagrams.
@@ -70,7 +279,7 @@ public final class StatsdSource extends ActorSource {
     public static final String ACTOR_NAME = "statsd";
 
     /**
-     * Internal actor to process requests.
+     * Internal actor which binds the receiving sockets.
      */
     /* package private */ static final class Actor extends AbstractActor {
         /**
@@ -87,11 +296,81 @@ public final class StatsdSource extends ActorSource {
         public Receive createReceive() {
             return receiveBuilder()
                     .matchEquals(IS_READY, message -> {
-                        getSender().tell(_isReady, getSelf());
+                        getSender().tell(_boundCount == _receiverCount, getSelf());
+                    })
+                    .matchEquals(BOUND, message -> {
+                        ++_boundCount;
+                    })
+                    .matchEquals(UdpMessage.unbind(), message -> {
+                        LOGGER.debug()
+                                .setMessage("Statsd unbind")
+                                .addData("receivers", _receiverCount)
+                                .log();
+                        getContext().getChildren().forEach(receiver -> receiver.tell(message, getSelf()));
+                    })
+                    .match(Terminated.class, message -> {
+                        if (++_terminatedCount == _receiverCount) {
+                            getContext().stop(getSelf());
+                        }
                     })
+                    .build();
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param source The {@link StatsdSource} to send notifications through.
+         */
+        /* package private */ Actor(final StatsdSource source) {
+            final boolean reusePort = source._receivers > 1 && REUSE_PORT_OPTION.isPresent();
+            if (source._receivers > 1 && !reusePort) {
+                LOGGER.warn()
+                        .setMessage("SO_REUSEPORT is not supported; binding a single socket")
+                        .addData("source", source.getName())
+                        .addData("receivers", source._receivers)
+                        .log();
+            }
+            _receiverCount = reusePort ? source._receivers : 1;
+            final InetSocketAddress address = new InetSocketAddress(source._host, source._port);
+            final List<Inet.SocketOption> options = source.getSocketOptions(reusePort);
+            for (int i = 0; i < _receiverCount; ++i) {
+                getContext().watch(getContext().actorOf(Receiver.props(source, address, options), "receiver-" + i));
+            }
+        }
+
+        private int _boundCount = 0;
+        private int _terminatedCount = 0;
+        private final int _receiverCount;
+
+        private static final String IS_READY = "IsReady";
+        private static final String BOUND = "Bound";
+    }
+
+    /**
+     * Internal actor to receive the datagrams of one socket.
+     */
+    /* package private */ static final class Receiver extends AbstractActor {
+        /**
+         * Creates a {@link Props} for this actor.
+         *
+         * @param source The {@link StatsdSource} to send notifications through.
+         * @param address The address to bind to.
+         * @param options The options of the socket.
+         * @return A new {@link Props}
+         */
+        /* package private */ static Props props(
+                final StatsdSource source,
+                final InetSocketAddress address,
+                final List<Inet.SocketOption> options) {
+            return Props.create(Receiver.class, source, address, options);
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
                     .match(Udp.Bound.class, updBound -> {
                         _socket = getSender();
-                        _isReady = true;
+                        getContext().getParent().tell(Actor.BOUND, getSelf());
                         LOGGER.info()
                                 .setMessage("Statsd server binding complete")
                                 .addData("address", updBound.localAddress().getAddress().getHostAddress())
@@ -105,19 +384,14 @@ public final class StatsdSource extends ActorSource {
                                 .addData("bytes", updReceived.data().size())
                                 .addData("socket", _socket)
                                 .log();
-
-                        try {
-                            // NOTE: The parsing occurs in the actor itself which can become a bottleneck
-                            // if there are more records to be parsed then a single thread can handle.
-                            final List<Record> records = PARSER.parse(updReceived.data().toByteBuffer());
-                            records.forEach(_sink::notify);
-                        } catch (final ParsingException e) {
-                            BAD_REQUEST_LOGGER.warn()
-                                    .setMessage("Error handling statsd datagram")
-                                    .addData("socket", _socket)
-                                    .setThrowable(e)
-                                    .log();
-                        }
+                        _source.receive(updReceived.data());
+                    })
+                    .match(Udp.CommandFailed.class, commandFailed -> {
+                        LOGGER.error()
+                                .setMessage("Statsd server binding failed")
+                                .addData("command", commandFailed.cmd())
+                                .log();
+                        getContext().stop(getSelf());
                     })
                     .matchEquals(UdpMessage.unbind(), message -> {
                         LOGGER.debug()
@@ -140,27 +414,40 @@ public final class StatsdSource extends ActorSource {
          * Constructor.
          *
          * @param source The {@link StatsdSource} to send notifications through.
+         * @param address The address to bind to.
+         * @param options The options of the socket.
          */
-        /* package private */ Actor(final StatsdSource source) {
-            _sink = source;
-            _host = source._host;
-            _port = source._port;
+        /* package private */ Receiver(
+                final StatsdSource source,
+                final InetSocketAddress address,
+                final List<Inet.SocketOption> options) {
+            _source = source;
 
             final ActorRef udpManager = Udp.get(getContext().system()).getManager();
             udpManager.tell(
-                    UdpMessage.bind(getSelf(), new InetSocketAddress(_host, _port)),
+                    UdpMessage.bind(getSelf(), address, options),
                     getSelf());
         }
 
-        private boolean _isReady = false;
+        @Nullable
         private ActorRef _socket;
-        private final StatsdSource _sink;
-        private final String _host;
-        private final int _port;
+        private final StatsdSource _source;
+    }
 
-        private static final String IS_READY = "IsReady";
-        private static final Logger BAD_REQUEST_LOGGER =
-                LoggerFactory.getRateLimitLogger(StatsdSource.class, Duration.ofSeconds(30));
+    /**
+     * Sets <code>SO_REUSEPORT</code> so several sockets may bind the same
+     * port. Only used when the option is supported.
+     */
+    private static final class ReusePortOption extends Inet.AbstractSocketOption {
+
+        @Override
+        public void beforeDatagramBind(final DatagramSocket socket) {
+            try {
+                socket.getChannel().setOption(REUSE_PORT_OPTION.get(), true);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
     /**
@@ -201,6 +488,84 @@ public final class StatsdSource extends ActorSource {
             return self();
         }
 
+        /**
+         * Sets the number of sockets bound to the port. More than one socket
+         * requires <code>SO_REUSEPORT</code>; where it is not supported a
+         * single socket is bound. Optional. Cannot be null. Must be at least
+         * 1. Default is 1.
+         *
+         * @param value the number of sockets
+         * @return This builder
+         */
+        public Builder setReceivers(final Integer value) {
+            _receivers = value;
+            return self();
+        }
+
+        /**
+         * Sets the receive buffer size (<code>SO_RCVBUF</code>) of each
+         * socket in bytes. Optional. Must be at least 1. Default is the
+         * operating system default.
+         *
+         * @param value the receive buffer size
+         * @return This builder
+         */
+        public Builder setReceiveBufferSize(final Integer value) {
+            _receiveBufferSize = value;
+            return self();
+        }
+
+        /**
+         * Sets the number of threads which parse datagrams. With no parser
+         * threads the datagrams are parsed by the receiving actors.
+         * Optional. Cannot be null. Must be at least 0. Default is 0.
+         *
+         * @param value the number of parser threads
+         * @return This builder
+         */
+        public Builder setParserThreads(final Integer value) {
+            _parserThreads = value;
+            return self();
+        }
+
+        /**
+         * Sets the capacity of the queue of datagrams awaiting the parser
+         * threads. Optional. Cannot be null. Must be at least 1. Default is
+         * 10,000.
+         *
+         * @param value the queue capacity
+         * @return This builder
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return self();
+        }
+
+        /**
+         * Sets the behavior when the queue of datagrams awaiting the parser
+         * threads is full. Optional. Cannot be null. Default is
+         * <code>DROP_NEWEST</code>.
+         *
+         * @param value the overload policy
+         * @return This builder
+         */
+        public Builder setOverloadPolicy(final OverloadPolicy value) {
+            _overloadPolicy = value;
+            return self();
+        }
+
+        /**
+         * Sets the <code>PeriodicMetrics</code> instance to count datagrams
+         * with. Optional. Default is no metrics.
+         *
+         * @param value the <code>PeriodicMetrics</code> instance
+         * @return This builder
+         */
+        public Builder setPeriodicMetrics(final PeriodicMetrics value) {
+            _periodicMetrics = value;
+            return self();
+        }
+
         @Override
         protected Builder self() {
             return this;
@@ -212,5 +577,20 @@ public final class StatsdSource extends ActorSource {
         @NotNull
         @Range(min = 1, max = 65535)
         private Integer _port = 8125;
+        @NotNull
+        @Min(1)
+        private Integer _receivers = 1;
+        @Min(1)
+        private Integer _receiveBufferSize;
+        @NotNull
+        @Min(0)
+        private Integer _parserThreads = 0;
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = 10000;
+        @NotNull
+        private OverloadPolicy _overloadPolicy = OverloadPolicy.DROP_NEWEST;
+        @JacksonInject
+        private PeriodicMetrics _periodicMetrics;
     }
 }
@@ -19,35 +19,57 @@ import com.arpnetworking.commons.builder.OvalBuilder;
 import com.arpnetworking.commons.observer.Observable;
 import com.arpnetworking.commons.observer.Observer;
 import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
-import com.arpnetworking.tsdcore.model.DefaultKey;
 import com.arpnetworking.tsdcore.model.Key;
 import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.utility.Launchable;
+import com.arpnetworking.utility.OverloadPolicy;
+import com.arpnetworking.utility.PolledMetricsRegistration;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import net.sf.oval.constraint.Range;
 
+import java.io.DataInput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /**
  * Performs aggregation of <code>Record</code> instances per <code>Period</code>.
@@ -63,37 +85,181 @@ public final class Aggregator implements Observer, Launchable {
 
     @Override
     public synchronized void launch() {
+        launch(_snapshotFile);
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown(_snapshotFile);
+    }
+
+    /**
+     * Launch a successor and hand off the open buckets of this aggregator to
+     * it. Records observed by this aggregator from then on are passed to the
+     * successor. This aggregator is shut down and its open buckets are
+     * merged into the running successor in the background; shutting down the
+     * successor waits for the hand off to complete. The buckets are restored
+     * against the configuration of the successor; buckets of periods the
+     * successor does not aggregate are discarded.
+     *
+     * @param successor The <code>Aggregator</code> to launch.
+     */
+    /* package private */ synchronized void handOff(final Aggregator successor) {
+        successor.launch(Optional.empty());
+        _successor = successor;
+        final Thread handOffThread = new Thread(() -> transferTo(successor), "AggregatorHandOff");
+        successor._handOffThread = handOffThread;
+        handOffThread.start();
+    }
+
+    private void transferTo(final Aggregator successor) {
+        Optional<File> handOffFile = Optional.empty();
+        try {
+            handOffFile = Optional.of(Files.createTempFile("aggregator-", ".snapshot").toFile());
+        } catch (final IOException e) {
+            LOGGER.error()
+                    .setMessage("Failed to create hand off file; discarding open buckets")
+                    .addData("aggregator", this)
+                    .setThrowable(e)
+                    .log();
+        }
+        shutdown(handOffFile);
+        successor.restoreSnapshot(handOffFile, successor::restoreHandedOff);
+    }
+
+    private synchronized void launch(final Optional<File> snapshotFile) {
         LOGGER.debug()
                 .setMessage("Launching aggregator")
                 .addData("aggregator", this)
                 .log();
 
+        // NOTE: Registered while running so a retired aggregator neither
+        // reports alongside its successor nor is retained by the metrics
+        if (_polledMetricsRegistration == null) {
+            _polledMetricsRegistration = PolledMetricsRegistration.register(
+                    _periodicMetrics,
+                    this,
+                    Aggregator::recordPolledMetrics);
+        }
+
         _periodWorkers.clear();
         if (!_periods.isEmpty()) {
-            _periodWorkerExecutor = Executors.newCachedThreadPool(r -> new Thread(r, "PeriodWorker"));
+            if (Scheduling.SHARDED.equals(_scheduling)) {
+                final AtomicInteger shardIndex = new AtomicInteger(0);
+                _periodWorkerExecutor = Executors.newFixedThreadPool(
+                        _shardCount,
+                        r -> new Thread(r, "PeriodWorkerShard-" + shardIndex.getAndIncrement()));
+                final PeriodWorkerShard[] shards = new PeriodWorkerShard[_shardCount];
+                for (int i = 0; i < _shardCount; ++i) {
+                    shards[i] = new PeriodWorkerShard.Builder()
+                            .setPeriodWorkersFactory(this::createPeriodWorkers)
+                            .setKeyAdmitter(this::admitKey)
+                            .setEvictionListener(this::releaseKey)
+                            .setIdleKeyTimeout(_idleKeyTimeout.orElse(null))
+                            .setQueueCapacity(_queueCapacity)
+                            .setOverloadPolicy(_overloadPolicy)
+                            .build();
+                }
+                // The shards are restored before they run since they own their workers
+                restoreSnapshot(snapshotFile, (key, period, startMillis, in) ->
+                        shards[Math.floorMod(key.hashCode(), shards.length)].restore(key, period, startMillis, in));
+                for (final PeriodWorkerShard shard : shards) {
+                    _periodWorkerExecutor.execute(shard);
+                }
+                _periodWorkerShards = shards;
+            } else {
+                _periodWorkerExecutor = Executors.newCachedThreadPool(r -> new Thread(r, "PeriodWorker"));
+                if (_idleKeyTimeout.isPresent()) {
+                    final long evictionIntervalMillis =
+                            PeriodWorkerShard.getEvictionInterval(_idleKeyTimeout.get()).toMillis();
+                    _periodWorkerEvictor = Executors.newSingleThreadScheduledExecutor(
+                            r -> new Thread(r, "PeriodWorkerEvictor"));
+                    _periodWorkerEvictor.scheduleAtFixedRate(
+                            this::evictIdlePeriodWorkers,
+                            evictionIntervalMillis,
+                            evictionIntervalMillis,
+                            TimeUnit.MILLISECONDS);
+                }
+                restoreSnapshot(snapshotFile, (key, period, startMillis, in) -> {
+                    final Optional<PeriodWorker> periodWorker = PeriodWorker.find(
+                            getOrCreatePeriodWorkers(key).getPeriodWorkers(),
+                            period);
+                    if (periodWorker.isPresent()) {
+                        periodWorker.get().restore(startMillis, in);
+                    }
+                    return periodWorker.isPresent();
+                });
+            }
         }
     }
 
-    @Override
-    public synchronized void shutdown() {
+    private synchronized void shutdown(final Optional<File> snapshotFile) {
         LOGGER.debug()
                 .setMessage("Stopping aggregator")
                 .addData("aggregator", this)
                 .log();
 
-        for (final List<PeriodWorker> periodCloserList : _periodWorkers.values()) {
-            periodCloserList.forEach(com.arpnetworking.metrics.mad.PeriodWorker::shutdown);
+        // The buckets handed off by a predecessor are merged before stopping
+        final Thread handOffThread = _handOffThread;
+        if (handOffThread != null) {
+            try {
+                handOffThread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.warn("Interrupted waiting for hand off", e);
+            }
+            _handOffThread = null;
         }
-        _periodWorkers.clear();
+
+        if (_polledMetricsRegistration != null) {
+            _polledMetricsRegistration.unregister();
+            _polledMetricsRegistration = null;
+        }
+
+        if (_periodWorkerEvictor != null) {
+            _periodWorkerEvictor.shutdown();
+            _periodWorkerEvictor = null;
+        }
+        for (final KeyPeriodWorkers keyPeriodWorkers : _periodWorkers.values()) {
+            keyPeriodWorkers.getPeriodWorkers().forEach(com.arpnetworking.metrics.mad.PeriodWorker::shutdown);
+        }
+        final PeriodWorkerShard[] periodWorkerShards = _periodWorkerShards;
+        for (final PeriodWorkerShard periodWorkerShard : periodWorkerShards) {
+            periodWorkerShard.shutdown();
+        }
+        _periodWorkerShards = EMPTY_SHARDS;
+        boolean isTerminated = true;
         if (_periodWorkerExecutor != null) {
             _periodWorkerExecutor.shutdown();
             try {
-                _periodWorkerExecutor.awaitTermination(10, TimeUnit.SECONDS);
+                isTerminated = _periodWorkerExecutor.awaitTermination(10, TimeUnit.SECONDS);
             } catch (final InterruptedException e) {
+                isTerminated = false;
                 LOGGER.warn("Unable to shutdown period worker executor", e);
             }
             _periodWorkerExecutor = null;
         }
+        // The open buckets are only consistent once every worker has stopped
+        if (snapshotFile.isPresent() && isTerminated) {
+            final List<Iterable<Map.Entry<Key, List<PeriodWorker>>>> periodWorkers = Lists.newArrayList();
+            periodWorkers.add(Maps.transformValues(_periodWorkers, KeyPeriodWorkers::getPeriodWorkers).entrySet());
+            for (final PeriodWorkerShard periodWorkerShard : periodWorkerShards) {
+                periodWorkers.add(periodWorkerShard.getPeriodWorkers().entrySet());
+            }
+            writeSnapshot(snapshotFile.get(), Iterables.concat(periodWorkers));
+        } else if (snapshotFile.isPresent()) {
+            int keyCount = _periodWorkers.size();
+            for (final PeriodWorkerShard periodWorkerShard : periodWorkerShards) {
+                keyCount += periodWorkerShard.getKeyCount();
+            }
+            LOGGER.error()
+                    .setMessage("Period workers did not stop; discarding open buckets")
+                    .addData("aggregator", this)
+                    .addData("file", snapshotFile.get())
+                    .addData("keyCount", keyCount)
+                    .log();
+        }
+        _periodWorkers.clear();
     }
 
     @Override
@@ -106,18 +272,74 @@ public final class Aggregator implements Observer, Launchable {
             return;
         }
 
+        // NOTE: Records observed after a hand off are aggregated by the successor
+        final Aggregator successor = _successor;
+        if (successor != null) {
+            successor.notify(observable, event);
+            return;
+        }
+
         final Record record = (Record) event;
-        final Key key = new DefaultKey(record.getDimensions());
+        final ImmutableMap<String, String> dimensions = record.getDimensions();
+        record(getKey(dimensions), record);
+
+        // NOTE: The record and its samples are shared by each rollup key; a
+        // rollup which does not reduce the dimensions of the record or which
+        // duplicates an earlier rollup would aggregate the samples twice.
+        if (!_dimensionRollups.isEmpty()) {
+            final Set<ImmutableMap<String, String>> rollupDimensionSets =
+                    Sets.newHashSetWithExpectedSize(_dimensionRollups.size());
+            for (final DimensionRollup dimensionRollup : _dimensionRollups) {
+                final ImmutableMap<String, String> rollupDimensions = dimensionRollup.apply(dimensions);
+                if (rollupDimensions.size() < dimensions.size() && rollupDimensionSets.add(rollupDimensions)) {
+                    record(getKey(rollupDimensions), record);
+                }
+            }
+        }
+    }
+
+    private void record(final Key key, final Record record) {
         LOGGER.trace()
                 .setMessage("Processing record")
                 .addData("record", record)
                 .addData("key", key)
                 .log();
-        for (final PeriodWorker periodWorker : _periodWorkers.computeIfAbsent(key, this::createPeriodWorkers)) {
-            periodWorker.record(record);
+        final PeriodWorkerShard[] periodWorkerShards = _periodWorkerShards;
+        // NOTE: Under the blocking overload policy a full queue blocks the
+        // source which is the backpressure signal to the source.
+        if (periodWorkerShards.length > 0) {
+            recordDropped(periodWorkerShards[Math.floorMod(key.hashCode(), periodWorkerShards.length)].record(key, record));
+        } else if (_idleKeyTimeout.isPresent()) {
+            // NOTE: Only the period workers are created inside compute; the
+            // record is queued outside it so a full queue does not block the
+            // map. A key retired by a concurrent eviction is created again.
+            KeyPeriodWorkers keyPeriodWorkers = getOrCreateAdmittedPeriodWorkers(key);
+            while (!keyPeriodWorkers.startRecord()) {
+                keyPeriodWorkers = getOrCreateAdmittedPeriodWorkers(key);
+            }
+            try {
+                for (final PeriodWorker periodWorker : keyPeriodWorkers.getPeriodWorkers()) {
+                    recordDropped(periodWorker.record(record));
+                }
+            } finally {
+                keyPeriodWorkers.endRecord();
+            }
+        } else {
+            for (final PeriodWorker periodWorker : getOrCreatePeriodWorkers(key).getPeriodWorkers()) {
+                recordDropped(periodWorker.record(record));
+            }
         }
     }
 
+    private KeyPeriodWorkers getOrCreatePeriodWorkers(final Key key) {
+        return _periodWorkers.computeIfAbsent(key, k -> new KeyPeriodWorkers(createPeriodWorkers(k)));
+    }
+
+    private KeyPeriodWorkers getOrCreateAdmittedPeriodWorkers(final Key key) {
+        // Keys released by an earlier eviction are admitted again
+        return _periodWorkers.computeIfAbsent(key, k -> new KeyPeriodWorkers(createPeriodWorkers(admitKey(k))));
+    }
+
     /**
      * Generate a Steno log compatible representation.
      *
@@ -127,10 +349,23 @@ public final class Aggregator implements Observer, Launchable {
     public Object toLogValue() {
         return LogValueMapFactory.builder(this)
                 .put("sink", _sink)
+                .put("scheduling", _scheduling)
+                .put("shardCount", _shardCount)
+                .put("idleKeyTimeout", _idleKeyTimeout)
+                .put("histogramPrecision", _histogramPrecision)
+                .put("queueCapacity", _queueCapacity)
+                .put("overloadPolicy", _overloadPolicy)
+                .put("rollupSources", _rollupSources)
+                .put("recycleBuckets", _recycleBuckets)
+                .put("snapshotFile", _snapshotFile)
+                .put("maximumKeysPerService", _maximumKeysPerService)
+                .put("maximumMetricsPerKey", _maximumMetricsPerKey)
                 .put("timerStatistics", _specifiedTimerStatistics)
                 .put("counterStatistics", _specifiedCounterStatistics)
                 .put("gaugeStatistics", _specifiedGaugeStatistics)
-                .put("periodWorkers", _periodWorkers)
+                .put("periodStatistics", _periodStatistics)
+                .put("dimensionRollups", _dimensionRollups)
+                .put("periodWorkers", Maps.transformValues(_periodWorkers, KeyPeriodWorkers::getPeriodWorkers))
                 .build();
     }
 
@@ -140,26 +375,33 @@ public final class Aggregator implements Observer, Launchable {
     }
 
     private List<PeriodWorker> createPeriodWorkers(final Key key) {
+        // NOTE: The coarsest workers are created first so each can be handed
+        // to the finer worker that it is rolled up from. Only the workers
+        // which are not rolled up receive records.
         final List<PeriodWorker> periodWorkerList = Lists.newArrayListWithExpectedSize(_periods.size());
-        for (final Duration period : _periods) {
+        final Map<Duration, PeriodWorker> periodWorkersByPeriod = Maps.newHashMapWithExpectedSize(_periods.size());
+        for (final Duration period : _periodsDescending) {
+            final ImmutableList.Builder<PeriodWorker> rollupPeriodWorkers = ImmutableList.builder();
+            for (final Map.Entry<Duration, Duration> rollupSource : _rollupSources.entrySet()) {
+                if (rollupSource.getValue().equals(period)) {
+                    rollupPeriodWorkers.add(periodWorkersByPeriod.get(rollupSource.getKey()));
+                }
+            }
             final PeriodWorker periodWorker = new PeriodWorker.Builder()
                     .setPeriod(period)
-                    .setBucketBuilder(
-                            new Bucket.Builder()
-                                    .setKey(key)
-                                    .setSpecifiedCounterStatistics(_specifiedCounterStatistics)
-                                    .setSpecifiedGaugeStatistics(_specifiedGaugeStatistics)
-                                    .setSpecifiedTimerStatistics(_specifiedTimerStatistics)
-                                    .setDependentCounterStatistics(_dependentCounterStatistics)
-                                    .setDependentGaugeStatistics(_dependentGaugeStatistics)
-                                    .setDependentTimerStatistics(_dependentTimerStatistics)
-                                    .setSpecifiedStatistics(_cachedSpecifiedStatistics)
-                                    .setDependentStatistics(_cachedDependentStatistics)
-                                    .setPeriod(period)
-                                    .setSink(_sink))
+                    .setRollupPeriodWorkers(rollupPeriodWorkers.build())
+                    .setQueueCapacity(_queueCapacity)
+                    .setOverloadPolicy(_overloadPolicy)
+                    .setRecycleBuckets(_recycleBuckets)
+                    .setBucketBuilder(createBucketBuilder(key, period))
                     .build();
-            periodWorkerList.add(periodWorker);
-            _periodWorkerExecutor.execute(periodWorker);
+            periodWorkersByPeriod.put(period, periodWorker);
+            if (!_rollupSources.containsKey(period)) {
+                periodWorkerList.add(periodWorker);
+            }
+            if (!Scheduling.SHARDED.equals(_scheduling)) {
+                _periodWorkerExecutor.execute(periodWorker);
+            }
         }
         LOGGER.debug()
                 .setMessage("Created period workers")
@@ -169,7 +411,238 @@ public final class Aggregator implements Observer, Launchable {
         return periodWorkerList;
     }
 
-    private ImmutableSet<Statistic> computeDependentStatistics(final ImmutableSet<Statistic> statistics) {
+    private Bucket.Builder createBucketBuilder(final Key key, final Duration period) {
+        final StatisticSets statisticSets = _statisticSets.get(period);
+        return new Bucket.Builder()
+                .setKey(key)
+                .setSpecifiedCounterStatistics(statisticSets._specifiedCounterStatistics)
+                .setSpecifiedGaugeStatistics(statisticSets._specifiedGaugeStatistics)
+                .setSpecifiedTimerStatistics(statisticSets._specifiedTimerStatistics)
+                .setDependentCounterStatistics(statisticSets._dependentCounterStatistics)
+                .setDependentGaugeStatistics(statisticSets._dependentGaugeStatistics)
+                .setDependentTimerStatistics(statisticSets._dependentTimerStatistics)
+                .setSpecifiedStatistics(statisticSets._cachedSpecifiedStatistics)
+                .setDependentStatistics(statisticSets._cachedDependentStatistics)
+                .setHistogramPrecision(_histogramPrecision)
+                .setMaximumMetrics(_maximumMetricsPerKey)
+                .setMetricOverflowCounter(_metricOverflowCounter)
+                // NOTE: Only sharded buckets are confined to one thread
+                .setSingleWriter(Scheduling.SHARDED.equals(_scheduling))
+                .setPeriod(period)
+                .setSink(_sink);
+    }
+
+    private boolean restoreHandedOff(
+            final Key key,
+            final Duration period,
+            final long startMillis,
+            final DataInput in) throws IOException {
+        if (!_periods.contains(period)) {
+            return false;
+        }
+        // NOTE: The bucket is read on the calling thread and merged by the
+        // thread which owns the buckets of the key
+        final Bucket restoredBucket = createBucketBuilder(key, period)
+                .setStart(ZonedDateTime.ofInstant(
+                        Instant.ofEpochMilli(PeriodWorker.getStartMillis(startMillis, period.toMillis())),
+                        ZoneOffset.UTC))
+                .build();
+        restoredBucket.restore(in);
+        final PeriodWorkerShard[] periodWorkerShards = _periodWorkerShards;
+        if (periodWorkerShards.length > 0) {
+            if (periodWorkerShards[Math.floorMod(key.hashCode(), periodWorkerShards.length)]
+                    .restore(key, restoredBucket) > 0) {
+                LOGGER.warn()
+                        .setMessage("Interrupted handing off bucket; discarding bucket")
+                        .addData("key", key)
+                        .addData("period", period)
+                        .log();
+            }
+        } else if (_idleKeyTimeout.isPresent()) {
+            // NOTE: Posting does not block so it is serialized with eviction
+            _periodWorkers.compute(key, (k, keyPeriodWorkers) -> {
+                final KeyPeriodWorkers restorePeriodWorkers = keyPeriodWorkers == null
+                        ? new KeyPeriodWorkers(createPeriodWorkers(admitKey(k)))
+                        : keyPeriodWorkers;
+                PeriodWorker.find(restorePeriodWorkers.getPeriodWorkers(), period)
+                        .ifPresent(periodWorker -> periodWorker.postRestore(restoredBucket));
+                return restorePeriodWorkers;
+            });
+        } else {
+            PeriodWorker.find(getOrCreatePeriodWorkers(key).getPeriodWorkers(), period)
+                    .ifPresent(periodWorker -> periodWorker.postRestore(restoredBucket));
+        }
+        return true;
+    }
+
+    private void writeSnapshot(
+            final File snapshotFile,
+            final Iterable<Map.Entry<Key, List<PeriodWorker>>> periodWorkers) {
+        try {
+            final int bucketCount = SnapshotFile.write(snapshotFile, periodWorkers);
+            LOGGER.info()
+                    .setMessage("Wrote snapshot")
+                    .addData("file", snapshotFile)
+                    .addData("bucketCount", bucketCount)
+                    .log();
+        } catch (final IOException e) {
+            LOGGER.error()
+                    .setMessage("Failed to write snapshot")
+                    .addData("file", snapshotFile)
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private void restoreSnapshot(final Optional<File> optionalSnapshotFile, final SnapshotFile.Restorer restorer) {
+        if (!optionalSnapshotFile.isPresent() || !optionalSnapshotFile.get().exists()) {
+            return;
+        }
+        final File snapshotFile = optionalSnapshotFile.get();
+        try {
+            final int bucketCount = SnapshotFile.read(
+                    snapshotFile,
+                    (key, period, startMillis, in) ->
+                            restorer.restore(_keyInterner.intern(key.getParameters()), period, startMillis, in));
+            LOGGER.info()
+                    .setMessage("Restored snapshot")
+                    .addData("file", snapshotFile)
+                    .addData("bucketCount", bucketCount)
+                    .log();
+        } catch (final IOException e) {
+            LOGGER.error()
+                    .setMessage("Failed to restore snapshot")
+                    .addData("file", snapshotFile)
+                    .setThrowable(e)
+                    .log();
+        }
+        // The restored buckets are owned by this aggregator; never restore them twice
+        if (!snapshotFile.delete()) {
+            LOGGER.warn()
+                    .setMessage("Failed to delete snapshot")
+                    .addData("file", snapshotFile)
+                    .log();
+        }
+    }
+
+    private void evictIdlePeriodWorkers() {
+        final long nowMillis = System.currentTimeMillis();
+        final Duration idleKeyTimeout = _idleKeyTimeout.get();
+        for (final Key key : _periodWorkers.keySet()) {
+            _periodWorkers.computeIfPresent(key, (k, keyPeriodWorkers) -> {
+                // A key with a record being queued is not idle
+                if (!keyPeriodWorkers.retire()) {
+                    return keyPeriodWorkers;
+                }
+                if (PeriodWorker.isIdle(keyPeriodWorkers.getPeriodWorkers(), nowMillis, idleKeyTimeout)) {
+                    keyPeriodWorkers.getPeriodWorkers().forEach(PeriodWorker::shutdown);
+                    releaseKey(k);
+                    _evictedKeyCount.incrementAndGet();
+                    LOGGER.debug()
+                            .setMessage("Evicted idle key")
+                            .addData("key", k)
+                            .log();
+                    return null;
+                }
+                keyPeriodWorkers.reinstate();
+                return keyPeriodWorkers;
+            });
+        }
+    }
+
+    private Key getKey(final ImmutableMap<String, String> dimensions) {
+        final Key key = _keyInterner.intern(dimensions);
+        if (!_keyLimiter.isPresent()) {
+            return key;
+        }
+        final Key limitedKey = _keyLimiter.get().limit(key);
+        if (limitedKey != key) {
+            // The key is never aggregated so is never evicted
+            _keyInterner.release(key);
+        }
+        return limitedKey;
+    }
+
+    private Key admitKey(final Key key) {
+        // NOTE: A record keyed before its key was released by an eviction
+        // recreates the workers of the key; the key is interned and counted
+        // again so the interner and limiter agree with the live workers.
+        if (KeyLimiter.isOverflowKey(key)) {
+            return key;
+        }
+        final Key admittedKey = _keyInterner.admit(key);
+        if (_keyLimiter.isPresent()) {
+            _keyLimiter.get().admit(admittedKey);
+        }
+        return admittedKey;
+    }
+
+    private void releaseKey(final Key key) {
+        _keyInterner.release(key);
+        if (_keyLimiter.isPresent()) {
+            _keyLimiter.get().release(key);
+        }
+    }
+
+    private void recordPolledMetrics(final PeriodicMetrics periodicMetrics) {
+        periodicMetrics.recordCounter(_evictedKeysMetricName, getAndResetEvictedKeyCount());
+        periodicMetrics.recordGauge(_liveKeysMetricName, getLiveKeyCount());
+        periodicMetrics.recordCounter(_droppedRecordsMetricName, _droppedRecordCount.getAndSet(0));
+        periodicMetrics.recordGauge(_queueDepthMetricName, getQueueDepth());
+        periodicMetrics.recordGauge(_maximumQueueDepthMetricName, getMaximumQueueDepth());
+        _keyOverflowCounter.record(periodicMetrics, _keyOverflowMetricName, _keyOverflowMetricName + "/");
+        _metricOverflowCounter.record(periodicMetrics, _metricOverflowMetricName, _metricOverflowMetricName + "/");
+    }
+
+    private long getAndResetEvictedKeyCount() {
+        long evictedKeyCount = _evictedKeyCount.getAndSet(0);
+        for (final PeriodWorkerShard periodWorkerShard : _periodWorkerShards) {
+            evictedKeyCount += periodWorkerShard.getAndResetEvictedKeyCount();
+        }
+        return evictedKeyCount;
+    }
+
+    private void recordDropped(final int droppedRecordCount) {
+        if (droppedRecordCount > 0) {
+            _droppedRecordCount.addAndGet(droppedRecordCount);
+        }
+    }
+
+    private long getQueueDepth() {
+        long queueDepth = 0;
+        for (final PeriodWorkerShard periodWorkerShard : _periodWorkerShards) {
+            queueDepth += periodWorkerShard.getQueueSize();
+        }
+        for (final KeyPeriodWorkers keyPeriodWorkers : _periodWorkers.values()) {
+            for (final PeriodWorker periodWorker : keyPeriodWorkers.getPeriodWorkers()) {
+                queueDepth += periodWorker.getQueueSize();
+            }
+        }
+        return queueDepth;
+    }
+
+    private long getMaximumQueueDepth() {
+        long maximumQueueDepth = 0;
+        for (final PeriodWorkerShard periodWorkerShard : _periodWorkerShards) {
+            maximumQueueDepth = Math.max(maximumQueueDepth, periodWorkerShard.getQueueSize());
+        }
+        for (final KeyPeriodWorkers keyPeriodWorkers : _periodWorkers.values()) {
+            for (final PeriodWorker periodWorker : keyPeriodWorkers.getPeriodWorkers()) {
+                maximumQueueDepth = Math.max(maximumQueueDepth, periodWorker.getQueueSize());
+            }
+        }
+        return maximumQueueDepth;
+    }
+
+    private long getLiveKeyCount() {
+        long liveKeyCount = _periodWorkers.size();
+        for (final PeriodWorkerShard periodWorkerShard : _periodWorkerShards) {
+            liveKeyCount += periodWorkerShard.getKeyCount();
+        }
+        return liveKeyCount;
+    }
+
+    private static ImmutableSet<Statistic> computeDependentStatistics(final ImmutableSet<Statistic> statistics) {
         final ImmutableSet.Builder<Statistic> builder = ImmutableSet.builder();
         for (final Statistic statistic : statistics) {
             statistic.getDependencies().stream().filter(dependency -> !statistics.contains(dependency)).forEach(builder::add);
@@ -177,75 +650,268 @@ public final class Aggregator implements Observer, Launchable {
         return builder.build();
     }
 
+    private static ImmutableMap<Duration, Duration> computeRollupSources(
+            final ImmutableSet<Duration> periods,
+            final ImmutableMap<Duration, PeriodStatistics> periodStatistics) {
+        // Each period is rolled up from the coarsest finer period which divides
+        // it and computes the same statistics; the partial accumulators of a
+        // period with different statistics (e.g. without a histogram) cannot
+        // be merged, so such a period receives records directly instead.
+        final ImmutableMap.Builder<Duration, Duration> builder = ImmutableMap.builder();
+        for (final Duration period : periods) {
+            Duration source = null;
+            for (final Duration candidate : periods) {
+                if (candidate.compareTo(period) < 0
+                        && period.toMillis() % candidate.toMillis() == 0
+                        && Objects.equals(periodStatistics.get(candidate), periodStatistics.get(period))
+                        && (source == null || candidate.compareTo(source) > 0)) {
+                    source = candidate;
+                }
+            }
+            if (source != null) {
+                builder.put(period, source);
+            }
+        }
+        return builder.build();
+    }
+
     private Aggregator(final Builder builder) {
         _periods = ImmutableSet.copyOf(builder._periods);
+        _periodsDescending = ImmutableList.sortedCopyOf(Comparator.reverseOrder(), _periods);
+        _periodStatistics = ImmutableMap.copyOf(builder._periodStatistics);
+        _dimensionRollups = ImmutableList.copyOf(builder._dimensionRollups);
+        _rollupSources = builder._rollupPeriods ? computeRollupSources(_periods, _periodStatistics) : ImmutableMap.of();
         _sink = builder._sink;
+        _scheduling = builder._scheduling;
+        _shardCount = builder._shardCount;
+        _idleKeyTimeout = Optional.ofNullable(builder._idleKeyTimeout);
+        _histogramPrecision = builder._histogramPrecision;
+        _queueCapacity = builder._queueCapacity;
+        _overloadPolicy = builder._overloadPolicy;
+        // NOTE: Only sharded workers confine each bucket to one thread, which
+        // is required to safely reuse it once closed
+        _recycleBuckets = builder._recycleBuckets && Scheduling.SHARDED.equals(_scheduling);
+        _snapshotFile = Optional.ofNullable(builder._snapshotFile);
+        _maximumMetricsPerKey = builder._maximumMetricsPerKey == null
+                ? Integer.MAX_VALUE
+                : builder._maximumMetricsPerKey;
+        _maximumKeysPerService = Optional.ofNullable(builder._maximumKeysPerService);
+        _keyLimiter = _maximumKeysPerService.map(maximum -> new KeyLimiter(maximum, _keyOverflowCounter));
+        _periodicMetrics = builder._periodicMetrics;
+        final String metricSafeName = builder._name.replace("/", "_").replace(".", "_");
+        _evictedKeysMetricName = "aggregator/" + metricSafeName + "/evicted_keys";
+        _liveKeysMetricName = "aggregator/" + metricSafeName + "/live_keys";
+        _droppedRecordsMetricName = "aggregator/" + metricSafeName + "/dropped_records";
+        _queueDepthMetricName = "aggregator/" + metricSafeName + "/queue_depth";
+        _maximumQueueDepthMetricName = "aggregator/" + metricSafeName + "/max_queue_depth";
+        _keyOverflowMetricName = "aggregator/" + metricSafeName + "/key_overflow";
+        _metricOverflowMetricName = "aggregator/" + metricSafeName + "/metric_overflow";
         _specifiedCounterStatistics = ImmutableSet.copyOf(builder._counterStatistics);
         _specifiedGaugeStatistics = ImmutableSet.copyOf(builder._gaugeStatistics);
         _specifiedTimerStatistics = ImmutableSet.copyOf(builder._timerStatistics);
-        _dependentCounterStatistics = computeDependentStatistics(_specifiedCounterStatistics);
-        _dependentGaugeStatistics = computeDependentStatistics(_specifiedGaugeStatistics);
-        _dependentTimerStatistics = computeDependentStatistics(_specifiedTimerStatistics);
-        final ImmutableMap.Builder<Pattern, ImmutableSet<Statistic>> statisticsBuilder = ImmutableMap.builder();
-        for (final Map.Entry<String, Set<Statistic>> entry : builder._statistics.entrySet()) {
-            final Pattern pattern = Pattern.compile(entry.getKey());
-            final ImmutableSet<Statistic> statistics = ImmutableSet.copyOf(entry.getValue());
-            statisticsBuilder.put(pattern, statistics);
-        }
-        _statistics = statisticsBuilder.build();
-
-        _cachedSpecifiedStatistics = CacheBuilder
-                .newBuilder()
-                .concurrencyLevel(1)
-                .build(
-                        new CacheLoader<String, Optional<ImmutableSet<Statistic>>>() {
-                            // TODO(vkoskela): Add @NonNull annotation to metric. [ISSUE-?]
-                            @Override
-                            public Optional<ImmutableSet<Statistic>> load(final String metric) throws Exception {
-                                for (final Map.Entry<Pattern, ImmutableSet<Statistic>> entry : _statistics.entrySet()) {
-                                    final Pattern pattern = entry.getKey();
-                                    final ImmutableSet<Statistic> statistics = entry.getValue();
-                                    if (pattern.matcher(metric).matches()) {
-                                        return Optional.of(statistics);
-                                    }
-                                }
-                                return Optional.empty();
-                            }
-                        });
-        _cachedDependentStatistics = CacheBuilder
-                .newBuilder()
-                .concurrencyLevel(1)
-                .build(new CacheLoader<String, Optional<ImmutableSet<Statistic>>>() {
-                            // TODO(vkoskela): Add @NonNull annotation to metric. [ISSUE-?]
-                            @Override
-                            public Optional<ImmutableSet<Statistic>> load(final String metric) throws Exception {
-                                final Optional<ImmutableSet<Statistic>> statistics = _cachedSpecifiedStatistics.get(metric);
-                                if (statistics.isPresent()) {
-                                   return Optional.of(computeDependentStatistics(statistics.get()));
-                                } else {
-                                   return Optional.empty();
-                                }
-                           }
-                        });
-}
+        final StatisticSets defaultStatisticSets = new StatisticSets(
+                _specifiedCounterStatistics,
+                _specifiedGaugeStatistics,
+                _specifiedTimerStatistics,
+                builder._statistics);
+        final ImmutableMap.Builder<Duration, StatisticSets> statisticSetsBuilder = ImmutableMap.builder();
+        for (final Duration period : _periods) {
+            final PeriodStatistics periodStatistics = _periodStatistics.get(period);
+            if (periodStatistics == null) {
+                statisticSetsBuilder.put(period, defaultStatisticSets);
+            } else {
+                statisticSetsBuilder.put(
+                        period,
+                        new StatisticSets(
+                                periodStatistics.getCounterStatistics().orElse(_specifiedCounterStatistics),
+                                periodStatistics.getGaugeStatistics().orElse(_specifiedGaugeStatistics),
+                                periodStatistics.getTimerStatistics().orElse(_specifiedTimerStatistics),
+                                periodStatistics.getStatistics().isPresent()
+                                        ? periodStatistics.getStatistics().get()
+                                        : builder._statistics));
+            }
+        }
+        _statisticSets = statisticSetsBuilder.build();
+    }
 
     private final ImmutableSet<Duration> _periods;
+    private final ImmutableList<Duration> _periodsDescending;
+    private final ImmutableMap<Duration, Duration> _rollupSources;
     private final Sink _sink;
+    private final Scheduling _scheduling;
+    private final int _shardCount;
+    private final Optional<Duration> _idleKeyTimeout;
+    private final int _histogramPrecision;
+    private final int _queueCapacity;
+    private final OverloadPolicy _overloadPolicy;
+    private final boolean _recycleBuckets;
+    private final Optional<File> _snapshotFile;
+    private final Optional<Integer> _maximumKeysPerService;
+    private final int _maximumMetricsPerKey;
+    private final Optional<KeyLimiter> _keyLimiter;
+    private final KeyInterner _keyInterner = new KeyInterner();
+    private final OverflowCounter _keyOverflowCounter = new OverflowCounter();
+    private final OverflowCounter _metricOverflowCounter = new OverflowCounter();
+    private final PeriodicMetrics _periodicMetrics;
+    private final String _evictedKeysMetricName;
+    private final String _liveKeysMetricName;
+    private final String _droppedRecordsMetricName;
+    private final String _queueDepthMetricName;
+    private final String _maximumQueueDepthMetricName;
+    private final String _keyOverflowMetricName;
+    private final String _metricOverflowMetricName;
+    private final AtomicLong _evictedKeyCount = new AtomicLong(0);
+    private final AtomicLong _droppedRecordCount = new AtomicLong(0);
     private final ImmutableSet<Statistic> _specifiedTimerStatistics;
     private final ImmutableSet<Statistic> _specifiedCounterStatistics;
     private final ImmutableSet<Statistic> _specifiedGaugeStatistics;
-    private final ImmutableSet<Statistic> _dependentTimerStatistics;
-    private final ImmutableSet<Statistic> _dependentCounterStatistics;
-    private final ImmutableSet<Statistic> _dependentGaugeStatistics;
-    private final ImmutableMap<Pattern, ImmutableSet<Statistic>> _statistics;
-    private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _cachedSpecifiedStatistics;
-    private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _cachedDependentStatistics;
-    private final Map<Key, List<PeriodWorker>> _periodWorkers = Maps.newConcurrentMap();
+    private final ImmutableMap<Duration, PeriodStatistics> _periodStatistics;
+    private final ImmutableMap<Duration, StatisticSets> _statisticSets;
+    private final ImmutableList<DimensionRollup> _dimensionRollups;
+    private final Map<Key, KeyPeriodWorkers> _periodWorkers = Maps.newConcurrentMap();
 
     private ExecutorService _periodWorkerExecutor = null;
+    private ScheduledExecutorService _periodWorkerEvictor = null;
+    private PolledMetricsRegistration<Aggregator> _polledMetricsRegistration = null;
+    private volatile PeriodWorkerShard[] _periodWorkerShards = EMPTY_SHARDS;
+    @Nullable
+    private volatile Aggregator _successor;
+    @Nullable
+    private volatile Thread _handOffThread;
 
+    /**
+     * The default capacity of each record queue.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 100000;
+
+    private static final PeriodWorkerShard[] EMPTY_SHARDS = new PeriodWorkerShard[0];
     private static final Logger LOGGER = LoggerFactory.getLogger(Aggregator.class);
 
+    /**
+     * The period workers of a key. Under idle key eviction records are only
+     * queued to the workers between <code>startRecord</code> and
+     * <code>endRecord</code>, and a key can only be retired for eviction
+     * while no record is being queued. A record which finds the key retired
+     * is queued to the workers which replace it instead.
+     */
+    private static final class KeyPeriodWorkers {
+
+        /* package private */ KeyPeriodWorkers(final List<PeriodWorker> periodWorkers) {
+            _periodWorkers = periodWorkers;
+        }
+
+        public List<PeriodWorker> getPeriodWorkers() {
+            return _periodWorkers;
+        }
+
+        public boolean startRecord() {
+            int recordCount = _recordCount.get();
+            while (recordCount != RETIRED) {
+                if (_recordCount.compareAndSet(recordCount, recordCount + 1)) {
+                    return true;
+                }
+                recordCount = _recordCount.get();
+            }
+            return false;
+        }
+
+        public void endRecord() {
+            _recordCount.decrementAndGet();
+        }
+
+        public boolean retire() {
+            return _recordCount.compareAndSet(0, RETIRED);
+        }
+
+        public void reinstate() {
+            _recordCount.set(0);
+        }
+
+        private final List<PeriodWorker> _periodWorkers;
+        private final AtomicInteger _recordCount = new AtomicInteger(0);
+
+        private static final int RETIRED = -1;
+    }
+
+    /**
+     * The statistics computed for the metrics of one or more periods with
+     * the statistics of each metric name cached. Periods without statistics
+     * of their own share one instance.
+     */
+    private static final class StatisticSets {
+
+        StatisticSets(
+                final ImmutableSet<Statistic> specifiedCounterStatistics,
+                final ImmutableSet<Statistic> specifiedGaugeStatistics,
+                final ImmutableSet<Statistic> specifiedTimerStatistics,
+                final Map<String, Set<Statistic>> statistics) {
+            _specifiedCounterStatistics = specifiedCounterStatistics;
+            _specifiedGaugeStatistics = specifiedGaugeStatistics;
+            _specifiedTimerStatistics = specifiedTimerStatistics;
+            _dependentCounterStatistics = computeDependentStatistics(_specifiedCounterStatistics);
+            _dependentGaugeStatistics = computeDependentStatistics(_specifiedGaugeStatistics);
+            _dependentTimerStatistics = computeDependentStatistics(_specifiedTimerStatistics);
+            final ImmutableMap.Builder<Pattern, ImmutableSet<Statistic>> statisticsBuilder = ImmutableMap.builder();
+            for (final Map.Entry<String, Set<Statistic>> entry : statistics.entrySet()) {
+                final Pattern pattern = Pattern.compile(entry.getKey());
+                statisticsBuilder.put(pattern, ImmutableSet.copyOf(entry.getValue()));
+            }
+            _statistics = statisticsBuilder.build();
+
+            _cachedSpecifiedStatistics = CacheBuilder
+                    .newBuilder()
+                    .concurrencyLevel(1)
+                    .build(
+                            new CacheLoader<String, Optional<ImmutableSet<Statistic>>>() {
+                                @Override
+                                public Optional<ImmutableSet<Statistic>> load(final String metric) {
+                                    for (final Map.Entry<Pattern, ImmutableSet<Statistic>> entry : _statistics.entrySet()) {
+                                        if (entry.getKey().matcher(metric).matches()) {
+                                            return Optional.of(entry.getValue());
+                                        }
+                                    }
+                                    return Optional.empty();
+                                }
+                            });
+            _cachedDependentStatistics = CacheBuilder
+                    .newBuilder()
+                    .concurrencyLevel(1)
+                    .build(
+                            new CacheLoader<String, Optional<ImmutableSet<Statistic>>>() {
+                                @Override
+                                public Optional<ImmutableSet<Statistic>> load(final String metric) throws Exception {
+                                    return _cachedSpecifiedStatistics.get(metric).map(Aggregator::computeDependentStatistics);
+                                }
+                            });
+        }
+
+        private final ImmutableSet<Statistic> _specifiedCounterStatistics;
+        private final ImmutableSet<Statistic> _specifiedGaugeStatistics;
+        private final ImmutableSet<Statistic> _specifiedTimerStatistics;
+        private final ImmutableSet<Statistic> _dependentCounterStatistics;
+        private final ImmutableSet<Statistic> _dependentGaugeStatistics;
+        private final ImmutableSet<Statistic> _dependentTimerStatistics;
+        private final ImmutableMap<Pattern, ImmutableSet<Statistic>> _statistics;
+        private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _cachedSpecifiedStatistics;
+        private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _cachedDependentStatistics;
+    }
+
+    /**
+     * The strategy for scheduling <code>PeriodWorker</code> instances onto threads.
+     */
+    public enum Scheduling {
+        /**
+         * Each <code>PeriodWorker</code> runs on its own thread. The number of
+         * threads grows with the number of keys and periods.
+         */
+        DEDICATED,
+        /**
+         * Keys are hash partitioned across a fixed number of shard threads. The
+         * number of threads is independent of the number of keys.
+         */
+        SHARDED
+    }
+
     /**
      * <code>Builder</code> implementation for <code>Aggregator</code>.
      */
@@ -258,6 +924,18 @@ public final class Aggregator implements Observer, Launchable {
             super(Aggregator::new);
         }
 
+        /**
+         * Set the name. Used to identify the aggregator in its metrics;
+         * typically the name of the pipeline. Cannot be null or empty.
+         *
+         * @param value The name.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setName(final String value) {
+            _name = value;
+            return this;
+        }
+
         /**
          * Set the sink. Cannot be null or empty.
          *
@@ -325,6 +1003,193 @@ public final class Aggregator implements Observer, Launchable {
             return this;
         }
 
+        /**
+         * The statistics to compute for individual periods. Statistics which
+         * are not set for a period are those of the aggregator. Periods which
+         * compute different statistics are not rolled up from one another.
+         * Optional. Cannot be null. Default is empty.
+         *
+         * @param value The statistics by period.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setPeriodStatistics(final Map<Duration, PeriodStatistics> value) {
+            _periodStatistics = value;
+            return this;
+        }
+
+        /**
+         * The reduced dimension sets to additionally aggregate each record
+         * by. Each record is aggregated by all of its dimensions and by the
+         * dimensions of each rollup which reduces them. Optional. Cannot be
+         * null. Default is empty.
+         *
+         * @param value The dimension rollups.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setDimensionRollups(final List<DimensionRollup> value) {
+            _dimensionRollups = value;
+            return this;
+        }
+
+        /**
+         * The scheduling of period workers. Optional. Cannot be null. Default
+         * is <code>SHARDED</code>.
+         *
+         * @param value The scheduling.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setScheduling(final Scheduling value) {
+            _scheduling = value;
+            return this;
+        }
+
+        /**
+         * The number of shards when using <code>SHARDED</code> scheduling.
+         * Optional. Cannot be null. Must be at least one. Default is the
+         * number of available processors.
+         *
+         * @param value The number of shards.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setShardCount(final Integer value) {
+            _shardCount = value;
+            return this;
+        }
+
+        /**
+         * The duration after which a key without open buckets that has not
+         * received any records is evicted. Optional. Default is to never evict
+         * keys.
+         *
+         * @param value The idle key timeout.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setIdleKeyTimeout(@Nullable final Duration value) {
+            _idleKeyTimeout = value;
+            return this;
+        }
+
+        /**
+         * The number of bits of mantissa retained by histograms. Optional.
+         * Cannot be null. Must be between 1 and 52. Default is 7.
+         *
+         * @param value The histogram precision.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setHistogramPrecision(final Integer value) {
+            _histogramPrecision = value;
+            return this;
+        }
+
+        /**
+         * The capacity of each record queue; per shard when sharded and per
+         * period worker otherwise. Optional. Cannot be null. Must be at least
+         * 1. Default is 100,000.
+         *
+         * @param value The queue capacity.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * The behavior when a record queue is full. Optional. Cannot be null.
+         * Default is to block the source.
+         *
+         * @param value The overload policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setOverloadPolicy(final OverloadPolicy value) {
+            _overloadPolicy = value;
+            return this;
+        }
+
+        /**
+         * Whether to derive each period from the closed buckets of the
+         * coarsest finer period which divides it instead of accumulating
+         * every sample once per period. Periods which no finer period divides
+         * continue to accumulate samples. Optional. Cannot be null. Default is
+         * false.
+         *
+         * @param value Whether to roll up periods.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setRollupPeriods(final Boolean value) {
+            _rollupPeriods = value;
+            return this;
+        }
+
+        /**
+         * Whether to reuse the closed buckets of each key, and the
+         * calculators of the metrics in them, for the following periods of
+         * the key. Only applies to <code>SHARDED</code> scheduling. Optional.
+         * Cannot be null. Default is false.
+         *
+         * @param value Whether to recycle buckets.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setRecycleBuckets(final Boolean value) {
+            _recycleBuckets = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of distinct keys aggregated for each service.
+         * Records with new keys beyond the limit are aggregated under an
+         * overflow key of the service until keys are evicted. Optional. Must
+         * be at least 1. Default is unlimited.
+         *
+         * @param value The maximum number of keys per service.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaximumKeysPerService(@Nullable final Integer value) {
+            _maximumKeysPerService = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of distinct metrics aggregated for each key in
+         * each period. Samples of new metrics beyond the limit are aggregated
+         * as an overflow metric. Optional. Must be at least 1. Default is
+         * unlimited.
+         *
+         * @param value The maximum number of metrics per key.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaximumMetricsPerKey(@Nullable final Integer value) {
+            _maximumMetricsPerKey = value;
+            return this;
+        }
+
+        /**
+         * The file to write the open buckets to on shutdown and to restore
+         * them from on launch. The file is deleted once restored. Optional.
+         * Default is to discard open buckets on shutdown.
+         *
+         * @param value The snapshot file.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSnapshotFile(@Nullable final File value) {
+            _snapshotFile = value;
+            return this;
+        }
+
+        /**
+         * Set the <code>PeriodicMetrics</code> instance. Cannot be null.
+         *
+         * @param value The <code>PeriodicMetrics</code> instance.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setPeriodicMetrics(final PeriodicMetrics value) {
+            _periodicMetrics = value;
+            return this;
+        }
+
+        @NotNull
+        @NotEmpty
+        private String _name;
         @NotNull
         private Sink _sink;
         @NotNull
@@ -337,5 +1202,34 @@ public final class Aggregator implements Observer, Launchable {
         private Set<Statistic> _gaugeStatistics;
         @NotNull
         private Map<String, Set<Statistic>> _statistics = Collections.emptyMap();
+        @NotNull
+        private Map<Duration, PeriodStatistics> _periodStatistics = Collections.emptyMap();
+        @NotNull
+        private List<DimensionRollup> _dimensionRollups = Collections.emptyList();
+        @NotNull
+        private Scheduling _scheduling = Scheduling.SHARDED;
+        @NotNull
+        @Min(1)
+        private Integer _shardCount = Runtime.getRuntime().availableProcessors();
+        private Duration _idleKeyTimeout;
+        @NotNull
+        @Range(min = 1, max = HistogramStatistic.MAXIMUM_PRECISION)
+        private Integer _histogramPrecision = HistogramStatistic.DEFAULT_PRECISION;
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        @NotNull
+        private OverloadPolicy _overloadPolicy = OverloadPolicy.BLOCK;
+        @NotNull
+        private Boolean _rollupPeriods = false;
+        @NotNull
+        private Boolean _recycleBuckets = false;
+        private File _snapshotFile;
+        @Min(1)
+        private Integer _maximumKeysPerService;
+        @Min(1)
+        private Integer _maximumMetricsPerKey;
+        @NotNull
+        private PeriodicMetrics _periodicMetrics;
     }
 }
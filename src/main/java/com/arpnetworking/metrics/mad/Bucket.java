@@ -20,8 +20,10 @@ import com.arpnetworking.commons.builder.ThreadLocalBuilder;
 import com.arpnetworking.logback.annotations.LogValue;
 import com.arpnetworking.metrics.mad.model.DefaultQuantity;
 import com.arpnetworking.metrics.mad.model.Metric;
+import com.arpnetworking.metrics.mad.model.MetricType;
 import com.arpnetworking.metrics.mad.model.Quantity;
 import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.metrics.mad.model.Unit;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
@@ -32,28 +34,36 @@ import com.arpnetworking.tsdcore.model.PeriodicData;
 import com.arpnetworking.tsdcore.sinks.Sink;
 import com.arpnetworking.tsdcore.statistics.Accumulator;
 import com.arpnetworking.tsdcore.statistics.Calculator;
+import com.arpnetworking.tsdcore.statistics.FusedAccumulator;
+import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
-import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.arpnetworking.utility.StringDictionary;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.ZonedDateTime;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.BiFunction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.annotation.Nullable;
 
 /**
 * Contains samples for a particular aggregation period in time.
@@ -66,36 +76,32 @@ import java.util.function.BiFunction;
      * Close the bucket. The aggregates for each metric are emitted to the sink.
      */
     public void close() {
-        // Set the close flag before acquiring the write lock to allow "readers" to fail fast
+        // Set the close flag before acquiring the stripe monitors to allow "writers" to fail fast
         if (_isOpen.getAndSet(false)) {
-            try {
-                // Acquire the write lock and flush the calculated statistics
-                _addCloseLock.writeLock().lock();
-                final ImmutableMultimap.Builder<String, AggregatedData> data = ImmutableMultimap.builder();
-                computeStatistics(_counterMetricCalculators, _specifiedCounterStatistics, data);
-                computeStatistics(_gaugeMetricCalculators, _specifiedGaugeStatistics, data);
-                computeStatistics(_timerMetricCalculators, _specifiedTimerStatistics, data);
-                computeStatistics(_explicitMetricCalculators, _specifiedStatisticsCache, data);
-                // TODO(vkoskela): Perform expression evaluation here. [NEXT]
-                // -> This still requires realizing and indexing the computed aggregated data
-                // in order to feed the expression evaluation. Once the filtering is consolidated
-                // we can probably just build a map here and then do one copy into immutable form
-                // in the PeriodicData. This becomes feasible with consolidated filtering because
-                // fewer copies (e.g. none) are made downstream.
-                // TODO(vkoskela): Perform alert evaluation here. [NEXT]
-                // -> This requires expressions. Otherwise, it's just a matter of changing the
-                // alerts abstraction from a Sink to something more appropriate and hooking it in
-                // here.
-                final PeriodicData periodicData = ThreadLocalBuilder.build(
-                        PeriodicData.Builder.class,
-                        b -> b.setData(data.build())
-                                .setDimensions(_key)
-                                .setPeriod(_period)
-                                .setStart(_start));
-                _sink.recordAggregateData(periodicData);
-            } finally {
-                _addCloseLock.writeLock().unlock();
-            }
+            // Merging each metric's stripes acquires the stripe monitors which waits for any
+            // in-flight additions; additions after the close flag is set are discarded
+            final ImmutableMultimap.Builder<String, AggregatedData> data = ImmutableMultimap.builder();
+            computeStatistics(_counterMetricCalculators, data);
+            computeStatistics(_gaugeMetricCalculators, data);
+            computeStatistics(_timerMetricCalculators, data);
+            computeStatistics(_explicitMetricCalculators, data);
+            // TODO(vkoskela): Perform expression evaluation here. [NEXT]
+            // -> This still requires realizing and indexing the computed aggregated data
+            // in order to feed the expression evaluation. Once the filtering is consolidated
+            // we can probably just build a map here and then do one copy into immutable form
+            // in the PeriodicData. This becomes feasible with consolidated filtering because
+            // fewer copies (e.g. none) are made downstream.
+            // TODO(vkoskela): Perform alert evaluation here. [NEXT]
+            // -> This requires expressions. Otherwise, it's just a matter of changing the
+            // alerts abstraction from a Sink to something more appropriate and hooking it in
+            // here.
+            final PeriodicData periodicData = ThreadLocalBuilder.build(
+                    PeriodicData.Builder.class,
+                    b -> b.setData(data.build())
+                            .setDimensions(_key)
+                            .setPeriod(_period)
+                            .setStart(_start));
+            _sink.recordAggregateData(periodicData);
         } else {
             LOGGER.warn()
                     .setMessage("Bucket closed multiple times")
@@ -124,73 +130,110 @@ import java.util.function.BiFunction;
                 continue;
             }
 
-            Collection<Calculator<?>> calculators = Collections.emptyList();
-            // First check to see if the user has specified a set of statistics for this metric
-            final Optional<ImmutableSet<Statistic>> specifiedStatistics;
-            try {
-                specifiedStatistics = _specifiedStatisticsCache.get(name);
-            } catch (final ExecutionException e) {
-                throw new RuntimeException(e);
-            }
-            if (specifiedStatistics.isPresent()) {
-                final Optional<ImmutableSet<Statistic>> dependentStatistics;
-                try {
-                    dependentStatistics = _dependentStatisticsCache.get(name);
-                } catch (final ExecutionException e) {
-                    throw new RuntimeException(e);
-                }
-                calculators = getOrCreateCalculators(
+            final MetricCalculators calculators = getOrCreateCalculators(name, metric.getType());
+            if (calculators != null) {
+                addMetric(
                         name,
-                        specifiedStatistics.get(),
-                        dependentStatistics.get(),
-                        _explicitMetricCalculators);
+                        metric,
+                        record.getTime(),
+                        calculators);
             } else {
-                switch (metric.getType()) {
-                    case COUNTER: {
-                        calculators = getOrCreateCalculators(
-                                name,
-                                _specifiedCounterStatistics,
-                                _dependentCounterStatistics,
-                                _counterMetricCalculators);
-                        break;
-                    }
-                    case GAUGE: {
-                        calculators = getOrCreateCalculators(
-                                name,
-                                _specifiedGaugeStatistics,
-                                _dependentGaugeStatistics,
-                                _gaugeMetricCalculators);
-                        break;
-                    }
-                    case TIMER: {
-                        calculators = getOrCreateCalculators(
-                                name,
-                                _specifiedTimerStatistics,
-                                _dependentTimerStatistics,
-                                _timerMetricCalculators);
-                        break;
-                    }
-                    default:
-                        LOGGER.warn()
-                                .setMessage("Discarding metric")
-                                .addData("reason", "unsupported type")
-                                .addData("name", name)
-                                .addData("metric", metric)
-                                .log();
-                }
+                LOGGER.warn()
+                        .setMessage("Discarding metric")
+                        .addData("reason", "unsupported type")
+                        .addData("name", name)
+                        .addData("metric", metric)
+                        .log();
             }
-            addMetric(
-                    name,
-                    metric,
-                    record.getTime(),
-                    calculators);
         }
     }
 
+    /**
+     * Merge the samples of a closed <code>Bucket</code> of a finer period into
+     * this <code>Bucket</code>. The partial accumulators of each metric in the
+     * finer bucket are merged as if its samples had been added to this
+     * <code>Bucket</code> directly. Must be called from the thread which
+     * closed the finer bucket.
+     *
+     * @param bucket The closed finer <code>Bucket</code> to merge.
+     */
+    public void rollup(final Bucket bucket) {
+        rollupMetrics(bucket._counterMetricCalculators, _counterMetricCalculators);
+        rollupMetrics(bucket._gaugeMetricCalculators, _gaugeMetricCalculators);
+        rollupMetrics(bucket._timerMetricCalculators, _timerMetricCalculators);
+        rollupMetrics(bucket._explicitMetricCalculators, _explicitMetricCalculators);
+    }
+
+    /**
+     * Reuse this closed <code>Bucket</code> for the period beginning at a new
+     * start. The calculators of each metric which received samples in the
+     * closed period are reset and retained for the new period, so a key
+     * which reports the same metrics each period does not reallocate them;
+     * the calculators of metrics which received no samples, or which have an
+     * accumulator that cannot be reset, are discarded.
+     * Must only be called by the thread which owns the bucket and only once
+     * no other thread adds to or rolls up into it.
+     *
+     * @param start The start of the new period.
+     */
+    /* package private */ void recycle(final ZonedDateTime start) {
+        if (_isOpen.get()) {
+            throw new IllegalStateException("Cannot recycle an open bucket");
+        }
+        recycleMetrics(_counterMetricCalculators);
+        recycleMetrics(_gaugeMetricCalculators);
+        recycleMetrics(_timerMetricCalculators);
+        recycleMetrics(_explicitMetricCalculators);
+        _start = start;
+        _startMillis = _start.toInstant().toEpochMilli();
+        _isOpen.set(true);
+    }
+
+    /**
+     * Write the accumulated state of this <code>Bucket</code>. The partial
+     * accumulators of each metric are merged and written as the fused count,
+     * sum, minimum and maximum and the histogram, if any. The key, start and
+     * period are not written. Must not be called concurrently with additions.
+     *
+     * @param out The <code>DataOutput</code> to write to.
+     * @throws IOException If the state could not be written.
+     */
+    public void snapshot(final DataOutput out) throws IOException {
+        snapshotMetrics(_counterMetricCalculators, out);
+        snapshotMetrics(_gaugeMetricCalculators, out);
+        snapshotMetrics(_timerMetricCalculators, out);
+        snapshotMetrics(_explicitMetricCalculators, out);
+    }
+
+    /**
+     * Add the state written by <code>snapshot</code> to this
+     * <code>Bucket</code>. Each metric is accumulated with the statistics
+     * currently configured for it; a histogram is only restored if one of
+     * the statistics requires it and metrics whose statistics are no longer
+     * specified explicitly are discarded.
+     *
+     * @param in The <code>DataInput</code> to read from.
+     * @throws IOException If the state could not be read.
+     */
+    public void restore(final DataInput in) throws IOException {
+        restoreMetrics(MetricType.COUNTER, in);
+        restoreMetrics(MetricType.GAUGE, in);
+        restoreMetrics(MetricType.TIMER, in);
+        restoreMetrics(null, in);
+    }
+
     public ZonedDateTime getStart() {
         return _start;
     }
 
+    public long getStartMillis() {
+        return _startMillis;
+    }
+
+    public Duration getPeriod() {
+        return _period;
+    }
+
     public boolean isOpen() {
         return _isOpen.get();
     }
@@ -223,73 +266,37 @@ import java.util.function.BiFunction;
     }
 
     private void computeStatistics(
-            final ConcurrentMap<String, Collection<Calculator<?>>> calculatorsByMetric,
-            final LoadingCache<String, Optional<ImmutableSet<Statistic>>> specifiedStatistics,
-            final ImmutableMultimap.Builder<String, AggregatedData> data) {
-        computeStatistics(calculatorsByMetric, (metric, statistic) -> {
-            final Optional<ImmutableSet<Statistic>> stats;
-            try {
-                stats = specifiedStatistics.get(metric);
-            } catch (final ExecutionException e) {
-                throw new RuntimeException(e);
-            }
-            return stats.isPresent() && stats.get().contains(statistic);
-        }, data);
-    }
-
-    private void computeStatistics(
-            final ConcurrentMap<String, Collection<Calculator<?>>> calculatorsByMetric,
-            final ImmutableSet<Statistic> specifiedStatistics,
-            final ImmutableMultimap.Builder<String, AggregatedData> data) {
-        computeStatistics(calculatorsByMetric, (metric, statistic) -> specifiedStatistics.contains(statistic), data);
-    }
-    private void computeStatistics(
-            final ConcurrentMap<String, Collection<Calculator<?>>> calculatorsByMetric,
-            final BiFunction<String, Statistic, Boolean> specified,
+            final ConcurrentMap<String, MetricCalculators> calculatorsByMetric,
             final ImmutableMultimap.Builder<String, AggregatedData> data) {
 
-        for (final Map.Entry<String, Collection<Calculator<?>>> entry : calculatorsByMetric.entrySet()) {
+        for (final Map.Entry<String, MetricCalculators> entry : calculatorsByMetric.entrySet()) {
             final String metric = entry.getKey();
-            final Collection<Calculator<?>> calculators = entry.getValue();
-
-            // Build calculator dependencies for metric
-            // TODO(vkoskela): This is a waste of time. [NEXT]
-            // - Single set of calculators per metric and per statistic (no distinction between non-aux and aux)
-            // - Check the set of statistics to see if the calculator should be published
-            // - Still need both sets of statistics in order to create new set of calculators
-            final Map<Statistic, Calculator<?>> dependencies = Maps.newHashMap();
-            Optional<Calculator<?>> countStatisticCalculator = Optional.empty();
-            for (final Calculator<?> calculator : calculators) {
-                if (COUNT_STATISTIC.equals(calculator.getStatistic())) {
-                    countStatisticCalculator = Optional.of(calculator);
-                }
-                dependencies.put(calculator.getStatistic(), calculator);
-            }
-            final CalculatedValue<?> populationSize;
-            if (countStatisticCalculator.isPresent()) {
-                populationSize = countStatisticCalculator.get().calculate(dependencies);
-            } else {
-                populationSize = ThreadLocalBuilder.<
-                        CalculatedValue<Object>,
-                        CalculatedValue.Builder<Object>>buildGeneric(
-                                CalculatedValue.Builder.class,
-                                b -> b.setValue(
-                                        ThreadLocalBuilder.build(
-                                                DefaultQuantity.Builder.class,
-                                                builder -> builder.setValue(-1.0))));
+            final MetricCalculators calculators = entry.getValue();
+            if (calculators.isEmpty()) {
+                // Only recycled calculators may be empty
+                continue;
             }
+            final CalculatorPlan plan = calculators.getPlan();
+            final Map<Statistic, Calculator<?>> dependencies = calculators.getDependencies();
+            calculators.merge();
 
-            // Compute each calculated value requested by the client
-            for (final Calculator<?> calculator : calculators) {
-                final CalculatedValue<?> calculatedValue = calculator.calculate(dependencies);
+            // The count statistic is always first in the plan
+            final CalculatedValue<?> count = calculators.getCalculator(0).calculate(dependencies);
+            final long populationSize = (long) count.getValue().getValue();
+
+            // Compute each calculated value in dependency order
+            for (int i = 0; i < plan.size(); ++i) {
+                final CalculatedValue<?> calculatedValue = i == 0 ? count : calculators.getCalculator(i).calculate(dependencies);
+                final Statistic statistic = plan.getStatistic(i);
+                final boolean isSpecified = plan.isPublished(i);
                 final AggregatedData datum = ThreadLocalBuilder.build(
                         AggregatedData.Builder.class,
                         b -> b.setSupportingData(null)
                                 .setValue(calculatedValue.getValue())
-                                .setIsSpecified(specified.apply(metric, calculator.getStatistic()))
-                                .setPopulationSize((long) populationSize.getValue().getValue())
+                                .setIsSpecified(isSpecified)
+                                .setPopulationSize(populationSize)
                                 .setSupportingData(calculatedValue.getData())
-                                .setStatistic(calculator.getStatistic()));
+                                .setStatistic(statistic));
                 data.put(metric, datum);
             }
         }
@@ -299,61 +306,241 @@ import java.util.function.BiFunction;
             final String name,
             final Metric metric,
             final ZonedDateTime time,
-            final Collection<Calculator<?>> calculators) {
+            final MetricCalculators calculators) {
 
-        try {
-            // Acquire a read lock and validate the bucket is still open
-            _addCloseLock.readLock().lock();
-            if (!_isOpen.get()) {
-                // TODO(vkoskela): Re-aggregation starts here.
-                // 1) Send the record back to Aggregator.
-                // 2) This causes a new bucket to be created for this start+period.
-                // 3) Enhance aggregation at edges to support re-aggregation (or prevent overwrite).
-                BUCKET_CLOSED_LOGGER
-                        .warn()
+        // Add the values to this thread's stripe of partial accumulators
+        final Stripe stripe = calculators.getOrCreateStripe();
+        if (_isSingleWriter) {
+            addToStripe(name, metric, time, stripe);
+        } else {
+            synchronized (stripe) {
+                // Validate the bucket is still open while holding the stripe monitor
+                addToStripe(name, metric, time, stripe);
+            }
+        }
+    }
+
+    private void addToStripe(
+            final String name,
+            final Metric metric,
+            final ZonedDateTime time,
+            final Stripe stripe) {
+        if (!_isOpen.get()) {
+            // TODO(vkoskela): Re-aggregation starts here.
+            // 1) Send the record back to Aggregator.
+            // 2) This causes a new bucket to be created for this start+period.
+            // 3) Enhance aggregation at edges to support re-aggregation (or prevent overwrite).
+            BUCKET_CLOSED_LOGGER
+                    .warn()
+                    .setMessage("Discarding metric")
+                    .addData("reason", "added after close")
+                    .addData("name", name)
+                    .addData("metric", metric)
+                    .addData("time", time)
+                    .log();
+            return;
+        }
+
+        stripe.accumulate(metric.getValues());
+    }
+
+    private void rollupMetrics(
+            final ConcurrentMap<String, MetricCalculators> sourceCalculatorsByMetric,
+            final ConcurrentMap<String, MetricCalculators> calculatorsByMetric) {
+
+        for (final Map.Entry<String, MetricCalculators> entry : sourceCalculatorsByMetric.entrySet()) {
+            final String name = entry.getKey();
+            final MetricCalculators sourceCalculators = entry.getValue();
+            if (sourceCalculators.isEmpty()) {
+                continue;
+            }
+            final MetricCalculators calculators = getOrCreateCalculators(
+                    name,
+                    sourceCalculators.getPlan(),
+                    calculatorsByMetric);
+            if (calculators.getPlan() != sourceCalculators.getPlan()) {
+                // Only the overflow metric may have been created with another plan
+                LOGGER.debug()
                         .setMessage("Discarding metric")
-                        .addData("reason", "added after close")
+                        .addData("reason", "overflow plan mismatch")
                         .addData("name", name)
-                        .addData("metric", metric)
-                        .addData("time", time)
                         .log();
-                return;
+                continue;
             }
 
-            // Add the value to any accumulators
-            for (final Calculator<?> calculator : calculators) {
-                if (calculator instanceof Accumulator) {
-                    final Accumulator<?> accumulator = (Accumulator<?>) calculator;
-                    synchronized (accumulator) {
-                        for (final Quantity quantity : metric.getValues()) {
-                            accumulator.accumulate(quantity);
-                        }
-                    }
+            // Merge the source stripes into this thread's stripe of partial accumulators
+            final Stripe stripe = calculators.getOrCreateStripe();
+            final boolean isRolledUp;
+            if (_isSingleWriter) {
+                isRolledUp = rollupIntoStripe(name, sourceCalculators, stripe);
+            } else {
+                synchronized (stripe) {
+                    // Validate the bucket is still open while holding the stripe monitor
+                    isRolledUp = rollupIntoStripe(name, sourceCalculators, stripe);
                 }
             }
-        } finally {
-            _addCloseLock.readLock().unlock();
+            if (!isRolledUp) {
+                return;
+            }
         }
     }
 
-    private Collection<Calculator<?>> getOrCreateCalculators(
+    private boolean rollupIntoStripe(
             final String name,
-            final Collection<Statistic> specifiedStatistics,
-            final Collection<Statistic> dependentStatistics,
-            final ConcurrentMap<String, Collection<Calculator<?>>> calculatorsByMetric) {
-        Collection<Calculator<?>> calculators = calculatorsByMetric.get(name);
-        if (calculators == null) {
-            final Set<Calculator<?>> newCalculators = Sets.newHashSet();
-            for (final Statistic statistic : specifiedStatistics) {
-                newCalculators.add(statistic.createCalculator());
+            final MetricCalculators sourceCalculators,
+            final Stripe stripe) {
+        if (!_isOpen.get()) {
+            BUCKET_CLOSED_LOGGER
+                    .warn()
+                    .setMessage("Discarding metric")
+                    .addData("reason", "rolled up after close")
+                    .addData("name", name)
+                    .addData("start", _start)
+                    .addData("period", _period)
+                    .log();
+            return false;
+        }
+
+        // NOTE: The source bucket is closed so its stripes are no longer modified
+        sourceCalculators.rollupInto(stripe);
+        return true;
+    }
+
+    private void recycleMetrics(final ConcurrentMap<String, MetricCalculators> calculatorsByMetric) {
+        final Iterator<MetricCalculators> iterator = calculatorsByMetric.values().iterator();
+        while (iterator.hasNext()) {
+            final MetricCalculators calculators = iterator.next();
+            // NOTE: Calculators with an accumulator which cannot be reset are
+            // discarded and created again when the metric is next added
+            if (calculators.isEmpty() || !calculators.isResettable()) {
+                iterator.remove();
+                _metricCount.decrementAndGet();
+            } else {
+                calculators.reset();
             }
-            for (final Statistic statistic : dependentStatistics) {
-                newCalculators.add(statistic.createCalculator());
+        }
+    }
+
+    private static void snapshotMetrics(
+            final ConcurrentMap<String, MetricCalculators> calculatorsByMetric,
+            final DataOutput out) throws IOException {
+        out.writeInt(calculatorsByMetric.size());
+        for (final Map.Entry<String, MetricCalculators> entry : calculatorsByMetric.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().snapshot(out);
+        }
+    }
+
+    private void restoreMetrics(@Nullable final MetricType type, final DataInput in) throws IOException {
+        final int size = in.readInt();
+        for (int i = 0; i < size; ++i) {
+            final String name = in.readUTF();
+            final MetricCalculators calculators = getOrCreateCalculators(name, type);
+            if (calculators == null) {
+                LOGGER.warn()
+                        .setMessage("Discarding metric")
+                        .addData("reason", "statistics no longer specified")
+                        .addData("name", name)
+                        .addData("start", _start)
+                        .addData("period", _period)
+                        .log();
+                Stripe.skip(in);
+                continue;
+            }
+            final Stripe stripe = calculators.getOrCreateStripe();
+            synchronized (stripe) {
+                stripe.restore(in);
+            }
+        }
+    }
+
+    private static int getStripeCount(final int parallelism) {
+        // Round up to a power of two so the stripe index is a simple mask
+        return Integer.highestOneBit(Math.max(1, parallelism) * 2 - 1);
+    }
+
+    @Nullable
+    private MetricCalculators getOrCreateCalculators(final String name, @Nullable final MetricType type) {
+        // First check to see if the user has specified a set of statistics for this metric
+        final Optional<ImmutableSet<Statistic>> specifiedStatistics;
+        try {
+            specifiedStatistics = _specifiedStatisticsCache.get(name);
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        if (specifiedStatistics.isPresent()) {
+            final Optional<ImmutableSet<Statistic>> dependentStatistics;
+            try {
+                dependentStatistics = _dependentStatisticsCache.get(name);
+            } catch (final ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+            return getOrCreateCalculators(
+                    name,
+                    specifiedStatistics.get(),
+                    dependentStatistics.get(),
+                    _explicitMetricCalculators);
+        }
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case COUNTER:
+                return getOrCreateCalculators(
+                        name,
+                        _specifiedCounterStatistics,
+                        _dependentCounterStatistics,
+                        _counterMetricCalculators);
+            case GAUGE:
+                return getOrCreateCalculators(
+                        name,
+                        _specifiedGaugeStatistics,
+                        _dependentGaugeStatistics,
+                        _gaugeMetricCalculators);
+            case TIMER:
+                return getOrCreateCalculators(
+                        name,
+                        _specifiedTimerStatistics,
+                        _dependentTimerStatistics,
+                        _timerMetricCalculators);
+            default:
+                return null;
+        }
+    }
+
+    private MetricCalculators getOrCreateCalculators(
+            final String name,
+            final ImmutableSet<Statistic> specifiedStatistics,
+            final ImmutableSet<Statistic> dependentStatistics,
+            final ConcurrentMap<String, MetricCalculators> calculatorsByMetric) {
+        MetricCalculators calculators = calculatorsByMetric.get(name);
+        if (calculators == null) {
+            calculators = getOrCreateCalculators(
+                    name,
+                    CalculatorPlan.of(specifiedStatistics, dependentStatistics, _histogramPrecision),
+                    calculatorsByMetric);
+        }
+        return calculators;
+    }
+
+    private MetricCalculators getOrCreateCalculators(
+            final String name,
+            final CalculatorPlan plan,
+            final ConcurrentMap<String, MetricCalculators> calculatorsByMetric) {
+        MetricCalculators calculators = calculatorsByMetric.get(name);
+        if (calculators == null) {
+            // Fold metrics beyond the limit into the overflow metric instead of allocating their state
+            if (_metricCount.get() >= _maximumMetrics && !OVERFLOW_METRIC_NAME.equals(name)) {
+                if (_metricOverflowCounter != null) {
+                    _metricOverflowCounter.increment(_key.getService());
+                }
+                return getOrCreateCalculators(OVERFLOW_METRIC_NAME, plan, calculatorsByMetric);
             }
-            newCalculators.add(COUNT_STATISTIC.createCalculator());
-            calculators = calculatorsByMetric.putIfAbsent(name, newCalculators);
+            final MetricCalculators newCalculators = new MetricCalculators(plan, _isSingleWriter);
+            calculators = calculatorsByMetric.putIfAbsent(StringDictionary.getInstance().intern(name), newCalculators);
             if (calculators == null) {
                 calculators = newCalculators;
+                _metricCount.incrementAndGet();
             }
         }
         return calculators;
@@ -363,6 +550,7 @@ import java.util.function.BiFunction;
         _sink = builder._sink;
         _key = builder._key;
         _start = builder._start;
+        _startMillis = _start.toInstant().toEpochMilli();
         _period = builder._period;
         _specifiedCounterStatistics = builder._specifiedCounterStatistics;
         _specifiedGaugeStatistics = builder._specifiedGaugeStatistics;
@@ -372,17 +560,22 @@ import java.util.function.BiFunction;
         _dependentTimerStatistics = builder._dependentTimerStatistics;
         _specifiedStatisticsCache = builder._specifiedStatistics;
         _dependentStatisticsCache = builder._dependentStatistics;
+        _histogramPrecision = builder._histogramPrecision;
+        _maximumMetrics = builder._maximumMetrics;
+        _metricOverflowCounter = builder._metricOverflowCounter;
+        _isSingleWriter = builder._singleWriter;
     }
 
     private final AtomicBoolean _isOpen = new AtomicBoolean(true);
-    private final ReadWriteLock _addCloseLock = new ReentrantReadWriteLock();
-    private final ConcurrentMap<String, Collection<Calculator<?>>> _counterMetricCalculators = Maps.newConcurrentMap();
-    private final ConcurrentMap<String, Collection<Calculator<?>>> _gaugeMetricCalculators = Maps.newConcurrentMap();
-    private final ConcurrentMap<String, Collection<Calculator<?>>> _timerMetricCalculators = Maps.newConcurrentMap();
-    private final ConcurrentMap<String, Collection<Calculator<?>>> _explicitMetricCalculators = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, MetricCalculators> _counterMetricCalculators = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, MetricCalculators> _gaugeMetricCalculators = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, MetricCalculators> _timerMetricCalculators = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, MetricCalculators> _explicitMetricCalculators = Maps.newConcurrentMap();
     private final Sink _sink;
     private final Key _key;
-    private final ZonedDateTime _start;
+    // NOTE: The start only changes when the owner recycles the bucket
+    private ZonedDateTime _start;
+    private long _startMillis;
     private final Duration _period;
     private final ImmutableSet<Statistic> _specifiedCounterStatistics;
     private final ImmutableSet<Statistic> _specifiedGaugeStatistics;
@@ -392,15 +585,339 @@ import java.util.function.BiFunction;
     private final ImmutableSet<Statistic> _dependentTimerStatistics;
     private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _dependentStatisticsCache;
     private final LoadingCache<String, Optional<ImmutableSet<Statistic>>> _specifiedStatisticsCache;
+    private final int _histogramPrecision;
+    private final int _maximumMetrics;
+    @Nullable
+    private final OverflowCounter _metricOverflowCounter;
+    private final AtomicInteger _metricCount = new AtomicInteger(0);
+    private final boolean _isSingleWriter;
 
-    private static final StatisticFactory STATISTIC_FACTORY;
-    private static final Statistic COUNT_STATISTIC;
+    /**
+     * The name of the metric which aggregates the metrics beyond the limit.
+     */
+    /* package private */ static final String OVERFLOW_METRIC_NAME = "_overflow";
+    private static final int STRIPE_COUNT = getStripeCount(Runtime.getRuntime().availableProcessors());
     private static final Logger LOGGER = LoggerFactory.getLogger(Bucket.class);
     private static final Logger BUCKET_CLOSED_LOGGER = LoggerFactory.getRateLimitLogger(Bucket.class, Duration.ofSeconds(30));
 
-    static {
-        STATISTIC_FACTORY = new StatisticFactory();
-        COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    /**
+     * The calculators of a single metric created from its
+     * <code>CalculatorPlan</code>. Values are accumulated into per-thread
+     * stripes of partial accumulators so that threads adding to the same
+     * metric do not contend on a shared monitor. The stripes are merged into
+     * the calculators when the bucket is closed. A bucket with a single
+     * writer has a single stripe which is neither indexed nor contended.
+     */
+    private static final class MetricCalculators {
+
+        /* package private */ MetricCalculators(final CalculatorPlan plan, final boolean isSingleWriter) {
+            _plan = plan;
+            _calculators = plan.createCalculators();
+            _dependencies = Maps.newHashMapWithExpectedSize(_calculators.length);
+            final ImmutableList.Builder<Accumulator<?>> accumulators = ImmutableList.builder();
+            final List<Integer> accumulatorIndexes = Lists.newArrayList();
+            boolean isResettable = true;
+            for (int i = 0; i < _calculators.length; ++i) {
+                _dependencies.put(plan.getStatistic(i), _calculators[i]);
+                if (_calculators[i] instanceof Accumulator) {
+                    accumulators.add((Accumulator<?>) _calculators[i]);
+                    accumulatorIndexes.add(i);
+                    isResettable &= ((Accumulator<?>) _calculators[i]).isResettable();
+                }
+            }
+            _isResettable = isResettable;
+            _accumulators = accumulators.build();
+            _accumulatorIndexes = Ints.toArray(accumulatorIndexes);
+            _stripes = isSingleWriter ? null : new AtomicReferenceArray<>(STRIPE_COUNT);
+        }
+
+        /* package private */ Stripe getOrCreateStripe() {
+            if (_stripes == null) {
+                if (_stripe == null) {
+                    _stripe = new Stripe(_plan, _accumulatorIndexes);
+                }
+                return _stripe;
+            }
+            final int index = (int) Thread.currentThread().getId() & (_stripes.length() - 1);
+            Stripe stripe = _stripes.get(index);
+            if (stripe == null) {
+                final Stripe newStripe = new Stripe(_plan, _accumulatorIndexes);
+                if (_stripes.compareAndSet(index, null, newStripe)) {
+                    stripe = newStripe;
+                } else {
+                    stripe = _stripes.get(index);
+                }
+            }
+            return stripe;
+        }
+
+        /* package private */ void merge() {
+            for (int i = 0; i < getStripeCount(); ++i) {
+                final Stripe stripe = getStripe(i);
+                if (stripe != null) {
+                    synchronized (stripe) {
+                        if (!stripe.isEmpty()) {
+                            stripe.mergeInto(_accumulators);
+                        }
+                    }
+                }
+            }
+        }
+
+        /* package private */ void rollupInto(final Stripe target) {
+            for (int i = 0; i < getStripeCount(); ++i) {
+                final Stripe stripe = getStripe(i);
+                if (stripe != null && !stripe.isEmpty()) {
+                    target.merge(stripe);
+                }
+            }
+        }
+
+        /* package private */ boolean isEmpty() {
+            for (int i = 0; i < getStripeCount(); ++i) {
+                final Stripe stripe = getStripe(i);
+                if (stripe != null) {
+                    synchronized (stripe) {
+                        if (!stripe.isEmpty()) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        /* package private */ boolean isResettable() {
+            return _isResettable;
+        }
+
+        /* package private */ void reset() {
+            for (final Accumulator<?> accumulator : _accumulators) {
+                accumulator.reset();
+            }
+            for (int i = 0; i < getStripeCount(); ++i) {
+                final Stripe stripe = getStripe(i);
+                if (stripe != null) {
+                    synchronized (stripe) {
+                        stripe.reset();
+                    }
+                }
+            }
+        }
+
+        /* package private */ void snapshot(final DataOutput out) throws IOException {
+            // Write the stripes merged into one
+            final Stripe merged = new Stripe(_plan, _accumulatorIndexes);
+            for (int i = 0; i < getStripeCount(); ++i) {
+                final Stripe stripe = getStripe(i);
+                if (stripe != null) {
+                    synchronized (stripe) {
+                        if (!stripe.isEmpty()) {
+                            merged.merge(stripe);
+                        }
+                    }
+                }
+            }
+            merged.snapshot(out);
+        }
+
+        /* package private */ CalculatorPlan getPlan() {
+            return _plan;
+        }
+
+        private int getStripeCount() {
+            return _stripes == null ? 1 : _stripes.length();
+        }
+
+        @Nullable
+        private Stripe getStripe(final int index) {
+            return _stripes == null ? _stripe : _stripes.get(index);
+        }
+
+        /* package private */ Calculator<?> getCalculator(final int index) {
+            return _calculators[index];
+        }
+
+        /* package private */ Map<Statistic, Calculator<?>> getDependencies() {
+            return _dependencies;
+        }
+
+        private final CalculatorPlan _plan;
+        private final Calculator<?>[] _calculators;
+        private final Map<Statistic, Calculator<?>> _dependencies;
+        private final ImmutableList<Accumulator<?>> _accumulators;
+        private final int[] _accumulatorIndexes;
+        // NOTE: The stripes accumulate with the same statistics as the calculators
+        private final boolean _isResettable;
+        // NOTE: Either the stripes of concurrent writers or the stripe of a single writer
+        @Nullable
+        private final AtomicReferenceArray<Stripe> _stripes;
+        @Nullable
+        private Stripe _stripe;
+    }
+
+    /**
+     * Partial accumulators of a metric for the threads mapped to a stripe. The
+     * count, sum, minimum and maximum are accumulated by one shared primitive
+     * <code>FusedAccumulator</code>; any other statistics have their own
+     * accumulators. A stripe is only created when a value is added to it;
+     * it is only empty once it has been reset when its bucket is recycled.
+     */
+    private static final class Stripe {
+
+        /* package private */ Stripe(final CalculatorPlan plan, final int[] accumulatorIndexes) {
+            // Accumulators aligned to the metric's accumulators; null where fused
+            _accumulators = new Accumulator<?>[accumulatorIndexes.length];
+            final List<Accumulator<?>> unfusedAccumulators = Lists.newArrayList();
+            for (int i = 0; i < _accumulators.length; ++i) {
+                if (!FusedAccumulator.isFused(plan.getStatistic(accumulatorIndexes[i]))) {
+                    _accumulators[i] = (Accumulator<?>) plan.createCalculator(accumulatorIndexes[i]);
+                    unfusedAccumulators.add(_accumulators[i]);
+                }
+            }
+            _unfusedAccumulators = unfusedAccumulators.toArray(new Accumulator<?>[0]);
+        }
+
+        /* package private */ void accumulate(final List<Quantity> quantities) {
+            _fusedAccumulator.accumulate(quantities);
+            for (final Accumulator<?> accumulator : _unfusedAccumulators) {
+                for (final Quantity quantity : quantities) {
+                    accumulator.accumulate(quantity);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        /* package private */ void merge(final Stripe stripe) {
+            // Stripes of the same plan have aligned accumulators
+            _fusedAccumulator.merge(stripe._fusedAccumulator);
+            for (int i = 0; i < _accumulators.length; ++i) {
+                if (_accumulators[i] != null) {
+                    ((Accumulator<Object>) _accumulators[i]).accumulate(
+                            (CalculatedValue<Object>) stripe._accumulators[i].calculate(Collections.emptyMap()));
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        /* package private */ void mergeInto(final List<Accumulator<?>> accumulators) {
+            for (int i = 0; i < _accumulators.length; ++i) {
+                final Accumulator<Object> accumulator = (Accumulator<Object>) accumulators.get(i);
+                final CalculatedValue<?> calculatedValue;
+                if (_accumulators[i] == null) {
+                    calculatedValue = _fusedAccumulator.calculate(accumulator.getStatistic());
+                } else {
+                    calculatedValue = _accumulators[i].calculate(Collections.emptyMap());
+                }
+                accumulator.accumulate((CalculatedValue<Object>) calculatedValue);
+            }
+        }
+
+        /* package private */ boolean isEmpty() {
+            return _fusedAccumulator.getCount() == 0;
+        }
+
+        /* package private */ void reset() {
+            _fusedAccumulator.reset();
+            for (final Accumulator<?> accumulator : _unfusedAccumulators) {
+                accumulator.reset();
+            }
+        }
+
+        /* package private */ void snapshot(final DataOutput out) throws IOException {
+            out.writeLong(_fusedAccumulator.getCount());
+            out.writeDouble(_fusedAccumulator.getSum());
+            out.writeDouble(_fusedAccumulator.getMin());
+            out.writeDouble(_fusedAccumulator.getMax());
+            writeUnit(_fusedAccumulator.getUnit(), out);
+
+            // The histogram is the only unfused accumulator
+            final Accumulator<?> histogramAccumulator = getHistogramAccumulator();
+            if (histogramAccumulator == null) {
+                out.writeBoolean(false);
+            } else {
+                final HistogramStatistic.HistogramSupportingData histogram = (HistogramStatistic.HistogramSupportingData)
+                        histogramAccumulator.calculate(Collections.emptyMap()).getData();
+                final HistogramStatistic.HistogramSnapshot histogramSnapshot = histogram.getHistogramSnapshot();
+                out.writeBoolean(true);
+                out.writeInt(histogramSnapshot.getPrecision());
+                out.writeInt(histogramSnapshot.size());
+                for (int i = 0; i < histogramSnapshot.size(); ++i) {
+                    out.writeDouble(histogramSnapshot.getBucket(i));
+                    out.writeLong(histogramSnapshot.getCount(i));
+                }
+                writeUnit(histogram.getUnit(), out);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        /* package private */ void restore(final DataInput in) throws IOException {
+            _fusedAccumulator.merge(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(), readUnit(in));
+            final Optional<HistogramStatistic.HistogramSupportingData> histogram = readHistogram(in);
+            final Accumulator<?> histogramAccumulator = getHistogramAccumulator();
+            if (histogram.isPresent() && histogramAccumulator != null) {
+                ((Accumulator<HistogramStatistic.HistogramSupportingData>) histogramAccumulator).accumulate(
+                        ThreadLocalBuilder.<
+                                CalculatedValue<HistogramStatistic.HistogramSupportingData>,
+                                CalculatedValue.Builder<HistogramStatistic.HistogramSupportingData>>buildGeneric(
+                                CalculatedValue.Builder.class,
+                                b1 -> b1.setValue(
+                                        ThreadLocalBuilder.build(
+                                                DefaultQuantity.Builder.class,
+                                                b2 -> b2.setValue(1.0)))
+                                        .setData(histogram.get())));
+            }
+        }
+
+        /* package private */ static void skip(final DataInput in) throws IOException {
+            in.readLong();
+            in.readDouble();
+            in.readDouble();
+            in.readDouble();
+            readUnit(in);
+            readHistogram(in);
+        }
+
+        @Nullable
+        private Accumulator<?> getHistogramAccumulator() {
+            for (final Accumulator<?> accumulator : _unfusedAccumulators) {
+                if (accumulator.getStatistic() instanceof HistogramStatistic) {
+                    return accumulator;
+                }
+            }
+            return null;
+        }
+
+        private static Optional<HistogramStatistic.HistogramSupportingData> readHistogram(final DataInput in)
+                throws IOException {
+            if (!in.readBoolean()) {
+                return Optional.empty();
+            }
+            final HistogramStatistic.Histogram histogram = new HistogramStatistic.Histogram(in.readInt());
+            final int size = in.readInt();
+            for (int i = 0; i < size; ++i) {
+                histogram.recordValue(in.readDouble(), in.readLong());
+            }
+            final Optional<Unit> unit = readUnit(in);
+            return Optional.of(
+                    ThreadLocalBuilder.build(
+                            HistogramStatistic.HistogramSupportingData.Builder.class,
+                            b -> b.setHistogramSnapshot(histogram.getSnapshot())
+                                    .setUnit(unit.orElse(null))));
+        }
+
+        private static void writeUnit(final Optional<Unit> unit, final DataOutput out) throws IOException {
+            out.writeUTF(unit.map(Unit::name).orElse(""));
+        }
+
+        private static Optional<Unit> readUnit(final DataInput in) throws IOException {
+            final String unit = in.readUTF();
+            return unit.isEmpty() ? Optional.empty() : Optional.of(Unit.valueOf(unit));
+        }
+
+        private final FusedAccumulator _fusedAccumulator = new FusedAccumulator();
+        private final Accumulator<?>[] _accumulators;
+        private final Accumulator<?>[] _unfusedAccumulators;
     }
 
     /**
@@ -548,6 +1065,57 @@ import java.util.function.BiFunction;
         }
 
 
+        /**
+         * Set the number of bits of mantissa retained by histograms. Optional.
+         * Cannot be null. Default is 7.
+         *
+         * @param value The histogram precision.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setHistogramPrecision(final Integer value) {
+            _histogramPrecision = value;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of distinct metrics. Metrics beyond the
+         * limit are aggregated as the overflow metric. Optional. Cannot be
+         * null. Must be at least 1. Default is unlimited.
+         *
+         * @param value The maximum number of distinct metrics.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setMaximumMetrics(final Integer value) {
+            _maximumMetrics = value;
+            return this;
+        }
+
+        /**
+         * Set the <code>OverflowCounter</code> to count samples aggregated as
+         * the overflow metric with. Optional. Default is not to count them.
+         *
+         * @param value The <code>OverflowCounter</code>.
+         * @return This <code>Builder</code> instance.
+         */
+        /* package private */ Builder setMetricOverflowCounter(@Nullable final OverflowCounter value) {
+            _metricOverflowCounter = value;
+            return this;
+        }
+
+        /**
+         * Set whether a single thread adds to, rolls up into, restores and
+         * closes the bucket. A bucket with a single writer accumulates each
+         * metric into one stripe without synchronization. Optional. Cannot be
+         * null. Default is false.
+         *
+         * @param value Whether the bucket has a single writer.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setSingleWriter(final Boolean value) {
+            _singleWriter = value;
+            return this;
+        }
+
         /**
          * Generate a Steno log compatible representation.
          *
@@ -598,5 +1166,13 @@ import java.util.function.BiFunction;
         private LoadingCache<String, Optional<ImmutableSet<Statistic>>> _specifiedStatistics;
         @NotNull
         private LoadingCache<String, Optional<ImmutableSet<Statistic>>> _dependentStatistics;
+        @NotNull
+        private Integer _histogramPrecision = HistogramStatistic.DEFAULT_PRECISION;
+        @NotNull
+        @Min(1)
+        private Integer _maximumMetrics = Integer.MAX_VALUE;
+        private OverflowCounter _metricOverflowCounter;
+        @NotNull
+        private Boolean _singleWriter = false;
     }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.tsdcore.statistics.Calculator;
+import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.arpnetworking.tsdcore.statistics.TPStatistic;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The precompiled calculation of a metric's statistics. A plan contains a
+ * single calculator per statistic, whether specified or only depended on,
+ * ordered such that every statistic follows its dependencies. The count
+ * statistic is always present and always first since it determines the
+ * population size. Each statistic is marked as published if it was
+ * specified.
+ *
+ * Plans are immutable and are shared across buckets by the signature of the
+ * specified and dependent statistics.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+/* package private */ final class CalculatorPlan {
+
+    /**
+     * Return the plan for a set of specified and dependent statistics with
+     * the default histogram precision.
+     *
+     * @param specifiedStatistics The statistics to publish.
+     * @param dependentStatistics The statistics required by the specified statistics.
+     * @return The shared <code>CalculatorPlan</code>.
+     */
+    public static CalculatorPlan of(
+            final ImmutableSet<Statistic> specifiedStatistics,
+            final ImmutableSet<Statistic> dependentStatistics) {
+        return of(specifiedStatistics, dependentStatistics, HistogramStatistic.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Return the plan for a set of specified and dependent statistics.
+     *
+     * @param specifiedStatistics The statistics to publish.
+     * @param dependentStatistics The statistics required by the specified statistics.
+     * @param histogramPrecision The number of bits of mantissa retained by histograms.
+     * @return The shared <code>CalculatorPlan</code>.
+     */
+    public static CalculatorPlan of(
+            final ImmutableSet<Statistic> specifiedStatistics,
+            final ImmutableSet<Statistic> dependentStatistics,
+            final int histogramPrecision) {
+        final List<Object> signature = ImmutableList.of(specifiedStatistics, dependentStatistics, histogramPrecision);
+        CalculatorPlan plan = PLANS.get(signature);
+        if (plan == null) {
+            final CalculatorPlan newPlan = new CalculatorPlan(specifiedStatistics, dependentStatistics, histogramPrecision);
+            plan = PLANS.putIfAbsent(signature, newPlan);
+            if (plan == null) {
+                plan = newPlan;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Create a new set of calculators in plan order.
+     *
+     * @return The calculators.
+     */
+    public Calculator<?>[] createCalculators() {
+        final Calculator<?>[] calculators = new Calculator<?>[_statistics.length];
+        for (int i = 0; i < _statistics.length; ++i) {
+            calculators[i] = createCalculator(i);
+        }
+        return calculators;
+    }
+
+    /**
+     * Create a new calculator for the statistic at an index.
+     *
+     * @param index The index of the statistic.
+     * @return The calculator.
+     */
+    public Calculator<?> createCalculator(final int index) {
+        final Statistic statistic = _statistics[index];
+        if (statistic instanceof HistogramStatistic) {
+            return ((HistogramStatistic) statistic).createCalculator(_histogramPrecision);
+        }
+        if (statistic instanceof TPStatistic) {
+            // The percentiles of the plan are evaluated together in one walk of the histogram
+            return ((TPStatistic) statistic).createCalculator(_percentiles);
+        }
+        return statistic.createCalculator();
+    }
+
+    public int size() {
+        return _statistics.length;
+    }
+
+    public Statistic getStatistic(final int index) {
+        return _statistics[index];
+    }
+
+    public boolean isPublished(final int index) {
+        return _isPublished[index];
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("statistics", Arrays.asList(_statistics))
+                .put("isPublished", Arrays.toString(_isPublished))
+                .put("histogramPrecision", _histogramPrecision)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private CalculatorPlan(
+            final ImmutableSet<Statistic> specifiedStatistics,
+            final ImmutableSet<Statistic> dependentStatistics,
+            final int histogramPrecision) {
+        _histogramPrecision = histogramPrecision;
+
+        // Order the statistics such that each follows its dependencies
+        final Set<Statistic> orderedStatistics = Sets.newLinkedHashSet();
+        orderedStatistics.add(COUNT_STATISTIC);
+        for (final Statistic statistic : specifiedStatistics) {
+            addInDependencyOrder(statistic, orderedStatistics);
+        }
+        for (final Statistic statistic : dependentStatistics) {
+            addInDependencyOrder(statistic, orderedStatistics);
+        }
+
+        _statistics = orderedStatistics.toArray(new Statistic[0]);
+        _percentiles = TPStatistic.PercentileCalculator.getPercentiles(orderedStatistics);
+        _isPublished = new boolean[_statistics.length];
+        for (int i = 0; i < _statistics.length; ++i) {
+            _isPublished[i] = specifiedStatistics.contains(_statistics[i]);
+        }
+    }
+
+    private static void addInDependencyOrder(final Statistic statistic, final Set<Statistic> orderedStatistics) {
+        if (!orderedStatistics.contains(statistic)) {
+            for (final Statistic dependency : statistic.getDependencies()) {
+                addInDependencyOrder(dependency, orderedStatistics);
+            }
+            orderedStatistics.add(statistic);
+        }
+    }
+
+    private final Statistic[] _statistics;
+    private final boolean[] _isPublished;
+    // NOTE: Shared by the percentile calculators of every bucket using the plan; never modified
+    private final double[] _percentiles;
+    private final int _histogramPrecision;
+
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    // NOTE: The number of distinct statistic set signatures is bounded by the configuration.
+    private static final ConcurrentMap<List<Object>, CalculatorPlan> PLANS = Maps.newConcurrentMap();
+}
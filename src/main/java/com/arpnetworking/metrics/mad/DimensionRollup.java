@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.commons.builder.OvalBuilder;
+import com.arpnetworking.logback.annotations.Loggable;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import net.sf.oval.constraint.NotNull;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A reduced set of dimensions that records are additionally aggregated by.
+ * For example, dropping the host dimension aggregates each service and
+ * cluster across all of its hosts in the same process which aggregates each
+ * host, rather than in a second tier of aggregators.
+ *
+ * The rollup retains either the specified dimensions or all dimensions and
+ * then drops the specified dimensions.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+@Loggable
+public final class DimensionRollup {
+
+    /**
+     * Apply the rollup to the dimensions of a record.
+     *
+     * @param dimensions The dimensions of the record.
+     * @return The dimensions of the rollup.
+     */
+    public ImmutableMap<String, String> apply(final ImmutableMap<String, String> dimensions) {
+        final ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, String> dimension : dimensions.entrySet()) {
+            if (_retainedDimensions.map(retained -> retained.contains(dimension.getKey())).orElse(true)
+                    && !_droppedDimensions.contains(dimension.getKey())) {
+                builder.put(dimension);
+            }
+        }
+        return builder.build();
+    }
+
+    public Optional<ImmutableSet<String>> getRetainedDimensions() {
+        return _retainedDimensions;
+    }
+
+    public ImmutableSet<String> getDroppedDimensions() {
+        return _droppedDimensions;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof DimensionRollup)) {
+            return false;
+        }
+        final DimensionRollup otherDimensionRollup = (DimensionRollup) other;
+        return Objects.equals(_retainedDimensions, otherDimensionRollup._retainedDimensions)
+                && Objects.equals(_droppedDimensions, otherDimensionRollup._droppedDimensions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(_retainedDimensions, _droppedDimensions);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("RetainedDimensions", _retainedDimensions)
+                .add("DroppedDimensions", _droppedDimensions)
+                .toString();
+    }
+
+    private DimensionRollup(final Builder builder) {
+        _retainedDimensions = Optional.ofNullable(builder._retainedDimensions).map(ImmutableSet::copyOf);
+        _droppedDimensions = ImmutableSet.copyOf(builder._droppedDimensions);
+    }
+
+    private final Optional<ImmutableSet<String>> _retainedDimensions;
+    private final ImmutableSet<String> _droppedDimensions;
+
+    /**
+     * Implementation of builder pattern for <code>DimensionRollup</code>.
+     *
+     * @author Joey Jackson (jjackson at dropbox dot com)
+     */
+    public static final class Builder extends OvalBuilder<DimensionRollup> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(DimensionRollup::new);
+        }
+
+        /**
+         * The dimensions to retain; for example, the service and cluster
+         * dimensions. Optional. Default is all dimensions.
+         *
+         * @param value The retained dimensions.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setRetainedDimensions(final Set<String> value) {
+            _retainedDimensions = value;
+            return this;
+        }
+
+        /**
+         * The dimensions to drop; for example, the host dimension. Optional.
+         * Cannot be null. Default is empty.
+         *
+         * @param value The dropped dimensions.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setDroppedDimensions(final Set<String> value) {
+            _droppedDimensions = value;
+            return this;
+        }
+
+        private Set<String> _retainedDimensions;
+        @NotNull
+        private Set<String> _droppedDimensions = Collections.emptySet();
+    }
+}
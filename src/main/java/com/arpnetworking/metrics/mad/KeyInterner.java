@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.utility.StringDictionary;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonicalizes the <code>Key</code> of the dimensions of each record so
+ * records of a known key do not allocate a key of their own. The dimensions
+ * of a key are retained through the <code>StringDictionary</code>, which
+ * drops them once no key refers to them any longer. A key is interned
+ * until it is released when its period workers are evicted, and is admitted
+ * again if a record interned before the release recreates its period
+ * workers. This class is thread safe.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+/* package private */ final class KeyInterner {
+
+    /**
+     * Return the canonical key of dimensions.
+     *
+     * @param dimensions The dimensions of a record.
+     * @return The canonical <code>Key</code>.
+     */
+    public Key intern(final ImmutableMap<String, String> dimensions) {
+        final Key key = _keys.get(dimensions);
+        if (key != null) {
+            return key;
+        }
+        // The dimensions of a new key are canonicalized so the strings are
+        // retained once across all keys
+        final ImmutableMap<String, String> canonicalDimensions = StringDictionary.getInstance().intern(dimensions);
+        final Key newKey = new DefaultKey(canonicalDimensions);
+        final Key existingKey = _keys.putIfAbsent(canonicalDimensions, newKey);
+        return existingKey == null ? newKey : existingKey;
+    }
+
+    /**
+     * Intern a key which is aggregated again; for example, because a record
+     * interned before the key was released recreated its period workers.
+     *
+     * @param key The <code>Key</code> to admit.
+     * @return The canonical <code>Key</code>; the key itself unless its dimensions were interned again since.
+     */
+    public Key admit(final Key key) {
+        final Key existingKey = _keys.putIfAbsent(key.getParameters(), key);
+        return existingKey == null ? key : existingKey;
+    }
+
+    /**
+     * Release a key which is no longer aggregated.
+     *
+     * @param key The <code>Key</code> to release.
+     */
+    public void release(final Key key) {
+        // NOTE: Removed by the dimensions rather than the instance; a key
+        // released while a record is in flight is admitted again once the
+        // record recreates its period workers.
+        _keys.remove(key.getParameters());
+    }
+
+    /**
+     * Return the number of interned keys.
+     *
+     * @return The number of interned keys.
+     */
+    public int size() {
+        return _keys.size();
+    }
+
+    private final ConcurrentMap<ImmutableMap<String, String>, Key> _keys = Maps.newConcurrentMap();
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Limits the number of distinct <code>Key</code> instances aggregated for
+ * each service. Once a service reaches the limit its new keys are replaced
+ * by a single overflow key for the service, so a client which puts an
+ * unbounded value into a dimension cannot exhaust the heap. A key counts
+ * against the limit until it is released when its period workers are
+ * evicted, and counts again if a record limited before the release
+ * recreates its period workers. This class is thread safe.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+/* package private */ final class KeyLimiter {
+
+    /**
+     * Package private constructor.
+     *
+     * @param maximumKeysPerService The maximum number of distinct keys per service.
+     * @param overflowCounter The <code>OverflowCounter</code> to count overflowing records with.
+     */
+    /* package private */ KeyLimiter(final int maximumKeysPerService, final OverflowCounter overflowCounter) {
+        _maximumKeysPerService = maximumKeysPerService;
+        _overflowCounter = overflowCounter;
+    }
+
+    /**
+     * Return the key to aggregate a record under.
+     *
+     * @param key The <code>Key</code> of the record.
+     * @return The <code>Key</code> itself or the overflow key of its service.
+     */
+    public Key limit(final Key key) {
+        final Set<Key> keys = _keysByService.computeIfAbsent(getService(key), k -> ConcurrentHashMap.newKeySet());
+        if (keys.contains(key) || isOverflowKey(key)) {
+            return key;
+        }
+        // NOTE: Concurrent records may exceed the limit by the number of
+        // threads recording new keys; the limit bounds growth, not the count.
+        if (keys.size() >= _maximumKeysPerService) {
+            _overflowCounter.increment(key.getService());
+            return createOverflowKey(key);
+        }
+        keys.add(key);
+        return key;
+    }
+
+    /**
+     * Count a key which is aggregated again without limiting it; for
+     * example, because a record limited before the key was released
+     * recreated its period workers. Like concurrent records of new keys,
+     * such records may exceed the limit by the number of records in flight.
+     *
+     * @param key The <code>Key</code> to admit.
+     */
+    public void admit(final Key key) {
+        if (!isOverflowKey(key)) {
+            _keysByService.computeIfAbsent(getService(key), k -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+    }
+
+    /**
+     * Release a key which is no longer aggregated.
+     *
+     * @param key The <code>Key</code> to release.
+     */
+    public void release(final Key key) {
+        final Set<Key> keys = _keysByService.get(getService(key));
+        if (keys != null) {
+            keys.remove(key);
+        }
+    }
+
+    /* package private */ static boolean isOverflowKey(final Key key) {
+        return OVERFLOW_VALUE.equals(key.getParameters().get(OVERFLOW_DIMENSION_KEY));
+    }
+
+    /* package private */ int getKeyCount(final String service) {
+        final Set<Key> keys = _keysByService.get(service);
+        return keys == null ? 0 : keys.size();
+    }
+
+    private static String getService(final Key key) {
+        return key.getService() == null ? "" : key.getService();
+    }
+
+    /* package private */ static Key createOverflowKey(final Key key) {
+        final ImmutableMap.Builder<String, String> parameters = ImmutableMap.builder();
+        if (key.getCluster() != null) {
+            parameters.put(Key.CLUSTER_DIMENSION_KEY, key.getCluster());
+        }
+        if (key.getService() != null) {
+            parameters.put(Key.SERVICE_DIMENSION_KEY, key.getService());
+        }
+        parameters.put(OVERFLOW_DIMENSION_KEY, OVERFLOW_VALUE);
+        return new DefaultKey(parameters.build());
+    }
+
+    private final int _maximumKeysPerService;
+    private final OverflowCounter _overflowCounter;
+    private final ConcurrentMap<String, Set<Key>> _keysByService = Maps.newConcurrentMap();
+
+    /**
+     * The dimension which marks the overflow key of a service.
+     */
+    /* package private */ static final String OVERFLOW_DIMENSION_KEY = "_overflow";
+    private static final String OVERFLOW_VALUE = "true";
+}
@@ -404,8 +404,11 @@ public final class Main implements Launchable {
                     .addData("configuration", file)
                     .log();
 
-            final Configurator<Pipeline, PipelineConfiguration> pipelineConfigurator =
-                    new Configurator<>(Pipeline::new, PipelineConfiguration.class);
+            // Pipelines are reconfigured in place when the file changes
+            final Configurator<Pipeline, PipelineConfiguration> pipelineConfigurator = new Configurator<>(
+                    Pipeline::new,
+                    PipelineConfiguration.class,
+                    configuration -> PipelineConfiguration.fromConfiguration(_objectMapper, configuration));
             final DynamicConfiguration pipelineConfiguration = new DynamicConfiguration.Builder()
                     .setObjectMapper(_objectMapper)
                     .addSourceBuilder(getFileSourceBuilder(file))
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.google.common.collect.Maps;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+
+/**
+ * Counts data folded into overflow because a cardinality limit was reached
+ * by the service which sent it. The counts are periodically recorded as a
+ * total and for each of the worst offending services. This class is thread
+ * safe.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+/* package private */ final class OverflowCounter {
+
+    /**
+     * Count data folded into overflow.
+     *
+     * @param service The service which sent the data.
+     */
+    public void increment(@Nullable final String service) {
+        _counts.computeIfAbsent(service == null ? UNKNOWN_SERVICE : service, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Record the total count and the counts of the worst offending services
+     * since the last call and reset the counts.
+     *
+     * @param periodicMetrics The <code>PeriodicMetrics</code> to record to.
+     * @param totalMetricName The name of the total count metric.
+     * @param serviceMetricPrefix The prefix of the metric names of the offending services.
+     */
+    public void record(
+            final PeriodicMetrics periodicMetrics,
+            final String totalMetricName,
+            final String serviceMetricPrefix) {
+        final Map<String, Long> counts = Maps.newHashMapWithExpectedSize(_counts.size());
+        for (final String service : _counts.keySet()) {
+            final LongAdder count = _counts.remove(service);
+            if (count != null) {
+                counts.put(service, count.sum());
+            }
+        }
+        periodicMetrics.recordCounter(totalMetricName, counts.values().stream().mapToLong(Long::longValue).sum());
+        final List<Map.Entry<String, Long>> worstOffenders = counts.entrySet()
+                .stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(MAXIMUM_OFFENDERS)
+                .collect(Collectors.toList());
+        for (final Map.Entry<String, Long> offender : worstOffenders) {
+            periodicMetrics.recordCounter(
+                    serviceMetricPrefix + offender.getKey().replace("/", "_").replace(".", "_"),
+                    offender.getValue());
+        }
+    }
+
+    private final ConcurrentMap<String, LongAdder> _counts = Maps.newConcurrentMap();
+
+    private static final int MAXIMUM_OFFENDERS = 10;
+    private static final String UNKNOWN_SERVICE = "unknown";
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.commons.builder.OvalBuilder;
+import com.arpnetworking.logback.annotations.Loggable;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import net.sf.oval.constraint.NotEmpty;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The statistics to compute for a single aggregation period. Each set which
+ * is not specified is inherited from the statistics of the pipeline; for
+ * example, a fine period may compute only the count and mean of timers while
+ * coarser periods compute percentiles.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+@Loggable
+public final class PeriodStatistics {
+
+    public Optional<ImmutableSet<Statistic>> getTimerStatistics() {
+        return _timerStatistics;
+    }
+
+    public Optional<ImmutableSet<Statistic>> getCounterStatistics() {
+        return _counterStatistics;
+    }
+
+    public Optional<ImmutableSet<Statistic>> getGaugeStatistics() {
+        return _gaugeStatistics;
+    }
+
+    public Optional<ImmutableMap<String, Set<Statistic>>> getStatistics() {
+        return _statistics;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PeriodStatistics)) {
+            return false;
+        }
+        final PeriodStatistics otherPeriodStatistics = (PeriodStatistics) other;
+        return Objects.equals(_timerStatistics, otherPeriodStatistics._timerStatistics)
+                && Objects.equals(_counterStatistics, otherPeriodStatistics._counterStatistics)
+                && Objects.equals(_gaugeStatistics, otherPeriodStatistics._gaugeStatistics)
+                && Objects.equals(_statistics, otherPeriodStatistics._statistics);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(_timerStatistics, _counterStatistics, _gaugeStatistics, _statistics);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("TimerStatistics", _timerStatistics)
+                .add("CounterStatistics", _counterStatistics)
+                .add("GaugeStatistics", _gaugeStatistics)
+                .add("Statistics", _statistics)
+                .toString();
+    }
+
+    private PeriodStatistics(final Builder builder) {
+        _timerStatistics = Optional.ofNullable(builder._timerStatistics).map(ImmutableSet::copyOf);
+        _counterStatistics = Optional.ofNullable(builder._counterStatistics).map(ImmutableSet::copyOf);
+        _gaugeStatistics = Optional.ofNullable(builder._gaugeStatistics).map(ImmutableSet::copyOf);
+        _statistics = Optional.ofNullable(builder._statistics).map(ImmutableMap::copyOf);
+    }
+
+    private final Optional<ImmutableSet<Statistic>> _timerStatistics;
+    private final Optional<ImmutableSet<Statistic>> _counterStatistics;
+    private final Optional<ImmutableSet<Statistic>> _gaugeStatistics;
+    private final Optional<ImmutableMap<String, Set<Statistic>>> _statistics;
+
+    /**
+     * Implementation of builder pattern for <code>PeriodStatistics</code>.
+     *
+     * @author Joey Jackson (jjackson at dropbox dot com)
+     */
+    public static final class Builder extends OvalBuilder<PeriodStatistics> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(PeriodStatistics::new);
+        }
+
+        /**
+         * The statistics to compute for all timers. Optional. Cannot be
+         * empty. Default is the timer statistics of the pipeline.
+         *
+         * @param value The timer statistics.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setTimerStatistics(final Set<Statistic> value) {
+            _timerStatistics = value;
+            return this;
+        }
+
+        /**
+         * The statistics to compute for all counters. Optional. Cannot be
+         * empty. Default is the counter statistics of the pipeline.
+         *
+         * @param value The counter statistics.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCounterStatistics(final Set<Statistic> value) {
+            _counterStatistics = value;
+            return this;
+        }
+
+        /**
+         * The statistics to compute for all gauges. Optional. Cannot be
+         * empty. Default is the gauge statistics of the pipeline.
+         *
+         * @param value The gauge statistics.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setGaugeStatistics(final Set<Statistic> value) {
+            _gaugeStatistics = value;
+            return this;
+        }
+
+        /**
+         * The statistics to compute for a metric pattern. Optional. Default
+         * is the statistics by metric pattern of the pipeline.
+         *
+         * @param value The statistics by metric pattern.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setStatistics(final Map<String, Set<Statistic>> value) {
+            _statistics = value;
+            return this;
+        }
+
+        @NotEmpty
+        private Set<Statistic> _timerStatistics;
+        @NotEmpty
+        private Set<Statistic> _counterStatistics;
+        @NotEmpty
+        private Set<Statistic> _gaugeStatistics;
+        private Map<String, Set<Statistic>> _statistics;
+    }
+}
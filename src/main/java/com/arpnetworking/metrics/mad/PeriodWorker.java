@@ -21,24 +21,46 @@ import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.utility.OverloadPolicy;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 
+import java.io.DataInput;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
-import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Responsible for managing aggregation buckets for a period.
  *
+ * A worker may roll up its closed buckets into the buckets of coarser
+ * period workers. The coarser workers are owned by this worker; they only
+ * accumulate the closed buckets of this worker and are shut down with it.
+ * The buckets of a worker are only modified by the thread which executes
+ * it. A worker executed on its own thread posts its closed buckets to the
+ * coarser workers, which roll them up on their own threads; a worker
+ * executed by a shard rolls them up directly since the shard executes the
+ * coarser workers as well.
+ *
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot io)
  */
 /* package private */ final class PeriodWorker implements Runnable {
@@ -48,15 +70,24 @@ import java.util.concurrent.LinkedBlockingDeque;
      */
     public void shutdown() {
         _isRunning = false;
+        _rollupPeriodWorkers.forEach(PeriodWorker::shutdown);
     }
 
     /**
-     * Process a <code>Record</code>.
+     * Process a <code>Record</code>. If the record queue is full the
+     * <code>OverloadPolicy</code> determines whether the caller blocks or
+     * records are dropped.
      *
      * @param record Instance of <code>Record</code> to process.
+     * @return The number of records dropped.
      */
-    public void record(final Record record) {
-        _recordQueue.add(record);
+    public int record(final Record record) {
+        _lastRecordMillis = System.currentTimeMillis();
+        return _overloadPolicy.enqueue(_recordQueue, record);
+    }
+
+    public int getQueueSize() {
+        return _recordQueue.size();
     }
 
     @Override
@@ -70,10 +101,12 @@ import java.util.concurrent.LinkedBlockingDeque;
 
         while (_isRunning) {
             try {
-                ZonedDateTime now = ZonedDateTime.now();
-                final ZonedDateTime rotateAt = getRotateAt(now);
-                Duration timeToRotate = Duration.between(now, rotateAt);
-                while (_isRunning && timeToRotate.compareTo(Duration.ZERO) > 0) {
+                long nowMillis = System.currentTimeMillis();
+                final long rotateAtMillis = getRotateAtMillis(nowMillis);
+                while (_isRunning && nowMillis < rotateAtMillis) {
+                    // Roll up the closed buckets of finer workers
+                    processRollups();
+
                     // Process records or sleep
                     Record recordToProcess = _recordQueue.poll();
                     if (recordToProcess != null) {
@@ -82,11 +115,10 @@ import java.util.concurrent.LinkedBlockingDeque;
                             recordToProcess = _recordQueue.poll();
                         }
                     } else {
-                        Thread.sleep(Math.min(timeToRotate.toMillis(), 100));
+                        Thread.sleep(rotateAtMillis - nowMillis);
                     }
                     // Recompute time to close
-                    now = ZonedDateTime.now();
-                    timeToRotate = Duration.between(now, rotateAt);
+                    nowMillis = System.currentTimeMillis();
                 }
                 // Drain the record queue before rotating
                 final List<Record> recordsToProcess = Lists.newArrayList();
@@ -94,8 +126,9 @@ import java.util.concurrent.LinkedBlockingDeque;
                 for (final Record recordToProcess : recordsToProcess) {
                     process(recordToProcess);
                 }
+                processRollups();
                 // Rotate
-                rotate(now);
+                rotate(nowMillis);
             } catch (final InterruptedException e) {
                 Thread.interrupted();
                 LOGGER.warn()
@@ -123,7 +156,10 @@ import java.util.concurrent.LinkedBlockingDeque;
     public Object toLogValue() {
         return LogValueMapFactory.builder(this)
                 .put("period", _period)
+                .put("queueSize", _recordQueue.size())
+                .put("overloadPolicy", _overloadPolicy)
                 .put("bucketBuilder", _bucketBuilder)
+                .put("rollupPeriodWorkers", _rollupPeriodWorkers)
                 .build();
     }
 
@@ -132,92 +168,242 @@ import java.util.concurrent.LinkedBlockingDeque;
         return toLogValue().toString();
     }
 
-    /* package private */ void process(final Record record) {
-        // Find an existing bucket for the record
-        final Duration timeout = getPeriodTimeout(_period);
-        final ZonedDateTime start = getStartTime(record.getTime(), _period);
-        Bucket bucket = _bucketsByStart.get(start);
+    /**
+     * Add a <code>Record</code> to the matching <code>Bucket</code> creating
+     * the <code>Bucket</code> if necessary.
+     *
+     * @param record Instance of <code>Record</code> to process.
+     * @return The expiration in milliseconds since the epoch of the <code>Bucket</code> if one was created.
+     */
+    /* package private */ OptionalLong process(final Record record) {
+        _lastRecordMillis = System.currentTimeMillis();
+        return addToBucket(
+                getStartMillis(toEpochMillis(record.getTime()), _periodMillis),
+                _timeoutMillis,
+                bucket -> bucket.add(record),
+                record.getId());
+    }
 
-        // Create a new bucket if one does not exist
-        if (bucket == null) {
-            // Pre-emptively add the record to the _new_ bucket. This avoids
-            // the race condition after indexing by expiration between adding
-            // the record and closing the bucket.
-            final Bucket newBucket = _bucketBuilder
-                    .setStart(start)
-                    .build();
-            newBucket.add(record);
+    /**
+     * Merge a closed <code>Bucket</code> of a finer period into the matching
+     * <code>Bucket</code> creating the <code>Bucket</code> if necessary. The
+     * expiration of a new bucket is extended by the timeout of the finer
+     * period so the last finer bucket in the period closes before it.
+     *
+     * @param finerBucket The closed <code>Bucket</code> of a finer period.
+     * @return The expiration in milliseconds since the epoch of the <code>Bucket</code> if one was created.
+     */
+    /* package private */ OptionalLong rollup(final Bucket finerBucket) {
+        _lastRecordMillis = System.currentTimeMillis();
+        return addToBucket(
+                getStartMillis(finerBucket.getStartMillis(), _periodMillis),
+                _timeoutMillis + getPeriodTimeout(finerBucket.getPeriod()).toMillis(),
+                bucket -> bucket.rollup(finerBucket),
+                finerBucket.getStart());
+    }
 
-            // Resolve bucket creation race condition; either:
-            // 1) We won and can proceed to index the new bucket
-            // 2) We lost and can proceed to add data to the existing bucket
-            bucket = _bucketsByStart.putIfAbsent(start, newBucket);
-            if (bucket == null) {
-                final ZonedDateTime expiration = max(ZonedDateTime.now().plus(timeout), start.plus(_period).plus(timeout));
+    /**
+     * Post a closed <code>Bucket</code> of a finer period to be rolled up by
+     * the thread which executes this worker.
+     *
+     * @param finerBucket The closed <code>Bucket</code> of a finer period.
+     */
+    /* package private */ void postRollup(final Bucket finerBucket) {
+        _lastRecordMillis = System.currentTimeMillis();
+        _rollupQueue.add(finerBucket);
+    }
 
-                LOGGER.debug()
-                        .setMessage("Created new bucket")
-                        .addData("bucket", newBucket)
-                        .addData("expiration", expiration)
-                        .addData("trigger", record.getId())
-                        .log();
+    /**
+     * Post a <code>Bucket</code> of this period restored from the open
+     * buckets of another aggregator to be merged by the thread which
+     * executes this worker.
+     *
+     * @param restoredBucket The restored <code>Bucket</code>.
+     */
+    /* package private */ void postRestore(final Bucket restoredBucket) {
+        _lastRecordMillis = System.currentTimeMillis();
+        _rollupQueue.add(restoredBucket);
+    }
 
-                // Index the bucket by its expiration date; the expiration date is always in the future
-                _bucketsByExpiration.compute(expiration, (dateTime, buckets) -> {
-                    if (buckets == null) {
-                        buckets = Lists.newArrayList();
-                    }
-                    buckets.add(newBucket);
-                    return buckets;
-                });
+    /**
+     * Restore the state of a <code>Bucket</code> written by
+     * <code>Bucket.snapshot</code> into the matching <code>Bucket</code>
+     * creating the <code>Bucket</code> if necessary. Must be called before
+     * this worker processes records.
+     *
+     * @param startMillis The start of the snapshot bucket in milliseconds since the epoch.
+     * @param in The <code>DataInput</code> to read the bucket state from.
+     * @return The expiration in milliseconds since the epoch of the <code>Bucket</code> if one was created.
+     * @throws IOException If the bucket state could not be read.
+     */
+    /* package private */ OptionalLong restore(final long startMillis, final DataInput in) throws IOException {
+        final long bucketStartMillis = getStartMillis(startMillis, _periodMillis);
+        final Bucket restoredBucket = _bucketBuilder
+                .setStart(ZonedDateTime.ofInstant(Instant.ofEpochMilli(bucketStartMillis), ZoneOffset.UTC))
+                .build();
+        restoredBucket.restore(in);
+        return restore(restoredBucket);
+    }
 
-                // New bucket created and indexed with record
-                return;
-            }
-        }
+    /**
+     * Merge a restored <code>Bucket</code> of this period into the matching
+     * <code>Bucket</code> creating the <code>Bucket</code> if necessary.
+     * Must be called by the thread which executes this worker.
+     *
+     * @param restoredBucket The restored <code>Bucket</code>.
+     * @return The expiration in milliseconds since the epoch of the <code>Bucket</code> if one was created.
+     */
+    /* package private */ OptionalLong restore(final Bucket restoredBucket) {
+        _lastRecordMillis = System.currentTimeMillis();
+        // NOTE: The restored bucket is only merged; it is neither indexed nor closed
+        return addToBucket(
+                getStartMillis(restoredBucket.getStartMillis(), _periodMillis),
+                _timeoutMillis,
+                bucket -> bucket.rollup(restoredBucket),
+                "snapshot");
+    }
 
-        // Add the record to the _existing_ bucket
-        bucket.add(record);
+    public Duration getPeriod() {
+        return _period;
     }
 
-    /* package private */ void rotate(final ZonedDateTime now) {
-        final Map<ZonedDateTime, List<Bucket>> expiredBucketMap = _bucketsByExpiration.headMap(now);
-        final List<Bucket> expiredBuckets = Lists.newArrayList();
-        int closedBucketCount = 0;
+    /* package private */ Collection<Bucket> getBuckets() {
+        return _bucketsByStart.values();
+    }
 
+    /* package private */ List<PeriodWorker> getRollupPeriodWorkers() {
+        return _rollupPeriodWorkers;
+    }
+
+    /**
+     * Close the expired buckets and post each to the coarser period workers.
+     * The coarser workers must be executed on their own threads; they roll
+     * up the posted buckets and rotate their own buckets.
+     *
+     * @param nowMillis The current time in milliseconds since the epoch.
+     */
+    /* package private */ void rotate(final long nowMillis) {
+        closeExpiredBuckets(nowMillis, PeriodWorker::postRollup);
+    }
+
+    /**
+     * Close the expired buckets and roll each up into the coarser period
+     * workers on the calling thread. The coarser workers must be executed
+     * by the same thread.
+     *
+     * @param nowMillis The current time in milliseconds since the epoch.
+     * @param rollupListener Notified of the rollup worker and expiration of each bucket created by a rollup.
+     */
+    /* package private */ void rotate(final long nowMillis, final ObjLongConsumer<PeriodWorker> rollupListener) {
+        closeExpiredBuckets(
+                nowMillis,
+                (rollupPeriodWorker, bucket) -> {
+                    final OptionalLong expirationMillis = rollupPeriodWorker.rollup(bucket);
+                    if (expirationMillis.isPresent()) {
+                        rollupListener.accept(rollupPeriodWorker, expirationMillis.getAsLong());
+                    }
+                });
+    }
+
+    private void closeExpiredBuckets(final long nowMillis, final BiConsumer<PeriodWorker, Bucket> rollup) {
         // Phase 1: Collect expired buckets
-        for (final ZonedDateTime key : expiredBucketMap.keySet()) {
-            for (final Bucket bucket : _bucketsByExpiration.remove(key)) {
-                expiredBuckets.add(bucket);
-            }
-        }
+        final List<Bucket> expiredBuckets = Lists.newArrayList();
+        _bucketsByExpiration.expire(nowMillis, expiredBuckets);
 
         // Phase 2: Close the expired buckets
         for (final Bucket bucket : expiredBuckets) {
             // Close the bucket
             // NOTE: The race condition between process and close is resolved in Bucket
             bucket.close();
-            _bucketsByStart.remove(bucket.getStart());
-            ++closedBucketCount;
+            _bucketsByStart.remove(bucket.getStartMillis());
+            if (_lastBucket == bucket) {
+                _lastBucket = null;
+            }
+
+            // Roll the closed bucket up into the coarser periods
+            for (final PeriodWorker rollupPeriodWorker : _rollupPeriodWorkers) {
+                rollup.accept(rollupPeriodWorker, bucket);
+            }
 
             LOGGER.debug()
                     .setMessage("Bucket closed")
                     .addData("periodWorker", this)
                     .addData("bucket", bucket)
-                    .addData("now", now)
+                    .addData("nowMillis", nowMillis)
                     .log();
+
+            // The closed bucket has been emitted and rolled up so it may be
+            // reused for a following period
+            if (_recycleBuckets && _spareBuckets.size() < MAXIMUM_SPARE_BUCKETS) {
+                _spareBuckets.push(bucket);
+            }
         }
 
-        LOGGER.debug().setMessage("Rotated").addData("count", closedBucketCount).log();
+        LOGGER.debug().setMessage("Rotated").addData("count", expiredBuckets.size()).log();
+    }
+
+    /**
+     * Whether this <code>PeriodWorker</code> has no pending records, no open
+     * buckets and has not received a record within the timeout.
+     *
+     * @param nowMillis The current time in milliseconds since the epoch.
+     * @param timeout The idle timeout.
+     * @return True if and only if this <code>PeriodWorker</code> is idle.
+     */
+    /* package private */ boolean isIdle(final long nowMillis, final Duration timeout) {
+        return _recordQueue.isEmpty()
+                && _rollupQueue.isEmpty()
+                && _bucketsByStart.isEmpty()
+                && nowMillis - _lastRecordMillis > timeout.toMillis()
+                && isIdle(_rollupPeriodWorkers, nowMillis, timeout);
+    }
+
+    /* package private */ static boolean isIdle(
+            final List<PeriodWorker> periodWorkers,
+            final long nowMillis,
+            final Duration timeout) {
+        for (final PeriodWorker periodWorker : periodWorkers) {
+            if (!periodWorker.isIdle(nowMillis, timeout)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    /* package private */ ZonedDateTime getRotateAt(final ZonedDateTime now) {
-        final Map.Entry<ZonedDateTime, List<Bucket>> firstEntry = _bucketsByExpiration.firstEntry();
-        final ZonedDateTime periodFirstExpiration = firstEntry == null ? null : firstEntry.getKey();
-        if (periodFirstExpiration != null && periodFirstExpiration.isAfter(now)) {
-            return periodFirstExpiration;
+    /**
+     * Find the worker of a period among period workers and the workers they
+     * roll up into.
+     *
+     * @param periodWorkers The period workers to search.
+     * @param period The period.
+     * @return The <code>PeriodWorker</code> of the period if any.
+     */
+    /* package private */ static Optional<PeriodWorker> find(
+            final List<PeriodWorker> periodWorkers,
+            final Duration period) {
+        for (final PeriodWorker periodWorker : periodWorkers) {
+            if (periodWorker._period.equals(period)) {
+                return Optional.of(periodWorker);
+            }
+            final Optional<PeriodWorker> rollupPeriodWorker = find(periodWorker._rollupPeriodWorkers, period);
+            if (rollupPeriodWorker.isPresent()) {
+                return rollupPeriodWorker;
+            }
         }
-        return now.plus(_rotationCheck);
+        return Optional.empty();
+    }
+
+    /* package private */ static long getRotateAtMillis(final long nowMillis) {
+        // Rotate at the start of the next timer wheel tick
+        return (Math.floorDiv(nowMillis, TICK_MILLIS) + 1) * TICK_MILLIS;
+    }
+
+    /* package private */ static long getWheelTickMillis(final long periodMillis, final long timeoutMillis) {
+        // Size the ticks so the wheel spans the latest expiration of a bucket
+        // created for current data; expirations are compared exactly so the
+        // tick only determines the slot
+        final long spanMillis = periodMillis + timeoutMillis;
+        return Math.max(TICK_MILLIS, (spanMillis + WHEEL_SLOT_COUNT - 1) / WHEEL_SLOT_COUNT);
     }
 
     /* package private */ static Duration getPeriodTimeout(final Duration period) {
@@ -233,39 +419,145 @@ import java.util.concurrent.LinkedBlockingDeque;
     }
 
     /* package private */ static ZonedDateTime getStartTime(final ZonedDateTime dateTime, final Duration period) {
+        return ZonedDateTime.ofInstant(
+                Instant.ofEpochMilli(getStartMillis(toEpochMillis(dateTime), period.toMillis())),
+                ZoneOffset.UTC);
+    }
+
+    /* package private */ static long getStartMillis(final long timeMillis, final long periodMillis) {
         // This effectively uses Jan 1, 1970 at 00:00:00 as the anchor point
         // for non-standard bucket sizes (e.g. 18 min) that do not divide
         // equally into an hour or day. Such use cases are rather uncommon.
-        final long periodMillis = period.toMillis();
-        final long dateTimeMillis = dateTime.toInstant().toEpochMilli();
-        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(dateTimeMillis - (dateTimeMillis % periodMillis)), ZoneOffset.UTC);
+        return timeMillis - Math.floorMod(timeMillis, periodMillis);
     }
 
-    /* package private */ static ZonedDateTime max(final ZonedDateTime dateTime1, final ZonedDateTime dateTime2) {
-        if (dateTime1.isAfter(dateTime2)) {
-            return dateTime1;
+    private static long toEpochMillis(final ZonedDateTime dateTime) {
+        // Avoids allocating an Instant per record
+        return dateTime.toEpochSecond() * 1000 + dateTime.getNano() / 1000000;
+    }
+
+    private void processRollups() {
+        Bucket finerBucket = _rollupQueue.poll();
+        while (finerBucket != null) {
+            // Buckets of this period were restored rather than closed
+            if (finerBucket.getPeriod().equals(_period)) {
+                restore(finerBucket);
+            } else {
+                rollup(finerBucket);
+            }
+            finerBucket = _rollupQueue.poll();
         }
-        return dateTime2;
+    }
+
+    private OptionalLong addToBucket(
+            final long startMillis,
+            final long timeoutMillis,
+            final Consumer<Bucket> addition,
+            final Object trigger) {
+        // Most data belongs to the most recently used bucket
+        final Bucket lastBucket = _lastBucket;
+        if (lastBucket != null && lastBucket.getStartMillis() == startMillis && lastBucket.isOpen()) {
+            addition.accept(lastBucket);
+            return OptionalLong.empty();
+        }
+
+        // Find an existing bucket for the start
+        Bucket bucket = _bucketsByStart.get(startMillis);
+
+        // Create a new bucket if one does not exist
+        if (bucket == null) {
+            // Pre-emptively add the data to the _new_ bucket. This avoids
+            // the race condition after indexing by expiration between adding
+            // the data and closing the bucket.
+            final Bucket newBucket = createBucket(startMillis);
+            addition.accept(newBucket);
+
+            // Resolve bucket creation race condition; either:
+            // 1) We won and can proceed to index the new bucket
+            // 2) We lost and can proceed to add data to the existing bucket
+            bucket = _bucketsByStart.putIfAbsent(startMillis, newBucket);
+            if (bucket == null) {
+                final long expirationMillis = Math.max(
+                        System.currentTimeMillis() + timeoutMillis,
+                        startMillis + _periodMillis + timeoutMillis);
+
+                LOGGER.debug()
+                        .setMessage("Created new bucket")
+                        .addData("bucket", newBucket)
+                        .addData("expirationMillis", expirationMillis)
+                        .addData("trigger", trigger)
+                        .log();
+
+                // Index the bucket by its expiration; the expiration is always in the future
+                _bucketsByExpiration.schedule(expirationMillis, newBucket);
+                _lastBucket = newBucket;
+
+                // New bucket created and indexed with data
+                return OptionalLong.of(expirationMillis);
+            }
+        }
+
+        // Add the data to the _existing_ bucket
+        _lastBucket = bucket;
+        addition.accept(bucket);
+        return OptionalLong.empty();
+    }
+
+    private Bucket createBucket(final long startMillis) {
+        final ZonedDateTime start = ZonedDateTime.ofInstant(Instant.ofEpochMilli(startMillis), ZoneOffset.UTC);
+        final Bucket spareBucket = _spareBuckets.poll();
+        if (spareBucket != null) {
+            spareBucket.recycle(start);
+            return spareBucket;
+        }
+        return _bucketBuilder.setStart(start).build();
     }
 
     private PeriodWorker(final Builder builder) {
         _period = builder._period;
         _bucketBuilder = builder._bucketBuilder;
+        _rollupPeriodWorkers = builder._rollupPeriodWorkers;
+        _overloadPolicy = builder._overloadPolicy;
+        _recycleBuckets = builder._recycleBuckets;
+        _recordQueue = new LinkedBlockingDeque<>(builder._queueCapacity);
+        _periodMillis = _period.toMillis();
+        _timeoutMillis = getPeriodTimeout(_period).toMillis();
+        _bucketsByExpiration = new TimerWheel<>(
+                getWheelTickMillis(_periodMillis, _timeoutMillis),
+                WHEEL_SLOT_COUNT,
+                System.currentTimeMillis());
     }
 
     private volatile boolean _isRunning = true;
+    private volatile long _lastRecordMillis = System.currentTimeMillis();
+    private volatile Bucket _lastBucket;
 
     private final Duration _period;
     private final Bucket.Builder _bucketBuilder;
-    private final Duration _rotationCheck = Duration.ofMillis(100);
-    private final BlockingQueue<Record> _recordQueue = new LinkedBlockingDeque<>();
-    private final ConcurrentSkipListMap<ZonedDateTime, Bucket> _bucketsByStart = new ConcurrentSkipListMap<>();
-    private final NavigableMap<ZonedDateTime, List<Bucket>> _bucketsByExpiration =
-            Maps.synchronizedNavigableMap(new ConcurrentSkipListMap<>());
+    private final ImmutableList<PeriodWorker> _rollupPeriodWorkers;
+    private final long _periodMillis;
+    private final long _timeoutMillis;
+    private final OverloadPolicy _overloadPolicy;
+    private final boolean _recycleBuckets;
+    // NOTE: Only accessed by the thread which owns the buckets of the worker
+    private final Deque<Bucket> _spareBuckets = new ArrayDeque<>();
+    private final BlockingQueue<Record> _recordQueue;
+    // NOTE: Closed buckets of finer workers executed on other threads and
+    // restored buckets of this period
+    private final Queue<Bucket> _rollupQueue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<Long, Bucket> _bucketsByStart = Maps.newConcurrentMap();
+    private final TimerWheel<Bucket> _bucketsByExpiration;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PeriodWorker.class);
     private static final Duration MINIMUM_PERIOD_TIMEOUT = Duration.ofSeconds(1);
     private static final Duration MAXIMUM_PERIOD_TIMEOUT = Duration.ofMinutes(10);
+    // NOTE: A worker is created per key and period so its wheel is kept small; the
+    // tick is widened to span the period and timeout and later expirations (e.g.
+    // of buckets created by rollup) wait out additional revolutions.
+    private static final long TICK_MILLIS = 100;
+    /* package private */ static final int WHEEL_SLOT_COUNT = 64;
+    // NOTE: A worker rarely has more than the current and the previous bucket open
+    private static final int MAXIMUM_SPARE_BUCKETS = 2;
 
     /**
      * <code>Builder</code> implementation for <code>PeriodWorker</code>.
@@ -301,9 +593,69 @@ import java.util.concurrent.LinkedBlockingDeque;
             return this;
         }
 
+        /**
+         * Set the period workers of coarser periods to roll closed buckets
+         * up into. Each period must be a multiple of this period. Optional.
+         * Default is no rollup.
+         *
+         * @param value The rollup period workers.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setRollupPeriodWorkers(final ImmutableList<PeriodWorker> value) {
+            _rollupPeriodWorkers = value;
+            return this;
+        }
+
+        /**
+         * Set the capacity of the record queue. Optional. Cannot be null.
+         * Must be at least 1. Default is 100,000.
+         *
+         * @param value The queue capacity.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * Set the behavior when the record queue is full. Optional. Cannot be
+         * null. Default is to block.
+         *
+         * @param value The overload policy.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setOverloadPolicy(final OverloadPolicy value) {
+            _overloadPolicy = value;
+            return this;
+        }
+
+        /**
+         * Set whether closed buckets are reset and reused for following
+         * periods. Only safe when a single thread adds to, rolls up into and
+         * rotates the buckets of this worker and any worker it rolls up into.
+         * Optional. Cannot be null. Default is false.
+         *
+         * @param value Whether to recycle buckets.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setRecycleBuckets(final Boolean value) {
+            _recycleBuckets = value;
+            return this;
+        }
+
         @NotNull
         private Duration _period;
         @NotNull
         private Bucket.Builder _bucketBuilder;
+        @NotNull
+        private ImmutableList<PeriodWorker> _rollupPeriodWorkers = ImmutableList.of();
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = Aggregator.DEFAULT_QUEUE_CAPACITY;
+        @NotNull
+        private OverloadPolicy _overloadPolicy = OverloadPolicy.BLOCK;
+        @NotNull
+        private Boolean _recycleBuckets = false;
     }
 }
@@ -0,0 +1,511 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.commons.builder.OvalBuilder;
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.utility.OverloadPolicy;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotNull;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import javax.annotation.Nullable;
+
+/**
+ * Drives the <code>PeriodWorker</code> instances of the keys hashed to it
+ * from a single thread. Records for every key owned by the shard are drained
+ * from one queue and the bucket expirations of all owned workers are rotated
+ * from one timer structure. This keeps the number of threads constant
+ * regardless of the number of keys.
+ *
+ * The shard owns the <code>PeriodWorker</code> instances of its keys. Since
+ * they are only created, used and evicted on the shard thread, eviction of
+ * idle keys cannot race with the processing of records. However, records
+ * are keyed by the caller before they are queued, so a record may be in
+ * flight for a key when it is evicted. Every key the shard creates workers
+ * for is therefore passed through the key admitter, which re-admits keys
+ * released by an earlier eviction and returns the instance the shard holds.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+/* package private */ final class PeriodWorkerShard implements Runnable {
+
+    /**
+     * Shutdown this <code>PeriodWorkerShard</code>. Cannot be restarted. The
+     * records queued when the shard stops are processed before its thread
+     * exits.
+     */
+    public void shutdown() {
+        _isRunning = false;
+    }
+
+    /**
+     * Process a <code>Record</code> for a <code>Key</code> owned by this
+     * shard. If the record queue is full the <code>OverloadPolicy</code>
+     * determines whether the caller blocks or records are dropped.
+     *
+     * @param key The <code>Key</code> of the record.
+     * @param record Instance of <code>Record</code> to process.
+     * @return The number of records dropped.
+     */
+    public int record(final Key key, final Record record) {
+        return _overloadPolicy.enqueue(_recordQueue, new PendingRecord(key, record));
+    }
+
+    /**
+     * Merge a <code>Bucket</code> restored from the open buckets of another
+     * aggregator for a <code>Key</code> owned by this shard. The bucket is
+     * queued with the records and the caller blocks while the queue is full.
+     *
+     * @param key The <code>Key</code> of the bucket.
+     * @param restoredBucket The restored <code>Bucket</code>.
+     * @return The number of buckets dropped.
+     */
+    public int restore(final Key key, final Bucket restoredBucket) {
+        return OverloadPolicy.BLOCK.enqueue(_recordQueue, new PendingRecord(key, restoredBucket));
+    }
+
+    public int getQueueSize() {
+        return _recordQueue.size();
+    }
+
+    /**
+     * The number of keys currently owned by this shard.
+     *
+     * @return The number of keys.
+     */
+    public int getKeyCount() {
+        return _keyCount;
+    }
+
+    /**
+     * Return the number of keys evicted since the last call.
+     *
+     * @return The number of keys evicted.
+     */
+    public long getAndResetEvictedKeyCount() {
+        return _evictedKeyCount.getAndSet(0);
+    }
+
+    @Override
+    public void run() {
+        Thread.currentThread().setUncaughtExceptionHandler(
+                (thread, throwable) -> LOGGER.error()
+                        .setMessage("Unhandled exception")
+                        .addData("periodWorkerShard", PeriodWorkerShard.this)
+                        .setThrowable(throwable)
+                        .log());
+
+        final List<PendingRecord> pendingRecords = Lists.newArrayList();
+        while (_isRunning) {
+            try {
+                // Wait for records until the next expiration is due
+                final PendingRecord pendingRecord = _recordQueue.poll(
+                        getTimeToRotateMillis(System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+                if (pendingRecord != null) {
+                    process(pendingRecord);
+                    _recordQueue.drainTo(pendingRecords);
+                    for (final PendingRecord nextPendingRecord : pendingRecords) {
+                        process(nextPendingRecord);
+                    }
+                    pendingRecords.clear();
+                }
+
+                // Rotate any expired workers
+                final long nowMillis = System.currentTimeMillis();
+                rotate(nowMillis);
+
+                // Evict any idle keys
+                if (_idleKeyTimeout.isPresent() && nowMillis >= _nextEvictionAtMillis) {
+                    evict(nowMillis, _idleKeyTimeout.get());
+                    _nextEvictionAtMillis = nowMillis + getEvictionInterval(_idleKeyTimeout.get()).toMillis();
+                }
+            } catch (final InterruptedException e) {
+                Thread.interrupted();
+                LOGGER.warn()
+                        .setMessage("Interrupted waiting for records")
+                        .setThrowable(e)
+                        .log();
+                // CHECKSTYLE.OFF: IllegalCatch - Top level catch to prevent thread death
+            } catch (final Exception e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                LOGGER.error()
+                        .setMessage("Aggregator failure")
+                        .addData("periodWorkerShard", this)
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+
+        // Process the queued records so the open buckets include them when
+        // they are written to a snapshot or handed off
+        _recordQueue.drainTo(pendingRecords);
+        for (final PendingRecord pendingRecord : pendingRecords) {
+            try {
+                process(pendingRecord);
+                // CHECKSTYLE.OFF: IllegalCatch - Process the remaining records
+            } catch (final Exception e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                LOGGER.error()
+                        .setMessage("Aggregator failure")
+                        .addData("periodWorkerShard", this)
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+        pendingRecords.clear();
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("queueSize", _recordQueue.size())
+                .put("overloadPolicy", _overloadPolicy)
+                .put("keyCount", _keyCount)
+                .put("idleKeyTimeout", _idleKeyTimeout)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    /* package private */ void process(final PendingRecord pendingRecord) {
+        if (pendingRecord._restoredBucket != null) {
+            restore(pendingRecord._key, pendingRecord._restoredBucket);
+            return;
+        }
+        for (final PeriodWorker periodWorker : getOrCreatePeriodWorkers(pendingRecord._key)) {
+            final OptionalLong expirationMillis = periodWorker.process(pendingRecord._record);
+            if (expirationMillis.isPresent()) {
+                schedule(periodWorker, expirationMillis.getAsLong());
+            }
+        }
+    }
+
+    /**
+     * Restore the state of a <code>Bucket</code> written by
+     * <code>Bucket.snapshot</code> for a <code>Key</code> owned by this
+     * shard. Must be called before the shard is run.
+     *
+     * @param key The <code>Key</code> of the bucket.
+     * @param period The period of the bucket.
+     * @param startMillis The start of the bucket in milliseconds since the epoch.
+     * @param in The <code>DataInput</code> to read the bucket state from.
+     * @return True if and only if the period is aggregated and the bucket state was read.
+     * @throws IOException If the bucket state could not be read.
+     */
+    /* package private */ boolean restore(
+            final Key key,
+            final Duration period,
+            final long startMillis,
+            final DataInput in) throws IOException {
+        final Optional<PeriodWorker> periodWorker = PeriodWorker.find(getOrCreatePeriodWorkers(key), period);
+        if (!periodWorker.isPresent()) {
+            return false;
+        }
+        final OptionalLong expirationMillis = periodWorker.get().restore(startMillis, in);
+        if (expirationMillis.isPresent()) {
+            schedule(periodWorker.get(), expirationMillis.getAsLong());
+        }
+        return true;
+    }
+
+    private void restore(final Key key, final Bucket restoredBucket) {
+        final Optional<PeriodWorker> periodWorker =
+                PeriodWorker.find(getOrCreatePeriodWorkers(key), restoredBucket.getPeriod());
+        if (periodWorker.isPresent()) {
+            final OptionalLong expirationMillis = periodWorker.get().restore(restoredBucket);
+            if (expirationMillis.isPresent()) {
+                schedule(periodWorker.get(), expirationMillis.getAsLong());
+            }
+        }
+    }
+
+    /**
+     * The <code>PeriodWorker</code> instances of the keys owned by this
+     * shard. Must only be called before the shard is run or once it has
+     * stopped.
+     *
+     * @return The <code>PeriodWorker</code> instances by <code>Key</code>.
+     */
+    /* package private */ Map<Key, List<PeriodWorker>> getPeriodWorkers() {
+        return _periodWorkers;
+    }
+
+    /* package private */ void rotate(final long nowMillis) {
+        final NavigableMap<Long, Set<PeriodWorker>> expiredRotations = _rotations.headMap(nowMillis, true);
+        if (expiredRotations.isEmpty()) {
+            return;
+        }
+
+        // Phase 1: Collect the workers with expired buckets
+        final Set<PeriodWorker> expiredPeriodWorkers = Sets.newHashSet();
+        for (final Set<PeriodWorker> periodWorkers : expiredRotations.values()) {
+            expiredPeriodWorkers.addAll(periodWorkers);
+        }
+        expiredRotations.clear();
+
+        // Phase 2: Rotate each worker once; buckets created by rolling up
+        // closed buckets into coarser workers are scheduled for rotation
+        for (final PeriodWorker periodWorker : expiredPeriodWorkers) {
+            periodWorker.rotate(nowMillis, this::schedule);
+        }
+    }
+
+    private List<PeriodWorker> getOrCreatePeriodWorkers(final Key key) {
+        List<PeriodWorker> periodWorkers = _periodWorkers.get(key);
+        if (periodWorkers == null) {
+            final Key admittedKey = _keyAdmitter.apply(key);
+            periodWorkers = _periodWorkersFactory.apply(admittedKey);
+            _periodWorkers.put(admittedKey, periodWorkers);
+            _keyCount = _periodWorkers.size();
+        }
+        return periodWorkers;
+    }
+
+    private void schedule(final PeriodWorker periodWorker, final long expirationMillis) {
+        _rotations.computeIfAbsent(expirationMillis, k -> Sets.newHashSet()).add(periodWorker);
+    }
+
+    /* package private */ void evict(final long nowMillis, final Duration idleKeyTimeout) {
+        int evictedKeyCount = 0;
+        final Iterator<Map.Entry<Key, List<PeriodWorker>>> iterator = _periodWorkers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Key, List<PeriodWorker>> entry = iterator.next();
+            if (PeriodWorker.isIdle(entry.getValue(), nowMillis, idleKeyTimeout)) {
+                // NOTE: Idle workers have no open buckets so there are no
+                // pending rotations which reference them.
+                entry.getValue().forEach(PeriodWorker::shutdown);
+                iterator.remove();
+                _evictionListener.accept(entry.getKey());
+                ++evictedKeyCount;
+
+                LOGGER.debug()
+                        .setMessage("Evicted idle key")
+                        .addData("key", entry.getKey())
+                        .log();
+            }
+        }
+        _keyCount = _periodWorkers.size();
+        _evictedKeyCount.addAndGet(evictedKeyCount);
+    }
+
+    /* package private */ static Duration getEvictionInterval(final Duration idleKeyTimeout) {
+        final Duration evictionInterval = idleKeyTimeout.dividedBy(2);
+        if (MINIMUM_EVICTION_INTERVAL.compareTo(evictionInterval) > 0) {
+            return MINIMUM_EVICTION_INTERVAL;
+        }
+        if (MAXIMUM_EVICTION_INTERVAL.compareTo(evictionInterval) < 0) {
+            return MAXIMUM_EVICTION_INTERVAL;
+        }
+        return evictionInterval;
+    }
+
+    /* package private */ long getTimeToRotateMillis(final long nowMillis) {
+        final Map.Entry<Long, Set<PeriodWorker>> firstEntry = _rotations.firstEntry();
+        if (firstEntry == null) {
+            return ROTATION_CHECK_MILLIS;
+        }
+        return Math.max(0, Math.min(firstEntry.getKey() - nowMillis, ROTATION_CHECK_MILLIS));
+    }
+
+    private PeriodWorkerShard(final Builder builder) {
+        _periodWorkersFactory = builder._periodWorkersFactory;
+        _keyAdmitter = builder._keyAdmitter;
+        _evictionListener = builder._evictionListener;
+        _idleKeyTimeout = Optional.ofNullable(builder._idleKeyTimeout);
+        _overloadPolicy = builder._overloadPolicy;
+        _recordQueue = new LinkedBlockingQueue<>(builder._queueCapacity);
+        _nextEvictionAtMillis = System.currentTimeMillis()
+                + getEvictionInterval(_idleKeyTimeout.orElse(Duration.ZERO)).toMillis();
+    }
+
+    private volatile boolean _isRunning = true;
+    private volatile int _keyCount = 0;
+
+    private final Function<Key, List<PeriodWorker>> _periodWorkersFactory;
+    private final UnaryOperator<Key> _keyAdmitter;
+    private final Consumer<Key> _evictionListener;
+    private final Optional<Duration> _idleKeyTimeout;
+    private final AtomicLong _evictedKeyCount = new AtomicLong(0);
+    private final OverloadPolicy _overloadPolicy;
+    private final BlockingQueue<PendingRecord> _recordQueue;
+    // NOTE: The workers, rotations and next eviction are only accessed from the shard thread.
+    private final Map<Key, List<PeriodWorker>> _periodWorkers = Maps.newHashMap();
+    private final NavigableMap<Long, Set<PeriodWorker>> _rotations = new TreeMap<>();
+    private long _nextEvictionAtMillis;
+
+    private static final long ROTATION_CHECK_MILLIS = 100;
+    private static final Duration MINIMUM_EVICTION_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration MAXIMUM_EVICTION_INTERVAL = Duration.ofMinutes(1);
+    private static final Logger LOGGER = LoggerFactory.getLogger(PeriodWorkerShard.class);
+
+    // A record or a restored bucket of a key
+    /* package private */ static final class PendingRecord {
+
+        /* package private */ PendingRecord(final Key key, final Record record) {
+            _key = key;
+            _record = record;
+            _restoredBucket = null;
+        }
+
+        /* package private */ PendingRecord(final Key key, final Bucket restoredBucket) {
+            _key = key;
+            _record = null;
+            _restoredBucket = restoredBucket;
+        }
+
+        private final Key _key;
+        @Nullable
+        private final Record _record;
+        @Nullable
+        private final Bucket _restoredBucket;
+    }
+
+    /**
+     * <code>Builder</code> implementation for <code>PeriodWorkerShard</code>.
+     */
+    public static final class Builder extends OvalBuilder<PeriodWorkerShard> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(PeriodWorkerShard::new);
+        }
+
+        /**
+         * Set the factory for the <code>PeriodWorker</code> instances of a
+         * new <code>Key</code>. The workers must not be executed. Cannot be
+         * null.
+         *
+         * @param value The period workers factory.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setPeriodWorkersFactory(final Function<Key, List<PeriodWorker>> value) {
+            _periodWorkersFactory = value;
+            return this;
+        }
+
+        /**
+         * Set the function called on the shard thread with each
+         * <code>Key</code> the shard creates workers for; it returns the
+         * equal <code>Key</code> instance the shard holds the workers under.
+         * Optional. Cannot be null. Default is the key itself.
+         *
+         * @param value The key admitter.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setKeyAdmitter(final UnaryOperator<Key> value) {
+            _keyAdmitter = value;
+            return this;
+        }
+
+        /**
+         * Set the listener called on the shard thread with each evicted
+         * <code>Key</code>. Optional. Cannot be null. Default is to ignore
+         * evictions.
+         *
+         * @param value The eviction listener.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setEvictionListener(final Consumer<Key> value) {
+            _evictionListener = value;
+            return this;
+        }
+
+        /**
+         * Set the idle key timeout. Optional. Default is to never evict keys.
+         *
+         * @param value The idle key timeout.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setIdleKeyTimeout(@Nullable final Duration value) {
+            _idleKeyTimeout = value;
+            return this;
+        }
+
+        /**
+         * Set the capacity of the record queue. Optional. Cannot be null.
+         * Must be at least 1. Default is 100,000.
+         *
+         * @param value The queue capacity.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * Set the behavior when the record queue is full. Optional. Cannot be
+         * null. Default is to block.
+         *
+         * @param value The overload policy.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setOverloadPolicy(final OverloadPolicy value) {
+            _overloadPolicy = value;
+            return this;
+        }
+
+        @NotNull
+        private Function<Key, List<PeriodWorker>> _periodWorkersFactory;
+        @NotNull
+        private UnaryOperator<Key> _keyAdmitter = UnaryOperator.identity();
+        @NotNull
+        private Consumer<Key> _evictionListener = key -> { };
+        private Duration _idleKeyTimeout;
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = Aggregator.DEFAULT_QUEUE_CAPACITY;
+        @NotNull
+        private OverloadPolicy _overloadPolicy = OverloadPolicy.BLOCK;
+    }
+}
@@ -15,20 +15,29 @@
  */
 package com.arpnetworking.metrics.mad;
 
+import com.arpnetworking.commons.observer.Observable;
+import com.arpnetworking.commons.observer.Observer;
 import com.arpnetworking.logback.annotations.LogValue;
 import com.arpnetworking.metrics.common.sources.Source;
 import com.arpnetworking.metrics.mad.configuration.PipelineConfiguration;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.sinks.AsyncSink;
 import com.arpnetworking.tsdcore.sinks.MultiSink;
 import com.arpnetworking.tsdcore.sinks.Sink;
 import com.arpnetworking.utility.Launchable;
+import com.arpnetworking.utility.Reconfigurable;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 
 /**
  * Single data pathway through the time series data aggregator. The pathway
@@ -36,9 +45,16 @@ import java.util.concurrent.atomic.AtomicReference;
  * a <code>LineProcessor</code> and zero or more sinks, again typically at least
  * one sink is specified.
  *
+ * A running pipeline is reconfigured in place where possible. Sources and
+ * sinks whose configuration is unchanged keep running; only added, removed
+ * and changed ones are started or stopped. When the aggregation settings
+ * change a new <code>Aggregator</code> is launched and receives the records
+ * from the sources while the open buckets of the current one are handed
+ * off to it in the background.
+ *
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot io)
  */
-public final class Pipeline implements Launchable {
+public final class Pipeline implements Launchable, Reconfigurable<PipelineConfiguration> {
 
     /**
      * Public constructor.
@@ -59,27 +75,36 @@ public final class Pipeline implements Launchable {
                 .addData("configuration", _pipelineConfiguration)
                 .log();
 
-        final Sink rootSink = new MultiSink.Builder()
+        // Emission is dispatched off the aggregation threads
+        final MultiSink multiSink = new MultiSink.Builder()
                 .setName(_pipelineConfiguration.getName())
                 .setSinks(_pipelineConfiguration.getSinks())
+                .setParallel(_pipelineConfiguration.getParallelSinks())
+                .setQueueCapacity(_pipelineConfiguration.getSinkQueueCapacity())
+                .setOverloadPolicy(_pipelineConfiguration.getSinkOverloadPolicy())
+                .setPeriodicMetrics(_pipelineConfiguration.getPeriodicMetrics())
                 .build();
-        _sinks.add(rootSink);
-
-        final Aggregator aggregator = new Aggregator.Builder()
-                .setPeriods(_pipelineConfiguration.getPeriods())
-                .setTimerStatistics(_pipelineConfiguration.getTimerStatistics())
-                .setCounterStatistics(_pipelineConfiguration.getCounterStatistics())
-                .setGaugeStatistics(_pipelineConfiguration.getGaugeStatistics())
-                .setStatistics(_pipelineConfiguration.getStatistics())
-                .setSink(rootSink)
+        final Sink rootSink = new AsyncSink.Builder()
+                .setName(_pipelineConfiguration.getName())
+                .setSink(multiSink)
+                .setThreads(_pipelineConfiguration.getDispatchThreads())
+                .setQueueCapacity(_pipelineConfiguration.getDispatchQueueCapacity())
+                .setPeriodicMetrics(_pipelineConfiguration.getPeriodicMetrics())
                 .build();
+        _multiSink = multiSink;
+        _rootSink = rootSink;
+        _sinks = _pipelineConfiguration.getSinks();
+        _sinkConfigurations = getConfigurations(_sinks, _pipelineConfiguration.getSinkConfigurations());
+
+        final Aggregator aggregator = createAggregator(_pipelineConfiguration);
         aggregator.launch();
         _aggregator.set(aggregator);
 
-        for (final Source source : _pipelineConfiguration.getSources()) {
-            source.attach(aggregator);
+        _sources = _pipelineConfiguration.getSources();
+        _sourceConfigurations = getConfigurations(_sources, _pipelineConfiguration.getSourceConfigurations());
+        for (final Source source : _sources) {
+            source.attach(_ingest);
             source.start();
-            _sources.add(source);
         }
     }
 
@@ -100,12 +125,90 @@ public final class Pipeline implements Launchable {
         if (aggregator.isPresent()) {
             aggregator.get().shutdown();
         }
-        for (final Sink sink : _sinks) {
+        if (_rootSink != null) {
+            _rootSink.close();
+        }
+
+        _sources = Collections.emptyList();
+        _sourceConfigurations = Collections.emptyList();
+        _sinks = Collections.emptyList();
+        _sinkConfigurations = Collections.emptyList();
+        _rootSink = null;
+        _multiSink = null;
+    }
+
+    /**
+     * Reconfigure the running pipeline in place. The name and the dispatch
+     * settings of the pipeline cannot be changed in place.
+     *
+     * @param configuration The new <code>PipelineConfiguration</code>.
+     * @return True if and only if the pipeline was reconfigured in place.
+     */
+    @Override
+    public synchronized boolean reconfigure(final PipelineConfiguration configuration) {
+        final Aggregator aggregator = _aggregator.get();
+        if (aggregator == null || !isDispatchEqual(_pipelineConfiguration, configuration)) {
+            return false;
+        }
+        LOGGER.info()
+                .setMessage("Reconfiguring pipeline")
+                .addData("configuration", configuration)
+                .log();
+
+        // Sinks
+        final ComponentDiff<Sink> sinks = new ComponentDiff<>(
+                _sinks,
+                _sinkConfigurations,
+                configuration.getSinks(),
+                getConfigurations(configuration.getSinks(), configuration.getSinkConfigurations()));
+        for (final Sink sink : sinks.getRemoved()) {
+            _multiSink.removeSink(sink);
+        }
+        for (final Sink sink : sinks.getAdded()) {
+            _multiSink.addSink(sink);
+        }
+        for (final Sink sink : sinks.getDiscarded()) {
             sink.close();
         }
+        _sinks = sinks.getCurrent();
+        _sinkConfigurations = sinks.getCurrentConfigurations();
+
+        // Aggregator
+        if (!isAggregationEqual(_pipelineConfiguration, configuration)) {
+            final Aggregator successor = createAggregator(configuration);
+            aggregator.handOff(successor);
+            _aggregator.set(successor);
+        }
+
+        // Sources; the discarded sources were never started
+        final ComponentDiff<Source> sources = new ComponentDiff<>(
+                _sources,
+                _sourceConfigurations,
+                configuration.getSources(),
+                getConfigurations(configuration.getSources(), configuration.getSourceConfigurations()));
+        for (final Source source : sources.getRemoved()) {
+            source.stop();
+            source.detach(_ingest);
+        }
+        for (final Source source : sources.getAdded()) {
+            source.attach(_ingest);
+            source.start();
+        }
+        _sources = sources.getCurrent();
+        _sourceConfigurations = sources.getCurrentConfigurations();
+
+        LOGGER.info()
+                .setMessage("Reconfigured pipeline")
+                .addData("pipeline", configuration.getName())
+                .addData("sinksAdded", sinks.getAdded().size())
+                .addData("sinksRemoved", sinks.getRemoved().size())
+                .addData("sourcesAdded", sources.getAdded().size())
+                .addData("sourcesRemoved", sources.getRemoved().size())
+                .addData("aggregatorReplaced", _aggregator.get() != aggregator)
+                .log();
 
-        _sources.clear();
-        _sinks.clear();
+        _pipelineConfiguration = configuration;
+        return true;
     }
 
     /**
@@ -118,7 +221,7 @@ public final class Pipeline implements Launchable {
         return LogValueMapFactory.builder(this)
                 .put("pipelineConfiguration", _pipelineConfiguration)
                 .put("aggregator", _aggregator)
-                .put("sinks", _sinks)
+                .put("sink", _rootSink)
                 .put("sources", _sources)
                 .build();
     }
@@ -128,10 +231,166 @@ public final class Pipeline implements Launchable {
         return toLogValue().toString();
     }
 
-    private final PipelineConfiguration _pipelineConfiguration;
+    private Aggregator createAggregator(final PipelineConfiguration configuration) {
+        return new Aggregator.Builder()
+                .setName(configuration.getName())
+                .setPeriods(configuration.getPeriods())
+                .setTimerStatistics(configuration.getTimerStatistics())
+                .setCounterStatistics(configuration.getCounterStatistics())
+                .setGaugeStatistics(configuration.getGaugeStatistics())
+                .setStatistics(configuration.getStatistics())
+                .setPeriodStatistics(configuration.getPeriodStatistics())
+                .setDimensionRollups(configuration.getDimensionRollups())
+                .setScheduling(configuration.getScheduling())
+                .setShardCount(configuration.getShardCount())
+                .setIdleKeyTimeout(configuration.getIdleKeyTimeout().orElse(null))
+                .setHistogramPrecision(configuration.getHistogramPrecision())
+                .setQueueCapacity(configuration.getQueueCapacity())
+                .setOverloadPolicy(configuration.getOverloadPolicy())
+                .setRollupPeriods(configuration.getRollupPeriods())
+                .setRecycleBuckets(configuration.getRecycleBuckets())
+                .setSnapshotFile(configuration.getSnapshotFile().orElse(null))
+                .setMaximumKeysPerService(configuration.getMaximumKeysPerService().orElse(null))
+                .setMaximumMetricsPerKey(configuration.getMaximumMetricsPerKey().orElse(null))
+                .setPeriodicMetrics(configuration.getPeriodicMetrics())
+                .setSink(_rootSink)
+                .build();
+    }
+
+    private void ingest(final Observable observable, final Object event) {
+        // NOTE: A retired aggregator passes the records it observes to its
+        // successor so records are not held back while it is handed off
+        final Aggregator aggregator = _aggregator.get();
+        if (aggregator != null) {
+            aggregator.notify(observable, event);
+        }
+    }
+
+    private static <T> List<JsonNode> getConfigurations(final List<T> components, final List<JsonNode> configurations) {
+        // Configurations are only usable when there is one per component
+        return components.size() == configurations.size() ? configurations : Collections.emptyList();
+    }
+
+    private static boolean isDispatchEqual(final PipelineConfiguration current, final PipelineConfiguration next) {
+        return Objects.equals(current.getName(), next.getName())
+                && current.getDispatchThreads() == next.getDispatchThreads()
+                && current.getDispatchQueueCapacity() == next.getDispatchQueueCapacity()
+                && current.getParallelSinks() == next.getParallelSinks()
+                && current.getSinkQueueCapacity() == next.getSinkQueueCapacity()
+                && Objects.equals(current.getSinkOverloadPolicy(), next.getSinkOverloadPolicy());
+    }
+
+    private static boolean isAggregationEqual(final PipelineConfiguration current, final PipelineConfiguration next) {
+        return Objects.equals(current.getPeriods(), next.getPeriods())
+                && Objects.equals(current.getTimerStatistics(), next.getTimerStatistics())
+                && Objects.equals(current.getCounterStatistics(), next.getCounterStatistics())
+                && Objects.equals(current.getGaugeStatistics(), next.getGaugeStatistics())
+                && Objects.equals(current.getStatistics(), next.getStatistics())
+                && Objects.equals(current.getPeriodStatistics(), next.getPeriodStatistics())
+                && Objects.equals(current.getDimensionRollups(), next.getDimensionRollups())
+                && Objects.equals(current.getScheduling(), next.getScheduling())
+                && current.getShardCount() == next.getShardCount()
+                && Objects.equals(current.getIdleKeyTimeout(), next.getIdleKeyTimeout())
+                && current.getHistogramPrecision() == next.getHistogramPrecision()
+                && current.getQueueCapacity() == next.getQueueCapacity()
+                && Objects.equals(current.getOverloadPolicy(), next.getOverloadPolicy())
+                && current.getRollupPeriods() == next.getRollupPeriods()
+                && current.getRecycleBuckets() == next.getRecycleBuckets()
+                && Objects.equals(current.getSnapshotFile(), next.getSnapshotFile())
+                && Objects.equals(current.getMaximumKeysPerService(), next.getMaximumKeysPerService())
+                && Objects.equals(current.getMaximumMetricsPerKey(), next.getMaximumMetricsPerKey());
+    }
+
+    private volatile PipelineConfiguration _pipelineConfiguration;
+    private List<Source> _sources = Collections.emptyList();
+    private List<JsonNode> _sourceConfigurations = Collections.emptyList();
+    private List<Sink> _sinks = Collections.emptyList();
+    private List<JsonNode> _sinkConfigurations = Collections.emptyList();
+    @Nullable
+    private MultiSink _multiSink;
+    @Nullable
+    private Sink _rootSink;
+
     private final AtomicReference<Aggregator> _aggregator = new AtomicReference<>();
-    private final List<Sink> _sinks = Lists.newArrayList();
-    private final List<Source> _sources = Lists.newArrayList();
+    private final Observer _ingest = new IngestObserver();
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Pipeline.class);
+
+    private final class IngestObserver implements Observer {
+
+        @Override
+        public void notify(final Observable observable, final Object event) {
+            ingest(observable, event);
+        }
+    }
+
+    /**
+     * Matches the running components of a pipeline with those of a new
+     * configuration. A running component is kept if the new configuration
+     * contains a component with an identical configuration; the newly
+     * created instance of that component is discarded.
+     *
+     * @param <T> The type of component.
+     */
+    private static final class ComponentDiff<T> {
+
+        /* package private */ ComponentDiff(
+                final List<T> current,
+                final List<JsonNode> currentConfigurations,
+                final List<T> next,
+                final List<JsonNode> nextConfigurations) {
+            final List<T> unmatched = Lists.newArrayList(current);
+            final List<JsonNode> unmatchedConfigurations = Lists.newArrayList();
+            for (int i = 0; i < current.size(); ++i) {
+                unmatchedConfigurations.add(currentConfigurations.isEmpty() ? null : currentConfigurations.get(i));
+            }
+            final ImmutableList.Builder<T> retained = ImmutableList.builder();
+            final ImmutableList.Builder<T> added = ImmutableList.builder();
+            final ImmutableList.Builder<T> discarded = ImmutableList.builder();
+            for (int i = 0; i < next.size(); ++i) {
+                final int match = nextConfigurations.isEmpty()
+                        ? -1
+                        : unmatchedConfigurations.indexOf(nextConfigurations.get(i));
+                if (match >= 0) {
+                    retained.add(unmatched.remove(match));
+                    unmatchedConfigurations.remove(match);
+                    discarded.add(next.get(i));
+                } else {
+                    retained.add(next.get(i));
+                    added.add(next.get(i));
+                }
+            }
+            _current = retained.build();
+            _currentConfigurations = nextConfigurations;
+            _added = added.build();
+            _removed = ImmutableList.copyOf(unmatched);
+            _discarded = discarded.build();
+        }
+
+        public List<T> getCurrent() {
+            return _current;
+        }
+
+        public List<JsonNode> getCurrentConfigurations() {
+            return _currentConfigurations;
+        }
+
+        public List<T> getAdded() {
+            return _added;
+        }
+
+        public List<T> getRemoved() {
+            return _removed;
+        }
+
+        public List<T> getDiscarded() {
+            return _discarded;
+        }
+
+        private final List<T> _current;
+        private final List<JsonNode> _currentConfigurations;
+        private final List<T> _added;
+        private final List<T> _removed;
+        private final List<T> _discarded;
+    }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the open buckets of an <code>Aggregator</code>. The
+ * file is written and read as a stream so neither the writer nor the reader
+ * holds more than one bucket in memory. Each bucket is written as its key,
+ * period and start followed by the length prefixed state written by
+ * <code>Bucket.snapshot</code>; buckets of periods which are no longer
+ * aggregated are skipped when read using the length.
+ *
+ * The file is first written beside the target and then moved into place so
+ * a partially written snapshot is never read.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+/* package private */ final class SnapshotFile {
+
+    /**
+     * Write the open buckets of period workers and of the workers they roll
+     * up into. The workers must be stopped.
+     *
+     * @param file The snapshot file.
+     * @param periodWorkers The period workers by <code>Key</code>.
+     * @return The number of buckets written.
+     * @throws IOException If the snapshot could not be written.
+     */
+    public static int write(
+            final File file,
+            final Iterable<Map.Entry<Key, List<PeriodWorker>>> periodWorkers) throws IOException {
+        final Path path = file.toPath();
+        final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        final ByteArrayOutputStream bucketBuffer = new ByteArrayOutputStream();
+        final DataOutputStream bucketOut = new DataOutputStream(bucketBuffer);
+        int bucketCount = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporaryPath), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (final Map.Entry<Key, List<PeriodWorker>> entry : periodWorkers) {
+                bucketCount += write(entry.getKey(), entry.getValue(), out, bucketBuffer, bucketOut);
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return bucketCount;
+    }
+
+    /**
+     * Read the buckets of a snapshot file and pass each to a
+     * <code>Restorer</code>.
+     *
+     * @param file The snapshot file.
+     * @param restorer The <code>Restorer</code> to pass each bucket to.
+     * @return The number of buckets restored.
+     * @throws IOException If the snapshot could not be read.
+     */
+    public static int read(final File file, final Restorer restorer) throws IOException {
+        int bucketCount = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE))) {
+            final int magic = in.readInt();
+            final int version = in.readInt();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException(String.format(
+                        "Unsupported snapshot; file=%s, magic=%x, version=%d",
+                        file,
+                        magic,
+                        version));
+            }
+            while (in.readBoolean()) {
+                final Key key = readKey(in);
+                final Duration period = Duration.ofMillis(in.readLong());
+                final long startMillis = in.readLong();
+                final int length = in.readInt();
+                if (restorer.restore(key, period, startMillis, in)) {
+                    ++bucketCount;
+                } else if (in.skipBytes(length) != length) {
+                    throw new EOFException(String.format("Truncated snapshot; file=%s", file));
+                }
+            }
+        }
+        return bucketCount;
+    }
+
+    private static int write(
+            final Key key,
+            final List<PeriodWorker> periodWorkers,
+            final DataOutputStream out,
+            final ByteArrayOutputStream bucketBuffer,
+            final DataOutputStream bucketOut) throws IOException {
+        int bucketCount = 0;
+        for (final PeriodWorker periodWorker : periodWorkers) {
+            for (final Bucket bucket : periodWorker.getBuckets()) {
+                if (!bucket.isOpen()) {
+                    continue;
+                }
+                // Buffer the bucket state to prefix it with its length
+                bucketBuffer.reset();
+                bucket.snapshot(bucketOut);
+                bucketOut.flush();
+
+                out.writeBoolean(true);
+                writeKey(key, out);
+                out.writeLong(periodWorker.getPeriod().toMillis());
+                out.writeLong(bucket.getStartMillis());
+                out.writeInt(bucketBuffer.size());
+                bucketBuffer.writeTo(out);
+                ++bucketCount;
+            }
+            bucketCount += write(key, periodWorker.getRollupPeriodWorkers(), out, bucketBuffer, bucketOut);
+        }
+        return bucketCount;
+    }
+
+    private static void writeKey(final Key key, final DataOutputStream out) throws IOException {
+        final ImmutableMap<String, String> parameters = key.getParameters();
+        out.writeInt(parameters.size());
+        for (final Map.Entry<String, String> parameter : parameters.entrySet()) {
+            out.writeUTF(parameter.getKey());
+            out.writeUTF(parameter.getValue());
+        }
+    }
+
+    private static Key readKey(final DataInput in) throws IOException {
+        final int size = in.readInt();
+        final ImmutableMap.Builder<String, String> parameters = ImmutableMap.builder();
+        for (int i = 0; i < size; ++i) {
+            parameters.put(in.readUTF(), in.readUTF());
+        }
+        return new DefaultKey(parameters.build());
+    }
+
+    private SnapshotFile() { }
+
+    private static final int MAGIC = 0x4D414453;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Restores the state of a bucket read from a snapshot.
+     */
+    @FunctionalInterface
+    /* package private */ interface Restorer {
+
+        /**
+         * Restore the state of a bucket. If the bucket is restored its state
+         * must be read completely from the input; otherwise none of it may
+         * be read.
+         *
+         * @param key The <code>Key</code> of the bucket.
+         * @param period The period of the bucket.
+         * @param startMillis The start of the bucket in milliseconds since the epoch.
+         * @param in The <code>DataInput</code> to read the bucket state from.
+         * @return True if and only if the bucket was restored.
+         * @throws IOException If the bucket state could not be read.
+         */
+        boolean restore(Key key, Duration period, long startMillis, DataInput in) throws IOException;
+    }
+}
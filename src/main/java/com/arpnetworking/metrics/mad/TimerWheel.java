@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel of values expiring at epoch millisecond times. Time is
+ * divided into ticks and each tick maps to one of a fixed power of two
+ * number of slots; values expiring more than one revolution ahead share a
+ * slot with nearer values and are skipped until due. Expiring values only
+ * visits the slots of the ticks elapsed since the last expiration, so the
+ * cost is proportional to the elapsed ticks and the values in their slots
+ * rather than to the number of scheduled values.
+ *
+ * Slots are only allocated while they hold values, so an idle or sparsely
+ * used wheel retains little more than its slot array. Since applications
+ * may keep a wheel per key, size the tick to the expiration horizon so a
+ * small number of slots covers it.
+ *
+ * This class is thread safe.
+ *
+ * @param <T> The type of the scheduled values.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+/* package private */ final class TimerWheel<T> {
+
+    /**
+     * Public constructor.
+     *
+     * @param tickMillis The duration of a tick in milliseconds.
+     * @param slotCount The number of slots; rounded up to a power of two.
+     * @param nowMillis The current time in milliseconds since the epoch.
+     */
+    /* package private */ TimerWheel(final long tickMillis, final int slotCount, final long nowMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException(String.format("Tick must be positive; tickMillis=%d", tickMillis));
+        }
+        final int roundedSlotCount = Integer.highestOneBit(Math.max(1, slotCount) * 2 - 1);
+        _tickMillis = tickMillis;
+        _mask = roundedSlotCount - 1;
+        @SuppressWarnings("unchecked")
+        final List<Timer<T>>[] slots = new List[roundedSlotCount];
+        _slots = slots;
+        _currentTick = Math.floorDiv(nowMillis, tickMillis);
+    }
+
+    /**
+     * Schedule a value to expire at a time. Values scheduled in the past
+     * expire on the next call to <code>expire</code>.
+     *
+     * @param expirationMillis The expiration in milliseconds since the epoch.
+     * @param value The value to schedule.
+     */
+    public synchronized void schedule(final long expirationMillis, final T value) {
+        final long tick = Math.max(_currentTick, Math.floorDiv(expirationMillis, _tickMillis));
+        final int index = (int) (tick & _mask);
+        List<Timer<T>> slot = _slots[index];
+        if (slot == null) {
+            slot = new ArrayList<>(INITIAL_SLOT_CAPACITY);
+            _slots[index] = slot;
+        }
+        slot.add(new Timer<>(expirationMillis, value));
+        ++_size;
+    }
+
+    /**
+     * Remove the values expiring at or before a time.
+     *
+     * @param nowMillis The current time in milliseconds since the epoch.
+     * @param expired The list to add the expired values to.
+     */
+    public synchronized void expire(final long nowMillis, final List<T> expired) {
+        final long nowTick = Math.floorDiv(nowMillis, _tickMillis);
+        if (_size > 0) {
+            // Visit each slot at most once; the slot of the current tick is revisited
+            // since values may have been scheduled into it after the last expiration
+            final long lastTick = Math.min(nowTick, _currentTick + _mask);
+            for (long tick = _currentTick; tick <= lastTick; ++tick) {
+                final int index = (int) (tick & _mask);
+                final List<Timer<T>> slot = _slots[index];
+                if (slot == null) {
+                    continue;
+                }
+                for (int i = slot.size() - 1; i >= 0; --i) {
+                    final Timer<T> timer = slot.get(i);
+                    if (timer._expirationMillis <= nowMillis) {
+                        // Remove by swapping with the last timer; order within a slot is irrelevant
+                        final Timer<T> last = slot.remove(slot.size() - 1);
+                        if (i < slot.size()) {
+                            slot.set(i, last);
+                        }
+                        expired.add(timer._value);
+                        --_size;
+                    }
+                }
+                // Release emptied slots so retained memory follows the scheduled values
+                if (slot.isEmpty()) {
+                    _slots[index] = null;
+                }
+            }
+        }
+        if (nowTick > _currentTick) {
+            _currentTick = nowTick;
+        }
+    }
+
+    public synchronized int size() {
+        return _size;
+    }
+
+    /* package private */ int getSlotCount() {
+        return _slots.length;
+    }
+
+    /* package private */ synchronized int getAllocatedSlotCount() {
+        int allocatedSlotCount = 0;
+        for (final List<Timer<T>> slot : _slots) {
+            if (slot != null) {
+                ++allocatedSlotCount;
+            }
+        }
+        return allocatedSlotCount;
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public synchronized Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("tickMillis", _tickMillis)
+                .put("slotCount", _slots.length)
+                .put("currentTick", _currentTick)
+                .put("size", _size)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private final long _tickMillis;
+    private final int _mask;
+    private final List<Timer<T>>[] _slots;
+    private long _currentTick;
+    private int _size = 0;
+
+    private static final int INITIAL_SLOT_CAPACITY = 2;
+
+    private static final class Timer<T> {
+
+        /* package private */ Timer(final long expirationMillis, final T value) {
+            _expirationMillis = expirationMillis;
+            _value = value;
+        }
+
+        private final long _expirationMillis;
+        private final T _value;
+    }
+}
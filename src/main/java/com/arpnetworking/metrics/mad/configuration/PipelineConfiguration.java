@@ -17,16 +17,27 @@ package com.arpnetworking.metrics.mad.configuration;
 
 import com.arpnetworking.commons.builder.OvalBuilder;
 import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.arpnetworking.configuration.Configuration;
 import com.arpnetworking.logback.annotations.Loggable;
 import com.arpnetworking.metrics.common.kafka.ConsumerDeserializer;
 import com.arpnetworking.metrics.common.sources.Source;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.metrics.mad.Aggregator;
+import com.arpnetworking.metrics.mad.DimensionRollup;
+import com.arpnetworking.metrics.mad.PeriodStatistics;
 import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.HistogramStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.tsdcore.statistics.StatisticDeserializer;
 import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.arpnetworking.utility.OverloadPolicy;
+import com.fasterxml.jackson.annotation.JacksonInject;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.introspect.AnnotationIntrospectorPair;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.module.guice.GuiceAnnotationIntrospector;
 import com.fasterxml.jackson.module.guice.GuiceInjectableValues;
 import com.google.common.base.MoreObjects;
@@ -35,14 +46,18 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.inject.Injector;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import net.sf.oval.constraint.Range;
 import org.apache.kafka.clients.consumer.Consumer;
 
+import java.io.File;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -80,6 +95,42 @@ public final class PipelineConfiguration {
         return objectMapper;
     }
 
+    /**
+     * Read a <code>PipelineConfiguration</code> from a <code>Configuration</code>
+     * retaining the configuration of each source and sink. The retained
+     * configurations identify the sources and sinks which are unchanged when
+     * the pipeline is reconfigured.
+     *
+     * @param objectMapper The <code>ObjectMapper</code> created by <code>createObjectMapper</code>.
+     * @param configuration The <code>Configuration</code> to read.
+     * @return The <code>PipelineConfiguration</code> or empty if the configuration is empty.
+     */
+    public static Optional<PipelineConfiguration> fromConfiguration(
+            final ObjectMapper objectMapper,
+            final Configuration configuration) {
+        final Optional<JsonNode> node = configuration.getAs(JsonNode.class);
+        if (!node.isPresent() || !node.get().isObject()) {
+            return configuration.getAs(PipelineConfiguration.class);
+        }
+        final ObjectNode pipelineNode = ((ObjectNode) node.get()).deepCopy();
+        if (pipelineNode.has("sources")) {
+            pipelineNode.set("sourceConfigurations", pipelineNode.get("sources").deepCopy());
+        }
+        if (pipelineNode.has("sinks")) {
+            pipelineNode.set("sinkConfigurations", pipelineNode.get("sinks").deepCopy());
+        }
+        try {
+            return Optional.ofNullable(objectMapper.treeToValue(pipelineNode, PipelineConfiguration.class));
+        } catch (final JsonProcessingException e) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Unable to construct object from configuration; class=%s, property=%s",
+                            PipelineConfiguration.class,
+                            node.get()),
+                    e);
+        }
+    }
+
     public String getName() {
         return _name;
     }
@@ -92,6 +143,14 @@ public final class PipelineConfiguration {
         return _sinks;
     }
 
+    public List<JsonNode> getSourceConfigurations() {
+        return _sourceConfigurations;
+    }
+
+    public List<JsonNode> getSinkConfigurations() {
+        return _sinkConfigurations;
+    }
+
     public Set<Duration> getPeriods() {
         return _periods;
     }
@@ -112,6 +171,82 @@ public final class PipelineConfiguration {
         return _statistics;
     }
 
+    public ImmutableMap<Duration, PeriodStatistics> getPeriodStatistics() {
+        return _periodStatistics;
+    }
+
+    public ImmutableList<DimensionRollup> getDimensionRollups() {
+        return _dimensionRollups;
+    }
+
+    public Aggregator.Scheduling getScheduling() {
+        return _scheduling;
+    }
+
+    public int getShardCount() {
+        return _shardCount;
+    }
+
+    public int getHistogramPrecision() {
+        return _histogramPrecision;
+    }
+
+    public int getQueueCapacity() {
+        return _queueCapacity;
+    }
+
+    public OverloadPolicy getOverloadPolicy() {
+        return _overloadPolicy;
+    }
+
+    public int getDispatchThreads() {
+        return _dispatchThreads;
+    }
+
+    public int getDispatchQueueCapacity() {
+        return _dispatchQueueCapacity;
+    }
+
+    public boolean getParallelSinks() {
+        return _parallelSinks;
+    }
+
+    public int getSinkQueueCapacity() {
+        return _sinkQueueCapacity;
+    }
+
+    public OverloadPolicy getSinkOverloadPolicy() {
+        return _sinkOverloadPolicy;
+    }
+
+    public boolean getRollupPeriods() {
+        return _rollupPeriods;
+    }
+
+    public boolean getRecycleBuckets() {
+        return _recycleBuckets;
+    }
+
+    public Optional<Duration> getIdleKeyTimeout() {
+        return _idleKeyTimeout;
+    }
+
+    public Optional<File> getSnapshotFile() {
+        return _snapshotFile;
+    }
+
+    public Optional<Integer> getMaximumKeysPerService() {
+        return _maximumKeysPerService;
+    }
+
+    public Optional<Integer> getMaximumMetricsPerKey() {
+        return _maximumMetricsPerKey;
+    }
+
+    public PeriodicMetrics getPeriodicMetrics() {
+        return _periodicMetrics;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -123,6 +258,24 @@ public final class PipelineConfiguration {
                 .add("TimerStatistic", _timerStatistic)
                 .add("CounterStatistic", _counterStatistic)
                 .add("GaugeStatistic", _gaugeStatistic)
+                .add("PeriodStatistics", _periodStatistics)
+                .add("DimensionRollups", _dimensionRollups)
+                .add("Scheduling", _scheduling)
+                .add("ShardCount", _shardCount)
+                .add("IdleKeyTimeout", _idleKeyTimeout)
+                .add("HistogramPrecision", _histogramPrecision)
+                .add("QueueCapacity", _queueCapacity)
+                .add("OverloadPolicy", _overloadPolicy)
+                .add("RollupPeriods", _rollupPeriods)
+                .add("RecycleBuckets", _recycleBuckets)
+                .add("DispatchThreads", _dispatchThreads)
+                .add("DispatchQueueCapacity", _dispatchQueueCapacity)
+                .add("ParallelSinks", _parallelSinks)
+                .add("SinkQueueCapacity", _sinkQueueCapacity)
+                .add("SinkOverloadPolicy", _sinkOverloadPolicy)
+                .add("SnapshotFile", _snapshotFile)
+                .add("MaximumKeysPerService", _maximumKeysPerService)
+                .add("MaximumMetricsPerKey", _maximumMetricsPerKey)
                 .toString();
     }
 
@@ -130,21 +283,63 @@ public final class PipelineConfiguration {
         _name = builder._name;
         _sources = ImmutableList.copyOf(builder._sources);
         _sinks = ImmutableList.copyOf(builder._sinks);
+        _sourceConfigurations = ImmutableList.copyOf(builder._sourceConfigurations);
+        _sinkConfigurations = ImmutableList.copyOf(builder._sinkConfigurations);
         _periods = ImmutableSet.copyOf(builder._periods);
         _timerStatistic = ImmutableSet.copyOf(builder._timerStatistics);
         _counterStatistic = ImmutableSet.copyOf(builder._counterStatistics);
         _gaugeStatistic = ImmutableSet.copyOf(builder._gaugeStatistics);
         _statistics = ImmutableMap.copyOf(builder._statistics);
+        _periodStatistics = ImmutableMap.copyOf(builder._periodStatistics);
+        _dimensionRollups = ImmutableList.copyOf(builder._dimensionRollups);
+        _scheduling = builder._scheduling;
+        _shardCount = builder._shardCount;
+        _idleKeyTimeout = Optional.ofNullable(builder._idleKeyTimeout);
+        _histogramPrecision = builder._histogramPrecision;
+        _queueCapacity = builder._queueCapacity;
+        _overloadPolicy = builder._overloadPolicy;
+        _rollupPeriods = builder._rollupPeriods;
+        _recycleBuckets = builder._recycleBuckets;
+        _dispatchThreads = builder._dispatchThreads;
+        _dispatchQueueCapacity = builder._dispatchQueueCapacity;
+        _parallelSinks = builder._parallelSinks;
+        _sinkQueueCapacity = builder._sinkQueueCapacity;
+        _sinkOverloadPolicy = builder._sinkOverloadPolicy;
+        _snapshotFile = Optional.ofNullable(builder._snapshotFile);
+        _maximumKeysPerService = Optional.ofNullable(builder._maximumKeysPerService);
+        _maximumMetricsPerKey = Optional.ofNullable(builder._maximumMetricsPerKey);
+        _periodicMetrics = builder._periodicMetrics;
     }
 
     private final String _name;
     private final ImmutableList<Source> _sources;
     private final ImmutableList<Sink> _sinks;
+    private final ImmutableList<JsonNode> _sourceConfigurations;
+    private final ImmutableList<JsonNode> _sinkConfigurations;
     private final ImmutableSet<Duration> _periods;
     private final ImmutableSet<Statistic> _timerStatistic;
     private final ImmutableSet<Statistic> _counterStatistic;
     private final ImmutableSet<Statistic> _gaugeStatistic;
     private final ImmutableMap<String, Set<Statistic>> _statistics;
+    private final ImmutableMap<Duration, PeriodStatistics> _periodStatistics;
+    private final ImmutableList<DimensionRollup> _dimensionRollups;
+    private final Aggregator.Scheduling _scheduling;
+    private final int _shardCount;
+    private final Optional<Duration> _idleKeyTimeout;
+    private final int _histogramPrecision;
+    private final int _queueCapacity;
+    private final OverloadPolicy _overloadPolicy;
+    private final boolean _rollupPeriods;
+    private final boolean _recycleBuckets;
+    private final int _dispatchThreads;
+    private final int _dispatchQueueCapacity;
+    private final boolean _parallelSinks;
+    private final int _sinkQueueCapacity;
+    private final OverloadPolicy _sinkOverloadPolicy;
+    private final Optional<File> _snapshotFile;
+    private final Optional<Integer> _maximumKeysPerService;
+    private final Optional<Integer> _maximumMetricsPerKey;
+    private final PeriodicMetrics _periodicMetrics;
 
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
 
@@ -195,6 +390,34 @@ public final class PipelineConfiguration {
             return this;
         }
 
+        /**
+         * The configuration of each source in the same order as the sources.
+         * Optional. Cannot be null. Default is empty. Set by
+         * <code>fromConfiguration</code>; sources without a configuration are
+         * always replaced when the pipeline is reconfigured.
+         *
+         * @param value The source configurations.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSourceConfigurations(final List<JsonNode> value) {
+            _sourceConfigurations = value;
+            return this;
+        }
+
+        /**
+         * The configuration of each sink in the same order as the sinks.
+         * Optional. Cannot be null. Default is empty. Set by
+         * <code>fromConfiguration</code>; sinks without a configuration are
+         * always replaced when the pipeline is reconfigured.
+         *
+         * @param value The sink configurations.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSinkConfigurations(final List<JsonNode> value) {
+            _sinkConfigurations = value;
+            return this;
+        }
+
         /**
          * The aggregation periods. Cannot be null or empty. Default is one
          * second and five minute periods.
@@ -255,6 +478,268 @@ public final class PipelineConfiguration {
             return this;
         }
 
+        /**
+         * The statistics to compute for individual periods; for example, to
+         * compute only the count and mean of timers for a one second period.
+         * Statistics which are not set for a period are those of the
+         * pipeline. When periods are rolled up, periods which compute
+         * different statistics are not rolled up from one another. Optional.
+         * Cannot be null. Default is empty.
+         *
+         * @param value The statistics by period.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setPeriodStatistics(final Map<Duration, PeriodStatistics> value) {
+            _periodStatistics = value;
+            return this;
+        }
+
+        /**
+         * The reduced dimension sets to additionally aggregate each record
+         * by; for example, dropping the host dimension to aggregate across
+         * all hosts of a service and cluster. Optional. Cannot be null.
+         * Default is empty.
+         *
+         * @param value The dimension rollups.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setDimensionRollups(final List<DimensionRollup> value) {
+            _dimensionRollups = value;
+            return this;
+        }
+
+        /**
+         * The scheduling of period workers; either a dedicated thread per key
+         * and period or a fixed number of shards. Optional. Cannot be null.
+         * Default is <code>SHARDED</code>.
+         *
+         * @param value The scheduling.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setScheduling(final Aggregator.Scheduling value) {
+            _scheduling = value;
+            return this;
+        }
+
+        /**
+         * The number of shards for <code>SHARDED</code> scheduling. Optional.
+         * Cannot be null. Must be at least one. Default is the number of
+         * available processors.
+         *
+         * @param value The number of shards.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setShardCount(final Integer value) {
+            _shardCount = value;
+            return this;
+        }
+
+        /**
+         * The duration after which a key without open buckets that has not
+         * received any records is evicted along with its period workers.
+         * Optional. Default is to never evict keys.
+         *
+         * @param value The idle key timeout.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setIdleKeyTimeout(final Duration value) {
+            _idleKeyTimeout = value;
+            return this;
+        }
+
+        /**
+         * The number of bits of mantissa retained by histograms. Optional.
+         * Cannot be null. Must be between 1 and 52. Default is 7 which
+         * provides accuracy to within 1% of the computed value.
+         *
+         * @param value The histogram precision.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setHistogramPrecision(final Integer value) {
+            _histogramPrecision = value;
+            return this;
+        }
+
+        /**
+         * The capacity of each aggregator record queue; per shard when
+         * sharded and per period worker otherwise. Optional. Cannot be null.
+         * Must be at least 1. Default is 100,000.
+         *
+         * @param value The queue capacity.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * The behavior when an aggregator record queue is full; one of
+         * <code>BLOCK</code>, <code>DROP_NEWEST</code> or
+         * <code>DROP_OLDEST</code>. Blocking slows the sources so they stop
+         * reading input. Optional. Cannot be null. Default is
+         * <code>BLOCK</code>.
+         *
+         * @param value The overload policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setOverloadPolicy(final OverloadPolicy value) {
+            _overloadPolicy = value;
+            return this;
+        }
+
+        /**
+         * Whether to derive each period from the closed buckets of the
+         * coarsest finer period which divides it. For example, with periods
+         * of one second, one minute and one hour only the one second buckets
+         * accumulate samples; the one minute buckets are merged from them and
+         * the one hour buckets from the one minute buckets. Optional. Cannot
+         * be null. Default is false.
+         *
+         * @param value Whether to roll up periods.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setRollupPeriods(final Boolean value) {
+            _rollupPeriods = value;
+            return this;
+        }
+
+        /**
+         * Whether to reuse the closed buckets of each key, and the
+         * calculators of the metrics in them, for the following periods of
+         * the key instead of allocating new ones. Only applies to sharded
+         * scheduling. Optional. Cannot be null. Default is false.
+         *
+         * @param value Whether to recycle buckets.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setRecycleBuckets(final Boolean value) {
+            _recycleBuckets = value;
+            return this;
+        }
+
+        /**
+         * The number of threads dispatching aggregated data to the sinks.
+         * Closing a bucket only queues its data for dispatch. Optional.
+         * Cannot be null. Must be at least 1. Default is 1.
+         *
+         * @param value The number of dispatch threads.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setDispatchThreads(final Integer value) {
+            _dispatchThreads = value;
+            return this;
+        }
+
+        /**
+         * The capacity of the queue of aggregated data awaiting dispatch to
+         * the sinks. When full, closing a bucket blocks until there is
+         * capacity. Optional. Cannot be null. Must be at least 1. Default is
+         * 10,000.
+         *
+         * @param value The dispatch queue capacity.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setDispatchQueueCapacity(final Integer value) {
+            _dispatchQueueCapacity = value;
+            return this;
+        }
+
+        /**
+         * Whether each sink publishes from its own bounded queue and thread.
+         * A slow sink then only delays itself instead of every other sink of
+         * the pipeline. Optional. Cannot be null. Default is false.
+         *
+         * @param value Whether to publish to the sinks in parallel.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setParallelSinks(final Boolean value) {
+            _parallelSinks = value;
+            return this;
+        }
+
+        /**
+         * The capacity of the queue of each sink when the sinks are
+         * parallel. Optional. Cannot be null. Must be at least 1. Default is
+         * 10,000.
+         *
+         * @param value The capacity of each sink queue.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSinkQueueCapacity(final Integer value) {
+            _sinkQueueCapacity = value;
+            return this;
+        }
+
+        /**
+         * The behavior when the queue of a sink is full when the sinks are
+         * parallel; one of <code>BLOCK</code>, <code>DROP_NEWEST</code> or
+         * <code>DROP_OLDEST</code>. Optional. Cannot be null. Default is
+         * <code>BLOCK</code>.
+         *
+         * @param value The sink overload policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSinkOverloadPolicy(final OverloadPolicy value) {
+            _sinkOverloadPolicy = value;
+            return this;
+        }
+
+        /**
+         * The file to write the open buckets of the pipeline to when it is
+         * shut down, for example on restart or when its configuration
+         * changes, and to restore them from when it is launched. Each
+         * pipeline requires its own file. Optional. Default is to discard
+         * open buckets on shutdown.
+         *
+         * @param value The snapshot file.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSnapshotFile(final File value) {
+            _snapshotFile = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of distinct keys aggregated for each service;
+         * records with new keys beyond the limit are aggregated under an
+         * overflow key of the service. Optional. Must be at least 1. Default
+         * is unlimited.
+         *
+         * @param value The maximum number of keys per service.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaximumKeysPerService(final Integer value) {
+            _maximumKeysPerService = value;
+            return this;
+        }
+
+        /**
+         * The maximum number of distinct metrics aggregated for each key in
+         * each period; samples of new metrics beyond the limit are aggregated
+         * as an overflow metric. Optional. Must be at least 1. Default is
+         * unlimited.
+         *
+         * @param value The maximum number of metrics per key.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaximumMetricsPerKey(final Integer value) {
+            _maximumMetricsPerKey = value;
+            return this;
+        }
+
+        /**
+         * The <code>PeriodicMetrics</code> instance. Cannot be null. Injected
+         * when deserialized.
+         *
+         * @param value The <code>PeriodicMetrics</code> instance.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setPeriodicMetrics(final PeriodicMetrics value) {
+            _periodicMetrics = value;
+            return this;
+        }
+
         @NotNull
         @NotEmpty
         private String _name;
@@ -263,6 +748,10 @@ public final class PipelineConfiguration {
         @NotNull
         private List<Sink> _sinks = Collections.emptyList();
         @NotNull
+        private List<JsonNode> _sourceConfigurations = Collections.emptyList();
+        @NotNull
+        private List<JsonNode> _sinkConfigurations = Collections.emptyList();
+        @NotNull
         @NotEmpty
         private Set<Duration> _periods = Sets.newHashSet(
                 Duration.ofSeconds(1),
@@ -289,5 +778,48 @@ public final class PipelineConfiguration {
                 STATISTIC_FACTORY.getStatistic("mean"));
         @NotNull
         private Map<String, Set<Statistic>> _statistics = Collections.emptyMap();
+        @NotNull
+        private Map<Duration, PeriodStatistics> _periodStatistics = Collections.emptyMap();
+        @NotNull
+        private List<DimensionRollup> _dimensionRollups = Collections.emptyList();
+        @NotNull
+        private Aggregator.Scheduling _scheduling = Aggregator.Scheduling.SHARDED;
+        @NotNull
+        @Min(1)
+        private Integer _shardCount = Runtime.getRuntime().availableProcessors();
+        private Duration _idleKeyTimeout;
+        @NotNull
+        @Range(min = 1, max = HistogramStatistic.MAXIMUM_PRECISION)
+        private Integer _histogramPrecision = HistogramStatistic.DEFAULT_PRECISION;
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = Aggregator.DEFAULT_QUEUE_CAPACITY;
+        @NotNull
+        private OverloadPolicy _overloadPolicy = OverloadPolicy.BLOCK;
+        @NotNull
+        private Boolean _rollupPeriods = false;
+        @NotNull
+        private Boolean _recycleBuckets = false;
+        @NotNull
+        @Min(1)
+        private Integer _dispatchThreads = 1;
+        @NotNull
+        @Min(1)
+        private Integer _dispatchQueueCapacity = 10000;
+        @NotNull
+        private Boolean _parallelSinks = false;
+        @NotNull
+        @Min(1)
+        private Integer _sinkQueueCapacity = 10000;
+        @NotNull
+        private OverloadPolicy _sinkOverloadPolicy = OverloadPolicy.BLOCK;
+        private File _snapshotFile;
+        @Min(1)
+        private Integer _maximumKeysPerService;
+        @Min(1)
+        private Integer _maximumMetricsPerKey;
+        @JacksonInject
+        @NotNull
+        private PeriodicMetrics _periodicMetrics;
     }
 }
@@ -19,6 +19,7 @@ import com.arpnetworking.commons.builder.ThreadLocalBuilder;
 import com.arpnetworking.logback.annotations.Loggable;
 import com.google.common.base.MoreObjects;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 
 import java.util.Objects;
@@ -42,8 +43,14 @@ public final class DefaultQuantity implements Quantity {
         return _unit;
     }
 
+    @Override
+    public long getWeight() {
+        return _weight;
+    }
+
     @Override
     public Quantity add(final Quantity otherQuantity) {
+        assertUnweighted(otherQuantity);
         if (_unit.isPresent() != otherQuantity.getUnit().isPresent()) {
             throw new IllegalStateException(String.format(
                     "Units must both be present or absent; thisQuantity=%s otherQuantity=%s",
@@ -62,6 +69,7 @@ public final class DefaultQuantity implements Quantity {
 
     @Override
     public Quantity subtract(final Quantity otherQuantity) {
+        assertUnweighted(otherQuantity);
         if (_unit.isPresent() != otherQuantity.getUnit().isPresent()) {
             throw new IllegalStateException(String.format(
                     "Units must both be present or absent; thisQuantity=%s otherQuantity=%s",
@@ -80,6 +88,7 @@ public final class DefaultQuantity implements Quantity {
 
     @Override
     public Quantity multiply(final Quantity otherQuantity) {
+        assertUnweighted(otherQuantity);
         if (_unit.isPresent() && otherQuantity.getUnit().isPresent()) {
             throw new UnsupportedOperationException("Compound units not supported yet");
         }
@@ -90,6 +99,7 @@ public final class DefaultQuantity implements Quantity {
 
     @Override
     public Quantity divide(final Quantity otherQuantity) {
+        assertUnweighted(otherQuantity);
         // TODO(vkoskela): Support division by quantity with unit [2F].
         if (otherQuantity.getUnit().isPresent()) {
             throw new UnsupportedOperationException("Compound units not supported yet");
@@ -115,7 +125,7 @@ public final class DefaultQuantity implements Quantity {
 
     @Override
     public int hashCode() {
-        return Objects.hash(_value, _unit);
+        return Objects.hash(_value, _unit, _weight);
     }
 
     @Override
@@ -130,7 +140,8 @@ public final class DefaultQuantity implements Quantity {
         final DefaultQuantity sample = (DefaultQuantity) o;
 
         return Double.compare(sample.getValue(), _value) == 0
-                && Objects.equals(_unit, sample.getUnit());
+                && Objects.equals(_unit, sample.getUnit())
+                && _weight == sample.getWeight();
     }
 
     @Override
@@ -139,21 +150,47 @@ public final class DefaultQuantity implements Quantity {
                 .add("id", Integer.toHexString(System.identityHashCode(this)))
                 .add("Unit", _unit)
                 .add("Value", _value)
+                .add("Weight", _weight)
                 .toString();
     }
 
+    private void assertUnweighted(final Quantity otherQuantity) {
+        // NOTE: The result of arithmetic is a single value; weighted samples
+        // must first be converted to their total or to a single sample.
+        if (_weight != 1 || otherQuantity.getWeight() != 1) {
+            throw new IllegalStateException(String.format(
+                    "Arithmetic requires single samples; thisQuantity=%s otherQuantity=%s",
+                    this,
+                    otherQuantity));
+        }
+    }
+
+    private Object readResolve() {
+        // Quantities serialized before weights were introduced represent a single sample
+        if (_weight == 0) {
+            return new DefaultQuantity(_value, _unit);
+        }
+        return this;
+    }
+
     private DefaultQuantity(final Builder builder) {
-        this(builder._value, Optional.ofNullable(builder._unit));
+        this(builder._value, Optional.ofNullable(builder._unit), builder._weight);
     }
 
     private DefaultQuantity(final double value, final Optional<Unit> unit) {
+        this(value, unit, 1);
+    }
+
+    private DefaultQuantity(final double value, final Optional<Unit> unit, final long weight) {
         _value = value;
         _unit = unit;
+        _weight = weight;
     }
 
     @SuppressFBWarnings("SE_BAD_FIELD")
     private final Optional<Unit> _unit;
     private final double _value;
+    private final long _weight;
 
     private static final long serialVersionUID = -6339526234042605516L;
 
@@ -178,6 +215,7 @@ public final class DefaultQuantity implements Quantity {
             super((java.util.function.Function<Builder, DefaultQuantity>) DefaultQuantity::new);
             _value = quantity.getValue();
             _unit = quantity.getUnit().orElse(null);
+            _weight = quantity.getWeight();
         }
 
         /**
@@ -202,6 +240,18 @@ public final class DefaultQuantity implements Quantity {
             return this;
         }
 
+        /**
+         * Set the number of identical samples the quantity represents.
+         * Optional. Default is one. Cannot be null. Must be at least one.
+         *
+         * @param value The weight.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setWeight(final Long value) {
+            _weight = value;
+            return this;
+        }
+
         @Override
         public DefaultQuantity build() {
             normalize();
@@ -212,6 +262,7 @@ public final class DefaultQuantity implements Quantity {
         protected void reset() {
             _value = null;
             _unit = null;
+            _weight = 1L;
         }
 
         private Builder normalize() {
@@ -228,5 +279,8 @@ public final class DefaultQuantity implements Quantity {
         @NotNull
         private Double _value;
         private Unit _unit;
+        @NotNull
+        @Min(1)
+        private Long _weight = 1L;
     }
 }
@@ -39,10 +39,23 @@ public interface Quantity extends Comparable<Quantity>, Serializable {
      */
     Optional<Unit> getUnit();
 
+    /**
+     * Access the number of identical samples this {@link Quantity}
+     * represents. Each accumulator counts the value this many times. It is
+     * one unless the sample was weighted; for example, by the sample rate
+     * of a statsd line. Arithmetic is only defined on single samples; a
+     * weighted sample is first converted to its total or its value of
+     * weight one.
+     *
+     * @return the number of samples represented, at least one
+     */
+    long getWeight();
+
     /**
      * Add this <code>Quantity</code> to the specified one returning the
      * result. Both <code>Quantity</code> instances must either not have a
      * <code>Unit</code> or the <code>Unit</code> must be of the same type.
+     * Both must have a weight of one; the result has a weight of one.
      *
      * @param otherQuantity The other <code>Quantity</code>.
      * @return The resulting sum <code>Quantity</code>.
@@ -53,6 +66,7 @@ public interface Quantity extends Comparable<Quantity>, Serializable {
      * Subtract the specified <code>Quantity</code> from this one returning
      * the result. Both <code>Quantity</code> instances must either not have
      * a <code>Unit</code> or the <code>Unit</code> must be of the same type.
+     * Both must have a weight of one; the result has a weight of one.
      *
      * @param otherQuantity The other <code>Quantity</code>.
      * @return The resulting difference <code>Quantity</code>.
@@ -61,7 +75,8 @@ public interface Quantity extends Comparable<Quantity>, Serializable {
 
     /**
      * Multiply this <code>Quantity</code> with the specified one returning
-     * the result.
+     * the result. Both must have a weight of one; the result has a weight
+     * of one.
      *
      * @param otherQuantity The other <code>Quantity</code>.
      * @return The resulting product <code>Quantity</code>.
@@ -70,7 +85,8 @@ public interface Quantity extends Comparable<Quantity>, Serializable {
 
     /**
      * Divide this <code>Quantity</code> by the specified one returning
-     * the result.
+     * the result. Both must have a weight of one; the result has a weight
+     * of one.
      *
      * @param otherQuantity The other <code>Quantity</code>.
      * @return The resulting quotient <code>Quantity</code>.
@@ -21,36 +21,36 @@ import com.arpnetworking.metrics.common.parsers.exceptions.ParsingException;
 import com.arpnetworking.metrics.mad.model.DefaultMetric;
 import com.arpnetworking.metrics.mad.model.DefaultQuantity;
 import com.arpnetworking.metrics.mad.model.DefaultRecord;
+import com.arpnetworking.metrics.mad.model.Metric;
 import com.arpnetworking.metrics.mad.model.MetricType;
+import com.arpnetworking.metrics.mad.model.Quantity;
 import com.arpnetworking.metrics.mad.model.Record;
 import com.arpnetworking.metrics.mad.model.Unit;
 import com.google.common.base.Charsets;
-import com.google.common.base.Splitter;
-import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 /**
@@ -58,7 +58,8 @@ import javax.annotation.Nullable;
  *
  * There are two Important differences compared to traditional statsd server
  * implementations. First, each counter or meter value, which is a delta,
- * is treated as a sample for that metric. Second, sets are not supported at
+ * is treated as a sample for that metric; a sampled line is one sample
+ * weighted by the inverse of its sample rate. Second, sets are not supported at
  * this time because they would need to be pushed down to our bucketing and
  * aggregation layer as a first-class metric type.
  *
@@ -69,168 +70,357 @@ import javax.annotation.Nullable;
  * https://docs.datadoghq.com/guides/dogstatsd/
  * https://github.com/influxdata/telegraf/tree/master/plugins/inputs/statsd#influx-statsd
  *
+ * Each line has the form:
+ *
+ * <code>NAME[,INFLUXTAGS]:VALUE|TYPE[|@SAMPLERATE][|#TAGS]</code>
+ *
+ * The datagram is scanned byte by byte; since each delimiter is ASCII it
+ * never occurs within a multi-byte UTF-8 sequence. Only the name and tags
+ * are decoded as strings. Plain decimal values and sample rates are parsed
+ * from the bytes; any other number falls back to the locale aware number
+ * format.
+ *
+ * The lines of a datagram which share the same tags are parsed into one
+ * {@link Record} with one metric per name, so the cost of each record is
+ * spread across the datagram. The lines of a metric which repeat a value are
+ * merged into one sample weighted by the sum of their inverse sample rates.
+ * Fractional weights are rounded up or down at random with one draw per
+ * datagram, so the expected weight of each sample is its exact weight.
+ *
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot io)
  */
 public final class StatsdToRecordParser implements Parser<List<Record>, ByteBuffer> {
 
     @Override
     public List<Record> parse(final ByteBuffer datagram) throws ParsingException {
-        // CHECKSTYLE.OFF: IllegalInstantiation - This is the recommended way
-        final String datagramAsString = new String(datagram.array(), Charsets.UTF_8);
-        final ImmutableList.Builder<Record> recordListBuilder = ImmutableList.builder();
+        final byte[] data;
+        final int offset;
+        final int end;
+        if (datagram.hasArray()) {
+            data = datagram.array();
+            offset = datagram.arrayOffset() + datagram.position();
+            end = datagram.arrayOffset() + datagram.limit();
+        } else {
+            data = new byte[datagram.remaining()];
+            datagram.duplicate().get(data);
+            offset = 0;
+            end = data.length;
+        }
+
+        final DatagramRecords records = new DatagramRecords();
         try {
-            for (final String line : LINE_SPLITTER.split(datagramAsString)) {
-                // CHECKSTYLE.ON: IllegalInstantiation
-                final Matcher matcher = STATSD_PATTERN.matcher(line);
-                if (!matcher.matches()) {
-                    throw new ParsingException("Invalid statsd line", line.getBytes(Charsets.UTF_8));
+            int lineStart = offset;
+            while (lineStart < end) {
+                final int lineEnd = indexOf(data, '\n', lineStart, end);
+                // Empty lines are skipped
+                if (lineEnd > lineStart) {
+                    if (!parseLine(data, offset, end, lineStart, lineEnd, records)) {
+                        return Collections.emptyList();
+                    }
                 }
+                lineStart = lineEnd + 1;
+            }
+        // CHECKSTYLE.OFF: IllegalCatch - We want to turn any exceptions we catch into a ParsingException
+        } catch (final RuntimeException e) {
+            // CHECKSTYLE.ON: IllegalCatch
+            throw new ParsingException("Error pasring record", toBytes(data, offset, end), e);
+        }
 
-                // Parse the name
-                final String name = parseName(datagram, matcher.group("NAME"));
+        return records.build(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(_clock.millis()), ZoneOffset.UTC),
+                _randomSupplier);
+    }
 
-                // Parse the _metricType
-                final StatsdType type = parseStatsdType(datagram, matcher.group("TYPE"));
+    // Returns false if the line was sampled out
+    private boolean parseLine(
+            final byte[] data,
+            final int offset,
+            final int end,
+            final int lineStart,
+            final int lineEnd,
+            final DatagramRecords records) throws ParsingException {
+        // The name ends at the first of ':', '@', '|' or ','
+        int index = lineStart;
+        while (index < lineEnd && !isNameDelimiter(data[index])) {
+            ++index;
+        }
+        if (index == lineStart || index == lineEnd) {
+            throw invalidLine(data, lineStart, lineEnd);
+        }
+        final int nameEnd = index;
 
-                // Parse the value
-                final Number value = parseValue(datagram, matcher.group("VALUE"), type);
+        // The Influx style tags follow a ',' and end at the first of ':', '@' or '|'
+        int influxTagsStart = -1;
+        int influxTagsEnd = -1;
+        if (data[index] == ',') {
+            influxTagsStart = index + 1;
+            index = influxTagsStart;
+            while (index < lineEnd && data[index] != ':' && data[index] != '@' && data[index] != '|') {
+                ++index;
+            }
+            if (index == influxTagsStart || index == lineEnd) {
+                throw invalidLine(data, lineStart, lineEnd);
+            }
+            influxTagsEnd = index;
+        }
+        if (data[index] != ':') {
+            throw invalidLine(data, lineStart, lineEnd);
+        }
 
-                // Parse the sample rate
-                final Optional<Double> sampleRate = parseSampleRate(datagram, matcher.group("SAMPLERATE"), type);
+        // The value ends at the first '|'
+        final int valueStart = index + 1;
+        index = indexOf(data, '|', valueStart, lineEnd);
+        if (index == valueStart || index == lineEnd) {
+            throw invalidLine(data, lineStart, lineEnd);
+        }
+        final int valueEnd = index;
 
-                // Parse the tags
-                final ImmutableMap<String, String> annotations = ImmutableMap.<String, String>builder()
-                        .putAll(parseTags(matcher.group("TAGS")))
-                        .putAll(parseInfluxStyleTags(matcher.group("INFLUXTAGS")))
-                        .build();
+        // The type ends at the next '|' or the end of the line
+        final int typeStart = index + 1;
+        index = indexOf(data, '|', typeStart, lineEnd);
+        if (index == typeStart) {
+            throw invalidLine(data, lineStart, lineEnd);
+        }
+        final int typeEnd = index;
 
-                // Enforce sampling
-                if (sampleRate.isPresent() && sampleRate.get().compareTo(1.0) != 0) {
-                    if (sampleRate.get().compareTo(0.0) == 0) {
-                        return Collections.emptyList();
-                    }
-                    if (Double.compare(_randomSupplier.get().nextDouble(), sampleRate.get()) > 0) {
-                        return Collections.emptyList();
-                    }
-                }
+        // The sample rate follows "|@" and the tags follow "|#" and extend to the end of the line
+        int sampleRateStart = -1;
+        int sampleRateEnd = -1;
+        int tagsStart = -1;
+        if (index < lineEnd && index + 1 < lineEnd && data[index + 1] == '@') {
+            sampleRateStart = index + 2;
+            index = indexOf(data, '|', sampleRateStart, lineEnd);
+            if (index == sampleRateStart) {
+                throw invalidLine(data, lineStart, lineEnd);
+            }
+            sampleRateEnd = index;
+        }
+        if (index < lineEnd) {
+            if (index + 1 >= lineEnd || data[index + 1] != '#') {
+                throw invalidLine(data, lineStart, lineEnd);
+            }
+            tagsStart = index + 2;
+            if (tagsStart == lineEnd || containsLineTerminator(data, tagsStart, lineEnd)) {
+                throw invalidLine(data, lineStart, lineEnd);
+            }
+        }
 
-                recordListBuilder.add(createRecord(name, value, type, annotations));
+        final String name = decode(data, lineStart, nameEnd);
+        final StatsdType type = parseStatsdType(data, offset, end, typeStart, typeEnd);
+        final double value = parseValue(data, offset, end, valueStart, valueEnd);
+        final Optional<Double> sampleRate = sampleRateStart < 0
+                ? Optional.empty()
+                : Optional.of(parseSampleRate(data, offset, end, sampleRateStart, sampleRateEnd, type));
+
+        // Parse the tags; the Data Dog tags precede the Influx style tags
+        final ImmutableMap<String, String> annotations;
+        if (tagsStart < 0 && influxTagsStart < 0) {
+            annotations = ImmutableMap.of();
+        } else {
+            final ImmutableMap.Builder<String, String> annotationsBuilder = ImmutableMap.builder();
+            if (tagsStart >= 0) {
+                parseTags(data, tagsStart, lineEnd, ':', annotationsBuilder);
             }
-        // CHECKSTYLE.OFF: IllegalCatch - We want to turn any exceptions we catch into a ParsingException
-        } catch (final RuntimeException e) {
-            // CHECKSTYLE.ON: IllegalCatch
-            throw new ParsingException("Error pasring record", datagram.array(), e);
+            if (influxTagsStart >= 0) {
+                parseTags(data, influxTagsStart, influxTagsEnd, '=', annotationsBuilder);
+            }
+            annotations = annotationsBuilder.build();
+        }
+
+        // Weight the sample by the inverse of its sample rate
+        double weight = 1.0;
+        if (sampleRate.isPresent() && sampleRate.get().compareTo(1.0) != 0) {
+            if (sampleRate.get().compareTo(0.0) == 0) {
+                return false;
+            }
+            weight = Math.min(1.0 / sampleRate.get(), MAXIMUM_WEIGHT);
         }
 
-        return recordListBuilder.build();
+        records.add(annotations, name, type, value, weight);
+        return true;
     }
 
     private StatsdType parseStatsdType(
-            final ByteBuffer datagram,
-            @Nullable final String statsdTypeAsString) throws ParsingException {
-        @Nullable final StatsdType type = StatsdType.fromToken(statsdTypeAsString);
+            final byte[] data,
+            final int offset,
+            final int end,
+            final int start,
+            final int typeEnd) throws ParsingException {
+        @Nullable final StatsdType type = StatsdType.fromToken(data, start, typeEnd);
         if (type == null) {
-            throw new ParsingException("Type not found or unsupported", datagram.array());
+            throw new ParsingException("Type not found or unsupported", toBytes(data, offset, end));
         }
         return type;
     }
 
-    @SuppressFBWarnings("NP_PARAMETER_MUST_BE_NONNULL_BUT_MARKED_AS_NULLABLE")
-    // See: https://github.com/findbugsproject/findbugs/issues/79
-    private String parseName(final ByteBuffer datagram, @Nullable final String name) throws ParsingException {
-        if (Strings.isNullOrEmpty(name)) {
-            throw new ParsingException("Name not found or empty", datagram.array());
+    private double parseValue(
+            final byte[] data,
+            final int offset,
+            final int end,
+            final int start,
+            final int valueEnd) throws ParsingException {
+        if (IS_DECIMAL_FORMAT_PLAIN) {
+            final double value = parseDecimal(data, start, valueEnd);
+            if (!Double.isNaN(value)) {
+                return value;
+            }
         }
-        return name;
-    }
-
-    private Number parseValue(
-            final ByteBuffer datagram,
-            @Nullable final String valueAsString,
-            final StatsdType type) throws ParsingException {
         try {
-            if (Objects.equals(StatsdType.METERS, type) && valueAsString == null) {
-                return 1;
-            } else if (valueAsString == null) {
-                throw new ParsingException("Value required but not specified", datagram.array());
-            } else {
-                return NUMBER_FORMAT.get().parse(valueAsString);
-            }
+            return NUMBER_FORMAT.get().parse(decode(data, start, valueEnd)).doubleValue();
         } catch (final ParseException e) {
-            throw new ParsingException("Value is not a number", datagram.array(), e);
+            throw new ParsingException("Value is not a number", toBytes(data, offset, end), e);
         }
     }
 
-    @SuppressFBWarnings("NP_PARAMETER_MUST_BE_NONNULL_BUT_MARKED_AS_NULLABLE")
-    // See: https://github.com/findbugsproject/findbugs/issues/79
-    private ImmutableMap<String, String> parseTags(@Nullable final String tagsAsString) {
-        if (null != tagsAsString) {
-            return ImmutableMap.copyOf(TAG_SPLITTER.split(tagsAsString));
+    private Double parseSampleRate(
+            final byte[] data,
+            final int offset,
+            final int end,
+            final int start,
+            final int sampleRateEnd,
+            final StatsdType type) throws ParsingException {
+        if (!SAMPLED_STATSD_TYPES.contains(type)) {
+            throw new ParsingException("Sample rate not support for this _metricType", toBytes(data, offset, end));
+        }
+        double sampleRate = parseDecimal(data, start, sampleRateEnd);
+        if (Double.isNaN(sampleRate)) {
+            try {
+                sampleRate = Double.parseDouble(decode(data, start, sampleRateEnd));
+            } catch (final NumberFormatException e) {
+                throw new ParsingException("Sample rate is not a number", toBytes(data, offset, end), e);
+            }
+        }
+        if (Double.compare(sampleRate, 1.0) > 0 || Double.compare(sampleRate, 0.0) < 0) {
+            throw new ParsingException("Invalid sample rate", toBytes(data, offset, end));
         }
-        return ImmutableMap.of();
+        return sampleRate;
     }
 
-    @SuppressFBWarnings("NP_PARAMETER_MUST_BE_NONNULL_BUT_MARKED_AS_NULLABLE")
-    // See: https://github.com/findbugsproject/findbugs/issues/79
-    private ImmutableMap<String, String> parseInfluxStyleTags(@Nullable final String tagsAsString) {
-        if (null != tagsAsString) {
-            return ImmutableMap.copyOf(INFLUX_STYLE_TAGS_SPLITTER.split(tagsAsString));
+    private static void parseTags(
+            final byte[] data,
+            final int start,
+            final int tagsEnd,
+            final char separator,
+            final ImmutableMap.Builder<String, String> annotationsBuilder) {
+        // Each comma separated tag must have exactly one separator; duplicate
+        // keys are rejected when the map is built
+        int tagStart = start;
+        while (tagStart <= tagsEnd) {
+            final int tagEnd = indexOf(data, ',', tagStart, tagsEnd);
+            final int separatorIndex = indexOf(data, separator, tagStart, tagEnd);
+            if (separatorIndex == tagEnd || indexOf(data, separator, separatorIndex + 1, tagEnd) != tagEnd) {
+                throw new IllegalArgumentException(String.format(
+                        "Chunk [%s] is not a valid entry",
+                        decode(data, tagStart, tagEnd)));
+            }
+            annotationsBuilder.put(
+                    decode(data, tagStart, separatorIndex),
+                    decode(data, separatorIndex + 1, tagEnd));
+            tagStart = tagEnd + 1;
         }
-        return ImmutableMap.of();
     }
 
-    private Optional<Double> parseSampleRate(
-            final ByteBuffer datagram,
-            @Nullable final String sampleRateAsString,
-            final StatsdType type) throws ParsingException {
-        try {
-            if (sampleRateAsString != null) {
-                if (SAMPLED_STATSD_TYPES.contains(type)) {
-                    final Double sampleRate = Double.valueOf(sampleRateAsString);
-                    if (sampleRate.compareTo(1.0) > 0 || sampleRate.compareTo(0.0) < 0) {
-                        throw new ParsingException("Invalid sample rate", datagram.array());
-                    }
-                    return Optional.of(sampleRate);
-                } else {
-                    throw new ParsingException("Sample rate not support for this _metricType", datagram.array());
+    // Parses an optionally negative plain decimal of up to 15 digits without
+    // allocating; returns NaN for any other form which is left to the caller
+    private static double parseDecimal(final byte[] data, final int start, final int decimalEnd) {
+        int index = start;
+        final boolean isNegative = data[index] == '-';
+        if (isNegative) {
+            ++index;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; index < decimalEnd; ++index) {
+            final byte b = data[index];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                ++digits;
+                if (fractionDigits >= 0) {
+                    ++fractionDigits;
                 }
+            } else if (b == '.' && fractionDigits < 0 && digits > 0) {
+                fractionDigits = 0;
             } else {
-                return Optional.empty();
+                return Double.NaN;
             }
-        } catch (final NumberFormatException e) {
-            throw new ParsingException("Sample rate is not a number", datagram.array(), e);
         }
+        if (digits == 0 || digits > MAXIMUM_DECIMAL_DIGITS || fractionDigits == 0) {
+            return Double.NaN;
+        }
+        // Both operands are exact so the quotient is correctly rounded
+        final double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return isNegative ? -value : value;
     }
 
-    private Record createRecord(
-            final String name,
-            final Number value,
-            final StatsdType type,
-            final ImmutableMap<String, String> annotations) {
-        return ThreadLocalBuilder.build(
-                DefaultRecord.Builder.class,
-                b1 -> b1.setDimensions(annotations)
-                        .setId(UUID.randomUUID().toString())
-                        .setMetrics(ImmutableMap.of(
-                                name,
-                                ThreadLocalBuilder.build(
-                                        DefaultMetric.Builder.class,
-                                        b2 -> b2.setValues(
-                                                ImmutableList.of(
-                                                        ThreadLocalBuilder.build(
-                                                                DefaultQuantity.Builder.class,
-                                                                b3 -> b3.setValue(value.doubleValue())
-                                                                        .setUnit(type.getUnit()))))
-                                        .setType(type.getMetricType()))))
-                        .setTime(ZonedDateTime.ofInstant(Instant.ofEpochMilli(_clock.millis()), ZoneOffset.UTC)));
+    private static boolean isNameDelimiter(final byte b) {
+        return b == ':' || b == '@' || b == '|' || b == ',';
+    }
+
+    private static boolean containsLineTerminator(final byte[] data, final int start, final int rangeEnd) {
+        // The tags may not contain a carriage return, next line, line separator or paragraph separator
+        for (int i = start; i < rangeEnd; ++i) {
+            final int b = data[i] & 0xFF;
+            if (b == 0x0D) {
+                return true;
+            }
+            if (b == 0xC2 && i + 1 < rangeEnd && (data[i + 1] & 0xFF) == 0x85) {
+                return true;
+            }
+            if (b == 0xE2 && i + 2 < rangeEnd && (data[i + 1] & 0xFF) == 0x80
+                    && ((data[i + 2] & 0xFF) == 0xA8 || (data[i + 2] & 0xFF) == 0xA9)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(final byte[] data, final char c, final int start, final int rangeEnd) {
+        for (int i = start; i < rangeEnd; ++i) {
+            if (data[i] == c) {
+                return i;
+            }
+        }
+        return rangeEnd;
+    }
+
+    private static String decode(final byte[] data, final int start, final int decodeEnd) {
+        // CHECKSTYLE.OFF: IllegalInstantiation - This is the recommended way
+        return new String(data, start, decodeEnd - start, Charsets.UTF_8);
+        // CHECKSTYLE.ON: IllegalInstantiation
+    }
+
+    private static ParsingException invalidLine(final byte[] data, final int lineStart, final int lineEnd) {
+        return new ParsingException("Invalid statsd line", Arrays.copyOfRange(data, lineStart, lineEnd));
+    }
+
+    private static byte[] toBytes(final byte[] data, final int offset, final int end) {
+        return offset == 0 && end == data.length ? data : Arrays.copyOfRange(data, offset, end);
+    }
+
+    private static boolean isDecimalFormatPlain() {
+        // The values are parsed by the default locale's number format; plain
+        // decimals are only parsed directly where it would parse them alike
+        final NumberFormat numberFormat = NumberFormat.getInstance();
+        if (!(numberFormat instanceof DecimalFormat)) {
+            return false;
+        }
+        final DecimalFormat decimalFormat = (DecimalFormat) numberFormat;
+        final DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+        return symbols.getDecimalSeparator() == '.'
+                && symbols.getZeroDigit() == '0'
+                && decimalFormat.getPositivePrefix().isEmpty()
+                && decimalFormat.getPositiveSuffix().isEmpty()
+                && "-".equals(decimalFormat.getNegativePrefix())
+                && decimalFormat.getNegativeSuffix().isEmpty()
+                && decimalFormat.getMultiplier() == 1;
     }
 
     /**
      * Public constructor.
      */
     public StatsdToRecordParser() {
-        _clock = Clock.systemUTC();
-        _randomSupplier = ThreadLocalRandom::current;
+        this(Clock.systemUTC(), ThreadLocalRandom::current);
     }
 
     /* package private */ StatsdToRecordParser(
@@ -247,12 +437,188 @@ public final class StatsdToRecordParser implements Parser<List<Record>, ByteBuff
             StatsdType.COUNTER,
             StatsdType.HISTOGRAM,
             StatsdType.TIMER);
-    private static final Splitter LINE_SPLITTER = Splitter.on('\n').omitEmptyStrings();
+    // NOTE: The weight of a line is bounded so the weights of a period cannot
+    // overflow the count of its samples.
+    private static final double MAXIMUM_WEIGHT = Integer.MAX_VALUE;
     private static final ThreadLocal<NumberFormat> NUMBER_FORMAT = ThreadLocal.withInitial(NumberFormat::getInstance);
-    private static final Pattern STATSD_PATTERN = Pattern.compile(
-            "^(?<NAME>[^:@|,]+)(,(?<INFLUXTAGS>[^:@|]+))?:(?<VALUE>[^|]+)\\|(?<TYPE>[^|]+)(\\|@(?<SAMPLERATE>[^|]+))?(\\|#(?<TAGS>.+))?$");
-    private static final Splitter.MapSplitter INFLUX_STYLE_TAGS_SPLITTER = Splitter.on(',').withKeyValueSeparator('=');
-    private static final Splitter.MapSplitter TAG_SPLITTER = Splitter.on(',').withKeyValueSeparator(':');
+    private static final boolean IS_DECIMAL_FORMAT_PLAIN = isDecimalFormatPlain();
+    // NOTE: Mantissas of up to 15 digits and their divisors are exact doubles
+    private static final int MAXIMUM_DECIMAL_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    // Groups the lines of a datagram into one record per distinct set of tags.
+    // A line which repeats the name of a metric in its group with another
+    // type starts a new record for the tags.
+    private static final class DatagramRecords {
+
+        public void add(
+                final ImmutableMap<String, String> dimensions,
+                final String name,
+                final StatsdType type,
+                final double value,
+                final double weight) {
+            // Consecutive lines usually share their tags; lines without tags
+            // share the same empty map
+            GroupedRecord record = _last;
+            if (record == null || (record._dimensions != dimensions && !record._dimensions.equals(dimensions))) {
+                record = _recordsByDimensions.get(dimensions);
+            }
+            if (record == null || !record.accepts(name, type)) {
+                record = new GroupedRecord(dimensions);
+                _recordsByDimensions.put(dimensions, record);
+                _records.add(record);
+            }
+            record.add(name, type, value, weight);
+            _last = record;
+            _isSampled |= weight != 1.0;
+        }
+
+        public List<Record> build(final ZonedDateTime time, final Supplier<Random> randomSupplier) {
+            // One uniform offset rounds the fractional weights of every sample
+            final double offset = _isSampled ? randomSupplier.get().nextDouble() : 0.0;
+            if (_records.size() == 1) {
+                return ImmutableList.of(_records.get(0).build(time, offset));
+            }
+            final ImmutableList.Builder<Record> recordListBuilder = ImmutableList.builder();
+            for (final GroupedRecord record : _records) {
+                recordListBuilder.add(record.build(time, offset));
+            }
+            return recordListBuilder.build();
+        }
+
+        @Nullable
+        private GroupedRecord _last;
+        private boolean _isSampled = false;
+        private final List<GroupedRecord> _records = Lists.newArrayListWithExpectedSize(1);
+        private final Map<ImmutableMap<String, String>, GroupedRecord> _recordsByDimensions = Maps.newHashMap();
+    }
+
+    private static final class GroupedRecord {
+
+        /* package private */ GroupedRecord(final ImmutableMap<String, String> dimensions) {
+            _dimensions = dimensions;
+        }
+
+        public boolean accepts(final String name, final StatsdType type) {
+            final GroupedMetric metric = _metrics.get(name);
+            return metric == null || metric._type == type;
+        }
+
+        public void add(final String name, final StatsdType type, final double value, final double weight) {
+            GroupedMetric metric = _metrics.get(name);
+            if (metric == null) {
+                metric = new GroupedMetric(type);
+                _metrics.put(name, metric);
+            }
+            metric.add(value, weight);
+        }
+
+        public Record build(final ZonedDateTime time, final double offset) {
+            final ImmutableMap.Builder<String, Metric> metricsBuilder = ImmutableMap.builder();
+            for (final Map.Entry<String, GroupedMetric> entry : _metrics.entrySet()) {
+                final GroupedMetric metric = entry.getValue();
+                metricsBuilder.put(
+                        entry.getKey(),
+                        ThreadLocalBuilder.build(
+                                DefaultMetric.Builder.class,
+                                b -> b.setValues(metric.build(offset))
+                                        .setType(metric._type.getMetricType())));
+            }
+            return ThreadLocalBuilder.build(
+                    DefaultRecord.Builder.class,
+                    b -> b.setDimensions(_dimensions)
+                            .setId(UUID.randomUUID().toString())
+                            .setMetrics(metricsBuilder.build())
+                            .setTime(time));
+        }
+
+        private final ImmutableMap<String, String> _dimensions;
+        private final Map<String, GroupedMetric> _metrics = Maps.newLinkedHashMap();
+    }
+
+    // The samples of a metric in a datagram; each distinct value is one sample
+    // weighted by the sum of the inverse sample rates of its lines. The sums
+    // are kept as doubles and rounded by systematic sampling: each sample is
+    // weighted by the floor of the running total plus a uniform offset, less
+    // the weight of the preceding samples. The expected weight of a sample is
+    // therefore its exact weight, and since every line has a weight of at
+    // least one so does every sample.
+    private static final class GroupedMetric {
+
+        /* package private */ GroupedMetric(final StatsdType type) {
+            _type = type;
+        }
+
+        public void add(final double value, final double weight) {
+            // Repeated values are usually consecutive
+            int index = _size - 1;
+            if (index < 0 || Double.compare(_values[index], value) != 0) {
+                index = indexOf(value);
+            }
+            if (index >= 0) {
+                _weights[index] += weight;
+                return;
+            }
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, _size * 2);
+                _weights = Arrays.copyOf(_weights, _size * 2);
+            }
+            if (_indexByValue != null) {
+                _indexByValue.put(value, _size);
+            } else if (_size == INDEX_THRESHOLD) {
+                _indexByValue = Maps.newHashMapWithExpectedSize(_size * 2);
+                for (int i = 0; i <= _size; ++i) {
+                    _indexByValue.put(i < _size ? _values[i] : value, i);
+                }
+            }
+            _values[_size] = value;
+            _weights[_size] = weight;
+            ++_size;
+        }
+
+        public ImmutableList<Quantity> build(final double offset) {
+            final ImmutableList.Builder<Quantity> quantities = ImmutableList.builderWithExpectedSize(_size);
+            double total = offset;
+            long totalWeight = 0;
+            for (int i = 0; i < _size; ++i) {
+                final double value = _values[i];
+                total += _weights[i];
+                final long weight = (long) Math.floor(total) - totalWeight;
+                totalWeight += weight;
+                quantities.add(
+                        ThreadLocalBuilder.build(
+                                DefaultQuantity.Builder.class,
+                                b -> b.setValue(value)
+                                        .setUnit(_type.getUnit())
+                                        .setWeight(weight)));
+            }
+            return quantities.build();
+        }
+
+        private int indexOf(final double value) {
+            if (_indexByValue != null) {
+                final Integer index = _indexByValue.get(value);
+                return index == null ? -1 : index;
+            }
+            for (int i = 0; i < _size; ++i) {
+                if (Double.compare(_values[i], value) == 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private final StatsdType _type;
+        private double[] _values = new double[1];
+        private double[] _weights = new double[1];
+        private int _size = 0;
+        @Nullable
+        private Map<Double, Integer> _indexByValue;
+
+        // NOTE: Values are found by a linear scan until a metric has this many
+        private static final int INDEX_THRESHOLD = 8;
+    }
 
     private enum StatsdType {
         COUNTER("c", MetricType.COUNTER, null),
@@ -263,17 +629,15 @@ public final class StatsdToRecordParser implements Parser<List<Record>, ByteBuff
         //SET("s", null),
         TIMER("ms", MetricType.TIMER, Unit.MILLISECOND);
 
-        private final String _token;
+        private final byte[] _token;
         private final MetricType _metricType;
         private @Nullable final Unit _unit;
 
-        private static final Map<String, StatsdType> TOKEN_TO_TYPE = Maps.newHashMap();
-
         /* package private */ StatsdType(
                 final String token,
                 final MetricType metricType,
                 @Nullable final Unit unit) {
-            _token = token;
+            _token = token.getBytes(Charsets.UTF_8);
             _metricType = metricType;
             _unit = unit;
         }
@@ -286,13 +650,28 @@ public final class StatsdToRecordParser implements Parser<List<Record>, ByteBuff
             return _unit;
         }
 
-        public static StatsdType fromToken(final String token) {
-            return TOKEN_TO_TYPE.get(token);
+        @Nullable
+        public static StatsdType fromToken(final byte[] data, final int start, final int tokenEnd) {
+            for (final StatsdType statsdType : TYPES) {
+                if (statsdType.matches(data, start, tokenEnd)) {
+                    return statsdType;
+                }
+            }
+            return null;
         }
 
-        static {
-            for (final StatsdType statsdType : values()) {
-                TOKEN_TO_TYPE.put(statsdType._token, statsdType);
+        private boolean matches(final byte[] data, final int start, final int tokenEnd) {
+            if (tokenEnd - start != _token.length) {
+                return false;
             }
+            for (int i = 0; i < _token.length; ++i) {
+                if (data[start + i] != _token[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
-    }}
+
+        private static final StatsdType[] TYPES = values();
+    }
+}
@@ -60,12 +60,13 @@ public final class DefaultKey implements Key {
         }
 
         final DefaultKey otherKey = (DefaultKey) other;
-        return Objects.equals(getParameters(), otherKey.getParameters());
+        return _hashCode == otherKey._hashCode
+                && Objects.equals(getParameters(), otherKey.getParameters());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(_dimensions);
+        return _hashCode;
     }
 
     @Override
@@ -76,13 +77,16 @@ public final class DefaultKey implements Key {
     }
 
     /**
-     * Public constructor.
+     * Public constructor. The hash is computed once since keys are looked up
+     * for every record aggregated.
      *
      * @param dimensions The dimension key-value pairs.
      */
     public DefaultKey(final ImmutableMap<String, String> dimensions) {
         _dimensions = dimensions;
+        _hashCode = dimensions.hashCode();
     }
 
     private final ImmutableMap<String, String> _dimensions;
+    private final int _hashCode;
 }
@@ -125,10 +125,10 @@ public final class AggregationServerHttpSink extends HttpPostSink {
             }
             builder.setUnit(unit);
 
-            for (final Map.Entry<Double, Integer> entry : histogram.getValues()) {
+            for (int i = 0; i < histogram.size(); ++i) {
                 builder.addEntriesBuilder()
-                        .setBucket(entry.getKey())
-                        .setCount(entry.getValue())
+                        .setBucket(histogram.getBucket(i))
+                        .setCount(histogram.getCount(i))
                         .build();
             }
             byteString = ByteString.copyFrom(
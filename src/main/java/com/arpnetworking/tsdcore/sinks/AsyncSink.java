@@ -0,0 +1,295 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.sinks;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.Units;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdcore.model.PeriodicData;
+import com.arpnetworking.utility.OverloadPolicy;
+import com.arpnetworking.utility.PolledMetricsRegistration;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotNull;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A publisher that hands data to a wrapped sink on its own pool of dispatch
+ * threads. Callers only enqueue the data so the cost of the wrapped sink,
+ * for example serialization, does not delay the caller. The queue is
+ * bounded; when it is full the overload policy either blocks callers until
+ * the dispatch threads catch up or drops data. When periodic metrics are
+ * provided the queue depth, dropped data and the latency from enqueue to
+ * completion of the wrapped sink are recorded. On close the queued data is
+ * dispatched before the wrapped sink is closed. This class is thread safe.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public final class AsyncSink extends BaseSink {
+
+    @Override
+    public void recordAggregateData(final PeriodicData periodicData) {
+        if (_isClosed) {
+            DROPPED_LOGGER.warn()
+                    .setMessage("Discarding data")
+                    .addData("reason", "sink closed")
+                    .addData("sink", getName())
+                    .log();
+            return;
+        }
+        final int dropped = _overloadPolicy.enqueue(_queue, new Pending(periodicData, System.nanoTime()));
+        if (dropped > 0) {
+            _droppedCount.addAndGet(dropped);
+            DROPPED_LOGGER.warn()
+                    .setMessage("Discarding data")
+                    .addData("reason", "queue full")
+                    .addData("sink", getName())
+                    .addData("overloadPolicy", _overloadPolicy)
+                    .log();
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info()
+                .setMessage("Closing sink")
+                .addData("sink", getName())
+                .log();
+        // The dispatch threads exit once closed and the queue is drained
+        _isClosed = true;
+        _polledMetricsRegistration.ifPresent(PolledMetricsRegistration::unregister);
+        _executor.shutdown();
+        try {
+            if (!_executor.awaitTermination(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                LOGGER.warn()
+                        .setMessage("Timed out dispatching queued data")
+                        .addData("sink", getName())
+                        .addData("queueSize", _queue.size())
+                        .log();
+                _executor.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            _executor.shutdownNow();
+        }
+        _sink.close();
+    }
+
+    public int getQueueSize() {
+        return _queue.size();
+    }
+
+    @LogValue
+    @Override
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("super", super.toLogValue())
+                .put("sink", _sink)
+                .put("queueSize", _queue.size())
+                .put("overloadPolicy", _overloadPolicy)
+                .put("isClosed", _isClosed)
+                .build();
+    }
+
+    private void dispatch() {
+        while (!_isClosed || !_queue.isEmpty()) {
+            try {
+                final Pending pending = _queue.poll(POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+                if (pending != null) {
+                    _sink.recordAggregateData(pending._periodicData);
+                    if (_periodicMetrics.isPresent()) {
+                        _periodicMetrics.get().recordTimer(
+                                _latencyMetricName,
+                                System.nanoTime() - pending._enqueuedAtNanos,
+                                Optional.of(Units.NANOSECOND));
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+                // CHECKSTYLE.OFF: IllegalCatch - Top level catch to prevent thread death
+            } catch (final Exception e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                LOGGER.error()
+                        .setMessage("Sink failure")
+                        .addData("sink", getName())
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+    }
+
+    private void recordPolledMetrics(final PeriodicMetrics periodicMetrics) {
+        periodicMetrics.recordGauge(_queueDepthMetricName, _queue.size());
+        periodicMetrics.recordCounter(_droppedMetricName, _droppedCount.getAndSet(0));
+    }
+
+    private AsyncSink(final Builder builder) {
+        super(builder);
+        _sink = builder._sink;
+        _queue = new ArrayBlockingQueue<>(builder._queueCapacity);
+        _overloadPolicy = builder._overloadPolicy;
+        _periodicMetrics = Optional.ofNullable(builder._periodicMetrics);
+        final String metricPrefix = "sinks/async/" + getMetricSafeName() + "/";
+        _latencyMetricName = metricPrefix + "latency";
+        _queueDepthMetricName = metricPrefix + "queue_depth";
+        _droppedMetricName = metricPrefix + "dropped";
+        // NOTE: Unregistered on close since sinks are replaced on reconfiguration
+        _polledMetricsRegistration = _periodicMetrics.map(periodicMetrics -> PolledMetricsRegistration.register(
+                periodicMetrics,
+                this,
+                AsyncSink::recordPolledMetrics));
+        final AtomicInteger threadIndex = new AtomicInteger(0);
+        final String threadPrefix = "AsyncSink-" + getMetricSafeName() + "-";
+        _executor = Executors.newFixedThreadPool(
+                builder._threads,
+                r -> new Thread(r, threadPrefix + threadIndex.getAndIncrement()));
+        for (int i = 0; i < builder._threads; ++i) {
+            _executor.execute(this::dispatch);
+        }
+    }
+
+    private volatile boolean _isClosed = false;
+
+    private final Sink _sink;
+    private final BlockingQueue<Pending> _queue;
+    private final OverloadPolicy _overloadPolicy;
+    private final Optional<PeriodicMetrics> _periodicMetrics;
+    private final String _latencyMetricName;
+    private final String _queueDepthMetricName;
+    private final String _droppedMetricName;
+    private final Optional<PolledMetricsRegistration<AsyncSink>> _polledMetricsRegistration;
+    private final AtomicLong _droppedCount = new AtomicLong(0);
+    private final ExecutorService _executor;
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(100);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncSink.class);
+    private static final Logger DROPPED_LOGGER = LoggerFactory.getRateLimitLogger(AsyncSink.class, Duration.ofSeconds(30));
+
+    private static final class Pending {
+
+        /* package private */ Pending(final PeriodicData periodicData, final long enqueuedAtNanos) {
+            _periodicData = periodicData;
+            _enqueuedAtNanos = enqueuedAtNanos;
+        }
+
+        private final PeriodicData _periodicData;
+        private final long _enqueuedAtNanos;
+    }
+
+    /**
+     * Implementation of builder pattern for <code>AsyncSink</code>.
+     *
+     * @author Joey Jackson (jjackson at dropbox dot com)
+     */
+    public static final class Builder extends BaseSink.Builder<Builder, AsyncSink> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(AsyncSink::new);
+        }
+
+        /**
+         * The sink to dispatch to. Cannot be null.
+         *
+         * @param value The sink to dispatch to.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSink(final Sink value) {
+            _sink = value;
+            return this;
+        }
+
+        /**
+         * The number of dispatch threads. Optional. Cannot be null. Must be
+         * at least 1. Default is 1.
+         *
+         * @param value The number of dispatch threads.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setThreads(final Integer value) {
+            _threads = value;
+            return this;
+        }
+
+        /**
+         * The capacity of the dispatch queue. Optional. Cannot be null. Must
+         * be at least 1. Default is 10,000.
+         *
+         * @param value The capacity of the dispatch queue.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * The behavior when the dispatch queue is full. Optional. Cannot be
+         * null. Default is <code>BLOCK</code>.
+         *
+         * @param value The overload policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setOverloadPolicy(final OverloadPolicy value) {
+            _overloadPolicy = value;
+            return this;
+        }
+
+        /**
+         * The <code>PeriodicMetrics</code> instance to record queue depth,
+         * dropped data and latency to. Optional. Default is no metrics.
+         *
+         * @param value The <code>PeriodicMetrics</code> instance.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setPeriodicMetrics(final PeriodicMetrics value) {
+            _periodicMetrics = value;
+            return this;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @NotNull
+        private Sink _sink;
+        @NotNull
+        @Min(1)
+        private Integer _threads = 1;
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = 10000;
+        @NotNull
+        private OverloadPolicy _overloadPolicy = OverloadPolicy.BLOCK;
+        private PeriodicMetrics _periodicMetrics;
+    }
+}
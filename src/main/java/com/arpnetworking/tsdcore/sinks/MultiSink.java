@@ -16,20 +16,29 @@
 package com.arpnetworking.tsdcore.sinks;
 
 import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdcore.model.PeriodicData;
+import com.arpnetworking.utility.OverloadPolicy;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
- * A publisher that wraps multiple others and publishes to all of them. This
- * class is thread safe.
- *
- * TODO(vkoskela): Support concurrent execution [MAI-98]
+ * A publisher that wraps multiple others and publishes to all of them. By
+ * default the wrapped sinks are called in order on the caller's thread. When
+ * parallel, each wrapped sink is given its own bounded queue and dispatch
+ * thread (see <code>AsyncSink</code>) so a slow sink neither delays the other
+ * sinks nor the caller; every wrapped sink receives the same immutable
+ * <code>PeriodicData</code> instance. Wrapped sinks may be added and removed
+ * while data is published. This class is thread safe.
  *
  * @author Brandon Arp (brandon dot arp at inscopemetrics dot io)
  */
@@ -43,37 +52,97 @@ public final class MultiSink extends BaseSink {
                 .addData("dataSize", periodicData.getData().size())
                 .log();
 
-        for (final Sink sink : _sinks) {
+        for (final Sink sink : _sinks.values()) {
             sink.recordAggregateData(periodicData);
         }
     }
 
     @Override
-    public void close() {
+    public synchronized void close() {
         LOGGER.info()
                 .setMessage("Closing sink")
                 .addData("sink", getName())
                 .log();
-        for (final Sink sink : _sinks) {
+        for (final Sink sink : _sinks.values()) {
             sink.close();
         }
     }
 
+    /**
+     * Add a sink to publish to. The sink receives data published after it
+     * is added.
+     *
+     * @param sink The sink to add.
+     */
+    public synchronized void addSink(final Sink sink) {
+        final Map<Sink, Sink> sinks = Maps.newLinkedHashMap(_sinks);
+        sinks.put(sink, wrap(sink, sinks.size()));
+        _sinks = ImmutableMap.copyOf(sinks);
+    }
+
+    /**
+     * Remove and close a sink added to this sink. Data being published to
+     * the sink when it is removed may still be delivered.
+     *
+     * @param sink The sink to remove.
+     * @return True if and only if the sink was removed.
+     */
+    public synchronized boolean removeSink(final Sink sink) {
+        final Map<Sink, Sink> sinks = Maps.newLinkedHashMap(_sinks);
+        final Sink removed = sinks.remove(sink);
+        if (removed == null) {
+            return false;
+        }
+        _sinks = ImmutableMap.copyOf(sinks);
+        removed.close();
+        return true;
+    }
+
     @LogValue
     @Override
     public Object toLogValue() {
         return LogValueMapFactory.builder(this)
                 .put("super", super.toLogValue())
-                .put("sinks", _sinks)
+                .put("sinks", _sinks.values())
+                .build();
+    }
+
+    private Sink wrap(final Sink sink, final int index) {
+        if (!_parallel) {
+            return sink;
+        }
+        final String name = sink instanceof BaseSink
+                ? ((BaseSink) sink).getName()
+                : getName() + "_" + index;
+        return new AsyncSink.Builder()
+                .setName(name)
+                .setSink(sink)
+                .setQueueCapacity(_queueCapacity)
+                .setOverloadPolicy(_overloadPolicy)
+                .setPeriodicMetrics(_periodicMetrics)
                 .build();
     }
 
     private MultiSink(final Builder builder) {
         super(builder);
-        _sinks = builder._sinks;
+        _parallel = builder._parallel;
+        _queueCapacity = builder._queueCapacity;
+        _overloadPolicy = builder._overloadPolicy;
+        _periodicMetrics = builder._periodicMetrics;
+        final Map<Sink, Sink> sinks = Maps.newLinkedHashMap();
+        for (final Sink sink : builder._sinks) {
+            sinks.put(sink, wrap(sink, sinks.size()));
+        }
+        _sinks = ImmutableMap.copyOf(sinks);
     }
 
-    private final Collection<Sink> _sinks;
+    // Maps each wrapped sink to the sink published to
+    private volatile ImmutableMap<Sink, Sink> _sinks;
+
+    private final boolean _parallel;
+    private final int _queueCapacity;
+    private final OverloadPolicy _overloadPolicy;
+    private final PeriodicMetrics _periodicMetrics;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MultiSink.class);
 
@@ -116,6 +185,55 @@ public final class MultiSink extends BaseSink {
             return this;
         }
 
+        /**
+         * Whether to publish to each wrapped sink from its own queue and
+         * thread. Optional. Cannot be null. Default is false.
+         *
+         * @param value Whether to publish to the wrapped sinks in parallel.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setParallel(final Boolean value) {
+            _parallel = value;
+            return this;
+        }
+
+        /**
+         * The capacity of the queue of each wrapped sink when parallel.
+         * Optional. Cannot be null. Must be at least 1. Default is 10,000.
+         *
+         * @param value The capacity of each queue.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * The behavior when the queue of a wrapped sink is full when
+         * parallel. Optional. Cannot be null. Default is <code>BLOCK</code>.
+         *
+         * @param value The overload policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setOverloadPolicy(final OverloadPolicy value) {
+            _overloadPolicy = value;
+            return this;
+        }
+
+        /**
+         * The <code>PeriodicMetrics</code> instance to record the queue
+         * depth, dropped data and latency of each wrapped sink to when
+         * parallel. Optional. Default is no metrics.
+         *
+         * @param value The <code>PeriodicMetrics</code> instance.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setPeriodicMetrics(final PeriodicMetrics value) {
+            _periodicMetrics = value;
+            return this;
+        }
+
         @Override
         protected Builder self() {
             return this;
@@ -123,5 +241,13 @@ public final class MultiSink extends BaseSink {
 
         @NotNull
         private Collection<Sink> _sinks;
+        @NotNull
+        private Boolean _parallel = false;
+        @NotNull
+        @Min(1)
+        private Integer _queueCapacity = 10000;
+        @NotNull
+        private OverloadPolicy _overloadPolicy = OverloadPolicy.BLOCK;
+        private PeriodicMetrics _periodicMetrics;
     }
 }
@@ -49,4 +49,25 @@ public interface Accumulator<T> extends Calculator<T> {
      * @return This <code>Accumulator</code>.
      */
     Accumulator<T> accumulate(CalculatedValue<T> calculatedValue);
+
+    /**
+     * Discard the accumulated value so this <code>Accumulator</code> can be
+     * reused as if newly created. Only supported if <code>isResettable</code>
+     * returns true.
+     *
+     * @throws UnsupportedOperationException if this <code>Accumulator</code> cannot be reset.
+     */
+    default void reset() {
+        throw new UnsupportedOperationException(String.format("Reset not supported; accumulator=%s", this));
+    }
+
+    /**
+     * Whether this <code>Accumulator</code> supports <code>reset</code>. An
+     * <code>Accumulator</code> which cannot be reset is discarded instead.
+     *
+     * @return true if and only if <code>reset</code> is supported.
+     */
+    default boolean isResettable() {
+        return false;
+    }
 }
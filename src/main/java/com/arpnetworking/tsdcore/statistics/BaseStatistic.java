@@ -15,6 +15,9 @@
  */
 package com.arpnetworking.tsdcore.statistics;
 
+import com.arpnetworking.commons.builder.ThreadLocalBuilder;
+import com.arpnetworking.metrics.mad.model.DefaultQuantity;
+import com.arpnetworking.metrics.mad.model.Quantity;
 import com.arpnetworking.metrics.mad.model.Unit;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Supplier;
@@ -86,6 +89,39 @@ public abstract class BaseStatistic implements Statistic {
         }
     }
 
+    /**
+     * Return a <code>Quantity</code> of the same value and unit which
+     * represents a single sample; for example, to report a weighted sample
+     * as the minimum or maximum.
+     *
+     * @param quantity the sample
+     * @return the sample with a weight of one
+     */
+    protected static Quantity unweighted(final Quantity quantity) {
+        if (quantity.getWeight() == 1) {
+            return quantity;
+        }
+        return ThreadLocalBuilder.build(
+                DefaultQuantity.Builder.class,
+                b -> b.setValue(quantity.getValue()).setUnit(quantity.getUnit().orElse(null)));
+    }
+
+    /**
+     * Return a single sample <code>Quantity</code> of the total value of
+     * the samples a weighted sample represents.
+     *
+     * @param quantity the sample
+     * @return the total of the samples with a weight of one
+     */
+    protected static Quantity totalOf(final Quantity quantity) {
+        if (quantity.getWeight() == 1) {
+            return quantity;
+        }
+        return ThreadLocalBuilder.build(
+                DefaultQuantity.Builder.class,
+                b -> b.setValue(quantity.getValue() * quantity.getWeight()).setUnit(quantity.getUnit().orElse(null)));
+    }
+
     private final Supplier<Integer> _hashCodeSupplier = Suppliers.memoize(() -> getClass().hashCode());
 
     private static final long serialVersionUID = -1334453626232464982L;
@@ -70,7 +70,7 @@ public final class CountStatistic extends BaseStatistic {
 
         @Override
         public Accumulator<Void> accumulate(final Quantity quantity) {
-            ++_count;
+            _count += quantity.getWeight();
             return this;
         }
 
@@ -90,6 +90,16 @@ public final class CountStatistic extends BaseStatistic {
                                     b2 -> b2.setValue((double) _count))));
         }
 
+        @Override
+        public boolean isResettable() {
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            _count = 0;
+        }
+
         private long _count = 0;
     }
 }
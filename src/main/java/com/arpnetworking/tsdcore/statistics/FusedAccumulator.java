@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.commons.builder.ThreadLocalBuilder;
+import com.arpnetworking.metrics.mad.model.DefaultQuantity;
+import com.arpnetworking.metrics.mad.model.Quantity;
+import com.arpnetworking.metrics.mad.model.Unit;
+import com.arpnetworking.tsdcore.model.CalculatedValue;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Primitive accumulator of the count, sum, minimum and maximum of a metric's
+ * samples. A single instance replaces the separate accumulators of the
+ * <code>CountStatistic</code>, <code>SumStatistic</code>,
+ * <code>MinStatistic</code> and <code>MaxStatistic</code> (and thereby feeds
+ * the <code>MeanStatistic</code>) without allocating per sample. The unit is
+ * established once per metric; the samples are then accumulated as
+ * <code>double</code> values.
+ *
+ * This class is not thread safe.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public final class FusedAccumulator {
+
+    /**
+     * Whether the <code>Statistic</code> is computed by this accumulator.
+     *
+     * @param statistic The <code>Statistic</code>.
+     * @return True if and only if the statistic is computed by this accumulator.
+     */
+    public static boolean isFused(final Statistic statistic) {
+        return FUSED_STATISTICS.get().contains(statistic);
+    }
+
+    /**
+     * Add the samples of a metric. The samples must all have the same unit
+     * as the samples previously added.
+     *
+     * @param quantities The samples to add.
+     * @return This <code>FusedAccumulator</code>.
+     */
+    public FusedAccumulator accumulate(final List<Quantity> quantities) {
+        if (quantities.isEmpty()) {
+            return this;
+        }
+
+        // Establish the unit once for the metric
+        final Optional<Unit> unit = quantities.get(0).getUnit();
+        BaseStatistic.assertUnit(_unit, unit, _count > 0);
+        _unit = unit;
+
+        for (final Quantity quantity : quantities) {
+            // Assert: that under the new Quantity normalization the units should always be the same.
+            BaseStatistic.assertUnit(unit, quantity.getUnit(), true);
+            accumulate(quantity.getValue(), quantity.getWeight());
+        }
+        return this;
+    }
+
+    /**
+     * Add a sample in the unit of this accumulator.
+     *
+     * @param value The sample to add.
+     * @return This <code>FusedAccumulator</code>.
+     */
+    public FusedAccumulator accumulate(final double value) {
+        return accumulate(value, 1);
+    }
+
+    /**
+     * Add a weighted sample in the unit of this accumulator; that is, the
+     * value is added as many times as its weight.
+     *
+     * @param value The sample to add.
+     * @param weight The number of samples the value represents.
+     * @return This <code>FusedAccumulator</code>.
+     */
+    public FusedAccumulator accumulate(final double value, final long weight) {
+        _count += weight;
+        _sum += value * weight;
+        if (value < _min) {
+            _min = value;
+        }
+        if (value > _max) {
+            _max = value;
+        }
+        return this;
+    }
+
+    /**
+     * Add the samples accumulated by another <code>FusedAccumulator</code>.
+     * The samples must have the same unit as the samples previously added.
+     *
+     * @param accumulator The <code>FusedAccumulator</code> to merge.
+     * @return This <code>FusedAccumulator</code>.
+     */
+    public FusedAccumulator merge(final FusedAccumulator accumulator) {
+        return merge(accumulator._count, accumulator._sum, accumulator._min, accumulator._max, accumulator._unit);
+    }
+
+    /**
+     * Add the samples summarized by a count, sum, minimum and maximum; for
+     * example, as previously read from another <code>FusedAccumulator</code>.
+     * The samples must have the same unit as the samples previously added.
+     *
+     * @param count The number of samples.
+     * @param sum The sum of the samples.
+     * @param min The minimum of the samples.
+     * @param max The maximum of the samples.
+     * @param unit The unit of the samples.
+     * @return This <code>FusedAccumulator</code>.
+     */
+    public FusedAccumulator merge(
+            final long count,
+            final double sum,
+            final double min,
+            final double max,
+            final Optional<Unit> unit) {
+        if (count == 0) {
+            return this;
+        }
+        BaseStatistic.assertUnit(_unit, unit, _count > 0);
+        _unit = unit;
+        _count += count;
+        _sum += sum;
+        _min = Math.min(_min, min);
+        _max = Math.max(_max, max);
+        return this;
+    }
+
+    /**
+     * Discard the accumulated samples so this <code>FusedAccumulator</code>
+     * can be reused as if newly created.
+     */
+    public void reset() {
+        _count = 0;
+        _sum = 0;
+        _min = Double.POSITIVE_INFINITY;
+        _max = Double.NEGATIVE_INFINITY;
+        _unit = Optional.empty();
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public double getSum() {
+        return _sum;
+    }
+
+    public double getMin() {
+        return _min;
+    }
+
+    public double getMax() {
+        return _max;
+    }
+
+    public Optional<Unit> getUnit() {
+        return _unit;
+    }
+
+    /**
+     * Compute the value of a fused <code>Statistic</code> in the same form
+     * as its own <code>Accumulator</code> would.
+     *
+     * @param statistic The fused <code>Statistic</code>.
+     * @return The <code>CalculatedValue</code> for the statistic.
+     */
+    public CalculatedValue<Void> calculate(final Statistic statistic) {
+        final double value;
+        final Unit unit;
+        if (COUNT_STATISTIC.get().equals(statistic)) {
+            value = _count;
+            unit = null;
+        } else if (SUM_STATISTIC.get().equals(statistic)) {
+            value = _sum;
+            unit = _unit.orElse(null);
+        } else if (MIN_STATISTIC.get().equals(statistic)) {
+            value = _min;
+            unit = _unit.orElse(null);
+        } else if (MAX_STATISTIC.get().equals(statistic)) {
+            value = _max;
+            unit = _unit.orElse(null);
+        } else {
+            throw new IllegalArgumentException(String.format("Statistic is not fused; statistic=%s", statistic));
+        }
+        return ThreadLocalBuilder.<CalculatedValue<Void>, CalculatedValue.Builder<Void>>buildGeneric(
+                CalculatedValue.Builder.class,
+                b1 -> b1.setValue(
+                        ThreadLocalBuilder.build(
+                                DefaultQuantity.Builder.class,
+                                b2 -> b2.setValue(value).setUnit(unit))));
+    }
+
+    private long _count = 0;
+    private double _sum = 0;
+    private double _min = Double.POSITIVE_INFINITY;
+    private double _max = Double.NEGATIVE_INFINITY;
+    private Optional<Unit> _unit = Optional.empty();
+
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Supplier<Statistic> COUNT_STATISTIC =
+            Suppliers.memoize(() -> STATISTIC_FACTORY.getStatistic("count"));
+    private static final Supplier<Statistic> SUM_STATISTIC =
+            Suppliers.memoize(() -> STATISTIC_FACTORY.getStatistic("sum"));
+    private static final Supplier<Statistic> MIN_STATISTIC =
+            Suppliers.memoize(() -> STATISTIC_FACTORY.getStatistic("min"));
+    private static final Supplier<Statistic> MAX_STATISTIC =
+            Suppliers.memoize(() -> STATISTIC_FACTORY.getStatistic("max"));
+    private static final Supplier<Set<Statistic>> FUSED_STATISTICS =
+            Suppliers.memoize(() -> ImmutableSet.of(
+                    COUNT_STATISTIC.get(),
+                    SUM_STATISTIC.get(),
+                    MIN_STATISTIC.get(),
+                    MAX_STATISTIC.get()));
+}
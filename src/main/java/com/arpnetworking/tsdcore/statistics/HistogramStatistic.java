@@ -20,12 +20,16 @@ import com.arpnetworking.metrics.mad.model.DefaultQuantity;
 import com.arpnetworking.metrics.mad.model.Quantity;
 import com.arpnetworking.metrics.mad.model.Unit;
 import com.arpnetworking.tsdcore.model.CalculatedValue;
-import it.unimi.dsi.fastutil.doubles.Double2IntAVLTreeMap;
-import it.unimi.dsi.fastutil.doubles.Double2IntMap;
-import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
-import it.unimi.dsi.fastutil.objects.ObjectSortedSet;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import net.sf.oval.constraint.NotNull;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nullable;
@@ -46,11 +50,30 @@ public final class HistogramStatistic extends BaseStatistic {
 
     @Override
     public Accumulator<HistogramSupportingData> createCalculator() {
-        return new HistogramAccumulator(this);
+        return createCalculator(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Create a histogram accumulator with the specified precision.
+     *
+     * @param precision The number of bits of mantissa to retain; between 1 and 52 inclusive.
+     * @return The histogram accumulator.
+     */
+    public Accumulator<HistogramSupportingData> createCalculator(final int precision) {
+        return new HistogramAccumulator(this, precision);
     }
 
     private HistogramStatistic() { }
 
+    /**
+     * The default number of bits of mantissa retained by the histogram.
+     */
+    public static final int DEFAULT_PRECISION = 7;
+    /**
+     * The maximum number of bits of mantissa retained by the histogram.
+     */
+    public static final int MAXIMUM_PRECISION = 52;
+
     private static final long serialVersionUID = 7060886488604176233L;
 
     /**
@@ -67,9 +90,11 @@ public final class HistogramStatistic extends BaseStatistic {
          * Public constructor.
          *
          * @param statistic The <code>Statistic</code>.
+         * @param precision The number of bits of mantissa to retain.
          */
-        /* package private */ HistogramAccumulator(final Statistic statistic) {
+        /* package private */ HistogramAccumulator(final Statistic statistic, final int precision) {
             super(statistic);
+            _histogram = new Histogram(precision);
         }
 
         @Override
@@ -77,8 +102,9 @@ public final class HistogramStatistic extends BaseStatistic {
             // Assert: that under the new Quantity normalization the units should always be the same.
             assertUnit(_unit, quantity.getUnit(), _histogram._entriesCount > 0);
 
-            _histogram.recordValue(quantity.getValue());
+            _histogram.recordValue(quantity.getValue(), quantity.getWeight());
             _unit = Optional.ofNullable(_unit.orElse(quantity.getUnit().orElse(null)));
+            invalidate();
 
             return this;
         }
@@ -90,6 +116,7 @@ public final class HistogramStatistic extends BaseStatistic {
 
             _histogram.add(calculatedValue.getData().getHistogramSnapshot());
             _unit = Optional.ofNullable(_unit.orElse(calculatedValue.getData().getUnit().orElse(null)));
+            invalidate();
 
             return this;
         }
@@ -107,7 +134,7 @@ public final class HistogramStatistic extends BaseStatistic {
                                     .setData(
                                             ThreadLocalBuilder.build(
                                                     HistogramSupportingData.Builder.class,
-                                                    builder -> builder.setHistogramSnapshot(_histogram.getSnapshot())
+                                                    builder -> builder.setHistogramSnapshot(getSnapshot())
                                                             .setUnit(_unit.orElse(null)))));
         }
 
@@ -118,15 +145,68 @@ public final class HistogramStatistic extends BaseStatistic {
          * @return The value at the desired percentile.
          */
         public Quantity calculate(final double percentile) {
-            final HistogramSnapshot snapshot = _histogram.getSnapshot();
+            return calculate(percentile, new double[]{percentile});
+        }
+
+        /**
+         * Calculate the value at the specified percentile. All the percentiles
+         * of the metric are evaluated together in a single walk of the
+         * histogram on the first call and the results are reused by
+         * subsequent calls for the same percentiles until more values are
+         * accumulated.
+         *
+         * @param percentile The desired percentile to calculate.
+         * @param percentiles All the percentiles to evaluate together in ascending order.
+         * @return The value at the desired percentile.
+         */
+        public Quantity calculate(final double percentile, final double[] percentiles) {
+            if (_percentileValues == null || !Arrays.equals(_percentiles, percentiles)) {
+                _percentiles = percentiles;
+                _percentileValues = getSnapshot().getValuesAtPercentiles(percentiles);
+            }
+            final int index = Arrays.binarySearch(_percentiles, percentile);
+            final double value = index >= 0 ? _percentileValues[index] : getSnapshot().getValueAtPercentile(percentile);
             return ThreadLocalBuilder.build(
                     DefaultQuantity.Builder.class,
-                    b -> b.setValue(snapshot.getValueAtPercentile(percentile))
+                    b -> b.setValue(value)
                             .setUnit(_unit.orElse(null)));
         }
 
+        /**
+         * Return a snapshot of the histogram. The snapshot is taken once and
+         * shared until more values are accumulated.
+         *
+         * @return The snapshot of the histogram.
+         */
+        public HistogramSnapshot getSnapshot() {
+            if (_snapshot == null) {
+                _snapshot = _histogram.getSnapshot();
+            }
+            return _snapshot;
+        }
+
+        @Override
+        public boolean isResettable() {
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            _histogram.reset();
+            _unit = Optional.empty();
+            invalidate();
+        }
+
+        private void invalidate() {
+            _snapshot = null;
+            _percentileValues = null;
+        }
+
+        private HistogramSnapshot _snapshot;
+        private double[] _percentiles;
+        private double[] _percentileValues;
         private Optional<Unit> _unit = Optional.empty();
-        private final Histogram _histogram = new Histogram();
+        private final Histogram _histogram;
     }
 
     /**
@@ -158,10 +238,10 @@ public final class HistogramStatistic extends BaseStatistic {
          */
         public HistogramSupportingData toUnit(final Unit newUnit) {
             if (_unit.isPresent()) {
-                final Histogram newHistogram = new Histogram();
-                for (final Map.Entry<Double, Integer> entry : _histogramSnapshot.getValues()) {
-                    final Double newBucket = newUnit.convert(entry.getKey(), _unit.get());
-                    newHistogram.recordValue(newBucket, entry.getValue());
+                final Histogram newHistogram = new Histogram(_histogramSnapshot.getPrecision());
+                for (int i = 0; i < _histogramSnapshot.size(); ++i) {
+                    final double newBucket = newUnit.convert(_histogramSnapshot.getBucket(i), _unit.get());
+                    newHistogram.recordValue(newBucket, _histogramSnapshot.getCount(i));
                 }
                 return ThreadLocalBuilder.build(
                         HistogramSupportingData.Builder.class,
@@ -226,18 +306,54 @@ public final class HistogramStatistic extends BaseStatistic {
     }
 
     /**
-     * A simple histogram implementation.
+     * A simple histogram implementation. Each value is assigned to a bucket
+     * whose index is computed directly from the sign, exponent and the most
+     * significant <code>precision</code> bits of mantissa of the value. The
+     * bucket counts are kept in an open addressed primitive index so that
+     * recording a value neither searches a tree nor allocates.
      */
     public static final class Histogram {
 
+        /**
+         * Public constructor with the default precision.
+         */
+        public Histogram() {
+            this(DEFAULT_PRECISION);
+        }
+
+        /**
+         * Public constructor.
+         *
+         * @param precision The number of bits of mantissa to retain; between 1 and 52 inclusive.
+         */
+        public Histogram(final int precision) {
+            if (precision < 1 || precision > MAXIMUM_PRECISION) {
+                throw new IllegalArgumentException(String.format(
+                        "Precision must be between 1 and %d; precision=%d",
+                        MAXIMUM_PRECISION,
+                        precision));
+            }
+            _precision = precision;
+            _shift = MAXIMUM_PRECISION - precision;
+        }
+
+        /**
+         * Remove all entries from the histogram. The capacity of the
+         * histogram is retained for reuse.
+         */
+        public void reset() {
+            _data.clear();
+            _entriesCount = 0;
+        }
+
         /**
          * Records a value into the histogram.
          *
          * @param value The value of the entry.
          * @param count The number of entries at this value.
          */
-        public void recordValue(final double value, final int count) {
-            _data.merge(truncate(value), count, (i, j) -> i + j);
+        public void recordValue(final double value, final long count) {
+            _data.addTo(getIndex(value), count);
             _entriesCount += count;
         }
 
@@ -251,28 +367,66 @@ public final class HistogramStatistic extends BaseStatistic {
         }
 
         /**
-         * Adds a histogram snapshot to this one.
+         * Adds a histogram snapshot to this one. The snapshot buckets are
+         * truncated to the precision of this histogram.
          *
          * @param histogramSnapshot The histogram snapshot to add to this one.
          */
         public void add(final HistogramSnapshot histogramSnapshot) {
-            for (final Double2IntMap.Entry entry : histogramSnapshot._data.double2IntEntrySet()) {
-                _data.merge(entry.getDoubleKey(), entry.getIntValue(), (i, j) -> i + j);
+            for (int i = 0; i < histogramSnapshot.size(); ++i) {
+                recordValue(histogramSnapshot.getBucket(i), histogramSnapshot.getCount(i));
             }
-            _entriesCount += histogramSnapshot._entriesCount;
         }
 
+        /**
+         * Create an immutable snapshot of the histogram with the buckets
+         * in ascending order.
+         *
+         * @return The snapshot of the histogram.
+         */
         public HistogramSnapshot getSnapshot() {
-            return new HistogramSnapshot(_data, _entriesCount);
+            // Copy the buckets and counts in one pass and sort them together
+            final double[] buckets = new double[_data.size()];
+            final long[] counts = new long[buckets.length];
+            int index = 0;
+            final ObjectIterator<Long2LongMap.Entry> iterator = _data.long2LongEntrySet().fastIterator();
+            while (iterator.hasNext()) {
+                final Long2LongMap.Entry entry = iterator.next();
+                buckets[index] = getBucket(entry.getLongKey());
+                counts[index] = entry.getLongValue();
+                ++index;
+            }
+            it.unimi.dsi.fastutil.Arrays.quickSort(
+                    0,
+                    buckets.length,
+                    (i, j) -> Double.compare(buckets[i], buckets[j]),
+                    (i, j) -> {
+                        final double bucket = buckets[i];
+                        buckets[i] = buckets[j];
+                        buckets[j] = bucket;
+                        final long count = counts[i];
+                        counts[i] = counts[j];
+                        counts[j] = count;
+                    });
+            return new HistogramSnapshot(buckets, counts, _entriesCount, _precision);
         }
 
-        private static double truncate(final double val) {
-            final long mask = 0xffffe00000000000L;
-            return Double.longBitsToDouble(Double.doubleToRawLongBits(val) & mask);
+        public int getPrecision() {
+            return _precision;
         }
 
-        private int _entriesCount = 0;
-        private final Double2IntSortedMap _data = new Double2IntAVLTreeMap();
+        private long getIndex(final double value) {
+            return Double.doubleToRawLongBits(value) >>> _shift;
+        }
+
+        private double getBucket(final long index) {
+            return Double.longBitsToDouble(index << _shift);
+        }
+
+        private long _entriesCount = 0;
+        private final int _precision;
+        private final int _shift;
+        private final Long2LongOpenHashMap _data = new Long2LongOpenHashMap();
     }
 
     /**
@@ -281,9 +435,15 @@ public final class HistogramStatistic extends BaseStatistic {
      * @author Brandon Arp (brandon dot arp at inscopemetrics dot io)
      */
     public static final class HistogramSnapshot {
-        private HistogramSnapshot(final Double2IntSortedMap data, final int entriesCount) {
+        private HistogramSnapshot(
+                final double[] buckets,
+                final long[] counts,
+                final long entriesCount,
+                final int precision) {
+            _buckets = buckets;
+            _counts = counts;
             _entriesCount = entriesCount;
-            _data.putAll(data);
+            _precision = precision;
         }
 
         /**
@@ -293,29 +453,98 @@ public final class HistogramStatistic extends BaseStatistic {
          * @return The value of the bucket at the percentile.
          */
         public Double getValueAtPercentile(final double percentile) {
-            // Always "round up" on fractional samples to bias toward 100%
-            // The Math.min is for the case where the computation may be just
-            // slightly larger than the _entriesCount and prevents an index out of range.
-            final int target = (int) Math.min(Math.ceil(_entriesCount * percentile / 100.0D), _entriesCount);
-            int accumulated = 0;
-            for (final Double2IntMap.Entry next : _data.double2IntEntrySet()) {
-                accumulated += next.getIntValue();
+            final long target = getTarget(percentile);
+            long accumulated = 0;
+            for (int i = 0; i < _buckets.length; ++i) {
+                accumulated += _counts[i];
                 if (accumulated >= target) {
-                    return next.getDoubleKey();
+                    return _buckets[i];
                 }
             }
             return 0D;
         }
 
-        public int getEntriesCount() {
+        /**
+         * Gets the values of the buckets that correspond to each of the
+         * percentiles in a single walk of the histogram.
+         *
+         * @param percentiles the percentiles in ascending order
+         * @return The values of the buckets at each percentile.
+         */
+        public double[] getValuesAtPercentiles(final double[] percentiles) {
+            final double[] values = new double[percentiles.length];
+            int index = 0;
+            long accumulated = 0;
+            for (int i = 0; i < _buckets.length && index < percentiles.length; ++i) {
+                accumulated += _counts[i];
+                while (index < percentiles.length && accumulated >= getTarget(percentiles[index])) {
+                    values[index++] = _buckets[i];
+                }
+            }
+            return values;
+        }
+
+        public long getEntriesCount() {
             return _entriesCount;
         }
 
-        public ObjectSortedSet<Double2IntMap.Entry> getValues() {
-            return _data.double2IntEntrySet();
+        public int getPrecision() {
+            return _precision;
+        }
+
+        /**
+         * The number of non-empty buckets.
+         *
+         * @return The number of buckets.
+         */
+        public int size() {
+            return _buckets.length;
+        }
+
+        /**
+         * The value of the bucket at an index in ascending order.
+         *
+         * @param index the index of the bucket
+         * @return The value of the bucket.
+         */
+        public double getBucket(final int index) {
+            return _buckets[index];
+        }
+
+        /**
+         * The number of entries in the bucket at an index in ascending order.
+         *
+         * @param index the index of the bucket
+         * @return The number of entries.
+         */
+        public long getCount(final int index) {
+            return _counts[index];
+        }
+
+        /**
+         * The bucket and count pairs in ascending order of bucket. Prefer
+         * the indexed accessors to avoid boxing.
+         *
+         * @return The bucket and count pairs.
+         */
+        public List<Map.Entry<Double, Long>> getValues() {
+            final List<Map.Entry<Double, Long>> values = new ArrayList<>(_buckets.length);
+            for (int i = 0; i < _buckets.length; ++i) {
+                values.add(new AbstractMap.SimpleImmutableEntry<>(_buckets[i], _counts[i]));
+            }
+            return Collections.unmodifiableList(values);
+        }
+
+        private long getTarget(final double percentile) {
+            // Always "round up" on fractional samples to bias toward 100%
+            // The Math.min is for the case where the computation may be just
+            // slightly larger than the _entriesCount and prevents an index out of range.
+            return (long) Math.min(Math.ceil(_entriesCount * percentile / 100.0D), _entriesCount);
         }
 
-        private int _entriesCount = 0;
-        private final Double2IntSortedMap _data = new Double2IntAVLTreeMap();
+        private final double[] _buckets;
+        private final long[] _counts;
+        private final long _entriesCount;
+        private final int _precision;
     }
 }
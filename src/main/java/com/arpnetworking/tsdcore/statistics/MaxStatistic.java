@@ -101,7 +101,17 @@ public final class MaxStatistic extends BaseStatistic {
         public CalculatedValue<Void> calculate(final Map<Statistic, Calculator<?>> dependencies) {
             return ThreadLocalBuilder.<CalculatedValue<Void>, CalculatedValue.Builder<Void>>buildGeneric(
                     CalculatedValue.Builder.class,
-                    b -> b.setValue(_max.orElse(null)));
+                    b -> b.setValue(_max.map(BaseStatistic::unweighted).orElse(null)));
+        }
+
+        @Override
+        public boolean isResettable() {
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            _max = Optional.empty();
         }
 
         private Optional<Quantity> _max = Optional.empty();
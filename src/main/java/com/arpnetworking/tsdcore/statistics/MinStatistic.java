@@ -99,7 +99,17 @@ public final class MinStatistic extends BaseStatistic {
         public CalculatedValue<Void> calculate(final Map<Statistic, Calculator<?>> dependencies) {
             return ThreadLocalBuilder.<CalculatedValue<Void>, CalculatedValue.Builder<Void>>buildGeneric(
                     CalculatedValue.Builder.class,
-                    b -> b.setValue(_min.orElse(null)));
+                    b -> b.setValue(_min.map(BaseStatistic::unweighted).orElse(null)));
+        }
+
+        @Override
+        public boolean isResettable() {
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            _min = Optional.empty();
         }
 
         private Optional<Quantity> _min = Optional.empty();
@@ -64,6 +64,15 @@ public final class SumStatistic extends BaseStatistic {
 
         @Override
         public Accumulator<Void> accumulate(final Quantity quantity) {
+            return add(totalOf(quantity));
+        }
+
+        @Override
+        public Accumulator<Void> accumulate(final CalculatedValue<Void> calculatedValue) {
+            return add(calculatedValue.getValue());
+        }
+
+        private Accumulator<Void> add(final Quantity quantity) {
             // Assert: that under the new Quantity normalization the units should always be the same.
             assertUnit(_sum.map(Quantity::getUnit).orElse(Optional.empty()), quantity.getUnit(), _sum.isPresent());
 
@@ -75,11 +84,6 @@ public final class SumStatistic extends BaseStatistic {
             return this;
         }
 
-        @Override
-        public Accumulator<Void> accumulate(final CalculatedValue<Void> calculatedValue) {
-            return accumulate(calculatedValue.getValue());
-        }
-
         @Override
         public CalculatedValue<Void> calculate(final Map<Statistic, Calculator<?>> dependencies) {
             return ThreadLocalBuilder.<CalculatedValue<Void>, CalculatedValue.Builder<Void>>buildGeneric(
@@ -87,6 +91,16 @@ public final class SumStatistic extends BaseStatistic {
                     b -> b.setValue(_sum.orElse(null)));
         }
 
+        @Override
+        public boolean isResettable() {
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            _sum = Optional.empty();
+        }
+
         private Optional<Quantity> _sum = Optional.empty();
     }
 }
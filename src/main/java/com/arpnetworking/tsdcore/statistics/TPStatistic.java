@@ -20,13 +20,18 @@ import com.arpnetworking.tsdcore.model.CalculatedValue;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Doubles;
 
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Base class for percentile based statistics.
@@ -59,6 +64,18 @@ public abstract class TPStatistic extends BaseStatistic implements OrderedStatis
         return new PercentileCalculator(this);
     }
 
+    /**
+     * Create a percentile calculator which evaluates all the percentiles of
+     * its metric together. The percentiles are shared rather than derived
+     * from the dependencies on each calculation.
+     *
+     * @param percentiles All the percentiles of the metric in ascending order.
+     * @return The percentile calculator.
+     */
+    public Calculator<Void> createCalculator(final double[] percentiles) {
+        return new PercentileCalculator(this, percentiles);
+    }
+
     @Override
     public Set<Statistic> getDependencies() {
         return DEPENDENCIES.get();
@@ -105,15 +122,49 @@ public abstract class TPStatistic extends BaseStatistic implements OrderedStatis
          */
         public PercentileCalculator(final TPStatistic statistic) {
             super(statistic);
+            _percentiles = null;
+        }
+
+        /**
+         * Public constructor.
+         *
+         * @param statistic The <code>TPStatistic</code>.
+         * @param percentiles All the percentiles of the metric in ascending order.
+         */
+        public PercentileCalculator(final TPStatistic statistic, final double[] percentiles) {
+            super(statistic);
+            _percentiles = percentiles;
         }
 
         @Override
         public CalculatedValue<Void> calculate(final Map<Statistic, Calculator<?>> dependencies) {
             final HistogramStatistic.HistogramAccumulator calculator =
                     (HistogramStatistic.HistogramAccumulator) dependencies.get(HISTOGRAM_STATISTIC.get());
+            // Evaluate all the percentiles of the metric in the same walk of the histogram
+            final double[] percentiles = _percentiles == null ? getPercentiles(dependencies.keySet()) : _percentiles;
             return ThreadLocalBuilder.<CalculatedValue<Void>, CalculatedValue.Builder<Void>>buildGeneric(
                     CalculatedValue.Builder.class,
-                    b -> b.setValue(calculator.calculate(((TPStatistic) getStatistic()).getPercentile())));
+                    b -> b.setValue(calculator.calculate(
+                            ((TPStatistic) getStatistic()).getPercentile(),
+                            percentiles)));
+        }
+
+        /**
+         * Return all the percentiles of a metric in ascending order.
+         *
+         * @param statistics The statistics of the metric.
+         * @return The percentiles in ascending order.
+         */
+        public static double[] getPercentiles(final Iterable<Statistic> statistics) {
+            final List<Double> percentiles = Lists.newArrayList();
+            for (final Statistic statistic : statistics) {
+                if (statistic instanceof TPStatistic) {
+                    percentiles.add(((TPStatistic) statistic).getPercentile());
+                }
+            }
+            final double[] sortedPercentiles = Doubles.toArray(percentiles);
+            Arrays.sort(sortedPercentiles);
+            return sortedPercentiles;
         }
 
         @Override
@@ -134,5 +185,8 @@ public abstract class TPStatistic extends BaseStatistic implements OrderedStatis
             final PercentileCalculator otherPercentileCalculator = (PercentileCalculator) other;
             return getStatistic().equals(otherPercentileCalculator.getStatistic());
         }
+
+        @Nullable
+        private final double[] _percentiles;
     }
 }
@@ -21,12 +21,15 @@ import com.arpnetworking.logback.annotations.LogValue;
 import com.arpnetworking.steno.LogValueMapFactory;
 
 import java.util.Optional;
+import java.util.function.Function;
 
 /**
  * Manages configuration and reconfiguration of a <code>Launchable</code> instance
  * using a POJO representation of its configuration. The <code>Launchable</code>
- * is instantiated with each new configuration. The configuration must validate
- * on construction and throw an exception if the configuration is invalid.
+ * is instantiated with each new configuration unless it is
+ * <code>Reconfigurable</code> and applies the new configuration in place. The
+ * configuration must validate on construction and throw an exception if the
+ * configuration is invalid.
  *
  * @param <T> The <code>Launchable</code> type to configure.
  * @param <S> The type representing the validated configuration.
@@ -42,17 +45,42 @@ public class Configurator<T extends Launchable, S> implements Listener, Launchab
      * @param configurationClass The configuration class.
      */
     public Configurator(final ConfiguredLaunchableFactory<T, S> factory, final Class<? extends S> configurationClass) {
+        this(factory, configurationClass, configuration -> configuration.getAs(configurationClass));
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param factory The factory to create a launchable.
+     * @param configurationClass The configuration class.
+     * @param configurationReader Reads the configuration class from an offered <code>Configuration</code>.
+     */
+    public Configurator(
+            final ConfiguredLaunchableFactory<T, S> factory,
+            final Class<? extends S> configurationClass,
+            final Function<Configuration, Optional<S>> configurationReader) {
         _factory = factory;
         _configurationClass = configurationClass;
+        _configurationReader = configurationReader;
     }
 
     @Override
     public synchronized void offerConfiguration(final Configuration configuration) throws Exception {
-        _offeredConfiguration = configuration.getAs(_configurationClass);
+        _offeredConfiguration = _configurationReader.apply(configuration);
     }
 
     @Override
     public synchronized void applyConfiguration() {
+        // Reconfigure in place
+        if (_launchable.isPresent() && _launchable.get() instanceof Reconfigurable && _offeredConfiguration.isPresent()) {
+            @SuppressWarnings("unchecked")
+            final Reconfigurable<S> reconfigurable = (Reconfigurable<S>) _launchable.get();
+            if (reconfigurable.reconfigure(_offeredConfiguration.get())) {
+                _configuration = _offeredConfiguration;
+                return;
+            }
+        }
+
         // Shutdown
         shutdown();
 
@@ -112,6 +140,7 @@ public class Configurator<T extends Launchable, S> implements Listener, Launchab
 
     private final ConfiguredLaunchableFactory<T, S> _factory;
     private final Class<? extends S> _configurationClass;
+    private final Function<Configuration, Optional<S>> _configurationReader;
 
     private Optional<T> _launchable = Optional.empty();
     private Optional<S> _configuration = Optional.empty();
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The behavior when adding to a full bounded queue.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public enum OverloadPolicy {
+    /**
+     * The caller blocks until the queue has capacity. This propagates
+     * backpressure to the caller; for example, TCP and HTTP sources stop
+     * reading from their connections.
+     */
+    BLOCK {
+        @Override
+        public <T> int enqueue(final BlockingQueue<T> queue, final T element) {
+            try {
+                queue.put(element);
+                return 0;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 1;
+            }
+        }
+    },
+    /**
+     * The element being added is dropped.
+     */
+    DROP_NEWEST {
+        @Override
+        public <T> int enqueue(final BlockingQueue<T> queue, final T element) {
+            return queue.offer(element) ? 0 : 1;
+        }
+    },
+    /**
+     * The oldest queued elements are dropped to make room for the element
+     * being added.
+     */
+    DROP_OLDEST {
+        @Override
+        public <T> int enqueue(final BlockingQueue<T> queue, final T element) {
+            int dropped = 0;
+            while (!queue.offer(element)) {
+                if (queue.poll() != null) {
+                    ++dropped;
+                }
+            }
+            return dropped;
+        }
+    };
+
+    /**
+     * Add an element to a bounded queue according to this policy.
+     *
+     * @param queue The queue.
+     * @param element The element to add.
+     * @param <T> The type of the element.
+     * @return The number of elements dropped.
+     */
+    public abstract <T> int enqueue(BlockingQueue<T> queue, T element);
+}
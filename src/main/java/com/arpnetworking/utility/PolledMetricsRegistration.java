@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+
+import java.util.function.BiConsumer;
+import javax.annotation.Nullable;
+
+/**
+ * Registration of a polled metric on behalf of a component which may be
+ * replaced while the <code>PeriodicMetrics</code> instance lives on; for
+ * example, the aggregators and sinks recreated on reconfiguration.
+ * <code>PeriodicMetrics</code> does not support removing a polled metric, so
+ * the registered callback only references this registration. Once
+ * unregistered the callback no longer samples the component and no longer
+ * references it, so the component stops reporting and can be garbage
+ * collected. This class is thread safe.
+ *
+ * @param <T> The type of the component.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public final class PolledMetricsRegistration<T> {
+
+    /**
+     * Register a polled metric sampling a component.
+     *
+     * @param periodicMetrics The <code>PeriodicMetrics</code> to register with.
+     * @param component The component to sample.
+     * @param sampler Records the metrics of the component; must not capture the component.
+     * @param <T> The type of the component.
+     * @return The registration.
+     */
+    public static <T> PolledMetricsRegistration<T> register(
+            final PeriodicMetrics periodicMetrics,
+            final T component,
+            final BiConsumer<T, PeriodicMetrics> sampler) {
+        final PolledMetricsRegistration<T> registration = new PolledMetricsRegistration<>(component, sampler);
+        periodicMetrics.registerPolledMetric(registration::sample);
+        return registration;
+    }
+
+    /**
+     * Stop sampling the component and release it.
+     */
+    public void unregister() {
+        _component = null;
+    }
+
+    public boolean isRegistered() {
+        return _component != null;
+    }
+
+    private void sample(final PeriodicMetrics periodicMetrics) {
+        final T component = _component;
+        if (component != null) {
+            _sampler.accept(component, periodicMetrics);
+        }
+    }
+
+    private PolledMetricsRegistration(final T component, final BiConsumer<T, PeriodicMetrics> sampler) {
+        _component = component;
+        _sampler = sampler;
+    }
+
+    @Nullable
+    private volatile T _component;
+
+    private final BiConsumer<T, PeriodicMetrics> _sampler;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+/**
+ * Interface for a <code>Launchable</code> which can apply a new configuration
+ * while running instead of being shutdown and replaced.
+ *
+ * @param <S> The type of config.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public interface Reconfigurable<S> {
+
+    /**
+     * Apply a new configuration to the running instance. If the instance
+     * cannot apply the configuration it must be left unchanged.
+     *
+     * @param configuration The new configuration.
+     * @return True if and only if the configuration was applied; otherwise
+     * the instance is shutdown and replaced.
+     */
+    boolean reconfigure(S configuration);
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.util.Map;
+
+/**
+ * Process wide dictionary of the metric names and dimension strings retained
+ * while aggregating. Each distinct string is retained once no matter how
+ * many keys and buckets refer to it. Strings are held weakly; a string is
+ * dropped from the dictionary once no key or bucket refers to it any longer,
+ * so ephemeral values are not pinned. This class is thread safe.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public final class StringDictionary {
+
+    /**
+     * Return the process wide <code>StringDictionary</code>.
+     *
+     * @return The process wide <code>StringDictionary</code>.
+     */
+    public static StringDictionary getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Return the canonical instance of a string.
+     *
+     * @param value The string.
+     * @return The canonical instance.
+     */
+    public String intern(final String value) {
+        return _strings.intern(value);
+    }
+
+    /**
+     * Return a map with the canonical instance of each key and value. If each
+     * key and value is already canonical the map itself is returned.
+     *
+     * @param map The map.
+     * @return The map of canonical strings.
+     */
+    @SuppressFBWarnings(value = "ES_COMPARING_STRINGS_WITH_EQ", justification = "Identity identifies canonical instances")
+    public ImmutableMap<String, String> intern(final ImmutableMap<String, String> map) {
+        boolean canonical = true;
+        for (final Map.Entry<String, String> entry : map.entrySet()) {
+            if (intern(entry.getKey()) != entry.getKey() || intern(entry.getValue()) != entry.getValue()) {
+                canonical = false;
+                break;
+            }
+        }
+        if (canonical) {
+            return map;
+        }
+        final ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, String> entry : map.entrySet()) {
+            builder.put(intern(entry.getKey()), intern(entry.getValue()));
+        }
+        return builder.build();
+    }
+
+    /* package private */ StringDictionary() { }
+
+    private final Interner<String> _strings = Interners.newWeakInterner();
+
+    private static final StringDictionary INSTANCE = new StringDictionary();
+}
@@ -19,7 +19,10 @@ import akka.actor.ActorRef;
 import akka.http.javadsl.model.HttpRequest;
 import akka.http.javadsl.model.HttpResponse;
 import akka.http.javadsl.model.headers.RawHeader;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
 import com.arpnetworking.commons.observer.Observer;
+import com.arpnetworking.http.RequestHandler;
 import com.arpnetworking.http.RequestReply;
 import com.arpnetworking.metrics.common.parsers.Parser;
 import com.arpnetworking.metrics.common.parsers.exceptions.ParsingException;
@@ -39,6 +42,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -107,6 +111,65 @@ public final class CollectdHttpSourceV1Test extends BaseActorSourceTest {
         Assert.assertEquals(record3, constructed.get(2));
     }
 
+    @Test
+    public void test429WhenSaturated() throws Exception {
+        final CountDownLatch parsing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(_parser.parse(Mockito.any())).thenAnswer(invocation -> {
+            parsing.countDown();
+            release.await();
+            return Collections.emptyList();
+        });
+        final CollectdHttpSourceV1 source = new CollectdHttpSourceV1.Builder()
+                .setActorName("collectd")
+                .setName("collectd_source")
+                .setParser(_parser)
+                .setParallelism(1)
+                .setQueueCapacity(1)
+                .build();
+        final ActorRef ref = getSystem().actorOf(CollectdHttpSourceV1.Actor.props(source));
+
+        // The first request is parsed, the second is queued and the third is rejected
+        final CompletableFuture<HttpResponse> first = new CompletableFuture<>();
+        ref.tell(new RequestReply(HttpRequest.create(), first), ActorRef.noSender());
+        Assert.assertTrue(parsing.await(10, TimeUnit.SECONDS));
+        final CompletableFuture<HttpResponse> second = new CompletableFuture<>();
+        ref.tell(new RequestReply(HttpRequest.create(), second), ActorRef.noSender());
+        final CompletableFuture<HttpResponse> third = new CompletableFuture<>();
+        ref.tell(new RequestReply(HttpRequest.create(), third), ActorRef.noSender());
+        Assert.assertEquals(429, third.get(10, TimeUnit.SECONDS).status().intValue());
+
+        release.countDown();
+        Assert.assertEquals(200, first.get(10, TimeUnit.SECONDS).status().intValue());
+        Assert.assertEquals(200, second.get(10, TimeUnit.SECONDS).status().intValue());
+    }
+
+    @Test
+    public void testRequestHandler() throws Exception {
+        Mockito.when(_parser.parse(Mockito.any())).thenReturn(Collections.emptyList());
+        final ActorRef ref = getSystem().actorOf(CollectdHttpSourceV1.Actor.props(_source));
+        final RequestHandler handler = (RequestHandler) PatternsCS.ask(
+                ref,
+                RequestHandler.GET_REQUEST_HANDLER,
+                Timeout.apply(10, TimeUnit.SECONDS))
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertFalse(handler.isClosed());
+        Assert.assertEquals(
+                200,
+                handler.handle(HttpRequest.create()).toCompletableFuture().get(10, TimeUnit.SECONDS).status().intValue());
+
+        getSystem().stop(ref);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!handler.isClosed() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(handler.isClosed());
+        Assert.assertEquals(
+                503,
+                handler.handle(HttpRequest.create()).toCompletableFuture().get(10, TimeUnit.SECONDS).status().intValue());
+    }
+
     private HttpResponse dispatchRequest() throws ExecutionException {
         return dispatchRequest(HttpRequest.create());
     }
@@ -24,6 +24,7 @@ import com.arpnetworking.metrics.mad.model.DefaultQuantity;
 import com.arpnetworking.metrics.mad.model.DefaultRecord;
 import com.arpnetworking.metrics.mad.model.MetricType;
 import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.test.CollectorPeriodicMetrics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.timgroup.statsd.NonBlockingStatsDClient;
@@ -39,6 +40,7 @@ import org.mockito.MockitoAnnotations;
 import scala.concurrent.duration.Duration;
 
 import java.time.ZonedDateTime;
+import java.util.Collections;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -119,6 +121,76 @@ public final class StatsdSourceTest {
         // CHECKSTYLE.ON: AnonInnerLength
     }
 
+    @Test
+    public void testParserThreads() {
+        final StatsdSource statsdSource = new StatsdSource.Builder()
+                .setActorSystem(_actorSystem)
+                .setActorName("StatsdSourceTest.testParserThreadsActor")
+                .setName("StatsdSourceTest.testParserThreads")
+                .setPort(1235)
+                .setReceivers(2)
+                .setReceiveBufferSize(1 << 20)
+                .setParserThreads(2)
+                .build();
+        final Observer observer = Mockito.mock(Observer.class);
+        statsdSource.attach(observer);
+        statsdSource.start();
+
+        // CHECKSTYLE.OFF: AnonInnerLength - This is the Akka test pattern
+        new TestKit(_actorSystem) {{
+            // Wait for the statsd source actor to be ready
+            boolean isReady = false;
+            while (!isReady) {
+                _actorSystem.actorSelection("/user/StatsdSourceTest.testParserThreadsActor").tell("IsReady", getRef());
+                isReady = expectMsgClass(Duration.create(10, TimeUnit.SECONDS), Boolean.class);
+            }
+
+            // Send metrics using statsd over udp
+            final StatsDClient statsdClient = new NonBlockingStatsDClient("StatsdSourceTest.test", "localhost", 1235);
+            statsdClient.count("counter1", 3);
+            statsdClient.stop();
+
+            // Captor observation of the records parsed by the parser threads
+            Mockito.verify(observer, Mockito.timeout(1000)).notify(
+                    Mockito.same(statsdSource),
+                    _recordCaptor.capture());
+            Assert.assertEquals(
+                    ImmutableList.of(new DefaultQuantity.Builder().setValue(3d).build()),
+                    _recordCaptor.getValue().getMetrics().get("StatsdSourceTest.test.counter1").getValues());
+        }};
+        // CHECKSTYLE.ON: AnonInnerLength
+        statsdSource.stop();
+    }
+
+    @Test
+    public void testPolledMetricsWhileStarted() {
+        final CollectorPeriodicMetrics periodicMetrics = new CollectorPeriodicMetrics();
+        final StatsdSource statsdSource = new StatsdSource.Builder()
+                .setActorSystem(_actorSystem)
+                .setActorName("StatsdSourceTest.testPolledMetricsActor")
+                .setName("StatsdSourceTest.testPolledMetrics")
+                .setPort(1236)
+                .setPeriodicMetrics(periodicMetrics)
+                .build();
+        final String metricName = "sources/statsd/StatsdSourceTest_testPolledMetrics/datagrams_received";
+
+        // Not sampled before start; for example, a discarded duplicate source
+        periodicMetrics.run();
+        Assert.assertEquals(Collections.emptyList(), periodicMetrics.getCounters(metricName));
+
+        statsdSource.start();
+        try {
+            periodicMetrics.run();
+            Assert.assertEquals(Collections.singletonList(0L), periodicMetrics.getCounters(metricName));
+        } finally {
+            statsdSource.stop();
+        }
+
+        // Not sampled once stopped
+        periodicMetrics.run();
+        Assert.assertEquals(Collections.singletonList(0L), periodicMetrics.getCounters(metricName));
+    }
+
     private void assertRecordEquality(final Record expected, final Record actual) {
         Assert.assertEquals(expected.getAnnotations(), actual.getAnnotations());
         Assert.assertEquals(expected.getDimensions(), actual.getDimensions());
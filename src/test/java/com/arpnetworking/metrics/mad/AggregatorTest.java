@@ -17,11 +17,13 @@ package com.arpnetworking.metrics.mad;
 
 import com.arpnetworking.commons.observer.Observable;
 import com.arpnetworking.commons.observer.Observer;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.mad.model.DefaultMetric;
 import com.arpnetworking.metrics.mad.model.DefaultQuantity;
 import com.arpnetworking.metrics.mad.model.DefaultRecord;
 import com.arpnetworking.metrics.mad.model.MetricType;
 import com.arpnetworking.metrics.mad.model.Quantity;
+import com.arpnetworking.test.CollectorPeriodicMetrics;
 import com.arpnetworking.test.TestBeanFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.DefaultKey;
@@ -33,6 +35,7 @@ import com.arpnetworking.tsdcore.statistics.StatisticFactory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import org.hamcrest.Matchers;
 import org.junit.After;
@@ -45,6 +48,9 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.time.Duration;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
@@ -63,6 +69,8 @@ public class AggregatorTest {
     public void setUp() {
         MockitoAnnotations.initMocks(this);
        _aggregator = new Aggregator.Builder()
+                .setName("MyAggregator")
+                .setPeriodicMetrics(_periodicMetrics)
                 .setSink(_sink)
                 .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
                 .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
@@ -129,6 +137,451 @@ public class AggregatorTest {
                                 .build()));
     }
 
+    @Test
+    public void testDedicatedScheduling() throws InterruptedException {
+        final Aggregator aggregator = new Aggregator.Builder()
+                .setName("MyAggregator")
+                .setPeriodicMetrics(_periodicMetrics)
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Duration.ofSeconds(1)))
+                .setScheduling(Aggregator.Scheduling.DEDICATED)
+                .build();
+        aggregator.launch();
+        try {
+            aggregator.notify(
+                    OBSERVABLE,
+                    TestBeanFactory.createRecordBuilder()
+                            .setTime(ZonedDateTime.now(ZoneOffset.UTC).minus(Duration.ofSeconds(10)))
+                            .setDimensions(
+                                    ImmutableMap.of(
+                                            Key.HOST_DIMENSION_KEY, "MyHost",
+                                            Key.SERVICE_DIMENSION_KEY, "MyService",
+                                            Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                            .setMetrics(ImmutableMap.of(
+                                    "MyCounter",
+                                    new DefaultMetric.Builder()
+                                            .setType(MetricType.COUNTER)
+                                            .setValues(ImmutableList.of(ONE))
+                                            .build()))
+                            .build());
+
+            // Wait for the period to close
+            Thread.sleep(3000);
+
+            // Verify the aggregation was emitted
+            Mockito.verify(_sink).recordAggregateData(_periodicDataCaptor.capture());
+            Mockito.verifyNoMoreInteractions(_sink);
+            Assert.assertEquals(2, _periodicDataCaptor.getValue().getData().get("MyCounter").size());
+        } finally {
+            aggregator.shutdown();
+        }
+    }
+
+    @Test
+    public void testPeriodStatistics() throws InterruptedException {
+        final Aggregator aggregator = new Aggregator.Builder()
+                .setName("MyAggregator")
+                .setPeriodicMetrics(_periodicMetrics)
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(ImmutableSet.of(Duration.ofSeconds(1), Duration.ofSeconds(2)))
+                .setPeriodStatistics(ImmutableMap.of(
+                        Duration.ofSeconds(1),
+                        new PeriodStatistics.Builder()
+                                .setCounterStatistics(Collections.singleton(MIN_STATISTIC))
+                                .build()))
+                .setRollupPeriods(true)
+                .build();
+        aggregator.launch();
+        try {
+            aggregator.notify(
+                    OBSERVABLE,
+                    TestBeanFactory.createRecordBuilder()
+                            .setTime(ZonedDateTime.now(ZoneOffset.UTC).minus(Duration.ofSeconds(10)))
+                            .setDimensions(
+                                    ImmutableMap.of(
+                                            Key.HOST_DIMENSION_KEY, "MyHost",
+                                            Key.SERVICE_DIMENSION_KEY, "MyService",
+                                            Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                            .setMetrics(ImmutableMap.of(
+                                    "MyCounter",
+                                    new DefaultMetric.Builder()
+                                            .setType(MetricType.COUNTER)
+                                            .setValues(ImmutableList.of(ONE))
+                                            .build()))
+                            .build());
+
+            // Wait for the periods to close
+            Thread.sleep(4000);
+
+            // The periods compute different statistics so neither is rolled up
+            Mockito.verify(_sink, Mockito.times(2)).recordAggregateData(_periodicDataCaptor.capture());
+            for (final PeriodicData periodicData : _periodicDataCaptor.getAllValues()) {
+                final Statistic expectedStatistic = Duration.ofSeconds(1).equals(periodicData.getPeriod())
+                        ? MIN_STATISTIC
+                        : MAX_STATISTIC;
+                Assert.assertThat(
+                        periodicData.getData().get("MyCounter"),
+                        Matchers.hasItem(
+                                new AggregatedData.Builder()
+                                        .setIsSpecified(true)
+                                        .setPopulationSize(1L)
+                                        .setStatistic(expectedStatistic)
+                                        .setValue(ONE)
+                                        .build()));
+                Assert.assertEquals(2, periodicData.getData().get("MyCounter").size());
+            }
+        } finally {
+            aggregator.shutdown();
+        }
+    }
+
+    @Test
+    public void testDedicatedRollupPeriods() throws InterruptedException {
+        final Aggregator aggregator = new Aggregator.Builder()
+                .setName("MyAggregator")
+                .setPeriodicMetrics(_periodicMetrics)
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(ImmutableSet.of(Duration.ofSeconds(1), Duration.ofSeconds(2)))
+                .setRollupPeriods(true)
+                .setScheduling(Aggregator.Scheduling.DEDICATED)
+                .build();
+        aggregator.launch();
+        try {
+            // Two samples in consecutive seconds of the same two second period
+            final ZonedDateTime start = PeriodWorker.getStartTime(
+                    ZonedDateTime.now(ZoneOffset.UTC).minus(Duration.ofSeconds(10)),
+                    Duration.ofSeconds(2));
+            for (final Quantity value : ImmutableList.of(ONE, TWO)) {
+                aggregator.notify(
+                        OBSERVABLE,
+                        TestBeanFactory.createRecordBuilder()
+                                .setTime(ONE.equals(value) ? start : start.plusSeconds(1))
+                                .setDimensions(
+                                        ImmutableMap.of(
+                                                Key.HOST_DIMENSION_KEY, "MyHost",
+                                                Key.SERVICE_DIMENSION_KEY, "MyService",
+                                                Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                                .setMetrics(ImmutableMap.of(
+                                        "MyCounter",
+                                        new DefaultMetric.Builder()
+                                                .setType(MetricType.COUNTER)
+                                                .setValues(ImmutableList.of(value))
+                                                .build()))
+                                .build());
+            }
+
+            // Wait for the one second buckets to be rolled up on the thread
+            // of the two second worker and for its bucket to close
+            Thread.sleep(5000);
+
+            Mockito.verify(_sink, Mockito.times(3)).recordAggregateData(_periodicDataCaptor.capture());
+            final List<PeriodicData> rolledUpData = Lists.newArrayList();
+            for (final PeriodicData periodicData : _periodicDataCaptor.getAllValues()) {
+                if (Duration.ofSeconds(2).equals(periodicData.getPeriod())) {
+                    rolledUpData.add(periodicData);
+                }
+            }
+            Assert.assertEquals(1, rolledUpData.size());
+            Assert.assertEquals(start, rolledUpData.get(0).getStart());
+            Assert.assertThat(
+                    rolledUpData.get(0).getData().get("MyCounter"),
+                    Matchers.containsInAnyOrder(
+                            new AggregatedData.Builder()
+                                    .setIsSpecified(true)
+                                    .setPopulationSize(2L)
+                                    .setStatistic(MAX_STATISTIC)
+                                    .setValue(TWO)
+                                    .build(),
+                            new AggregatedData.Builder()
+                                    .setIsSpecified(false)
+                                    .setPopulationSize(2L)
+                                    .setStatistic(COUNT_STATISTIC)
+                                    .setValue(TWO)
+                                    .build()));
+        } finally {
+            aggregator.shutdown();
+        }
+    }
+
+    @Test
+    public void testDimensionRollups() throws InterruptedException {
+        final Aggregator aggregator = new Aggregator.Builder()
+                .setName("MyAggregator")
+                .setPeriodicMetrics(_periodicMetrics)
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Duration.ofSeconds(1)))
+                .setDimensionRollups(ImmutableList.of(
+                        new DimensionRollup.Builder()
+                                .setDroppedDimensions(ImmutableSet.of(Key.HOST_DIMENSION_KEY))
+                                .build(),
+                        new DimensionRollup.Builder()
+                                .setRetainedDimensions(ImmutableSet.of(
+                                        Key.SERVICE_DIMENSION_KEY,
+                                        Key.CLUSTER_DIMENSION_KEY))
+                                .build()))
+                .build();
+        aggregator.launch();
+        try {
+            for (final String host : ImmutableList.of("MyHostA", "MyHostB")) {
+                aggregator.notify(
+                        OBSERVABLE,
+                        TestBeanFactory.createRecordBuilder()
+                                .setTime(ZonedDateTime.now(ZoneOffset.UTC).minus(Duration.ofSeconds(10)))
+                                .setDimensions(
+                                        ImmutableMap.of(
+                                                Key.HOST_DIMENSION_KEY, host,
+                                                Key.SERVICE_DIMENSION_KEY, "MyService",
+                                                Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                                .setMetrics(ImmutableMap.of(
+                                        "MyCounter",
+                                        new DefaultMetric.Builder()
+                                                .setType(MetricType.COUNTER)
+                                                .setValues(ImmutableList.of(ONE))
+                                                .build()))
+                                .build());
+            }
+
+            // Wait for the period to close
+            Thread.sleep(3000);
+
+            // Each host and the rollup of both hosts; the second rollup is a duplicate
+            Mockito.verify(_sink, Mockito.times(3)).recordAggregateData(_periodicDataCaptor.capture());
+            final Key rollupKey = new DefaultKey(ImmutableMap.of(
+                    Key.SERVICE_DIMENSION_KEY, "MyService",
+                    Key.CLUSTER_DIMENSION_KEY, "MyCluster"));
+            final PeriodicData rollupData = _periodicDataCaptor.getAllValues()
+                    .stream()
+                    .filter(periodicData -> rollupKey.equals(periodicData.getDimensions()))
+                    .findFirst()
+                    .orElseThrow(AssertionError::new);
+            Assert.assertThat(
+                    rollupData.getData().get("MyCounter"),
+                    Matchers.hasItem(
+                            new AggregatedData.Builder()
+                                    .setIsSpecified(false)
+                                    .setPopulationSize(2L)
+                                    .setStatistic(COUNT_STATISTIC)
+                                    .setValue(TWO)
+                                    .build()));
+        } finally {
+            aggregator.shutdown();
+        }
+    }
+
+    @Test
+    public void testSnapshotRestore() throws InterruptedException, IOException {
+        final File snapshotFile = Files.createTempFile("aggregator", ".snapshot").toFile();
+        Files.delete(snapshotFile.toPath());
+        final Aggregator.Builder aggregatorBuilder = new Aggregator.Builder()
+                .setName("MyAggregator")
+                .setPeriodicMetrics(_periodicMetrics)
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Duration.ofSeconds(1)))
+                .setSnapshotFile(snapshotFile);
+
+        // Shutdown before the period closes
+        final Aggregator aggregator = aggregatorBuilder.build();
+        aggregator.launch();
+        aggregator.notify(
+                OBSERVABLE,
+                TestBeanFactory.createRecordBuilder()
+                        .setTime(ZonedDateTime.now(ZoneOffset.UTC).minus(Duration.ofSeconds(10)))
+                        .setDimensions(
+                                ImmutableMap.of(
+                                        Key.HOST_DIMENSION_KEY, "MyHost",
+                                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                                        Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                        .setMetrics(ImmutableMap.of(
+                                "MyCounter",
+                                new DefaultMetric.Builder()
+                                        .setType(MetricType.COUNTER)
+                                        .setValues(ImmutableList.of(TWO))
+                                        .build()))
+                        .build());
+        Thread.sleep(100);
+        aggregator.shutdown();
+        Assert.assertTrue(snapshotFile.exists());
+        Mockito.verifyZeroInteractions(_sink);
+
+        // The restored bucket closes in the new aggregator
+        final Aggregator restoredAggregator = aggregatorBuilder.build();
+        restoredAggregator.launch();
+        try {
+            Assert.assertFalse(snapshotFile.exists());
+
+            // Wait for the period to close
+            Thread.sleep(3000);
+
+            // Verify the aggregation was emitted
+            Mockito.verify(_sink).recordAggregateData(_periodicDataCaptor.capture());
+            Mockito.verifyNoMoreInteractions(_sink);
+            Assert.assertThat(
+                    _periodicDataCaptor.getValue().getData().get("MyCounter"),
+                    Matchers.containsInAnyOrder(
+                            new AggregatedData.Builder()
+                                    .setIsSpecified(false)
+                                    .setPopulationSize(1L)
+                                    .setStatistic(COUNT_STATISTIC)
+                                    .setValue(ONE)
+                                    .build(),
+                            new AggregatedData.Builder()
+                                    .setIsSpecified(true)
+                                    .setPopulationSize(1L)
+                                    .setStatistic(MAX_STATISTIC)
+                                    .setValue(TWO)
+                                    .build()));
+        } finally {
+            restoredAggregator.shutdown();
+            Files.deleteIfExists(snapshotFile.toPath());
+        }
+    }
+
+    @Test
+    public void testHandOff() throws InterruptedException {
+        final Aggregator.Builder aggregatorBuilder = new Aggregator.Builder()
+                .setName("MyAggregator")
+                .setPeriodicMetrics(_periodicMetrics)
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Duration.ofSeconds(1)));
+        final ZonedDateTime time = ZonedDateTime.now(ZoneOffset.UTC).minus(Duration.ofSeconds(10));
+
+        // Hand off before the period closes
+        final Aggregator aggregator = aggregatorBuilder.build();
+        aggregator.launch();
+        aggregator.notify(OBSERVABLE, createCounterRecord(time, TWO));
+        Thread.sleep(100);
+        final Aggregator successor = aggregatorBuilder.build();
+        aggregator.handOff(successor);
+        try {
+            // Records observed by the retired aggregator are passed on
+            aggregator.notify(OBSERVABLE, createCounterRecord(time, ONE));
+
+            // Wait for the period to close
+            Thread.sleep(3000);
+
+            // Verify both samples were emitted by the successor
+            Mockito.verify(_sink).recordAggregateData(_periodicDataCaptor.capture());
+            Mockito.verifyNoMoreInteractions(_sink);
+            Assert.assertThat(
+                    _periodicDataCaptor.getValue().getData().get("MyCounter"),
+                    Matchers.containsInAnyOrder(
+                            new AggregatedData.Builder()
+                                    .setIsSpecified(false)
+                                    .setPopulationSize(2L)
+                                    .setStatistic(COUNT_STATISTIC)
+                                    .setValue(TWO)
+                                    .build(),
+                            new AggregatedData.Builder()
+                                    .setIsSpecified(true)
+                                    .setPopulationSize(2L)
+                                    .setStatistic(MAX_STATISTIC)
+                                    .setValue(TWO)
+                                    .build()));
+        } finally {
+            successor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdleKeyEviction() throws InterruptedException {
+        final CollectorPeriodicMetrics periodicMetrics = new CollectorPeriodicMetrics();
+        final Aggregator aggregator = new Aggregator.Builder()
+                .setName("MyAggregator")
+                .setPeriodicMetrics(periodicMetrics)
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Duration.ofSeconds(1)))
+                .setIdleKeyTimeout(Duration.ofSeconds(1))
+                .build();
+        aggregator.launch();
+        try {
+            aggregator.notify(
+                    OBSERVABLE,
+                    TestBeanFactory.createRecordBuilder()
+                            .setTime(ZonedDateTime.now(ZoneOffset.UTC).minus(Duration.ofSeconds(10)))
+                            .setDimensions(
+                                    ImmutableMap.of(
+                                            Key.HOST_DIMENSION_KEY, "MyHost",
+                                            Key.SERVICE_DIMENSION_KEY, "MyService",
+                                            Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                            .setMetrics(ImmutableMap.of(
+                                    "MyCounter",
+                                    new DefaultMetric.Builder()
+                                            .setType(MetricType.COUNTER)
+                                            .setValues(ImmutableList.of(ONE))
+                                            .build()))
+                            .build());
+
+            // Wait for the period to close and the key to be evicted
+            Thread.sleep(4000);
+            periodicMetrics.run();
+
+            // Verify the aggregation was emitted and the key evicted
+            Mockito.verify(_sink).recordAggregateData(Mockito.any());
+            Assert.assertEquals(
+                    Collections.singletonList(1L),
+                    periodicMetrics.getCounters("aggregator/MyAggregator/evicted_keys"));
+        } finally {
+            aggregator.shutdown();
+        }
+    }
+
+    @Test
+    public void testPolledMetricsWhileRunning() {
+        final CollectorPeriodicMetrics periodicMetrics = new CollectorPeriodicMetrics();
+        final Aggregator aggregator = new Aggregator.Builder()
+                .setName("MyAggregator")
+                .setPeriodicMetrics(periodicMetrics)
+                .setSink(_sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Duration.ofSeconds(1)))
+                .build();
+
+        // Not sampled before launch
+        periodicMetrics.run();
+        Assert.assertEquals(
+                Collections.emptyList(),
+                periodicMetrics.getCounters("aggregator/MyAggregator/dropped_records"));
+
+        aggregator.launch();
+        try {
+            periodicMetrics.run();
+            Assert.assertEquals(
+                    Collections.singletonList(0L),
+                    periodicMetrics.getCounters("aggregator/MyAggregator/dropped_records"));
+        } finally {
+            aggregator.shutdown();
+        }
+
+        // Not sampled once retired; for example, after a hand off
+        periodicMetrics.run();
+        Assert.assertEquals(
+                Collections.singletonList(0L),
+                periodicMetrics.getCounters("aggregator/MyAggregator/dropped_records"));
+    }
+
     @Test
     public void testMultipleClusters() throws InterruptedException {
         final ZonedDateTime start = ZonedDateTime.parse("2015-02-05T00:00:00Z");
@@ -370,6 +823,23 @@ public class AggregatorTest {
                                 .build()));
     }
 
+    private static DefaultRecord createCounterRecord(final ZonedDateTime time, final Quantity value) {
+        return TestBeanFactory.createRecordBuilder()
+                .setTime(time)
+                .setDimensions(
+                        ImmutableMap.of(
+                                Key.HOST_DIMENSION_KEY, "MyHost",
+                                Key.SERVICE_DIMENSION_KEY, "MyService",
+                                Key.CLUSTER_DIMENSION_KEY, "MyCluster"))
+                .setMetrics(ImmutableMap.of(
+                        "MyCounter",
+                        new DefaultMetric.Builder()
+                                .setType(MetricType.COUNTER)
+                                .setValues(ImmutableList.of(value))
+                                .build()))
+                .build();
+    }
+
     private List<AggregatedData> getCapturedData(
             final String metricName,
             final Key dimensionSetA,
@@ -397,10 +867,13 @@ public class AggregatorTest {
     private ArgumentCaptor<PeriodicData> _periodicDataCaptor;
     @Mock
     private Sink _sink;
+    @Mock
+    private PeriodicMetrics _periodicMetrics;
 
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
     private static final Statistic MAX_STATISTIC = STATISTIC_FACTORY.getStatistic("max");
     private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    private static final Statistic MIN_STATISTIC = STATISTIC_FACTORY.getStatistic("min");
 
     private static final Quantity ONE = new DefaultQuantity.Builder().setValue(1.0).build();
     private static final Quantity TWO = new DefaultQuantity.Builder().setValue(2.0).build();
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.metrics.mad.model.DefaultMetric;
+import com.arpnetworking.metrics.mad.model.DefaultQuantity;
+import com.arpnetworking.metrics.mad.model.DefaultRecord;
+import com.arpnetworking.metrics.mad.model.MetricType;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.metrics.mad.performance.ListeningSink;
+import com.arpnetworking.test.junitbenchmarks.JsonBenchmarkConsumer;
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.google.common.base.Stopwatch;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Perf tests of concurrent additions of a single hot metric to one
+ * <code>Bucket</code>. Throughput should scale with the number of threads
+ * up to the number of cores.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+@RunWith(Parameterized.class)
+@BenchmarkOptions(callgc = true, benchmarkRounds = 1, warmupRounds = 0)
+public class BucketContentionPT {
+
+    public BucketContentionPT(final String name, final int threadCount) {
+        _threadCount = threadCount;
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        JSON_BENCHMARK_CONSUMER.prepareClass();
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> createParameters() {
+        final List<Object[]> params = Lists.newArrayList();
+        final int processors = Runtime.getRuntime().availableProcessors();
+        for (int threadCount = 1; threadCount <= processors * 2; threadCount *= 2) {
+            params.add(new Object[]{"threads" + threadCount, threadCount});
+        }
+        return params;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        final AtomicLong recordCount = new AtomicLong();
+        final Bucket bucket = new Bucket.Builder()
+                .setKey(new DefaultKey(DIMENSIONS))
+                .setSink(new ListeningSink(periodicData -> {
+                    recordCount.set(periodicData.getData().get("MyTimer").iterator().next().getPopulationSize());
+                    return null;
+                }))
+                .setStart(START)
+                .setPeriod(Duration.ofMinutes(1))
+                .setSpecifiedCounterStatistics(ImmutableSet.of(SUM_STATISTIC))
+                .setSpecifiedGaugeStatistics(ImmutableSet.of(MAX_STATISTIC))
+                .setSpecifiedTimerStatistics(ImmutableSet.of(TP99_STATISTIC, MAX_STATISTIC))
+                .setDependentCounterStatistics(ImmutableSet.of())
+                .setDependentGaugeStatistics(ImmutableSet.of())
+                .setDependentTimerStatistics(ImmutableSet.of(HISTOGRAM_STATISTIC))
+                .setSpecifiedStatistics(CacheBuilder.newBuilder().build(new AbsentStatisticCacheLoader()))
+                .setDependentStatistics(CacheBuilder.newBuilder().build(new AbsentStatisticCacheLoader()))
+                .build();
+
+        final List<Record> records = Lists.newArrayList();
+        for (int i = 0; i < 1000; ++i) {
+            records.add(createRecord(i));
+        }
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> threads = Lists.newArrayList();
+        for (int i = 0; i < _threadCount; ++i) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int j = 0; j < RECORDS_PER_THREAD; ++j) {
+                    bucket.add(records.get(j % records.size()));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        final Stopwatch timer = Stopwatch.createStarted();
+        startLatch.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        timer.stop();
+        bucket.close();
+
+        final long expectedCount = (long) RECORDS_PER_THREAD * _threadCount;
+        Assert.assertEquals(expectedCount, recordCount.get());
+        LOGGER.info(String.format(
+                "Bucket contention result; threads=%d, records=%d, millis=%d, recordsPerSecond=%d",
+                _threadCount,
+                expectedCount,
+                timer.elapsed(TimeUnit.MILLISECONDS),
+                expectedCount * 1000 / Math.max(1, timer.elapsed(TimeUnit.MILLISECONDS))));
+    }
+
+    private static Record createRecord(final int value) {
+        return new DefaultRecord.Builder()
+                .setTime(START.plus(Duration.ofSeconds(10)))
+                .setDimensions(DIMENSIONS)
+                .setId(UUID.randomUUID().toString())
+                .setMetrics(ImmutableMap.of(
+                        "MyTimer",
+                        new DefaultMetric.Builder()
+                                .setType(MetricType.TIMER)
+                                .setValues(ImmutableList.of(new DefaultQuantity.Builder().setValue((double) value).build()))
+                                .build()))
+                .build();
+    }
+
+    private final int _threadCount;
+
+    @Rule
+    public final TestRule _benchmarkRule = new BenchmarkRule(JSON_BENCHMARK_CONSUMER);
+
+    private static final JsonBenchmarkConsumer JSON_BENCHMARK_CONSUMER = new JsonBenchmarkConsumer(
+            Paths.get("target/site/perf/benchmark-bucket-contention.json"));
+
+    private static final int RECORDS_PER_THREAD = 1000000;
+    private static final ZonedDateTime START = ZonedDateTime.parse("2015-02-05T00:00:00Z");
+    private static final ImmutableMap<String, String> DIMENSIONS = ImmutableMap.of(
+            Key.HOST_DIMENSION_KEY, "MyHost",
+            Key.SERVICE_DIMENSION_KEY, "MyService",
+            Key.CLUSTER_DIMENSION_KEY, "MyCluster");
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic SUM_STATISTIC = STATISTIC_FACTORY.getStatistic("sum");
+    private static final Statistic MAX_STATISTIC = STATISTIC_FACTORY.getStatistic("max");
+    private static final Statistic TP99_STATISTIC = STATISTIC_FACTORY.getStatistic("tp99");
+    private static final Statistic HISTOGRAM_STATISTIC = STATISTIC_FACTORY.getStatistic("histogram");
+    private static final Logger LOGGER = LoggerFactory.getLogger(BucketContentionPT.class);
+
+    private static final class AbsentStatisticCacheLoader extends CacheLoader<String, Optional<ImmutableSet<Statistic>>> {
+        @Override
+        public Optional<ImmutableSet<Statistic>> load(@Nullable final String key) {
+            return Optional.empty();
+        }
+    }
+}
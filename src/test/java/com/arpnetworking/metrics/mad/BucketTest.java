@@ -35,6 +35,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Before;
@@ -44,10 +45,17 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import javax.annotation.Nullable;
 
 /**
@@ -60,24 +68,7 @@ public class BucketTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
-        _bucket = new Bucket.Builder()
-                .setKey(new DefaultKey(
-                        ImmutableMap.of(
-                                Key.HOST_DIMENSION_KEY, "MyHost",
-                                Key.SERVICE_DIMENSION_KEY, "MyService",
-                                Key.CLUSTER_DIMENSION_KEY, "MyCluster")))
-                .setSink(_sink)
-                .setStart(START)
-                .setPeriod(Duration.ofMinutes(1))
-                .setSpecifiedCounterStatistics(ImmutableSet.of(MIN_STATISTIC))
-                .setSpecifiedGaugeStatistics(ImmutableSet.of(MEAN_STATISTIC))
-                .setSpecifiedTimerStatistics(ImmutableSet.of(MAX_STATISTIC))
-                .setDependentCounterStatistics(ImmutableSet.of())
-                .setDependentGaugeStatistics(ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC))
-                .setDependentTimerStatistics(ImmutableSet.of())
-                .setSpecifiedStatistics(_specifiedStatsCache)
-                .setDependentStatistics(_dependentStatsCache)
-                .build();
+        _bucket = createBucket(START, Duration.ofMinutes(1));
     }
 
     @Test
@@ -206,6 +197,132 @@ public class BucketTest {
                                 .build()));
     }
 
+    @Test
+    public void testRollup() {
+        final Bucket firstBucket = createBucket(START.plus(Duration.ofSeconds(10)), Duration.ofSeconds(1));
+        addData(firstBucket, "MyGauge", MetricType.GAUGE, TWO, 10);
+        addData(firstBucket, "MyGauge", MetricType.GAUGE, ONE, 10);
+        addData(firstBucket, "MyTimer", MetricType.TIMER, ONE_SECOND, 10);
+        firstBucket.close();
+        final Bucket secondBucket = createBucket(START.plus(Duration.ofSeconds(20)), Duration.ofSeconds(1));
+        addData(secondBucket, "MyGauge", MetricType.GAUGE, THREE, 20);
+        addData(secondBucket, "MyTimer", MetricType.TIMER, THREE_SECONDS, 20);
+        secondBucket.close();
+
+        _bucket.rollup(firstBucket);
+        _bucket.rollup(secondBucket);
+        _bucket.close();
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink, Mockito.times(3)).recordAggregateData(dataCaptor.capture());
+
+        final PeriodicData periodicData = dataCaptor.getAllValues().get(2);
+        Assert.assertEquals(Duration.ofMinutes(1), periodicData.getPeriod());
+        final ImmutableMultimap<String, AggregatedData> data = periodicData.getData();
+        Assert.assertEquals(5, data.size());
+
+        Assert.assertThat(
+                data.get("MyGauge"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setStatistic(MEAN_STATISTIC)
+                                .setPopulationSize(3L)
+                                .setValue(TWO)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(SUM_STATISTIC)
+                                .setValue(SIX)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(THREE)
+                                .build()));
+        Assert.assertThat(
+                data.get("MyTimer"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(2L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(TWO)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setPopulationSize(2L)
+                                .setStatistic(MAX_STATISTIC)
+                                .setValue(THREE_SECONDS)
+                                .build()));
+    }
+
+    @Test
+    public void testSnapshotRestore() throws IOException {
+        final Bucket bucket = createBucket(START, Duration.ofMinutes(1), ImmutableSet.of(MEDIAN_STATISTIC, MAX_STATISTIC));
+        addData(bucket, "MyGauge", MetricType.GAUGE, TWO, 10);
+        addData(bucket, "MyGauge", MetricType.GAUGE, ONE, 20);
+        addData(bucket, "MyTimer", MetricType.TIMER, ONE_SECOND, 10);
+        addData(bucket, "MyTimer", MetricType.TIMER, THREE_SECONDS, 20);
+        addData(bucket, "MyTimer", MetricType.TIMER, THREE_SECONDS, 30);
+        final ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        bucket.snapshot(new DataOutputStream(snapshot));
+
+        final Bucket restoredBucket = createBucket(START, Duration.ofMinutes(1), ImmutableSet.of(MEDIAN_STATISTIC, MAX_STATISTIC));
+        restoredBucket.restore(new DataInputStream(new ByteArrayInputStream(snapshot.toByteArray())));
+        restoredBucket.close();
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink).recordAggregateData(dataCaptor.capture());
+        final ImmutableMultimap<String, AggregatedData> data = dataCaptor.getValue().getData();
+
+        Assert.assertThat(
+                data.get("MyGauge"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setStatistic(MEAN_STATISTIC)
+                                .setPopulationSize(2L)
+                                .setValue(new DefaultQuantity.Builder().setValue(1.5).build())
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(2L)
+                                .setStatistic(SUM_STATISTIC)
+                                .setValue(THREE)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(2L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(TWO)
+                                .build()));
+        // The histogram is restored along with the fused statistics
+        Assert.assertThat(
+                data.get("MyTimer"),
+                Matchers.hasItems(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(THREE)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setPopulationSize(3L)
+                                .setStatistic(MEDIAN_STATISTIC)
+                                .setValue(THREE_SECONDS)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setPopulationSize(3L)
+                                .setStatistic(MAX_STATISTIC)
+                                .setValue(THREE_SECONDS)
+                                .build()));
+    }
+
     @Test
     public void testToString() {
         final String asString = new Bucket.Builder()
@@ -219,7 +336,7 @@ public class BucketTest {
                 .setPeriod(Duration.ofMinutes(1))
                 .setSpecifiedCounterStatistics(ImmutableSet.of(MIN_STATISTIC))
                 .setSpecifiedGaugeStatistics(ImmutableSet.of(MEAN_STATISTIC))
-                .setSpecifiedTimerStatistics(ImmutableSet.of(MAX_STATISTIC))
+                .setSpecifiedTimerStatistics(timerStatistics)
                 .setDependentCounterStatistics(ImmutableSet.of())
                 .setDependentGaugeStatistics(ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC))
                 .setDependentTimerStatistics(ImmutableSet.of())
@@ -231,8 +348,246 @@ public class BucketTest {
         Assert.assertFalse(asString.isEmpty());
     }
 
+    @Test
+    public void testMaximumMetrics() {
+        final Bucket bucket = new Bucket.Builder()
+                .setKey(new DefaultKey(ImmutableMap.of(
+                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                        Key.CLUSTER_DIMENSION_KEY, "MyCluster")))
+                .setSink(_sink)
+                .setStart(START)
+                .setPeriod(Duration.ofMinutes(1))
+                .setSpecifiedCounterStatistics(ImmutableSet.of(MIN_STATISTIC))
+                .setSpecifiedGaugeStatistics(ImmutableSet.of(MEAN_STATISTIC))
+                .setSpecifiedTimerStatistics(ImmutableSet.of(MAX_STATISTIC))
+                .setDependentCounterStatistics(ImmutableSet.of())
+                .setDependentGaugeStatistics(ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC))
+                .setDependentTimerStatistics(ImmutableSet.of())
+                .setSpecifiedStatistics(_specifiedStatsCache)
+                .setDependentStatistics(_dependentStatsCache)
+                .setMaximumMetrics(1)
+                .build();
+        addData(bucket, "MyCounter", MetricType.COUNTER, THREE, 10);
+        addData(bucket, "MyOtherCounter", MetricType.COUNTER, TWO, 20);
+        addData(bucket, "MyThirdCounter", MetricType.COUNTER, ONE, 30);
+        addData(bucket, "MyCounter", MetricType.COUNTER, SIX, 40);
+        bucket.close();
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink).recordAggregateData(dataCaptor.capture());
+
+        // Metrics beyond the limit are aggregated together as the overflow metric
+        final ImmutableMultimap<String, AggregatedData> data = dataCaptor.getValue().getData();
+        Assert.assertEquals(ImmutableSet.of("MyCounter", Bucket.OVERFLOW_METRIC_NAME), data.keySet());
+        Assert.assertThat(
+                data.get(Bucket.OVERFLOW_METRIC_NAME),
+                Matchers.hasItem(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setPopulationSize(2L)
+                                .setStatistic(MIN_STATISTIC)
+                                .setValue(ONE)
+                                .build()));
+        Assert.assertThat(
+                data.get("MyCounter"),
+                Matchers.hasItem(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setPopulationSize(2L)
+                                .setStatistic(MIN_STATISTIC)
+                                .setValue(THREE)
+                                .build()));
+    }
+
+    @Test
+    public void testRecycle() {
+        addData("MyCounter", MetricType.COUNTER, THREE, 10);
+        addData("MyGauge", MetricType.GAUGE, TWO, 20);
+        _bucket.close();
+
+        final ZonedDateTime nextStart = START.plus(Duration.ofMinutes(1));
+        _bucket.recycle(nextStart);
+        Assert.assertTrue(_bucket.isOpen());
+        Assert.assertEquals(nextStart, _bucket.getStart());
+        addData("MyCounter", MetricType.COUNTER, ONE, 70);
+        _bucket.close();
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink, Mockito.times(2)).recordAggregateData(dataCaptor.capture());
+
+        // Only the samples of the following period are aggregated and the
+        // metrics without samples are not emitted
+        final PeriodicData periodicData = dataCaptor.getAllValues().get(1);
+        Assert.assertEquals(nextStart, periodicData.getStart());
+        final ImmutableMultimap<String, AggregatedData> data = periodicData.getData();
+        Assert.assertEquals(ImmutableSet.of("MyCounter"), data.keySet());
+        Assert.assertThat(
+                data.get("MyCounter"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(1L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(ONE)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setPopulationSize(1L)
+                                .setStatistic(MIN_STATISTIC)
+                                .setValue(ONE)
+                                .build()));
+    }
+
+    @Test
+    public void testSingleWriter() {
+        final Bucket firstBucket = createBucket(
+                START.plus(Duration.ofSeconds(10)),
+                Duration.ofSeconds(1),
+                ImmutableSet.of(MAX_STATISTIC),
+                true);
+        addData(firstBucket, "MyGauge", MetricType.GAUGE, TWO, 10);
+        addData(firstBucket, "MyGauge", MetricType.GAUGE, ONE, 10);
+        firstBucket.close();
+        final Bucket bucket = createBucket(START, Duration.ofMinutes(1), ImmutableSet.of(MAX_STATISTIC), true);
+        addData(bucket, "MyGauge", MetricType.GAUGE, THREE, 20);
+        bucket.rollup(firstBucket);
+        bucket.close();
+
+        // Additions after close are discarded
+        addData(bucket, "MyGauge", MetricType.GAUGE, THREE, 30);
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink, Mockito.times(2)).recordAggregateData(dataCaptor.capture());
+        Assert.assertThat(
+                dataCaptor.getAllValues().get(1).getData().get("MyGauge"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setStatistic(MEAN_STATISTIC)
+                                .setPopulationSize(3L)
+                                .setValue(TWO)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(SUM_STATISTIC)
+                                .setValue(SIX)
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(3L)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(THREE)
+                                .build()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRecycleOpen() {
+        _bucket.recycle(START.plus(Duration.ofMinutes(1)));
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        final int threadCount = 8;
+        final int samplesPerThread = 1000;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> threads = Lists.newArrayList();
+        for (int i = 0; i < threadCount; ++i) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (final InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int j = 0; j < samplesPerThread; ++j) {
+                    addData("MyGauge", MetricType.GAUGE, TWO, 10);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        startLatch.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        _bucket.close();
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(_sink).recordAggregateData(dataCaptor.capture());
+
+        final ImmutableMultimap<String, AggregatedData> data = dataCaptor.getValue().getData();
+        final long expectedCount = threadCount * samplesPerThread;
+        Assert.assertThat(
+                data.get("MyGauge"),
+                Matchers.containsInAnyOrder(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(expectedCount)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(new DefaultQuantity.Builder().setValue((double) expectedCount).build())
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize(expectedCount)
+                                .setStatistic(SUM_STATISTIC)
+                                .setValue(new DefaultQuantity.Builder().setValue(2.0 * expectedCount).build())
+                                .build(),
+                        new AggregatedData.Builder()
+                                .setIsSpecified(true)
+                                .setPopulationSize(expectedCount)
+                                .setStatistic(MEAN_STATISTIC)
+                                .setValue(TWO)
+                                .build()));
+    }
+
+    private Bucket createBucket(final ZonedDateTime start, final Duration period) {
+        return createBucket(start, period, ImmutableSet.of(MAX_STATISTIC));
+    }
+
+    private Bucket createBucket(
+            final ZonedDateTime start,
+            final Duration period,
+            final ImmutableSet<Statistic> timerStatistics) {
+        return createBucket(start, period, timerStatistics, false);
+    }
+
+    private Bucket createBucket(
+            final ZonedDateTime start,
+            final Duration period,
+            final ImmutableSet<Statistic> timerStatistics,
+            final boolean singleWriter) {
+        return new Bucket.Builder()
+                .setKey(new DefaultKey(
+                        ImmutableMap.of(
+                                Key.HOST_DIMENSION_KEY, "MyHost",
+                                Key.SERVICE_DIMENSION_KEY, "MyService",
+                                Key.CLUSTER_DIMENSION_KEY, "MyCluster")))
+                .setSink(_sink)
+                .setStart(start)
+                .setPeriod(period)
+                .setSpecifiedCounterStatistics(ImmutableSet.of(MIN_STATISTIC))
+                .setSpecifiedGaugeStatistics(ImmutableSet.of(MEAN_STATISTIC))
+                .setSpecifiedTimerStatistics(ImmutableSet.of(MAX_STATISTIC))
+                .setDependentCounterStatistics(ImmutableSet.of())
+                .setDependentGaugeStatistics(ImmutableSet.of(COUNT_STATISTIC, SUM_STATISTIC))
+                .setDependentTimerStatistics(ImmutableSet.of())
+                .setSpecifiedStatistics(_specifiedStatsCache)
+                .setDependentStatistics(_dependentStatsCache)
+                .setSingleWriter(singleWriter)
+                .build();
+    }
+
     private void addData(final String name, final MetricType type, final Quantity value, final long offset) {
-        _bucket.add(
+        addData(_bucket, name, type, value, offset);
+    }
+
+    private static void addData(
+            final Bucket bucket,
+            final String name,
+            final MetricType type,
+            final Quantity value,
+            final long offset) {
+        bucket.add(
                 new DefaultRecord.Builder()
                         .setTime(START.plus(Duration.ofSeconds(offset)))
                         .setDimensions(
@@ -276,6 +631,7 @@ public class BucketTest {
     private static final Statistic MIN_STATISTIC = STATISTIC_FACTORY.getStatistic("min");
     private static final Statistic MEAN_STATISTIC = STATISTIC_FACTORY.getStatistic("mean");
     private static final Statistic MAX_STATISTIC = STATISTIC_FACTORY.getStatistic("max");
+    private static final Statistic MEDIAN_STATISTIC = STATISTIC_FACTORY.getStatistic("median");
     private static final Statistic SUM_STATISTIC = STATISTIC_FACTORY.getStatistic("sum");
     private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
 
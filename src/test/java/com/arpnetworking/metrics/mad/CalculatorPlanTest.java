@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.metrics.mad.model.DefaultQuantity;
+import com.arpnetworking.tsdcore.statistics.Accumulator;
+import com.arpnetworking.tsdcore.statistics.Calculator;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for the <code>CalculatorPlan</code> class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class CalculatorPlanTest {
+
+    @Test
+    public void testShared() {
+        Assert.assertSame(
+                CalculatorPlan.of(ImmutableSet.of(MEAN_STATISTIC), ImmutableSet.of(SUM_STATISTIC, COUNT_STATISTIC)),
+                CalculatorPlan.of(ImmutableSet.of(MEAN_STATISTIC), ImmutableSet.of(SUM_STATISTIC, COUNT_STATISTIC)));
+    }
+
+    @Test
+    public void testDependencyOrder() {
+        final CalculatorPlan plan = CalculatorPlan.of(
+                ImmutableSet.of(MEAN_STATISTIC, COUNT_STATISTIC),
+                ImmutableSet.of(SUM_STATISTIC));
+
+        Assert.assertEquals(3, plan.size());
+        Assert.assertEquals(COUNT_STATISTIC, plan.getStatistic(0));
+        Assert.assertTrue(plan.isPublished(0));
+        Assert.assertEquals(SUM_STATISTIC, plan.getStatistic(1));
+        Assert.assertFalse(plan.isPublished(1));
+        Assert.assertEquals(MEAN_STATISTIC, plan.getStatistic(2));
+        Assert.assertTrue(plan.isPublished(2));
+    }
+
+    @Test
+    public void testCountAlwaysPresent() {
+        final CalculatorPlan plan = CalculatorPlan.of(ImmutableSet.of(MAX_STATISTIC), ImmutableSet.of());
+
+        Assert.assertEquals(2, plan.size());
+        Assert.assertEquals(COUNT_STATISTIC, plan.getStatistic(0));
+        Assert.assertFalse(plan.isPublished(0));
+        Assert.assertEquals(MAX_STATISTIC, plan.getStatistic(1));
+        Assert.assertTrue(plan.isPublished(1));
+    }
+
+    @Test
+    public void testCreateCalculators() {
+        final CalculatorPlan plan = CalculatorPlan.of(ImmutableSet.of(MAX_STATISTIC), ImmutableSet.of());
+        final Calculator<?>[] calculators = plan.createCalculators();
+
+        Assert.assertEquals(plan.size(), calculators.length);
+        for (int i = 0; i < calculators.length; ++i) {
+            Assert.assertEquals(plan.getStatistic(i), calculators[i].getStatistic());
+        }
+        Assert.assertNotSame(calculators[0], plan.createCalculators()[0]);
+    }
+
+    @Test
+    public void testPercentiles() {
+        final CalculatorPlan plan = CalculatorPlan.of(
+                ImmutableSet.of(TP99_STATISTIC, MEDIAN_STATISTIC),
+                ImmutableSet.of(HISTOGRAM_STATISTIC));
+        final Calculator<?>[] calculators = plan.createCalculators();
+        final Map<Statistic, Calculator<?>> dependencies = Maps.newHashMap();
+        for (int i = 0; i < calculators.length; ++i) {
+            dependencies.put(plan.getStatistic(i), calculators[i]);
+        }
+        final Accumulator<?> histogram = (Accumulator<?>) dependencies.get(HISTOGRAM_STATISTIC);
+        for (int i = 1; i <= 100; ++i) {
+            histogram.accumulate(new DefaultQuantity.Builder().setValue((double) i).build());
+        }
+
+        // The plan's calculators share the percentiles of the plan and
+        // agree with calculators deriving them from the dependencies
+        for (final Statistic statistic : ImmutableSet.of(MEDIAN_STATISTIC, TP99_STATISTIC)) {
+            Assert.assertEquals(
+                    statistic.createCalculator().calculate(dependencies).getValue(),
+                    dependencies.get(statistic).calculate(dependencies).getValue());
+        }
+    }
+
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic MAX_STATISTIC = STATISTIC_FACTORY.getStatistic("max");
+    private static final Statistic MEAN_STATISTIC = STATISTIC_FACTORY.getStatistic("mean");
+    private static final Statistic SUM_STATISTIC = STATISTIC_FACTORY.getStatistic("sum");
+    private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    private static final Statistic HISTOGRAM_STATISTIC = STATISTIC_FACTORY.getStatistic("histogram");
+    private static final Statistic MEDIAN_STATISTIC = STATISTIC_FACTORY.getStatistic("median");
+    private static final Statistic TP99_STATISTIC = STATISTIC_FACTORY.getStatistic("tp99");
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the <code>KeyInterner</code> class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class KeyInternerTest {
+
+    @Test
+    public void testIntern() {
+        final KeyInterner keyInterner = new KeyInterner();
+        final Key key = keyInterner.intern(ImmutableMap.of(
+                Key.SERVICE_DIMENSION_KEY, "MyService",
+                Key.HOST_DIMENSION_KEY, "MyHost"));
+        // Equal dimensions in a different order map to the same instance
+        Assert.assertSame(key, keyInterner.intern(ImmutableMap.of(
+                Key.HOST_DIMENSION_KEY, "MyHost",
+                Key.SERVICE_DIMENSION_KEY, "MyService")));
+        Assert.assertNotSame(key, keyInterner.intern(ImmutableMap.of(
+                Key.SERVICE_DIMENSION_KEY, "MyService",
+                Key.HOST_DIMENSION_KEY, "MyOtherHost")));
+        Assert.assertEquals(2, keyInterner.size());
+    }
+
+    @Test
+    public void testRelease() {
+        final KeyInterner keyInterner = new KeyInterner();
+        final ImmutableMap<String, String> dimensions = ImmutableMap.of(Key.SERVICE_DIMENSION_KEY, "MyService");
+        final Key key = keyInterner.intern(dimensions);
+
+        // A key equal to the canonical instance releases it
+        keyInterner.release(new DefaultKey(dimensions));
+        Assert.assertEquals(0, keyInterner.size());
+
+        final Key internedKey = keyInterner.intern(dimensions);
+        Assert.assertNotSame(key, internedKey);
+        Assert.assertEquals(key, internedKey);
+        Assert.assertEquals(key.hashCode(), internedKey.hashCode());
+    }
+
+    @Test
+    public void testAdmit() {
+        final KeyInterner keyInterner = new KeyInterner();
+        final ImmutableMap<String, String> dimensions = ImmutableMap.of(Key.SERVICE_DIMENSION_KEY, "MyService");
+        final Key key = keyInterner.intern(dimensions);
+        keyInterner.release(key);
+
+        // A released key is canonical again once admitted
+        Assert.assertSame(key, keyInterner.admit(key));
+        Assert.assertSame(key, keyInterner.intern(dimensions));
+
+        // Unless its dimensions were interned again since
+        keyInterner.release(key);
+        final Key internedKey = keyInterner.intern(dimensions);
+        Assert.assertSame(internedKey, keyInterner.admit(key));
+        Assert.assertEquals(1, keyInterner.size());
+    }
+}
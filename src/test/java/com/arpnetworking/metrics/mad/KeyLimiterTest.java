@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Tests for the <code>KeyLimiter</code> class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class KeyLimiterTest {
+
+    @Test
+    public void testLimit() {
+        final OverflowCounter overflowCounter = new OverflowCounter();
+        final KeyLimiter keyLimiter = new KeyLimiter(2, overflowCounter);
+        final Key first = createKey("MyService", "host1");
+        final Key second = createKey("MyService", "host2");
+        final Key third = createKey("MyService", "host3");
+        final Key other = createKey("MyOtherService", "host3");
+
+        Assert.assertSame(first, keyLimiter.limit(first));
+        Assert.assertSame(second, keyLimiter.limit(second));
+        Assert.assertSame(first, keyLimiter.limit(first));
+        Assert.assertSame(other, keyLimiter.limit(other));
+
+        final Key overflowKey = keyLimiter.limit(third);
+        Assert.assertEquals(
+                new DefaultKey(ImmutableMap.of(
+                        Key.CLUSTER_DIMENSION_KEY, "MyCluster",
+                        Key.SERVICE_DIMENSION_KEY, "MyService",
+                        KeyLimiter.OVERFLOW_DIMENSION_KEY, "true")),
+                overflowKey);
+        Assert.assertSame(overflowKey, keyLimiter.limit(overflowKey));
+
+        final PeriodicMetrics periodicMetrics = Mockito.mock(PeriodicMetrics.class);
+        overflowCounter.record(periodicMetrics, "key_overflow", "key_overflow/");
+        Mockito.verify(periodicMetrics).recordCounter("key_overflow", 1L);
+        Mockito.verify(periodicMetrics).recordCounter("key_overflow/MyService", 1L);
+    }
+
+    @Test
+    public void testRelease() {
+        final KeyLimiter keyLimiter = new KeyLimiter(1, new OverflowCounter());
+        final Key first = createKey("MyService", "host1");
+        final Key second = createKey("MyService", "host2");
+
+        Assert.assertSame(first, keyLimiter.limit(first));
+        Assert.assertNotEquals(second, keyLimiter.limit(second));
+
+        keyLimiter.release(first);
+        Assert.assertSame(second, keyLimiter.limit(second));
+    }
+
+    private static Key createKey(final String service, final String host) {
+        return new DefaultKey(ImmutableMap.of(
+                Key.CLUSTER_DIMENSION_KEY, "MyCluster",
+                Key.SERVICE_DIMENSION_KEY, service,
+                Key.HOST_DIMENSION_KEY, host));
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.arpnetworking.metrics.mad.model.DefaultMetric;
+import com.arpnetworking.metrics.mad.model.DefaultQuantity;
+import com.arpnetworking.metrics.mad.model.MetricType;
+import com.arpnetworking.metrics.mad.model.Quantity;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.test.TestBeanFactory;
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.DefaultKey;
+import com.arpnetworking.tsdcore.model.Key;
+import com.arpnetworking.tsdcore.model.PeriodicData;
+import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.StatisticFactory;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for the <code>PeriodWorkerShard</code> class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class PeriodWorkerShardTest {
+
+    @Test
+    public void testRecordInFlightDuringEviction() {
+        final KeyInterner keyInterner = new KeyInterner();
+        final KeyLimiter keyLimiter = new KeyLimiter(1, new OverflowCounter());
+        final PeriodWorkerShard shard = createShard(keyInterner, keyLimiter);
+
+        // Two records of the key are limited; the shard evicts the key
+        // between processing them
+        final Key key = keyLimiter.limit(keyInterner.intern(DIMENSIONS));
+        final Key inFlightKey = keyLimiter.limit(keyInterner.intern(DIMENSIONS));
+        shard.process(new PeriodWorkerShard.PendingRecord(key, RECORD));
+        shard.evict(System.currentTimeMillis() + 1, Duration.ZERO);
+        Assert.assertEquals(0, keyInterner.size());
+        Assert.assertEquals(0, keyLimiter.getKeyCount("MyService"));
+
+        // The in flight record recreates the workers and admits its key again
+        shard.process(new PeriodWorkerShard.PendingRecord(inFlightKey, RECORD));
+        Assert.assertEquals(1, keyInterner.size());
+        Assert.assertEquals(1, keyLimiter.getKeyCount("MyService"));
+        final Key shardKey = shard.getPeriodWorkers().keySet().iterator().next();
+        Assert.assertSame(shardKey, keyInterner.intern(DIMENSIONS));
+        final Key otherKey = keyInterner.intern(ImmutableMap.of(
+                Key.SERVICE_DIMENSION_KEY, "MyService",
+                Key.HOST_DIMENSION_KEY, "host2"));
+        Assert.assertTrue(KeyLimiter.isOverflowKey(keyLimiter.limit(otherKey)));
+    }
+
+    @Test
+    public void testRecordInFlightAfterReinterning() {
+        final KeyInterner keyInterner = new KeyInterner();
+        final KeyLimiter keyLimiter = new KeyLimiter(10, new OverflowCounter());
+        final PeriodWorkerShard shard = createShard(keyInterner, keyLimiter);
+
+        final Key key = keyLimiter.limit(keyInterner.intern(DIMENSIONS));
+        shard.process(new PeriodWorkerShard.PendingRecord(key, RECORD));
+        shard.evict(System.currentTimeMillis() + 1, Duration.ZERO);
+
+        // A record is keyed under a new instance before an in flight record
+        // of the released instance recreates the workers
+        final Key reinternedKey = keyLimiter.limit(keyInterner.intern(DIMENSIONS));
+        Assert.assertNotSame(key, reinternedKey);
+        shard.process(new PeriodWorkerShard.PendingRecord(key, RECORD));
+        shard.process(new PeriodWorkerShard.PendingRecord(reinternedKey, RECORD));
+        Assert.assertEquals(1, shard.getPeriodWorkers().size());
+        Assert.assertSame(reinternedKey, shard.getPeriodWorkers().keySet().iterator().next());
+        Assert.assertEquals(1, keyLimiter.getKeyCount("MyService"));
+    }
+
+    @Test
+    public void testConcurrentEvictionAndRecord() throws InterruptedException {
+        final KeyInterner keyInterner = new KeyInterner();
+        final KeyLimiter keyLimiter = new KeyLimiter(Integer.MAX_VALUE, new OverflowCounter());
+        // The workers of a key hold no buckets so every key is evicted on each eviction
+        final PeriodWorkerShard shard = new PeriodWorkerShard.Builder()
+                .setPeriodWorkersFactory(key -> ImmutableList.of())
+                .setKeyAdmitter(key -> admitKey(keyInterner, keyLimiter, key))
+                .setEvictionListener(key -> {
+                    keyInterner.release(key);
+                    keyLimiter.release(key);
+                })
+                .setIdleKeyTimeout(Duration.ofMillis(1))
+                .build();
+        final ExecutorService executor = Executors.newFixedThreadPool(RECORDING_THREADS + 1);
+        executor.execute(shard);
+
+        final AtomicBoolean isRecording = new AtomicBoolean(true);
+        final CountDownLatch recordingLatch = new CountDownLatch(RECORDING_THREADS);
+        for (int i = 0; i < RECORDING_THREADS; ++i) {
+            executor.execute(() -> {
+                int j = 0;
+                while (isRecording.get()) {
+                    final ImmutableMap<String, String> dimensions = ImmutableMap.of(
+                            Key.SERVICE_DIMENSION_KEY, "MyService",
+                            Key.HOST_DIMENSION_KEY, "host" + (j++ % KEY_COUNT));
+                    shard.record(keyLimiter.limit(keyInterner.intern(dimensions)), RECORD);
+                }
+                recordingLatch.countDown();
+            });
+        }
+
+        // Span several evictions
+        Thread.sleep(2500);
+        isRecording.set(false);
+        Assert.assertTrue(recordingLatch.await(10, TimeUnit.SECONDS));
+        while (shard.getQueueSize() > 0) {
+            Thread.sleep(10);
+        }
+        shard.shutdown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Every key the shard holds is the interned and counted instance
+        for (final Map.Entry<Key, ?> entry : shard.getPeriodWorkers().entrySet()) {
+            Assert.assertSame(entry.getKey(), keyInterner.intern(entry.getKey().getParameters()));
+        }
+        Assert.assertEquals(shard.getPeriodWorkers().size(), keyInterner.size());
+        Assert.assertEquals(shard.getPeriodWorkers().size(), keyLimiter.getKeyCount("MyService"));
+    }
+
+    @Test
+    public void testShutdownProcessesQueuedRecords() throws IOException {
+        final Sink sink = Mockito.mock(Sink.class);
+        final PeriodWorkerShard shard = new PeriodWorkerShard.Builder()
+                .setPeriodWorkersFactory(key -> ImmutableList.of(createPeriodWorker(key, sink)))
+                .build();
+
+        // The shard is stopped before it runs so every record is still queued
+        final Key key = new DefaultKey(DIMENSIONS);
+        final ZonedDateTime time = ZonedDateTime.now(ZoneOffset.UTC).minus(Duration.ofSeconds(10));
+        for (int i = 0; i < QUEUED_RECORDS; ++i) {
+            shard.record(
+                    key,
+                    TestBeanFactory.createRecordBuilder()
+                            .setTime(time)
+                            .setDimensions(DIMENSIONS)
+                            .setMetrics(ImmutableMap.of(
+                                    "MyCounter",
+                                    new DefaultMetric.Builder()
+                                            .setType(MetricType.COUNTER)
+                                            .setValues(ImmutableList.of(ONE))
+                                            .build()))
+                            .build());
+        }
+        shard.shutdown();
+        shard.run();
+        Assert.assertEquals(0, shard.getQueueSize());
+
+        // The snapshot of the stopped shard includes the queued records
+        final File snapshotFile = Files.createTempFile("shard", ".snapshot").toFile();
+        try {
+            Assert.assertEquals(1, SnapshotFile.write(snapshotFile, shard.getPeriodWorkers().entrySet()));
+            final PeriodWorker restoredPeriodWorker = createPeriodWorker(key, sink);
+            Assert.assertEquals(
+                    1,
+                    SnapshotFile.read(
+                            snapshotFile,
+                            (restoredKey, period, startMillis, in) -> {
+                                restoredPeriodWorker.restore(startMillis, in);
+                                return true;
+                            }));
+            restoredPeriodWorker.rotate(System.currentTimeMillis() + Duration.ofMinutes(1).toMillis());
+        } finally {
+            Files.deleteIfExists(snapshotFile.toPath());
+        }
+
+        final ArgumentCaptor<PeriodicData> dataCaptor = ArgumentCaptor.forClass(PeriodicData.class);
+        Mockito.verify(sink).recordAggregateData(dataCaptor.capture());
+        Assert.assertThat(
+                dataCaptor.getValue().getData().get("MyCounter"),
+                Matchers.hasItem(
+                        new AggregatedData.Builder()
+                                .setIsSpecified(false)
+                                .setPopulationSize((long) QUEUED_RECORDS)
+                                .setStatistic(COUNT_STATISTIC)
+                                .setValue(new DefaultQuantity.Builder().setValue((double) QUEUED_RECORDS).build())
+                                .build()));
+    }
+
+    private static PeriodWorker createPeriodWorker(final Key key, final Sink sink) {
+        final LoadingCache<String, Optional<ImmutableSet<Statistic>>> absentStatistics = CacheBuilder.newBuilder()
+                .build(CacheLoader.<String, Optional<ImmutableSet<Statistic>>>from(name -> Optional.empty()));
+        return new PeriodWorker.Builder()
+                .setPeriod(Duration.ofSeconds(1))
+                .setBucketBuilder(
+                        new Bucket.Builder()
+                                .setKey(key)
+                                .setSink(sink)
+                                .setPeriod(Duration.ofSeconds(1))
+                                .setSpecifiedCounterStatistics(ImmutableSet.of(MAX_STATISTIC))
+                                .setSpecifiedGaugeStatistics(ImmutableSet.of(MAX_STATISTIC))
+                                .setSpecifiedTimerStatistics(ImmutableSet.of(MAX_STATISTIC))
+                                .setDependentCounterStatistics(ImmutableSet.of())
+                                .setDependentGaugeStatistics(ImmutableSet.of())
+                                .setDependentTimerStatistics(ImmutableSet.of())
+                                .setSpecifiedStatistics(absentStatistics)
+                                .setDependentStatistics(absentStatistics))
+                .build();
+    }
+
+    private static PeriodWorkerShard createShard(final KeyInterner keyInterner, final KeyLimiter keyLimiter) {
+        return new PeriodWorkerShard.Builder()
+                .setPeriodWorkersFactory(key -> ImmutableList.of())
+                .setKeyAdmitter(key -> admitKey(keyInterner, keyLimiter, key))
+                .setEvictionListener(key -> {
+                    keyInterner.release(key);
+                    keyLimiter.release(key);
+                })
+                .build();
+    }
+
+    private static Key admitKey(final KeyInterner keyInterner, final KeyLimiter keyLimiter, final Key key) {
+        final Key admittedKey = keyInterner.admit(key);
+        keyLimiter.admit(admittedKey);
+        return admittedKey;
+    }
+
+    private static final ImmutableMap<String, String> DIMENSIONS = ImmutableMap.of(
+            Key.SERVICE_DIMENSION_KEY, "MyService",
+            Key.HOST_DIMENSION_KEY, "host1");
+    private static final Record RECORD = TestBeanFactory.createRecordBuilder().build();
+    private static final Quantity ONE = new DefaultQuantity.Builder().setValue(1.0).build();
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+    private static final Statistic MAX_STATISTIC = STATISTIC_FACTORY.getStatistic("max");
+    private static final Statistic COUNT_STATISTIC = STATISTIC_FACTORY.getStatistic("count");
+    private static final int QUEUED_RECORDS = 1000;
+    private static final int RECORDING_THREADS = 4;
+    private static final int KEY_COUNT = 100;
+}
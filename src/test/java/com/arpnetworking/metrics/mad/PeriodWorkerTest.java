@@ -103,6 +103,26 @@ public class PeriodWorkerTest {
                 PeriodWorker.getStartTime(createDateTime(13, 59, 59, 999), Duration.ofHours(1)));
     }
 
+    @Test
+    public void testGetStartMillis() {
+        Assert.assertEquals(7000L, PeriodWorker.getStartMillis(7999L, 1000L));
+        Assert.assertEquals(60000L, PeriodWorker.getStartMillis(60000L, 60000L));
+        Assert.assertEquals(-1000L, PeriodWorker.getStartMillis(-1L, 1000L));
+    }
+
+    @Test
+    public void testGetRotateAtMillis() {
+        Assert.assertEquals(1100L, PeriodWorker.getRotateAtMillis(1000L));
+        Assert.assertEquals(1100L, PeriodWorker.getRotateAtMillis(1099L));
+    }
+
+    @Test
+    public void testGetWheelTickMillis() {
+        Assert.assertEquals(100L, PeriodWorker.getWheelTickMillis(1000L, 1000L));
+        Assert.assertEquals(1407L, PeriodWorker.getWheelTickMillis(60000L, 30000L));
+        Assert.assertEquals(65625L, PeriodWorker.getWheelTickMillis(3600000L, 600000L));
+    }
+
     @Test
     public void testGetPeriodTimeout() {
         Assert.assertEquals(Duration.ofMillis(1000), PeriodWorker.getPeriodTimeout(Duration.ofMillis(500)));
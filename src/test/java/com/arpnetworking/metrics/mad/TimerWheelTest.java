@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad;
+
+import com.google.common.collect.Lists;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Tests for the <code>TimerWheel</code> class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class TimerWheelTest {
+
+    @Test
+    public void testExpire() {
+        final TimerWheel<String> timerWheel = new TimerWheel<>(100, 8, START);
+        timerWheel.schedule(START + 150, "a");
+        timerWheel.schedule(START + 250, "b");
+        timerWheel.schedule(START + 299, "c");
+        Assert.assertEquals(3, timerWheel.size());
+
+        Assert.assertThat(expire(timerWheel, START + 100), Matchers.empty());
+        Assert.assertThat(expire(timerWheel, START + 150), Matchers.contains("a"));
+        Assert.assertThat(expire(timerWheel, START + 260), Matchers.contains("b"));
+        Assert.assertThat(expire(timerWheel, START + 300), Matchers.contains("c"));
+        Assert.assertEquals(0, timerWheel.size());
+    }
+
+    @Test
+    public void testExpireAfterRevolutions() {
+        // The wheel spans 800 milliseconds
+        final TimerWheel<String> timerWheel = new TimerWheel<>(100, 8, START);
+        timerWheel.schedule(START + 150, "a");
+        timerWheel.schedule(START + 950, "b");
+        timerWheel.schedule(START + 2550, "c");
+
+        Assert.assertThat(expire(timerWheel, START + 900), Matchers.contains("a"));
+        Assert.assertThat(expire(timerWheel, START + 2000), Matchers.contains("b"));
+        Assert.assertThat(expire(timerWheel, START + 2500), Matchers.empty());
+        Assert.assertThat(expire(timerWheel, START + 10000), Matchers.contains("c"));
+    }
+
+    @Test
+    public void testScheduleInPast() {
+        final TimerWheel<String> timerWheel = new TimerWheel<>(100, 8, START);
+        Assert.assertThat(expire(timerWheel, START + 500), Matchers.empty());
+        timerWheel.schedule(START + 100, "a");
+        Assert.assertThat(expire(timerWheel, START + 500), Matchers.contains("a"));
+    }
+
+    @Test
+    public void testExpireSameSlot() {
+        final TimerWheel<String> timerWheel = new TimerWheel<>(100, 8, START);
+        timerWheel.schedule(START + 110, "a");
+        timerWheel.schedule(START + 120, "b");
+        timerWheel.schedule(START + 130, "c");
+        timerWheel.schedule(START + 930, "d");
+
+        Assert.assertThat(expire(timerWheel, START + 120), Matchers.containsInAnyOrder("a", "b"));
+        Assert.assertThat(expire(timerWheel, START + 150), Matchers.contains("c"));
+        Assert.assertEquals(1, timerWheel.size());
+    }
+
+    @Test
+    public void testSlotsAllocatedOnDemand() {
+        final TimerWheel<String> timerWheel = new TimerWheel<>(100, 8, START);
+        Assert.assertEquals(0, timerWheel.getAllocatedSlotCount());
+        timerWheel.schedule(START + 110, "a");
+        timerWheel.schedule(START + 120, "b");
+        timerWheel.schedule(START + 530, "c");
+        Assert.assertEquals(2, timerWheel.getAllocatedSlotCount());
+
+        Assert.assertThat(expire(timerWheel, START + 200), Matchers.containsInAnyOrder("a", "b"));
+        Assert.assertEquals(1, timerWheel.getAllocatedSlotCount());
+        Assert.assertThat(expire(timerWheel, START + 600), Matchers.contains("c"));
+        Assert.assertEquals(0, timerWheel.getAllocatedSlotCount());
+    }
+
+    @Test
+    public void testMemoryAtHighKeyCounts() {
+        // A wheel is created for each period of each key; at 50,000 keys
+        // with a second and a minute period each wheel must only retain its
+        // small slot array and the slots of its open buckets
+        final int keyCount = 50000;
+        final Duration[] periods = {Duration.ofSeconds(1), Duration.ofMinutes(1)};
+        final List<TimerWheel<String>> timerWheels = Lists.newArrayListWithCapacity(keyCount * periods.length);
+        long retainedSlots = 0;
+        for (int i = 0; i < keyCount; ++i) {
+            for (final Duration period : periods) {
+                final long periodMillis = period.toMillis();
+                final long timeoutMillis = PeriodWorker.getPeriodTimeout(period).toMillis();
+                final TimerWheel<String> timerWheel = new TimerWheel<>(
+                        PeriodWorker.getWheelTickMillis(periodMillis, timeoutMillis),
+                        PeriodWorker.WHEEL_SLOT_COUNT,
+                        START);
+                // The current and the previous bucket are open
+                timerWheel.schedule(START + timeoutMillis, "previous");
+                timerWheel.schedule(START + periodMillis + timeoutMillis, "current");
+                Assert.assertEquals(PeriodWorker.WHEEL_SLOT_COUNT, timerWheel.getSlotCount());
+                retainedSlots += timerWheel.getAllocatedSlotCount();
+                timerWheels.add(timerWheel);
+            }
+        }
+        Assert.assertThat(retainedSlots, Matchers.lessThanOrEqualTo(2L * timerWheels.size()));
+
+        // Once the buckets expire no slots are retained
+        for (final TimerWheel<String> timerWheel : timerWheels) {
+            Assert.assertThat(expire(timerWheel, START + Duration.ofMinutes(2).toMillis()), Matchers.hasSize(2));
+            Assert.assertEquals(0, timerWheel.getAllocatedSlotCount());
+        }
+    }
+
+    private static List<String> expire(final TimerWheel<String> timerWheel, final long nowMillis) {
+        final List<String> expired = Lists.newArrayList();
+        timerWheel.expire(nowMillis, expired);
+        return expired;
+    }
+
+    private static final long START = 1423094400000L;
+}
@@ -36,6 +36,18 @@ public class QuantityTest {
         Assert.assertEquals(expectedValue, sample.getValue(), 0.001);
         Assert.assertTrue(sample.getUnit().isPresent());
         Assert.assertEquals(expectedUnit, sample.getUnit().get());
+        Assert.assertEquals(1, sample.getWeight());
+    }
+
+    @Test
+    public void testWeight() {
+        final Quantity sample = new DefaultQuantity.Builder()
+                .setValue(1.23d)
+                .setWeight(5L)
+                .build();
+        Assert.assertEquals(5, sample.getWeight());
+        Assert.assertEquals(5, new DefaultQuantity.Builder((DefaultQuantity) sample).build().getWeight());
+        Assert.assertFalse(sample.equals(new DefaultQuantity.Builder().setValue(1.23d).build()));
     }
 
     @Test
@@ -222,6 +234,30 @@ public class QuantityTest {
         quantity1.add(quantity2);
     }
 
+    @Test(expected = IllegalStateException.class)
+    public void testAddWeightedQuantity() {
+        final Quantity quantity1 = new DefaultQuantity.Builder()
+                .setValue(5.0)
+                .build();
+        final DefaultQuantity quantity2 = new DefaultQuantity.Builder()
+                .setValue(10.0)
+                .setWeight(3L)
+                .build();
+        quantity1.add(quantity2);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDivideWeightedQuantity() {
+        final Quantity quantity1 = new DefaultQuantity.Builder()
+                .setValue(5.0)
+                .setWeight(3L)
+                .build();
+        final DefaultQuantity quantity2 = new DefaultQuantity.Builder()
+                .setValue(10.0)
+                .build();
+        quantity1.divide(quantity2);
+    }
+
     @Test
     public void testSubQuantities() {
         final Quantity quantity1 = new DefaultQuantity.Builder()
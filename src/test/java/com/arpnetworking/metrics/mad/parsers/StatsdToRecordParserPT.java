@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.mad.parsers;
+
+import com.arpnetworking.metrics.common.parsers.Parser;
+import com.arpnetworking.metrics.common.parsers.exceptions.ParsingException;
+import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.test.junitbenchmarks.JsonBenchmarkConsumer;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.google.common.base.Charsets;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Perf tests of parsing statsd datagrams with the byte level
+ * <code>StatsdToRecordParser</code> against the regular expression based
+ * parser it replaced.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+@RunWith(Parameterized.class)
+@BenchmarkOptions(callgc = true, benchmarkRounds = 3, warmupRounds = 1)
+public class StatsdToRecordParserPT {
+
+    public StatsdToRecordParserPT(final String name, final Parser<List<Record>, ByteBuffer> parser) {
+        _name = name;
+        _parser = parser;
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        JSON_BENCHMARK_CONSUMER.prepareClass();
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> createParameters() {
+        return ImmutableList.of(
+                new Object[]{"regex", new RegexStatsdToRecordParser()},
+                new Object[]{"scanner", new StatsdToRecordParser()});
+    }
+
+    @Test
+    public void test() throws ParsingException {
+        final List<byte[]> datagrams = ImmutableList.of(
+                "page.views:1|c".getBytes(Charsets.UTF_8),
+                "fuel.level:0.5|g".getBytes(Charsets.UTF_8),
+                "request.latency:12.75|ms".getBytes(Charsets.UTF_8),
+                "request.latency:320|ms|@1|#endpoint:/v1/status,region:us-east".getBytes(Charsets.UTF_8),
+                "users.online,service=statsd,region=us-west:42|g".getBytes(Charsets.UTF_8),
+                "page.views:1|c\nfuel.level:0.25|g\nrequest.latency:3|ms".getBytes(Charsets.UTF_8));
+
+        long recordCount = 0;
+        final Stopwatch timer = Stopwatch.createStarted();
+        for (int i = 0; i < DATAGRAM_COUNT; ++i) {
+            recordCount += _parser.parse(ByteBuffer.wrap(datagrams.get(i % datagrams.size()))).size();
+        }
+        timer.stop();
+
+        Assert.assertTrue(recordCount >= DATAGRAM_COUNT);
+        LOGGER.info(String.format(
+                "Statsd parser result; parser=%s, datagrams=%d, records=%d, millis=%d, datagramsPerSecond=%d",
+                _name,
+                DATAGRAM_COUNT,
+                recordCount,
+                timer.elapsed(TimeUnit.MILLISECONDS),
+                DATAGRAM_COUNT * 1000L / Math.max(1, timer.elapsed(TimeUnit.MILLISECONDS))));
+    }
+
+    private final String _name;
+    private final Parser<List<Record>, ByteBuffer> _parser;
+
+    @Rule
+    public final TestRule _benchmarkRule = new BenchmarkRule(JSON_BENCHMARK_CONSUMER);
+
+    private static final JsonBenchmarkConsumer JSON_BENCHMARK_CONSUMER = new JsonBenchmarkConsumer(
+            Paths.get("target/site/perf/benchmark-statsd-parser.json"));
+
+    private static final int DATAGRAM_COUNT = 2000000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatsdToRecordParserPT.class);
+}
@@ -20,11 +20,15 @@ import com.arpnetworking.metrics.common.parsers.exceptions.ParsingException;
 import com.arpnetworking.metrics.mad.model.DefaultMetric;
 import com.arpnetworking.metrics.mad.model.DefaultQuantity;
 import com.arpnetworking.metrics.mad.model.DefaultRecord;
+import com.arpnetworking.metrics.mad.model.Metric;
 import com.arpnetworking.metrics.mad.model.MetricType;
+import com.arpnetworking.metrics.mad.model.Quantity;
 import com.arpnetworking.metrics.mad.model.Record;
+import com.arpnetworking.metrics.mad.model.Unit;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Iterables;
 import org.junit.Assert;
 import org.junit.Before;
@@ -39,8 +43,10 @@ import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
+import javax.annotation.Nullable;
 
 /**
  * Tests for the statsd parser.
@@ -101,8 +107,7 @@ public final class StatsdToRecordParserTest {
     }
 
     @Test
-    public void testExampleSamplingAccept() throws ParsingException {
-        Mockito.doReturn(0.49).when(_random).nextDouble();
+    public void testExampleSamplingWeight() throws ParsingException {
         assertRecordEquality(
                 new DefaultRecord.Builder()
                         .setTime(_now)
@@ -116,6 +121,7 @@ public final class StatsdToRecordParserTest {
                                         .setValues(ImmutableList.of(
                                                 new DefaultQuantity.Builder()
                                                         .setValue(240.0)
+                                                        .setWeight(2L)
                                                         .build()))
                                         .build()
                         ))
@@ -125,14 +131,68 @@ public final class StatsdToRecordParserTest {
     }
 
     @Test
-    public void testExampleSamplingReject() throws ParsingException {
-        Mockito.doReturn(0.51).when(_random).nextDouble();
-        Assert.assertTrue(_parser.parse(ByteBuffer.wrap("song.length:240|h|@0.5".getBytes(Charsets.UTF_8))).isEmpty());
+    public void testExampleSamplingFractionalWeight() throws ParsingException {
+        // A weight of 3.33 rounds up when the draw is at least 0.67
+        Mockito.doReturn(0.66).when(_random).nextDouble();
+        Assert.assertEquals(
+                3L,
+                Iterables.getOnlyElement(Iterables.getOnlyElement(
+                        _parser.parse(ByteBuffer.wrap("song.length:240|h|@0.3".getBytes(Charsets.UTF_8))))
+                        .getMetrics().get("song.length").getValues()).getWeight());
+        Mockito.doReturn(0.67).when(_random).nextDouble();
+        Assert.assertEquals(
+                4L,
+                Iterables.getOnlyElement(Iterables.getOnlyElement(
+                        _parser.parse(ByteBuffer.wrap("song.length:240|h|@0.3".getBytes(Charsets.UTF_8))))
+                        .getMetrics().get("song.length").getValues()).getWeight());
+        // A weight of 1.67 rounds up when the draw is at least 0.34
+        Mockito.doReturn(0.33).when(_random).nextDouble();
+        Assert.assertEquals(
+                1L,
+                Iterables.getOnlyElement(Iterables.getOnlyElement(
+                        _parser.parse(ByteBuffer.wrap("song.length:240|h|@0.6".getBytes(Charsets.UTF_8))))
+                        .getMetrics().get("song.length").getValues()).getWeight());
+        Mockito.doReturn(0.34).when(_random).nextDouble();
+        Assert.assertEquals(
+                2L,
+                Iterables.getOnlyElement(Iterables.getOnlyElement(
+                        _parser.parse(ByteBuffer.wrap("song.length:240|h|@0.6".getBytes(Charsets.UTF_8))))
+                        .getMetrics().get("song.length").getValues()).getWeight());
+        // The fractions of repeated lines are summed before rounding
+        Mockito.doReturn(0.99).when(_random).nextDouble();
+        Assert.assertEquals(
+                10L,
+                Iterables.getOnlyElement(Iterables.getOnlyElement(
+                        _parser.parse(ByteBuffer.wrap(
+                                "song.length:240|h|@0.3\nsong.length:240|h|@0.3\nsong.length:240|h|@0.3"
+                                        .getBytes(Charsets.UTF_8))))
+                        .getMetrics().get("song.length").getValues()).getWeight());
+    }
+
+    @Test
+    public void testFractionalWeightsOfDistinctValues() throws ParsingException {
+        // Each sample is weighted by the rounded running total less the
+        // weights of the preceding samples
+        Mockito.doReturn(0.5).when(_random).nextDouble();
+        final Record record = Iterables.getOnlyElement(_parser.parse(ByteBuffer.wrap(
+                "t:1|ms|@0.3\nt:2|ms|@0.3\nt:3|ms|@0.3".getBytes(Charsets.UTF_8))));
+        Assert.assertEquals(
+                ImmutableList.of(
+                        new DefaultQuantity.Builder().setValue(1.0).setUnit(Unit.MILLISECOND).setWeight(3L).build(),
+                        new DefaultQuantity.Builder().setValue(2.0).setUnit(Unit.MILLISECOND).setWeight(4L).build(),
+                        new DefaultQuantity.Builder().setValue(3.0).setUnit(Unit.MILLISECOND).setWeight(3L).build()),
+                record.getMetrics().get("t").getValues());
+    }
+
+    @Test
+    public void testSampledWeightsUnbiased() throws ParsingException {
+        assertTotalWeight("hits:1|c|@0.7", 0.7);
+        assertTotalWeight("hits:1|c|@0.6", 0.6);
+        assertTotalWeight("hits:1|c|@0.3", 0.3);
     }
 
     @Test
     public void testSamplingAlwaysAccept() throws ParsingException {
-        Mockito.doReturn(0.0).when(_random).nextDouble();
         assertRecordEquality(
                 new DefaultRecord.Builder()
                         .setTime(_now)
@@ -156,7 +216,6 @@ public final class StatsdToRecordParserTest {
 
     @Test
     public void testSamplingAlwaysReject() throws ParsingException {
-        Mockito.doReturn(0.0).when(_random).nextDouble();
         Assert.assertTrue(_parser.parse(ByteBuffer.wrap("song.length:240|h|@0".getBytes(Charsets.UTF_8))).isEmpty());
     }
 
@@ -190,8 +249,7 @@ public final class StatsdToRecordParserTest {
     }
 
     @Test
-    public void testExampleTagsSampledAccept() throws ParsingException {
-        Mockito.doReturn(0.49).when(_random).nextDouble();
+    public void testExampleTagsSampledWeight() throws ParsingException {
         assertRecordEquality(
                 new DefaultRecord.Builder()
                         .setTime(_now)
@@ -206,6 +264,7 @@ public final class StatsdToRecordParserTest {
                                         .setValues(ImmutableList.of(
                                                 new DefaultQuantity.Builder()
                                                         .setValue(1.0)
+                                                        .setWeight(2L)
                                                         .build()))
                                         .build()
                         ))
@@ -216,14 +275,15 @@ public final class StatsdToRecordParserTest {
 
     @Test(expected = ParsingException.class)
     public void testExampleTagsInvalid() throws ParsingException {
-        Mockito.doReturn(0.50).when(_random).nextDouble();
         _parser.parse(ByteBuffer.wrap("users.online:1|c|@0.5|#country:china,anotherTag".getBytes(Charsets.UTF_8)));
     }
 
     @Test
-    public void testExampleTagsSampledReject() throws ParsingException {
-        Mockito.doReturn(0.51).when(_random).nextDouble();
-        Assert.assertTrue(_parser.parse(ByteBuffer.wrap("users.online:1|c|@0.5|#country:china".getBytes(Charsets.UTF_8))).isEmpty());
+    public void testExampleTagsSampledMaximumWeight() throws ParsingException {
+        final Quantity quantity = Iterables.getOnlyElement(Iterables.getOnlyElement(
+                _parser.parse(ByteBuffer.wrap("users.online:1|c|@0.0000000001|#country:china".getBytes(Charsets.UTF_8))))
+                .getMetrics().get("users.online").getValues());
+        Assert.assertEquals(Integer.MAX_VALUE, quantity.getWeight());
     }
 
     @Test
@@ -253,17 +313,157 @@ public final class StatsdToRecordParserTest {
 
     @Test(expected = ParsingException.class)
     public void testInfluxStyleTagFormatInvalid() throws ParsingException {
-        Mockito.doReturn(0.52).when(_random).nextDouble();
         _parser.parse(ByteBuffer.wrap("users.online,service=statsd,tag2:1|c".getBytes(Charsets.UTF_8)));
 
     }
 
     @Test(expected = ParsingException.class)
     public void testInfluxStyleTagFormatInvalid2() throws ParsingException {
-        Mockito.doReturn(0.53).when(_random).nextDouble();
         _parser.parse(ByteBuffer.wrap("users.online,:,service=statsd|c".getBytes(Charsets.UTF_8)));
     }
 
+    @Test
+    public void testMatchesRegexParser() {
+        // The reference parser keeps every sampled line at this draw
+        Mockito.doReturn(0.0).when(_random).nextDouble();
+        final Parser<List<Record>, ByteBuffer> regexParser =
+                new RegexStatsdToRecordParser(
+                        Clock.fixed(
+                                _now.toInstant(),
+                                ZoneId.of("UTC")),
+                        () -> _random);
+        for (final String datagram : GRAMMAR_DATAGRAMS) {
+            final List<Record> expected = parseOrNull(regexParser, datagram);
+            final List<Record> actual = parseOrNull(_parser, datagram);
+            if (expected == null) {
+                Assert.assertNull(datagram, actual);
+            } else {
+                Assert.assertNotNull(datagram, actual);
+                Assert.assertEquals(datagram, samplesOf(expected), samplesOf(actual));
+            }
+        }
+    }
+
+    @Test
+    public void testGroupsLinesByTags() throws ParsingException {
+        final List<Record> records = _parser.parse(ByteBuffer.wrap(
+                "a:1|c\nb:2|g|#t:v\na:3|c\nb:4|g|#t:v\na:5|g\nc:6|ms".getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(3, records.size());
+
+        Assert.assertEquals(ImmutableMap.of(), records.get(0).getDimensions());
+        Assert.assertEquals(ImmutableList.of("a", "c"), ImmutableList.copyOf(records.get(0).getMetrics().keySet()));
+        Assert.assertEquals(MetricType.COUNTER, records.get(0).getMetrics().get("a").getType());
+        Assert.assertEquals(
+                ImmutableList.of(
+                        new DefaultQuantity.Builder().setValue(1.0).build(),
+                        new DefaultQuantity.Builder().setValue(3.0).build()),
+                records.get(0).getMetrics().get("a").getValues());
+        Assert.assertEquals(MetricType.TIMER, records.get(0).getMetrics().get("c").getType());
+
+        Assert.assertEquals(ImmutableMap.of("t", "v"), records.get(1).getDimensions());
+        Assert.assertEquals(
+                ImmutableList.of(
+                        new DefaultQuantity.Builder().setValue(2.0).build(),
+                        new DefaultQuantity.Builder().setValue(4.0).build()),
+                records.get(1).getMetrics().get("b").getValues());
+
+        // The gauge named like the counter in the same tags starts another record
+        Assert.assertEquals(ImmutableMap.of(), records.get(2).getDimensions());
+        Assert.assertEquals(MetricType.GAUGE, records.get(2).getMetrics().get("a").getType());
+        Assert.assertEquals(
+                ImmutableList.of(new DefaultQuantity.Builder().setValue(5.0).build()),
+                records.get(2).getMetrics().get("a").getValues());
+    }
+
+    @Test
+    public void testCombinesRepeatedValues() throws ParsingException {
+        final Record record = Iterables.getOnlyElement(_parser.parse(ByteBuffer.wrap(
+                "hits:1|c\nhits:1|c|@0.5\nhits:2|c\nhits:2|c\nhits:1|c".getBytes(Charsets.UTF_8))));
+        Assert.assertEquals(
+                ImmutableList.of(
+                        new DefaultQuantity.Builder().setValue(1.0).setWeight(4L).build(),
+                        new DefaultQuantity.Builder().setValue(2.0).setWeight(2L).build()),
+                record.getMetrics().get("hits").getValues());
+    }
+
+    @Test
+    public void testCombinesManyRepeatedValues() throws ParsingException {
+        final StringBuilder datagram = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            datagram.append("hits:").append(i % 20).append("|c\n");
+        }
+        final List<Quantity> values = Iterables.getOnlyElement(_parser.parse(ByteBuffer.wrap(
+                datagram.toString().getBytes(Charsets.UTF_8))))
+                .getMetrics().get("hits").getValues();
+        Assert.assertEquals(20, values.size());
+        for (int i = 0; i < 20; ++i) {
+            Assert.assertEquals(i, values.get(i).getValue(), 0.0);
+            Assert.assertEquals(5, values.get(i).getWeight());
+        }
+    }
+
+    @Test
+    public void testBufferRemaining() throws ParsingException {
+        final byte[] bytes = "xxpage.views:1|cxx".getBytes(Charsets.UTF_8);
+        final ByteBuffer slice = ByteBuffer.wrap(bytes, 1, 16).slice();
+        slice.position(1);
+        slice.limit(15);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.position(2);
+        direct.limit(16);
+        for (final ByteBuffer datagram : ImmutableList.of(slice, direct)) {
+            final Record record = Iterables.getOnlyElement(_parser.parse(datagram));
+            Assert.assertEquals(ImmutableList.of("page.views"), ImmutableList.copyOf(record.getMetrics().keySet()));
+        }
+    }
+
+    // The samples of the records as dimensions, name, type and value; the
+    // reference parser does not weight samples so the weights are ignored
+    private void assertTotalWeight(final String datagram, final double sampleRate) throws ParsingException {
+        final Random random = new Random(SEED);
+        final Parser<List<Record>, ByteBuffer> parser =
+                new StatsdToRecordParser(Clock.fixed(_now.toInstant(), ZoneId.of("UTC")), () -> random);
+        long totalWeight = 0;
+        for (int i = 0; i < SAMPLED_DATAGRAMS; ++i) {
+            final Record record = Iterables.getOnlyElement(parser.parse(ByteBuffer.wrap(
+                    datagram.getBytes(Charsets.UTF_8))));
+            for (final Metric metric : record.getMetrics().values()) {
+                for (final Quantity quantity : metric.getValues()) {
+                    totalWeight += quantity.getWeight();
+                }
+            }
+        }
+        final double expectedWeight = SAMPLED_DATAGRAMS / sampleRate;
+        Assert.assertEquals(datagram, expectedWeight, totalWeight, expectedWeight * 0.005);
+    }
+
+    private static ImmutableMultiset<ImmutableList<Object>> samplesOf(final List<Record> records) {
+        final ImmutableMultiset.Builder<ImmutableList<Object>> samples = ImmutableMultiset.builder();
+        for (final Record record : records) {
+            for (final Map.Entry<String, ? extends Metric> metric : record.getMetrics().entrySet()) {
+                for (final Quantity quantity : metric.getValue().getValues()) {
+                    samples.add(ImmutableList.of(
+                            record.getDimensions(),
+                            metric.getKey(),
+                            metric.getValue().getType(),
+                            quantity.getValue(),
+                            quantity.getUnit()));
+                }
+            }
+        }
+        return samples.build();
+    }
+
+    @Nullable
+    private static List<Record> parseOrNull(final Parser<List<Record>, ByteBuffer> parser, final String datagram) {
+        try {
+            return parser.parse(ByteBuffer.wrap(datagram.getBytes(Charsets.UTF_8)));
+        } catch (final ParsingException e) {
+            return null;
+        }
+    }
+
     private void assertRecordEquality(final Record expected, final Record actual) {
         Assert.assertEquals(expected.getTime(), actual.getTime());
         Assert.assertEquals(expected.getAnnotations(), actual.getAnnotations());
@@ -274,6 +474,78 @@ public final class StatsdToRecordParserTest {
     @Mock
     private Random _random;
 
+    private static final int SAMPLED_DATAGRAMS = 100000;
+    private static final long SEED = 7L;
+
+    private static final ImmutableList<String> GRAMMAR_DATAGRAMS = ImmutableList.of(
+            "page.views:1|c",
+            "fuel.level:0.5|g",
+            "song.length:240|h|@0.5",
+            "song.length:240|h|@1",
+            "song.length:240|h|@0.6",
+            "meter:1|m",
+            "timer:-3.25|ms",
+            "value:1,000|g",
+            "value:1abc|g",
+            "value:1E3|g",
+            "value:.5|g",
+            "value:1.|g",
+            "value:-0|g",
+            "value:007|g",
+            "value:+1|g",
+            "value:x|g",
+            "value:b:c|g",
+            "value:123456789012345678|g",
+            "value:0.1234567890123456|g",
+            "value:0.1|g",
+            "set:1|s",
+            "type:1|c\r",
+            "type:1|cc",
+            "type:1|",
+            "type:1|c|",
+            "type:1|c|x",
+            "rate:1|g|@0.5",
+            "rate:1|c|@",
+            "rate:1|c|@|#t:v",
+            "rate:1|c|@2",
+            "rate:1|c|@-0",
+            "rate:1|c|@NaN",
+            "rate:1|c|@ 0.7",
+            "rate:1|c|@0.5x",
+            "rate:1|c|@0.7|x",
+            "tags:1|c|@0.7|#t:v",
+            "tags:1|c|#t:v,u:w",
+            "tags:1|c|#t:v,t:w",
+            "tags:1|c|#t:v|@0.5",
+            "tags:1|c|#t:v\r",
+            "tags:1|c|#t:v\u2028",
+            "tags:1|c|#t:v\u0085",
+            "tags:1|c|#",
+            "tags:1|c|#t",
+            "tags:1|c|#t:v,",
+            "tags:1|c|#:v",
+            "tags:1|c|#t:",
+            "tags:1|c|#t:v:w",
+            "influx,t=v:1|c",
+            "influx,t=v,u=w:1|c",
+            "influx,t=v:1|c|#u:w",
+            "influx,t=v:1|c|#t:w",
+            "influx,t=v,t=w:1|c",
+            "influx,=:1|c",
+            "influx,t=v|1|c",
+            "influx,:1|c",
+            ":1|c",
+            "name|1|c",
+            "name@1|c",
+            "name",
+            "name:|c",
+            "name:1",
+            "first:1|c\nsecond:2|g",
+            "\n\nfirst:1|c\n",
+            "first:1|c\nbad",
+            "first:1|c\nsecond:1|c|@0.7",
+            "\u00e4:1|c|#\u00fc:\u00f6");
+
     private final ZonedDateTime _now = ZonedDateTime.now(ZoneOffset.UTC);
     private final Parser<List<Record>, ByteBuffer> _parser =
             new StatsdToRecordParser(
@@ -19,8 +19,10 @@ import com.arpnetworking.commons.builder.OvalBuilder;
 import com.arpnetworking.configuration.jackson.JsonNodeLiteralSource;
 import com.arpnetworking.configuration.jackson.StaticConfiguration;
 import com.arpnetworking.metrics.generator.util.TestFileGenerator;
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
 import com.arpnetworking.metrics.mad.Pipeline;
 import com.arpnetworking.metrics.mad.configuration.PipelineConfiguration;
+import com.arpnetworking.test.CollectorPeriodicMetrics;
 import com.arpnetworking.tsdcore.sinks.Sink;
 import com.google.common.base.Charsets;
 import com.google.common.base.Stopwatch;
@@ -28,6 +30,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Resources;
+import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import org.slf4j.Logger;
@@ -141,7 +144,12 @@ public class FilePerfTestBase {
         }
     }
 
-    private final Injector _injector = Guice.createInjector();
+    private final Injector _injector = Guice.createInjector(new AbstractModule() {
+        @Override
+        protected void configure() {
+            bind(PeriodicMetrics.class).toInstance(new CollectorPeriodicMetrics());
+        }
+    });
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FilePerfTestBase.class);
 }
@@ -18,6 +18,7 @@ package com.arpnetworking.tsdcore.model;
 import akka.util.ByteString;
 import com.arpnetworking.metrics.aggregation.protocol.Messages;
 import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.UnknownFieldSet;
 import org.junit.Assert;
 import org.junit.Test;
@@ -58,6 +59,21 @@ public class AggregationMessageTest {
         }
     }
 
+    @Test
+    public void testSparseHistogramLongCount() throws InvalidProtocolBufferException {
+        // The sinks write the long counts of histogram buckets without truncation
+        final long count = Integer.MAX_VALUE + 1L;
+        final Messages.SparseHistogramSupportingData.Builder builder = Messages.SparseHistogramSupportingData.newBuilder();
+        builder.setUnit("");
+        builder.addEntriesBuilder()
+                .setBucket(1.0)
+                .setCount(count)
+                .build();
+        final Messages.SparseHistogramSupportingData supportingData =
+                Messages.SparseHistogramSupportingData.parseFrom(builder.build().toByteArray());
+        Assert.assertEquals(count, supportingData.getEntries(0).getCount());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testToBufferSerializedUnsupportedMessage() {
         final GeneratedMessageV3 mockMessage = Mockito.mock(GeneratedMessageV3.class);
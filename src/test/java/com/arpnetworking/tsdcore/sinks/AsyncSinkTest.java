@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.sinks;
+
+import com.arpnetworking.test.CollectorPeriodicMetrics;
+import com.arpnetworking.test.TestBeanFactory;
+import com.arpnetworking.tsdcore.model.PeriodicData;
+import com.arpnetworking.utility.OverloadPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the <code>AsyncSink</code> class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class AsyncSinkTest {
+
+    @Test
+    public void testRecordAggregateData() {
+        final Sink mockSink = Mockito.mock(Sink.class);
+        final Sink asyncSink = new AsyncSink.Builder()
+                .setName("async_sink_test")
+                .setSink(mockSink)
+                .build();
+        final PeriodicData periodicData = TestBeanFactory.createPeriodicDataBuilder().build();
+        asyncSink.recordAggregateData(periodicData);
+        Mockito.verify(mockSink, Mockito.timeout(1000)).recordAggregateData(periodicData);
+        asyncSink.close();
+    }
+
+    @Test
+    public void testPolledMetricsUntilClosed() {
+        final CollectorPeriodicMetrics periodicMetrics = new CollectorPeriodicMetrics();
+        final Sink asyncSink = new AsyncSink.Builder()
+                .setName("async_sink_test")
+                .setSink(Mockito.mock(Sink.class))
+                .setPeriodicMetrics(periodicMetrics)
+                .build();
+        periodicMetrics.run();
+        Assert.assertEquals(
+                Collections.singletonList(0L),
+                periodicMetrics.getCounters("sinks/async/async_sink_test/dropped"));
+
+        // A closed sink, for example one replaced on reconfiguration, is no longer sampled
+        asyncSink.close();
+        periodicMetrics.run();
+        Assert.assertEquals(
+                Collections.singletonList(0L),
+                periodicMetrics.getCounters("sinks/async/async_sink_test/dropped"));
+    }
+
+    @Test
+    public void testDoesNotBlockOnSink() throws InterruptedException {
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        final Sink mockSink = Mockito.mock(Sink.class);
+        Mockito.doAnswer(invocation -> {
+            releaseLatch.await();
+            return null;
+        }).when(mockSink).recordAggregateData(Mockito.any());
+        final Sink asyncSink = new AsyncSink.Builder()
+                .setName("async_sink_test")
+                .setSink(mockSink)
+                .setQueueCapacity(10)
+                .build();
+
+        // The caller returns while the wrapped sink is blocked
+        for (int i = 0; i < 5; ++i) {
+            asyncSink.recordAggregateData(TestBeanFactory.createPeriodicDataBuilder().build());
+        }
+        Assert.assertTrue(releaseLatch.getCount() > 0);
+
+        releaseLatch.countDown();
+        asyncSink.close();
+        Mockito.verify(mockSink, Mockito.times(5)).recordAggregateData(Mockito.any());
+        Mockito.verify(mockSink).close();
+    }
+
+    @Test
+    public void testDropNewestWhenFull() throws InterruptedException {
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        final Sink mockSink = Mockito.mock(Sink.class);
+        Mockito.doAnswer(invocation -> {
+            startedLatch.countDown();
+            releaseLatch.await();
+            return null;
+        }).when(mockSink).recordAggregateData(Mockito.any());
+        final Sink asyncSink = new AsyncSink.Builder()
+                .setName("async_sink_test")
+                .setSink(mockSink)
+                .setQueueCapacity(2)
+                .setOverloadPolicy(OverloadPolicy.DROP_NEWEST)
+                .build();
+
+        // The first data is taken by the blocked dispatch thread and the
+        // next two fill the queue; the remainder are dropped
+        asyncSink.recordAggregateData(TestBeanFactory.createPeriodicDataBuilder().build());
+        Assert.assertTrue(startedLatch.await(1, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; ++i) {
+            asyncSink.recordAggregateData(TestBeanFactory.createPeriodicDataBuilder().build());
+        }
+
+        releaseLatch.countDown();
+        asyncSink.close();
+        Mockito.verify(mockSink, Mockito.times(3)).recordAggregateData(Mockito.any());
+    }
+
+    @Test
+    public void testCloseDispatchesQueuedData() {
+        final Sink mockSink = Mockito.mock(Sink.class);
+        final Sink asyncSink = new AsyncSink.Builder()
+                .setName("async_sink_test")
+                .setSink(mockSink)
+                .setThreads(2)
+                .build();
+        for (int i = 0; i < 100; ++i) {
+            asyncSink.recordAggregateData(TestBeanFactory.createPeriodicDataBuilder().build());
+        }
+        asyncSink.close();
+        Mockito.verify(mockSink, Mockito.times(100)).recordAggregateData(Mockito.any());
+        Mockito.verify(mockSink).close();
+
+        // Data recorded after close is discarded
+        asyncSink.recordAggregateData(TestBeanFactory.createPeriodicDataBuilder().build());
+        Mockito.verify(mockSink, Mockito.after(200).times(100))
+                .recordAggregateData(Mockito.any());
+    }
+}
@@ -20,10 +20,13 @@ import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.PeriodicData;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Lists;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.util.concurrent.CountDownLatch;
+
 /**
  * Tests for the <code>MultiSink</code> class.
  *
@@ -68,5 +71,50 @@ public class MultiSinkTest {
         Mockito.verify(mockSinkB).recordAggregateData(periodicData);
     }
 
+    @Test
+    public void testAddAndRemoveSink() {
+        final Sink mockSinkA = Mockito.mock(Sink.class, "mockSinkA");
+        final Sink mockSinkB = Mockito.mock(Sink.class, "mockSinkB");
+        final MultiSink multiSink = _multiSinkBuilder
+                .setSinks(Lists.newArrayList(mockSinkA))
+                .build();
+        multiSink.addSink(mockSinkB);
+        Assert.assertTrue(multiSink.removeSink(mockSinkA));
+        Assert.assertFalse(multiSink.removeSink(mockSinkA));
+        Mockito.verify(mockSinkA).close();
+
+        final PeriodicData periodicData = TestBeanFactory.createPeriodicDataBuilder().build();
+        multiSink.recordAggregateData(periodicData);
+        Mockito.verify(mockSinkA, Mockito.never()).recordAggregateData(periodicData);
+        Mockito.verify(mockSinkB).recordAggregateData(periodicData);
+    }
+
+    @Test
+    public void testParallelIsolatesSinks() throws InterruptedException {
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        final Sink blockedSink = Mockito.mock(Sink.class, "blockedSink");
+        Mockito.doAnswer(invocation -> {
+            releaseLatch.await();
+            return null;
+        }).when(blockedSink).recordAggregateData(Mockito.any());
+        final Sink mockSink = Mockito.mock(Sink.class, "mockSink");
+        final Sink multiSink = _multiSinkBuilder
+                .setSinks(Lists.newArrayList(blockedSink, mockSink))
+                .setParallel(true)
+                .build();
+        final PeriodicData periodicData = TestBeanFactory.createPeriodicDataBuilder().build();
+        multiSink.recordAggregateData(periodicData);
+
+        // The blocked sink delays neither the caller nor the other sink
+        Mockito.verify(mockSink, Mockito.timeout(1000)).recordAggregateData(periodicData);
+        Assert.assertTrue(releaseLatch.getCount() > 0);
+
+        releaseLatch.countDown();
+        multiSink.close();
+        Mockito.verify(blockedSink).recordAggregateData(periodicData);
+        Mockito.verify(blockedSink).close();
+        Mockito.verify(mockSink).close();
+    }
+
     private MultiSink.Builder _multiSinkBuilder;
 }
@@ -21,6 +21,7 @@ import com.google.common.collect.Iterables;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import java.util.Collections;
 
@@ -66,6 +67,34 @@ public class CountStatisticTest {
         Assert.assertEquals(calculated.getValue(), new DefaultQuantity.Builder().setValue(3.0).build());
     }
 
+    @Test
+    public void testAccumulatorWeighted() {
+        final Accumulator<Void> accumulator = (Accumulator<Void>) COUNT_STATISTIC.createCalculator();
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(12d).setWeight(4L).build());
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(18d).build());
+        final CalculatedValue<?> calculated = accumulator.calculate(Collections.emptyMap());
+        Assert.assertEquals(calculated.getValue(), new DefaultQuantity.Builder().setValue(5.0).build());
+    }
+
+    @Test
+    public void testAccumulatorReset() {
+        final Accumulator<Void> accumulator = (Accumulator<Void>) COUNT_STATISTIC.createCalculator();
+        Assert.assertTrue(accumulator.isResettable());
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(12d).build());
+        accumulator.reset();
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(18d).build());
+        final CalculatedValue<?> calculated = accumulator.calculate(Collections.emptyMap());
+        Assert.assertEquals(calculated.getValue(), new DefaultQuantity.Builder().setValue(1.0).build());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAccumulatorResetNotSupported() {
+        @SuppressWarnings("unchecked")
+        final Accumulator<Void> accumulator = Mockito.mock(Accumulator.class, Mockito.CALLS_REAL_METHODS);
+        Assert.assertFalse(accumulator.isResettable());
+        accumulator.reset();
+    }
+
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
     private static final CountStatistic COUNT_STATISTIC = (CountStatistic) STATISTIC_FACTORY.getStatistic("count");
 }
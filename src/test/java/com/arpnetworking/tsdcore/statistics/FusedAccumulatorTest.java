@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.metrics.mad.model.DefaultQuantity;
+import com.arpnetworking.metrics.mad.model.Quantity;
+import com.arpnetworking.metrics.mad.model.Unit;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the FusedAccumulator class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class FusedAccumulatorTest {
+
+    @Test
+    public void testIsFused() {
+        Assert.assertTrue(FusedAccumulator.isFused(STATISTIC_FACTORY.getStatistic("count")));
+        Assert.assertTrue(FusedAccumulator.isFused(STATISTIC_FACTORY.getStatistic("sum")));
+        Assert.assertTrue(FusedAccumulator.isFused(STATISTIC_FACTORY.getStatistic("min")));
+        Assert.assertTrue(FusedAccumulator.isFused(STATISTIC_FACTORY.getStatistic("max")));
+        Assert.assertFalse(FusedAccumulator.isFused(STATISTIC_FACTORY.getStatistic("mean")));
+        Assert.assertFalse(FusedAccumulator.isFused(STATISTIC_FACTORY.getStatistic("tp99")));
+    }
+
+    @Test
+    public void testAccumulate() {
+        final FusedAccumulator accumulator = new FusedAccumulator();
+        accumulator.accumulate(ImmutableList.of(quantity(12d), quantity(18d)));
+        accumulator.accumulate(ImmutableList.of(quantity(5d)));
+
+        Assert.assertEquals(3, accumulator.getCount());
+        Assert.assertEquals(
+                new DefaultQuantity.Builder().setValue(3.0).build(),
+                accumulator.calculate(STATISTIC_FACTORY.getStatistic("count")).getValue());
+        Assert.assertEquals(
+                quantity(35d),
+                accumulator.calculate(STATISTIC_FACTORY.getStatistic("sum")).getValue());
+        Assert.assertEquals(
+                quantity(5d),
+                accumulator.calculate(STATISTIC_FACTORY.getStatistic("min")).getValue());
+        Assert.assertEquals(
+                quantity(18d),
+                accumulator.calculate(STATISTIC_FACTORY.getStatistic("max")).getValue());
+    }
+
+    @Test
+    public void testAccumulateWeighted() {
+        final FusedAccumulator accumulator = new FusedAccumulator();
+        accumulator.accumulate(ImmutableList.of(
+                new DefaultQuantity.Builder().setValue(12d).setWeight(3L).build(),
+                quantity(18d)));
+
+        Assert.assertEquals(4, accumulator.getCount());
+        Assert.assertEquals(
+                quantity(54d),
+                accumulator.calculate(STATISTIC_FACTORY.getStatistic("sum")).getValue());
+        Assert.assertEquals(
+                quantity(12d),
+                accumulator.calculate(STATISTIC_FACTORY.getStatistic("min")).getValue());
+    }
+
+    @Test
+    public void testMerge() {
+        final FusedAccumulator accumulator = new FusedAccumulator();
+        accumulator.accumulate(ImmutableList.of(quantity(12d), quantity(18d)));
+        final FusedAccumulator other = new FusedAccumulator();
+        other.accumulate(ImmutableList.of(quantity(5d)));
+        accumulator.merge(other);
+        accumulator.merge(new FusedAccumulator());
+
+        Assert.assertEquals(3, accumulator.getCount());
+        Assert.assertEquals(
+                quantity(35d),
+                accumulator.calculate(STATISTIC_FACTORY.getStatistic("sum")).getValue());
+        Assert.assertEquals(
+                quantity(5d),
+                accumulator.calculate(STATISTIC_FACTORY.getStatistic("min")).getValue());
+        Assert.assertEquals(
+                quantity(18d),
+                accumulator.calculate(STATISTIC_FACTORY.getStatistic("max")).getValue());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMismatchedUnits() {
+        final FusedAccumulator accumulator = new FusedAccumulator();
+        accumulator.accumulate(ImmutableList.of(quantity(12d)));
+        accumulator.accumulate(ImmutableList.of(new DefaultQuantity.Builder().setValue(1d).setUnit(Unit.BYTE).build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCalculateUnfusedStatistic() {
+        new FusedAccumulator().calculate(STATISTIC_FACTORY.getStatistic("mean"));
+    }
+
+    private static Quantity quantity(final double value) {
+        return new DefaultQuantity.Builder().setValue(value).setUnit(Unit.SECOND).build();
+    }
+
+    private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
+}
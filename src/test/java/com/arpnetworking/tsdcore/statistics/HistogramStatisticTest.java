@@ -40,11 +40,23 @@ public class HistogramStatisticTest {
         final CalculatedValue<HistogramStatistic.HistogramSupportingData> value = accumulator.calculate(Collections.emptyMap());
         final HistogramStatistic.HistogramSupportingData supportingData = value.getData();
         final HistogramStatistic.HistogramSnapshot histogram = supportingData.getHistogramSnapshot();
-        for (final Map.Entry<Double, Integer> entry : histogram.getValues()) {
-            Assert.assertEquals(entry.getValue(), (Integer) 1);
+        for (final Map.Entry<Double, Long> entry : histogram.getValues()) {
+            Assert.assertEquals(entry.getValue(), (Long) 1L);
         }
     }
 
+    @Test
+    public void histogramAccumulateWeightedQuantities() {
+        final Accumulator<HistogramStatistic.HistogramSupportingData> accumulator = HISTOGRAM_STATISTIC.createCalculator();
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(10d).setWeight(7L).build());
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(20d).build());
+
+        final HistogramStatistic.HistogramSnapshot histogram =
+                accumulator.calculate(Collections.emptyMap()).getData().getHistogramSnapshot();
+        Assert.assertEquals(8, histogram.getEntriesCount());
+        Assert.assertEquals(2, histogram.getValues().size());
+    }
+
     @Test
     public void histogramAccumulateHistogram() {
         final Accumulator<HistogramStatistic.HistogramSupportingData> merged = HISTOGRAM_STATISTIC.createCalculator();
@@ -59,8 +71,8 @@ public class HistogramStatisticTest {
         final CalculatedValue<HistogramStatistic.HistogramSupportingData> value = merged.calculate(Collections.emptyMap());
         final HistogramStatistic.HistogramSupportingData supportingData = value.getData();
         final HistogramStatistic.HistogramSnapshot histogram = supportingData.getHistogramSnapshot();
-        for (final Map.Entry<Double, Integer> entry : histogram.getValues()) {
-            Assert.assertEquals(entry.getValue(), (Integer) 1);
+        for (final Map.Entry<Double, Long> entry : histogram.getValues()) {
+            Assert.assertEquals(entry.getValue(), (Long) 1L);
         }
     }
 
@@ -90,14 +102,14 @@ public class HistogramStatisticTest {
         final CalculatedValue<HistogramStatistic.HistogramSupportingData> value = merged.calculate(Collections.emptyMap());
         final HistogramStatistic.HistogramSupportingData supportingData = value.getData();
         final HistogramStatistic.HistogramSnapshot histogram = supportingData.getHistogramSnapshot();
-        for (final Map.Entry<Double, Integer> entry : histogram.getValues()) {
+        for (final Map.Entry<Double, Long> entry : histogram.getValues()) {
             final int val = entry.getKey().intValue();
             if (val < 50) {
-                Assert.assertEquals("incorrect value for key " + val, (Integer) 1, entry.getValue());
+                Assert.assertEquals("incorrect value for key " + val, (Long) 1L, entry.getValue());
             } else if (val <= 100) {
-                Assert.assertEquals("incorrect value for key " + val, (Integer) 2, entry.getValue());
+                Assert.assertEquals("incorrect value for key " + val, (Long) 2L, entry.getValue());
             } else { // val > 100
-                Assert.assertEquals("incorrect value for key " + val, (Integer) 1, entry.getValue());
+                Assert.assertEquals("incorrect value for key " + val, (Long) 1L, entry.getValue());
             }
         }
 
@@ -131,6 +143,110 @@ public class HistogramStatisticTest {
         Assert.assertEquals(50d, histogram.getValueAtPercentile(100), 1d);
     }
 
+    @Test
+    public void histogramValuesAtPercentiles() {
+        final Accumulator<HistogramStatistic.HistogramSupportingData> accumulator = HISTOGRAM_STATISTIC.createCalculator();
+        for (int x = 1; x <= 100; ++x) {
+            accumulator.accumulate(new DefaultQuantity.Builder().setValue((double) x).build());
+        }
+
+        final HistogramStatistic.HistogramSnapshot histogram =
+                accumulator.calculate(Collections.emptyMap()).getData().getHistogramSnapshot();
+        final double[] percentiles = new double[]{0, 50, 90, 99.9, 100};
+        final double[] values = histogram.getValuesAtPercentiles(percentiles);
+        Assert.assertEquals(percentiles.length, values.length);
+        for (int i = 0; i < percentiles.length; ++i) {
+            Assert.assertEquals(histogram.getValueAtPercentile(percentiles[i]), values[i], 0.001);
+        }
+    }
+
+    @Test
+    public void histogramSnapshotShared() {
+        final HistogramStatistic.HistogramAccumulator accumulator =
+                (HistogramStatistic.HistogramAccumulator) HISTOGRAM_STATISTIC.createCalculator();
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(1d).build());
+
+        final HistogramStatistic.HistogramSnapshot snapshot = accumulator.getSnapshot();
+        Assert.assertSame(snapshot, accumulator.calculate(Collections.emptyMap()).getData().getHistogramSnapshot());
+        Assert.assertEquals(1d, accumulator.calculate(50, new double[]{50, 99}).getValue(), 0.001);
+        Assert.assertSame(snapshot, accumulator.getSnapshot());
+
+        // Accumulating invalidates the snapshot but does not modify it
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(3d).build());
+        Assert.assertNotSame(snapshot, accumulator.getSnapshot());
+        Assert.assertEquals(1, snapshot.getEntriesCount());
+        Assert.assertEquals(3d, accumulator.calculate(99, new double[]{50, 99}).getValue(), 0.01);
+    }
+
+    @Test
+    public void histogramPrecision() {
+        final HistogramStatistic.Histogram histogram = new HistogramStatistic.Histogram(2);
+        histogram.recordValue(1.0);
+        histogram.recordValue(1.2);
+        histogram.recordValue(1.3);
+        histogram.recordValue(-1.3);
+
+        final HistogramStatistic.HistogramSnapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(2, snapshot.getPrecision());
+        Assert.assertEquals(4L, snapshot.getEntriesCount());
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals(-1.25, snapshot.getBucket(0), 0.0);
+        Assert.assertEquals(1L, snapshot.getCount(0));
+        Assert.assertEquals(1.0, snapshot.getBucket(1), 0.0);
+        Assert.assertEquals(2L, snapshot.getCount(1));
+        Assert.assertEquals(1.25, snapshot.getBucket(2), 0.0);
+        Assert.assertEquals(1L, snapshot.getCount(2));
+    }
+
+    @Test
+    public void histogramDefaultPrecisionBuckets() {
+        final HistogramStatistic.Histogram histogram = new HistogramStatistic.Histogram();
+        final double value = 123.456;
+        histogram.recordValue(value);
+
+        final long mask = 0xffffe00000000000L;
+        Assert.assertEquals(
+                Double.longBitsToDouble(Double.doubleToRawLongBits(value) & mask),
+                histogram.getSnapshot().getBucket(0),
+                0.0);
+    }
+
+    @Test
+    public void histogramLongCounts() {
+        final HistogramStatistic.Histogram histogram = new HistogramStatistic.Histogram();
+        histogram.recordValue(1.0, Integer.MAX_VALUE);
+        histogram.recordValue(1.0, Integer.MAX_VALUE);
+
+        final HistogramStatistic.HistogramSnapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(2L * Integer.MAX_VALUE, snapshot.getCount(0));
+        Assert.assertEquals(2L * Integer.MAX_VALUE, snapshot.getEntriesCount());
+        Assert.assertEquals(1.0, snapshot.getValueAtPercentile(99.9), 0.0);
+    }
+
+    @Test
+    public void histogramLongCountsSorted() {
+        final HistogramStatistic.Histogram histogram = new HistogramStatistic.Histogram();
+        histogram.recordValue(2.0, Integer.MAX_VALUE + 2L);
+        histogram.recordValue(-1.0, 3L);
+        histogram.recordValue(1.0, Integer.MAX_VALUE + 1L);
+
+        // The counts stay with their buckets when the buckets are sorted
+        final HistogramStatistic.HistogramSnapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(3, snapshot.size());
+        Assert.assertEquals(-1.0, snapshot.getBucket(0), 0.0);
+        Assert.assertEquals(3L, snapshot.getCount(0));
+        Assert.assertEquals(1.0, snapshot.getBucket(1), 0.0);
+        Assert.assertEquals(Integer.MAX_VALUE + 1L, snapshot.getCount(1));
+        Assert.assertEquals(2.0, snapshot.getBucket(2), 0.0);
+        Assert.assertEquals(Integer.MAX_VALUE + 2L, snapshot.getCount(2));
+        Assert.assertEquals(2L * Integer.MAX_VALUE + 6L, snapshot.getEntriesCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void histogramInvalidPrecision() {
+        new HistogramStatistic.Histogram(53);
+    }
+
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
     private static final HistogramStatistic HISTOGRAM_STATISTIC = (HistogramStatistic) STATISTIC_FACTORY.getStatistic("histogram");
 }
@@ -56,6 +56,15 @@ public class MinStatisticTest {
         Assert.assertEquals(calculated.getValue(), new DefaultQuantity.Builder().setValue(5.0).build());
     }
 
+    @Test
+    public void testAccumulatorWeighted() {
+        final Accumulator<Void> accumulator = (Accumulator<Void>) MIN_STATISTIC.createCalculator();
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(12d).build());
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(5d).setWeight(3L).build());
+        final CalculatedValue<Void> calculated = accumulator.calculate(Collections.emptyMap());
+        Assert.assertEquals(calculated.getValue(), new DefaultQuantity.Builder().setValue(5.0).build());
+    }
+
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
     private static final MinStatistic MIN_STATISTIC = (MinStatistic) STATISTIC_FACTORY.getStatistic("min");
 }
@@ -58,6 +58,15 @@ public class SumStatisticTest {
         Assert.assertEquals(calculated.getValue(), new DefaultQuantity.Builder().setValue(35.0).build());
     }
 
+    @Test
+    public void testAccumulatorWeighted() {
+        final Accumulator<Void> accumulator = (Accumulator<Void>) SUM_STATISTIC.createCalculator();
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(12d).setWeight(3L).build());
+        accumulator.accumulate(new DefaultQuantity.Builder().setValue(5d).build());
+        final CalculatedValue<?> calculated = accumulator.calculate(Collections.emptyMap());
+        Assert.assertEquals(calculated.getValue(), new DefaultQuantity.Builder().setValue(41.0).build());
+    }
+
     private static final StatisticFactory STATISTIC_FACTORY = new StatisticFactory();
     private static final SumStatistic SUM_STATISTIC = (SumStatistic) STATISTIC_FACTORY.getStatistic("sum");
 }
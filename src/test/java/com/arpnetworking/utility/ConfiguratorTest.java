@@ -105,6 +105,46 @@ public class ConfiguratorTest {
         Assert.assertTrue(launchable.get().isRunning());
     }
 
+    @Test
+    public void testReconfigure() throws Exception {
+        final Configurator<TestReconfigurable, String> configurator =
+                new Configurator<>(TestReconfigurable::new, String.class);
+        configurator.offerConfiguration(new StaticConfiguration.Builder()
+                .addSource(new JsonNodeLiteralSource.Builder().setSource("\"foo\"").build())
+                .build());
+        configurator.applyConfiguration();
+
+        final Optional<TestReconfigurable> firstLaunchable = configurator.getLaunchable();
+        Assert.assertTrue(firstLaunchable.isPresent());
+
+        configurator.offerConfiguration(new StaticConfiguration.Builder()
+                .addSource(new JsonNodeLiteralSource.Builder().setSource("\"bar\"").build())
+                .build());
+        configurator.applyConfiguration();
+
+        final Optional<String> configuration = configurator.getConfiguration();
+        Assert.assertTrue(configuration.isPresent());
+        Assert.assertEquals("bar", configuration.get());
+
+        final Optional<TestReconfigurable> launchable = configurator.getLaunchable();
+        Assert.assertTrue(launchable.isPresent());
+        Assert.assertSame(firstLaunchable.get(), launchable.get());
+        Assert.assertEquals("bar", launchable.get().getValue());
+        Assert.assertTrue(launchable.get().isRunning());
+
+        // A configuration which cannot be applied in place replaces the launchable
+        configurator.offerConfiguration(new StaticConfiguration.Builder()
+                .addSource(new JsonNodeLiteralSource.Builder().setSource("\"\"").build())
+                .build());
+        configurator.applyConfiguration();
+
+        final Optional<TestReconfigurable> replacedLaunchable = configurator.getLaunchable();
+        Assert.assertTrue(replacedLaunchable.isPresent());
+        Assert.assertNotSame(firstLaunchable.get(), replacedLaunchable.get());
+        Assert.assertFalse(firstLaunchable.get().isRunning());
+        Assert.assertTrue(replacedLaunchable.get().isRunning());
+    }
+
     @Test
     public void testSecondOfferFailure() throws Exception {
         final Configurator<TestLaunchable, String> configurator = new Configurator<>(TestLaunchable::new, String.class);
@@ -167,4 +207,42 @@ public class ConfiguratorTest {
         private volatile boolean _isRunning;
         private final String _value;
     }
+
+    private static final class TestReconfigurable implements Launchable, Reconfigurable<String> {
+
+        private TestReconfigurable(final String value) {
+            _value = value;
+            _isRunning = false;
+        }
+
+        @Override
+        public synchronized void launch() {
+            _isRunning = true;
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            _isRunning = false;
+        }
+
+        @Override
+        public synchronized boolean reconfigure(final String configuration) {
+            if (configuration.isEmpty()) {
+                return false;
+            }
+            _value = configuration;
+            return true;
+        }
+
+        public boolean isRunning() {
+            return _isRunning;
+        }
+
+        public synchronized String getValue() {
+            return _value;
+        }
+
+        private volatile boolean _isRunning;
+        private String _value;
+    }
 }
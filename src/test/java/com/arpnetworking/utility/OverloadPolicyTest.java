@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Tests for the <code>OverloadPolicy</code> class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class OverloadPolicyTest {
+
+    @Test
+    public void testEnqueue() {
+        final BlockingQueue<String> dropNewestQueue = new ArrayBlockingQueue<>(2);
+        Assert.assertEquals(0, OverloadPolicy.DROP_NEWEST.enqueue(dropNewestQueue, "a"));
+        Assert.assertEquals(0, OverloadPolicy.DROP_NEWEST.enqueue(dropNewestQueue, "b"));
+        Assert.assertEquals(1, OverloadPolicy.DROP_NEWEST.enqueue(dropNewestQueue, "c"));
+        Assert.assertEquals(ImmutableList.of("a", "b"), ImmutableList.copyOf(dropNewestQueue));
+
+        final BlockingQueue<String> dropOldestQueue = new ArrayBlockingQueue<>(2);
+        Assert.assertEquals(0, OverloadPolicy.DROP_OLDEST.enqueue(dropOldestQueue, "a"));
+        Assert.assertEquals(0, OverloadPolicy.DROP_OLDEST.enqueue(dropOldestQueue, "b"));
+        Assert.assertEquals(1, OverloadPolicy.DROP_OLDEST.enqueue(dropOldestQueue, "c"));
+        Assert.assertEquals(ImmutableList.of("b", "c"), ImmutableList.copyOf(dropOldestQueue));
+
+        final BlockingQueue<String> blockQueue = new ArrayBlockingQueue<>(2);
+        Assert.assertEquals(0, OverloadPolicy.BLOCK.enqueue(blockQueue, "a"));
+        Assert.assertEquals(0, OverloadPolicy.BLOCK.enqueue(blockQueue, "b"));
+        Assert.assertEquals(ImmutableList.of("a", "b"), ImmutableList.copyOf(blockQueue));
+    }
+}
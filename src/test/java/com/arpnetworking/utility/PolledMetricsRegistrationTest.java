@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.metrics.incubator.PeriodicMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Tests for the <code>PolledMetricsRegistration</code> class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class PolledMetricsRegistrationTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUnregister() {
+        final PeriodicMetrics periodicMetrics = Mockito.mock(PeriodicMetrics.class);
+        final AtomicInteger component = new AtomicInteger(0);
+        final PolledMetricsRegistration<AtomicInteger> registration = PolledMetricsRegistration.register(
+                periodicMetrics,
+                component,
+                (c, m) -> m.recordGauge("samples", c.incrementAndGet()));
+        final ArgumentCaptor<Consumer<PeriodicMetrics>> callback = ArgumentCaptor.forClass(Consumer.class);
+        Mockito.verify(periodicMetrics).registerPolledMetric(callback.capture());
+        Assert.assertTrue(registration.isRegistered());
+
+        callback.getValue().accept(periodicMetrics);
+        Assert.assertEquals(1, component.get());
+        Mockito.verify(periodicMetrics).recordGauge("samples", 1);
+
+        registration.unregister();
+        Assert.assertFalse(registration.isRegistered());
+        callback.getValue().accept(periodicMetrics);
+        Assert.assertEquals(1, component.get());
+        Mockito.verify(periodicMetrics).recordGauge("samples", 1);
+    }
+}
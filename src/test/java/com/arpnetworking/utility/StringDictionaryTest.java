@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Dropbox.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the <code>StringDictionary</code> class.
+ *
+ * @author Joey Jackson (jjackson at dropbox dot com)
+ */
+public class StringDictionaryTest {
+
+    @Test
+    public void testIntern() {
+        final StringDictionary dictionary = new StringDictionary();
+        final String value = dictionary.intern(new String("foo"));
+        Assert.assertSame(value, dictionary.intern(new String("foo")));
+        Assert.assertNotSame(value, dictionary.intern(new String("bar")));
+    }
+
+    @Test
+    public void testInternMap() {
+        final StringDictionary dictionary = new StringDictionary();
+        final String key = dictionary.intern(new String("host"));
+        final String value = dictionary.intern(new String("MyHost"));
+        final ImmutableMap<String, String> canonical = ImmutableMap.of(key, value);
+        Assert.assertSame(canonical, dictionary.intern(canonical));
+
+        final ImmutableMap<String, String> map = dictionary.intern(
+                ImmutableMap.of(new String("host"), new String("MyHost")));
+        Assert.assertEquals(canonical, map);
+        Assert.assertSame(key, map.keySet().iterator().next());
+        Assert.assertSame(value, map.values().iterator().next());
+    }
+}